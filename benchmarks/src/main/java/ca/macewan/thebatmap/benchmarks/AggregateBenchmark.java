@@ -0,0 +1,50 @@
+package ca.macewan.thebatmap.benchmarks;
+
+import ca.macewan.thebatmap.utils.general.CalculatePixelValue;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing plus aggregation of each data set into the pixel grid
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class AggregateBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    private Path crimeFile;
+    private Path propertyFile;
+    private CalculatePixelValue pixels;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        crimeFile = BenchmarkData.writeCrimes(rows, 0.1);
+        propertyFile = BenchmarkData.writeProperties(rows);
+        pixels = new CalculatePixelValue();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pixels.close();
+    }
+
+    @Benchmark
+    public CalculatePixelValue loadCrimeData() throws IOException {
+        pixels.loadCrimeData(crimeFile);
+        return pixels;
+    }
+
+    @Benchmark
+    public CalculatePixelValue loadPropertyData() throws IOException {
+        pixels.loadPropertyData(propertyFile);
+        return pixels;
+    }
+}
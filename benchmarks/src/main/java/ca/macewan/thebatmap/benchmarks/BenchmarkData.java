@@ -0,0 +1,89 @@
+package ca.macewan.thebatmap.benchmarks;
+
+import ca.macewan.thebatmap.utils.general.CoordinateToPixel;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Writes synthetic crime and property CSVs in the formats ParseCrime and ParseProperties expect
+ */
+final class BenchmarkData {
+    /** Occurrence group matched by the filtered benchmarks */
+    static final String SELECTED_GROUP = "Selected";
+
+    private static final double RADIUS = 6378137.0;
+    private static final String[] CATEGORIES = {"Violent", "Property", "Disorder", "Traffic"};
+    private static final String[] GROUPS = {"Personal Violence", "Property", "General Disorder", "Traffic"};
+    private static final String[] TYPES = {"Assault", "Theft From Vehicle", "Break and Enter", "Mischief", "Robbery"};
+    private static final String[] CLASSES = {"RESIDENTIAL", "COMMERCIAL", "OTHER RESIDENTIAL", "FARMLAND"};
+
+    private BenchmarkData() {}
+
+    /**
+     * @param rows Number of crimes
+     * @param selectivity Fraction of crimes in the SELECTED_GROUP occurrence group
+     */
+    static Path writeCrimes(int rows, double selectivity) throws IOException {
+        Path file = Files.createTempFile("bench-crime-", ".csv");
+        file.toFile().deleteOnExit();
+        Random random = new Random(42);
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("Occurrence_Category,Occurrence_Group,Occurrence_Type_Group,Intersection,OBJECTID,Date Reported,x,y");
+            writer.newLine();
+            for (int i = 0; i < rows; i++) {
+                String group = random.nextDouble() < selectivity ? SELECTED_GROUP : GROUPS[random.nextInt(GROUPS.length)];
+                double lat = randomLatitude(random);
+                double lon = randomLongitude(random);
+                double x = RADIUS * Math.toRadians(lon);
+                double y = RADIUS * Math.log(Math.tan(Math.PI / 4.0 + Math.toRadians(lat) / 2.0));
+
+                writer.write(CATEGORIES[random.nextInt(CATEGORIES.length)] + "," + group + "," +
+                        TYPES[random.nextInt(TYPES.length)] + ",Jasper Ave & 101 St," + (i + 1) + "," +
+                        String.format("2024/%02d/%02d", 1 + random.nextInt(12), 1 + random.nextInt(28)) + "," + x + "," + y);
+                writer.newLine();
+            }
+        }
+        return file;
+    }
+
+    /**
+     * @param rows Number of properties
+     */
+    static Path writeProperties(int rows) throws IOException {
+        Path file = Files.createTempFile("bench-property-", ".csv");
+        file.toFile().deleteOnExit();
+        Random random = new Random(7);
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("Account Number,House Number,Street Name,Neighbourhood,Ward,Latitude,Longitude,Assessed Value," +
+                    "Assessment Class % 1,Assessment Class % 2,Assessment Class % 3," +
+                    "Assessment Class 1,Assessment Class 2,Assessment Class 3");
+            writer.newLine();
+            for (int i = 0; i < rows; i++) {
+                writer.write((1000000 + i) + "," + (100 + random.nextInt(9000)) + ",JASPER AVENUE NW," +
+                        "NEIGHBOURHOOD " + random.nextInt(400) + ",Ward " + (1 + random.nextInt(12)) + "," +
+                        randomLatitude(random) + "," + randomLongitude(random) + ",$" + (150000 + random.nextInt(1500000)) +
+                        ",100,,," + CLASSES[random.nextInt(CLASSES.length)] + ",,");
+                writer.newLine();
+            }
+        }
+        return file;
+    }
+
+    private static double randomLatitude(Random random) {
+        double top = CoordinateToPixel.getMapGrid().getTopLeftLat();
+        double bottom = CoordinateToPixel.getMapGrid().getBottomRightLat();
+        return bottom + random.nextDouble() * (top - bottom);
+    }
+
+    private static double randomLongitude(Random random) {
+        double left = CoordinateToPixel.getMapGrid().getTopLeftLon();
+        double right = CoordinateToPixel.getMapGrid().getBottomRightLon();
+        return left + random.nextDouble() * (right - left);
+    }
+}
@@ -0,0 +1,57 @@
+package ca.macewan.thebatmap.benchmarks;
+
+import ca.macewan.thebatmap.utils.models.CrimeData;
+import ca.macewan.thebatmap.utils.parsers.ParseCSV;
+import ca.macewan.thebatmap.utils.parsers.ParseCrime;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Raw CSV reading and crime record mapping
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class ParseBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    private Path crimeFile;
+    private Path compressedCrimeFile;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        crimeFile = BenchmarkData.writeCrimes(rows, 0.1);
+        compressedCrimeFile = Files.createTempFile("bench-crime-", ".csv.gz");
+        compressedCrimeFile.toFile().deleteOnExit();
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(compressedCrimeFile))) {
+            Files.copy(crimeFile, out);
+        }
+    }
+
+    @Benchmark
+    public List<Map<String, String>> readAsMaps() throws IOException {
+        return ParseCSV.readAsMaps(crimeFile);
+    }
+
+    @Benchmark
+    public List<Map<String, String>> readAsMapsGzip() throws IOException {
+        return ParseCSV.readAsMaps(compressedCrimeFile);
+    }
+
+    @Benchmark
+    public List<CrimeData> parseCrimeData() throws IOException {
+        return ParseCrime.parseCrimeData(crimeFile);
+    }
+}
@@ -0,0 +1,115 @@
+package ca.macewan.thebatmap.benchmarks;
+
+import ca.macewan.thebatmap.utils.general.CalculatePixelValue;
+import ca.macewan.thebatmap.utils.general.ColorMapper;
+import ca.macewan.thebatmap.utils.general.DrawOverlay;
+import ca.macewan.thebatmap.utils.general.OverlayRequest;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Layer scans, outlier bounds, color mapping and rasterization, without writing PNG files
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g", "--add-modules", "jdk.incubator.vector"})
+public class RenderBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    public int rows;
+
+    @Param({"0.01", "0.1", "0.5"})
+    public double selectivity;
+
+    private CalculatePixelValue pixels;
+    private DrawOverlay overlay;
+    private DrawOverlay cachingOverlay;
+    private OverlayRequest allCrimes;
+    private OverlayRequest filteredCrimes;
+    private OverlayRequest allProperties;
+    private Map<Integer, Double> layer;
+    private double[] values;
+    private int[] colors;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        pixels = new CalculatePixelValue();
+        pixels.loadCrimeData(BenchmarkData.writeCrimes(rows, selectivity));
+        pixels.loadPropertyData(BenchmarkData.writeProperties(rows));
+        // Without the layer cache every render scans the data set, which is what the render benchmarks measure
+        overlay = new DrawOverlay(pixels, 0);
+        cachingOverlay = new DrawOverlay(pixels);
+
+        allCrimes = new OverlayRequest("Crime", "None", "None", "None");
+        filteredCrimes = new OverlayRequest("Crime", "Group", BenchmarkData.SELECTED_GROUP, "None");
+        allProperties = new OverlayRequest("Property", "None", "None", "None");
+
+        // A layer with one value per pixel that holds crimes, for the isolated stages
+        Random random = new Random(3);
+        layer = new HashMap<>();
+        for (int cell : pixels.getCrimeCube().rollUp(null, null, null).cells()) {
+            layer.put(cell, (double) (1 + random.nextInt(60)));
+        }
+        values = layer.values().stream().mapToDouble(Double::doubleValue).toArray();
+        colors = new int[values.length];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        pixels.close();
+    }
+
+    @Benchmark
+    public void renderAllCrimes(Blackhole blackhole) {
+        overlay.render(allCrimes, image -> consume(image, blackhole));
+    }
+
+    @Benchmark
+    public void renderFilteredCrimes(Blackhole blackhole) {
+        overlay.render(filteredCrimes, image -> consume(image, blackhole));
+    }
+
+    @Benchmark
+    public void renderFilteredCrimesCached(Blackhole blackhole) {
+        cachingOverlay.render(filteredCrimes, image -> consume(image, blackhole));
+    }
+
+    @Benchmark
+    public void renderAllProperties(Blackhole blackhole) {
+        overlay.render(allProperties, image -> consume(image, blackhole));
+    }
+
+    @Benchmark
+    public void renderCorrelation(Blackhole blackhole) {
+        overlay.renderCorrelation(image -> consume(image, blackhole));
+    }
+
+    /**
+     * Consumes a rendered image while it is still leased, since the overlay reuses it once the consumer returns
+     */
+    private static Void consume(BufferedImage image, Blackhole blackhole) {
+        blackhole.consume(image);
+        return null;
+    }
+
+    @Benchmark
+    public List<Double> detectOutlier() {
+        return DrawOverlay.detectOutlier(layer);
+    }
+
+    @Benchmark
+    public int[] colorLayer() {
+        ColorMapper.mapHeat(values, values.length, 50.0, colors);
+        return colors;
+    }
+}
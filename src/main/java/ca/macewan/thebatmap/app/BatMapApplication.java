@@ -1,18 +1,42 @@
 package ca.macewan.thebatmap.app;
 
+import ca.macewan.thebatmap.utils.general.CalculatePixelValue;
+import ca.macewan.thebatmap.utils.general.DataDirectoryWatcher;
 import ca.macewan.thebatmap.utils.general.DrawOverlay;
+import ca.macewan.thebatmap.utils.general.FileUtils;
+import ca.macewan.thebatmap.utils.general.FilterIndex;
+import ca.macewan.thebatmap.utils.general.MetricsRegistry;
+import ca.macewan.thebatmap.utils.general.OverlayRequest;
+import ca.macewan.thebatmap.utils.general.Phase;
+import ca.macewan.thebatmap.utils.general.ProgressiveLoader;
+import ca.macewan.thebatmap.utils.general.ProgressiveRenderer;
+import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.fxml.FXMLLoader;
 import javafx.geometry.Insets;
+import javafx.geometry.Pos;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyCodeCombination;
 import javafx.scene.layout.*;
 import javafx.stage.Stage;
+import org.controlsfx.control.CheckComboBox;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 /**
  * Main class for the application UI and implementing logic for that UI
@@ -25,8 +49,14 @@ public class BatMapApplication {
     private static final String CITY_MAP_PATH = "/ca/macewan/thebatmap/assets/edmonton.png";
     private static final String VIEW_FILE_PATH = "/ca/macewan/thebatmap/views/MainView.fxml";
     private static final String CSS_FILE_PATH = "/ca/macewan/thebatmap/styles/MainStyle.css";
-    private static final DrawOverlay overlay = new DrawOverlay();
+    // System property naming a directory to watch for new exports (e.g. -Dthebatmap.watchDir=data)
+    private static final String WATCH_DIR_PROPERTY = "thebatmap.watchDir";
+    // Shown while the data loads, so the heat fills in as it arrives
+    private static final OverlayRequest DEFAULT_REQUEST = new OverlayRequest("Crime", "None", "None", "None");
+    // The data is loaded in the background once the window is shown
+    private static final DrawOverlay overlay = new DrawOverlay(new CalculatePixelValue());
     private static final LeftPanelUtils leftPanel = new LeftPanelUtils();
+    private static final PerformanceHud performanceHud = new PerformanceHud(overlay);
 
     // Application components
     private Stage stage;
@@ -34,10 +64,29 @@ public class BatMapApplication {
     private BorderPane root;
     private ImageView mapView;
     private StackPane mapViewParent;
+    private DataDirectoryWatcher dataWatcher;
+    private ProgressiveLoader loader;
+    private HBox loadingIndicator;
+    private final Label loadingLabel = new Label("Loading data...");
+
+    // Redraws the active overlay after partial data arrives, off the loader thread so loading is not held up;
+    // a redraw that is already queued picks up the latest data, so no more are queued behind it
+    private final ExecutorService redrawExecutor = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("overlay-redraw").daemon().factory());
+    private final AtomicBoolean redrawQueued = new AtomicBoolean();
+    // Draws overlays chosen in the control panel, a preview first
+    private final ProgressiveRenderer renderer = new ProgressiveRenderer(overlay,
+            ProgressiveRenderer.DEFAULT_COARSE_FACTOR);
+
+    // Draws the overlay currently shown, so it can be drawn again when the data is reloaded (null if none is shown)
+    private volatile Supplier<String> activeOverlay;
+    // Heat map shown or being drawn, redrawn when another bin shape is chosen (null if none; FX thread only)
+    private OverlayRequest shownRequest;
 
     private final ComboBox<String> categoryOrGroupComboBox = leftPanel.getCategoryOrGroupComboBox();
-    private final ComboBox<String> filterComboBox = leftPanel.getFilterComboBox();
+    private final CheckComboBox<String> filterComboBox = leftPanel.getFilterComboBox();
     private final ComboBox<String> assessmentComboBox = leftPanel.getAssessmentComboBox();
+    private final ComboBox<String> binComboBox = leftPanel.getBinComboBox();
     private final VBox legendPanel = leftPanel.createLegend();
 
     /**
@@ -65,6 +114,9 @@ public class BatMapApplication {
         scene = new Scene(root, WIN_WIDTH, WIN_HEIGHT);
         loadStylesheet();
 
+        // F3 toggles the performance panel
+        scene.getAccelerators().put(new KeyCodeCombination(KeyCode.F3), performanceHud::toggle);
+
         // Make map fill available space
         mapView.fitWidthProperty().bind(scene.widthProperty());
         mapView.fitHeightProperty().bind(scene.heightProperty().subtract(header.heightProperty()));
@@ -72,7 +124,169 @@ public class BatMapApplication {
         // Configure and show the stage
         stage.setTitle("The BatMap");
         stage.setScene(scene);
+        // Print the phase timings of the session on exit
+        stage.setOnHidden(_ -> {
+            stopLoading();
+            stopWatching();
+            System.out.print(MetricsRegistry.report());
+        });
         stage.show();
+
+        startLoading();
+    }
+
+    /**
+     * Starts loading the data in the background, drawing the active overlay from the partial data as it arrives.
+     * Watching for new exports starts once the data is complete.
+     */
+    private void startLoading() {
+        try {
+            loader = new ProgressiveLoader(overlay, FileUtils.getResourceAsPath(FileUtils.CRIME_DATA_PATH),
+                    FileUtils.getResourceAsPath(FileUtils.PROPERTY_DATA_PATH), ProgressiveLoader.DEFAULT_FIRST_PUBLISH,
+                    this::onPartialData);
+        } catch (IOException e) {
+            System.err.println("Failed to find the data files: " + e.getMessage());
+            loadingLabel.setText("Data files not found");
+            return;
+        }
+        activeOverlay = () -> overlay.drawImage(DEFAULT_REQUEST);
+        shownRequest = DEFAULT_REQUEST;
+        loader.start();
+    }
+
+    private void stopLoading() {
+        if (loader != null) {
+            loader.close();
+        }
+        redrawExecutor.shutdownNow();
+        renderer.close();
+    }
+
+    /**
+     * Called on the loader thread after a partial (or the complete) data set is swapped in
+     */
+    private void onPartialData(ProgressiveLoader.Progress progress) {
+        Platform.runLater(() -> {
+            if (progress.complete()) {
+                loadingIndicator.setVisible(false);
+            } else {
+                loadingLabel.setText(String.format("Loading data... %,d crimes, %,d properties",
+                        progress.crimeRows(), progress.propertyRows()));
+            }
+        });
+
+        if (!redrawQueued.getAndSet(true)) {
+            redrawExecutor.execute(() -> {
+                redrawQueued.set(false);
+                onDataReloaded();
+            });
+        }
+        if (progress.complete()) {
+            startWatching();
+        }
+    }
+
+    /**
+     * Starts reloading the data when new exports land in the watch directory, if one is configured
+     */
+    private void startWatching() {
+        String watchDir = System.getProperty(WATCH_DIR_PROPERTY);
+        if (watchDir == null || watchDir.isBlank()) {
+            return;
+        }
+        try {
+            dataWatcher = new DataDirectoryWatcher(Path.of(watchDir), overlay, DataDirectoryWatcher.DEFAULT_DEBOUNCE,
+                    _ -> onDataReloaded());
+        } catch (IOException e) {
+            System.err.println("Failed to watch data directory " + watchDir + ": " + e.getMessage());
+        }
+    }
+
+    private void stopWatching() {
+        if (dataWatcher == null) {
+            return;
+        }
+        try {
+            dataWatcher.close();
+        } catch (IOException e) {
+            System.err.println("Failed to stop watching data directory: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Called on the watcher thread after new data is swapped in. The active overlay is drawn there,
+     * and only showing it and refreshing the filter choices happens on the FX thread.
+     */
+    private void onDataReloaded() {
+        Supplier<String> redraw = activeOverlay;
+        String imagePath = redraw == null ? null : redraw.get();
+
+        Platform.runLater(() -> {
+            refreshFilters();
+            // Skip the result if the user picked another overlay in the meantime
+            if (imagePath != null && activeOverlay == redraw) {
+                displayOverlay(imagePath);
+            }
+        });
+    }
+
+    /**
+     * Shows an overlay drawn in the background, unless the user picked another overlay in the meantime
+     * @param drawnFor The active overlay when drawing started
+     * @param imagePath Path to the drawn image, or null if no data matched
+     */
+    private void showIfActive(Supplier<String> drawnFor, String imagePath) {
+        Platform.runLater(() -> {
+            if (imagePath != null && activeOverlay == drawnFor) {
+                displayOverlay(imagePath);
+            }
+        });
+    }
+
+    /**
+     * Updates the filter choices from the current data, keeping the checked filters that still exist
+     */
+    private void refreshFilters() {
+        String[] filters = overlay.getFilters(categoryOrGroupComboBox.getValue());
+        List<String> checkedValues = filterComboBox.getCheckModel().getCheckedItems().stream()
+                .map(overlay::toFilterValue).toList();
+        leftPanel.updateCheckComboBox(filterComboBox, filters);
+        for (String item : filterComboBox.getItems()) {
+            if (checkedValues.contains(overlay.toFilterValue(item))) {
+                filterComboBox.getCheckModel().check(item);
+            }
+        }
+        refreshAssessmentClasses();
+    }
+
+    /**
+     * Lists only the assessment classes that have properties under the selected ward or neighbourhood
+     */
+    private void refreshAssessmentClasses() {
+        if (!assessmentComboBox.isVisible()) {
+            return;
+        }
+        reselect(assessmentComboBox, overlay.getAssessmentClass("Property", categoryOrGroupComboBox.getValue(),
+                leftPanel.getSingleChecked(filterComboBox)));
+    }
+
+    /**
+     * Replaces the items of a combo box, keeping the selected value if it is still listed; counts in the
+     * labels may have changed, so items are compared by the value they stand for
+     */
+    private void reselect(ComboBox<String> comboBox, String[] items) {
+        String selected = comboBox.getValue();
+        comboBox.setItems(FXCollections.observableArrayList(items));
+        if (selected != null) {
+            String selectedValue = overlay.toFilterValue(selected);
+            for (String item : items) {
+                if (overlay.toFilterValue(item).equals(selectedValue)) {
+                    comboBox.setValue(item);
+                    return;
+                }
+            }
+        }
+        leftPanel.setNoneOrFirst(comboBox);
     }
 
     /**
@@ -112,7 +326,7 @@ public class BatMapApplication {
 
         // Create a StackPane to hold the map content
         StackPane mainContentStack = new StackPane();
-        mainContentStack.getChildren().add(mapContainer);
+        mainContentStack.getChildren().addAll(mapContainer, performanceHud.getNode(), createLoadingIndicator());
         contentLayout.setCenter(mainContentStack);
 
         // Create the left side panel with controls
@@ -122,6 +336,26 @@ public class BatMapApplication {
         return contentLayout;
     }
 
+    /**
+     * Creates the indicator shown in the corner of the map while the data loads
+     * @return The indicator, visible until loading completes
+     */
+    private HBox createLoadingIndicator() {
+        ProgressIndicator spinner = new ProgressIndicator();
+        spinner.setPrefSize(18, 18);
+        loadingLabel.setStyle("-fx-text-fill: white;");
+
+        loadingIndicator = new HBox(8, spinner, loadingLabel);
+        loadingIndicator.setAlignment(Pos.CENTER_LEFT);
+        loadingIndicator.setPadding(new Insets(6, 10, 6, 10));
+        loadingIndicator.setMaxSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
+        loadingIndicator.setStyle("-fx-background-color: rgba(0,0,0,0.7); -fx-background-radius: 4;");
+        loadingIndicator.setMouseTransparent(true);
+        StackPane.setAlignment(loadingIndicator, Pos.BOTTOM_LEFT);
+        StackPane.setMargin(loadingIndicator, new Insets(10));
+        return loadingIndicator;
+    }
+
     /**
      * Loads the FXML file and adds it to the container
      * @param container The container to add the FXML content to
@@ -163,6 +397,7 @@ public class BatMapApplication {
         Label categoryOrGroupLabel = leftPanel.getCategoryOrGroupLabel();
         Label filterLabel = leftPanel.getFilterLabel();
         Label assessmentClassLabel = leftPanel.getAssessmentClassLabel();
+        Label binLabel = leftPanel.getBinLabel();
 
         // Create buttons for additional actions
         Button applyFilterButton = new Button("Create Map");
@@ -195,6 +430,8 @@ public class BatMapApplication {
                 filterComboBox,
                 assessmentClassLabel,
                 assessmentComboBox,
+                binLabel,
+                binComboBox,
                 buttonContainer,
                 legendSeparator,
                 legendPanel
@@ -213,11 +450,14 @@ public class BatMapApplication {
 
         // Add correlation button event handler
         correlationButton.setOnAction(_ -> {
+            renderer.cancel();
+            shownRequest = null;
             removeOverlay();
             
             leftPanel.enterCorrelation();
 
             // Generate correlation overlay immediately
+            activeOverlay = overlay::drawCorrelationImage;
             String imagePath = overlay.drawCorrelationImage();
             displayOverlay(imagePath);
 
@@ -227,7 +467,17 @@ public class BatMapApplication {
         // Add event handlers for the other controls
         categoryOrGroupComboBox.getSelectionModel().selectedItemProperty().addListener((_, _, newValue) -> {
             String[] updatedFilters = overlay.getFilters(newValue);
-            leftPanel.updateComboBox(filterComboBox, updatedFilters);
+            leftPanel.updateCheckComboBox(filterComboBox, updatedFilters);
+        });
+
+        filterComboBox.getCheckModel().getCheckedItems().addListener(
+                (ListChangeListener<String>) _ -> refreshAssessmentClasses());
+
+        // Switching bin shapes redraws the map shown, keeping it until the new one is drawn
+        binComboBox.getSelectionModel().selectedItemProperty().addListener((_, _, _) -> {
+            if (shownRequest != null) {
+                showRequest(shownRequest);
+            }
         });
 
         applyFilterButton.setOnAction(_ -> {
@@ -236,14 +486,19 @@ public class BatMapApplication {
             // Determine which map type is selected
             String mapType = crimeButton.getStyle().equals(leftPanel.getSelectedStyle()) ? "Crime" : "Property";
 
+            // Several checked filters are drawn from the bitmap index, keeping records that match any of them
+            List<String> checked = List.copyOf(filterComboBox.getCheckModel().getCheckedItems());
+            if (checked.size() > 1) {
+                showSelection(mapType, checked);
+                return;
+            }
+
             overlay.setMapType(mapType);
             overlay.setCategoryOrGroup(categoryOrGroupComboBox.getValue());
-            overlay.setFilter(filterComboBox.getValue());
+            overlay.setFilter(leftPanel.getSingleChecked(filterComboBox));
             overlay.setAssessment(assessmentComboBox.getValue());
 
-            // Add the heat map image
-            String imagePath = overlay.drawImage();
-            displayOverlay(imagePath);
+            showRequest(overlay.getRequest());
         });
 
         // Reset Button functionality
@@ -258,6 +513,9 @@ public class BatMapApplication {
             overlay.setAssessment("");
 
             // Remove the overlay from the UI
+            activeOverlay = null;
+            shownRequest = null;
+            renderer.cancel();
             removeOverlay();
 
             System.out.println("Filters reset");
@@ -266,6 +524,46 @@ public class BatMapApplication {
         return leftControls;
     }
 
+    /**
+     * Draws a heat map in the selected bin shape, replacing any overlay still being drawn.
+     * Square bins are drawn with a preview first; hexagons are binned from the cached layer and need none.
+     */
+    private void showRequest(OverlayRequest request) {
+        shownRequest = request;
+        int hexSize = leftPanel.getHexSize();
+        Supplier<String> redraw;
+        if (hexSize == 0) {
+            redraw = () -> overlay.drawImage(request);
+            activeOverlay = redraw;
+            renderer.submit(request, path -> showIfActive(redraw, path), path -> showIfActive(redraw, path));
+        } else {
+            redraw = () -> overlay.drawHexImage(request, hexSize);
+            activeOverlay = redraw;
+            renderer.submit(redraw, path -> showIfActive(redraw, path));
+        }
+    }
+
+    /**
+     * Draws a heat map of several checked filter values, replacing any overlay still being drawn.
+     * It is drawn in squares without a preview, whatever the bin shape.
+     */
+    private void showSelection(String mapType, List<String> filters) {
+        Map<FilterIndex.Dimension, List<String>> selection = new EnumMap<>(FilterIndex.Dimension.class);
+        FilterIndex.Dimension dimension = FilterIndex.Dimension.fromLabel(categoryOrGroupComboBox.getValue());
+        if (dimension != null) {
+            selection.put(dimension, filters);
+        }
+        String assessment = assessmentComboBox.getValue();
+        if (mapType.equals("Property") && assessment != null && !assessment.equals("None")) {
+            selection.put(FilterIndex.Dimension.ASSESSMENT_CLASS, List.of(assessment));
+        }
+
+        shownRequest = null;
+        Supplier<String> redraw = () -> overlay.drawSelectionImage(mapType, selection);
+        activeOverlay = redraw;
+        renderer.submit(redraw, path -> showIfActive(redraw, path));
+    }
+
     private void updateComboBoxes(String mapType) {
         // Update ComboBoxes
         String[] updatedCategoryOrGroup = overlay.getCategoryOrGroup(mapType);
@@ -273,9 +571,10 @@ public class BatMapApplication {
 
         // Update filter items based on selected category
         String[] updatedFilters = overlay.getFilters(categoryOrGroupComboBox.getValue());
-        leftPanel.updateComboBox(filterComboBox, updatedFilters);
+        leftPanel.updateCheckComboBox(filterComboBox, updatedFilters);
 
-        String[] updatedAssessmentClass = overlay.getAssessmentClass(mapType);
+        String[] updatedAssessmentClass = overlay.getAssessmentClass(mapType, categoryOrGroupComboBox.getValue(),
+                leftPanel.getSingleChecked(filterComboBox));
         leftPanel.updateComboBox(assessmentComboBox, updatedAssessmentClass);
 
         updateLegend(mapType);
@@ -385,7 +684,7 @@ public class BatMapApplication {
      * @param imagePath Path to the overlay image
      */
     private void displayOverlay(String imagePath) {
-        try {
+        try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.DISPLAY)) {
             if (imagePath == null || imagePath.isEmpty()) {
                 System.err.println("Error displaying overlay: No image path provided");
                 return;
@@ -403,6 +702,8 @@ public class BatMapApplication {
             // Load the image
             String imageUrl = imageFile.toURI().toString();
             Image overlayImage = new Image(imageUrl);
+            timer.rows((long) (overlayImage.getWidth() * overlayImage.getHeight()))
+                    .bytes(imageFile.length()).detail(imageFile.getName());
 
             // Create the overlay ImageView
             ImageView overlayView = new ImageView(overlayImage);
@@ -1,6 +1,7 @@
 package ca.macewan.thebatmap.app;
 
 import javafx.collections.FXCollections;
+import javafx.collections.ListChangeListener;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.control.*;
@@ -8,6 +9,9 @@ import javafx.scene.layout.HBox;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
 import javafx.scene.shape.Rectangle;
+import org.controlsfx.control.CheckComboBox;
+
+import java.util.Arrays;
 
 /**
  * Helpers for the left panel in the main app UI
@@ -19,8 +23,9 @@ public class LeftPanelUtils {
     private final Label panelTitle = new Label("Control Panel");
     private final Label mapTypeLabel = new Label("Map Type");
     private final Label categoryOrGroupLabel = new Label("Filter Group");
-    private final Label filterLabel = new Label("Filter");
+    private final Label filterLabel = new Label("Filters");
     private final Label assessmentClassLabel = new Label("Assessment Class");
+    private final Label binLabel = new Label("Bins");
 
     // Buttons
     private final Button crimeButton = new Button("Crime");
@@ -29,8 +34,14 @@ public class LeftPanelUtils {
 
     // Combo Boxes
     private final ComboBox<String> categoryOrGroupComboBox = createComboBox();
-    private final ComboBox<String> filterComboBox = createComboBox();
+    // Several filter values can be checked, keeping records that match any of them
+    private final CheckComboBox<String> filterComboBox = createCheckComboBox();
     private final ComboBox<String> assessmentComboBox = createComboBox();
+    private final ComboBox<String> binComboBox = createComboBox();
+
+    // Bin shapes, with the hexagon size in map pixels (0 for squares)
+    private static final String[] BIN_LABELS = {"Squares", "Small Hexagons", "Medium Hexagons", "Large Hexagons"};
+    private static final int[] HEX_SIZES = {0, 8, 16, 32};
 
     // Style selected button
     private final String labelStyle = "-fx-font-size: 14px; -fx-font-weight: bold; -fx-text-fill: white;";
@@ -44,6 +55,7 @@ public class LeftPanelUtils {
         setButton(crimeButton);
         setButton(propertyButton);
         setCorrelationButton();
+        updateComboBox(binComboBox, BIN_LABELS);
     }
 
     public VBox getLeftControls() {
@@ -86,7 +98,7 @@ public class LeftPanelUtils {
         return categoryOrGroupComboBox;
     }
 
-    public ComboBox<String> getFilterComboBox() {
+    public CheckComboBox<String> getFilterComboBox() {
         return filterComboBox;
     }
 
@@ -94,6 +106,22 @@ public class LeftPanelUtils {
         return assessmentComboBox;
     }
 
+    public Label getBinLabel() {
+        return binLabel;
+    }
+
+    public ComboBox<String> getBinComboBox() {
+        return binComboBox;
+    }
+
+    /**
+     * @return Size of the hexagons of the selected bin shape in map pixels, or 0 for squares
+     */
+    public int getHexSize() {
+        int selected = binComboBox.getSelectionModel().getSelectedIndex();
+        return selected < 0 ? 0 : HEX_SIZES[selected];
+    }
+
     public String getSelectedStyle() {
         return selectedStyle;
     }
@@ -113,6 +141,7 @@ public class LeftPanelUtils {
         categoryOrGroupLabel.setStyle(labelStyle);
         filterLabel.setStyle(labelStyle);
         assessmentClassLabel.setStyle(labelStyle);
+        binLabel.setStyle(labelStyle);
     }
 
     private void setButton(Button button) {
@@ -133,6 +162,40 @@ public class LeftPanelUtils {
         return returnComboBox;
     }
 
+    public CheckComboBox<String> createCheckComboBox() {
+        CheckComboBox<String> returnComboBox = new CheckComboBox<>();
+        returnComboBox.setPrefWidth(200);
+        returnComboBox.setTitle("None");
+        returnComboBox.getCheckModel().getCheckedItems().addListener((ListChangeListener<String>) _ ->
+                returnComboBox.setTitle(getCheckedTitle(returnComboBox)));
+        return returnComboBox;
+    }
+
+    /**
+     * Lists values to check, leaving out "None", which stands for nothing checked
+     */
+    public void updateCheckComboBox(CheckComboBox<String> comboBox, String[] input) {
+        comboBox.getCheckModel().clearChecks();
+        comboBox.getItems().setAll(Arrays.stream(input).filter(item -> !item.equals("None")).toList());
+    }
+
+    /**
+     * @return The only checked value, or "None" if none or several are checked
+     */
+    public String getSingleChecked(CheckComboBox<String> comboBox) {
+        var checked = comboBox.getCheckModel().getCheckedItems();
+        return checked.size() == 1 ? checked.getFirst() : "None";
+    }
+
+    private static String getCheckedTitle(CheckComboBox<String> comboBox) {
+        var checked = comboBox.getCheckModel().getCheckedItems();
+        return switch (checked.size()) {
+            case 0 -> "None";
+            case 1 -> checked.getFirst();
+            default -> checked.size() + " selected";
+        };
+    }
+
     public void updateComboBox(ComboBox<String> comboBox, String[] input) {
         comboBox.setItems(FXCollections.observableArrayList(input));
         setNoneOrFirst(comboBox);
@@ -178,6 +241,8 @@ public class LeftPanelUtils {
         filterComboBox.setDisable(true);
         assessmentClassLabel.setDisable(true);
         assessmentComboBox.setDisable(true);
+        binLabel.setDisable(true);
+        binComboBox.setDisable(true);
     }
 
     private void enableButtons() {
@@ -190,6 +255,8 @@ public class LeftPanelUtils {
         filterComboBox.setDisable(false);
         assessmentClassLabel.setDisable(false);
         assessmentComboBox.setDisable(false);
+        binLabel.setDisable(false);
+        binComboBox.setDisable(false);
     }
 
     /**
@@ -0,0 +1,169 @@
+package ca.macewan.thebatmap.app;
+
+import ca.macewan.thebatmap.utils.general.CalculatePixelValue;
+import ca.macewan.thebatmap.utils.general.DrawOverlay;
+import ca.macewan.thebatmap.utils.general.LatencyHistogram;
+import ca.macewan.thebatmap.utils.general.LayerCache;
+import ca.macewan.thebatmap.utils.general.MetricsRegistry;
+import ca.macewan.thebatmap.utils.general.Phase;
+import javafx.animation.AnimationTimer;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.layout.Region;
+import javafx.scene.layout.StackPane;
+import javafx.util.Duration;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Toggleable panel showing live pipeline timings, layer cache hit ratios, data set sizes, GC activity and FX pulse timing.
+ * Everything it shows is read from counters that are kept anyway; the refresh and pulse timers only run while
+ * the panel is shown, so a hidden panel costs nothing.
+ */
+public class PerformanceHud {
+    private static final Duration REFRESH_INTERVAL = Duration.millis(500);
+
+    private final DrawOverlay overlay;
+    private final Label text = new Label();
+    private final Timeline refresh;
+    private final AnimationTimer pulseTimer;
+
+    // Time between FX pulses since the last refresh
+    private final LatencyHistogram pulseIntervals = new LatencyHistogram();
+    private long lastPulse;
+
+    // GC totals at the last refresh
+    private long lastGcCount;
+    private long lastGcMillis;
+
+    /**
+     * @param overlay The renderer whose layer cache and data set are shown
+     */
+    public PerformanceHud(DrawOverlay overlay) {
+        this.overlay = overlay;
+
+        text.setStyle("-fx-font-family: monospace; -fx-font-size: 11px; -fx-text-fill: #e0e0e0; " +
+                "-fx-background-color: rgba(0,0,0,0.75); -fx-background-radius: 4;");
+        text.setPadding(new Insets(8));
+        text.setMaxSize(Region.USE_PREF_SIZE, Region.USE_PREF_SIZE);
+        text.setMouseTransparent(true);
+        text.setVisible(false);
+        StackPane.setAlignment(text, Pos.TOP_RIGHT);
+        StackPane.setMargin(text, new Insets(10));
+
+        refresh = new Timeline(new KeyFrame(REFRESH_INTERVAL, _ -> update()));
+        refresh.setCycleCount(Timeline.INDEFINITE);
+
+        pulseTimer = new AnimationTimer() {
+            @Override
+            public void handle(long now) {
+                if (lastPulse != 0) {
+                    pulseIntervals.record(now - lastPulse);
+                }
+                lastPulse = now;
+            }
+        };
+    }
+
+    /**
+     * @return The panel, to be added to a StackPane above the map
+     */
+    public Node getNode() { return text; }
+
+    public boolean isShowing() { return text.isVisible(); }
+
+    /**
+     * Shows the panel if hidden, hides it otherwise
+     */
+    public void toggle() {
+        if (isShowing()) {
+            refresh.stop();
+            pulseTimer.stop();
+            text.setVisible(false);
+        } else {
+            lastPulse = 0;
+            pulseIntervals.reset();
+            readGcTotals();
+            update();
+            text.setVisible(true);
+            pulseTimer.start();
+            refresh.play();
+        }
+    }
+
+    private void update() {
+        StringBuilder hud = new StringBuilder();
+
+        // Pipeline phases
+        hud.append(String.format("%-10s %10s %10s %10s %6s%n", "phase", "last", "p50", "p99", "n"));
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram latency = MetricsRegistry.getHistogram(phase);
+            if (latency.getCount() == 0) {
+                continue;
+            }
+            hud.append(String.format("%-10s %10s %10s %10s %6d%n", phase.getLabel(),
+                    MetricsRegistry.formatNanos(latency.getLastNanos()),
+                    MetricsRegistry.formatNanos(latency.getPercentileNanos(50)),
+                    MetricsRegistry.formatNanos(latency.getPercentileNanos(99)),
+                    latency.getCount()));
+        }
+
+        // Layer cache
+        LayerCache cache = overlay.getLayerCache();
+        hud.append(String.format("%nlayer cache %d/%d%n", cache.size(), cache.getCapacity()));
+        for (Map.Entry<String, LayerCache.Stats> entry : new TreeMap<>(cache.getStats()).entrySet()) {
+            LayerCache.Stats stats = entry.getValue();
+            hud.append(String.format("  %-12s hits %,d  misses %,d  (%.0f%%)%n", entry.getKey(),
+                    stats.getHits(), stats.getMisses(), stats.getHitRatio() * 100));
+        }
+
+        // Aggregated data
+        CalculatePixelValue data = overlay.getData();
+        hud.append(String.format("%npixels     crime %,d  property %,d  grid %.1f MB%n",
+                data.getCrimeCube().getCellCount(), data.getPropertyCube().getCellCount(),
+                data.getGrid().byteSize() / (double) (1 << 20)));
+
+        // Heap and GC since the last refresh
+        Runtime runtime = Runtime.getRuntime();
+        long usedMb = (runtime.totalMemory() - runtime.freeMemory()) >> 20;
+        long gcCount = lastGcCount;
+        long gcMillis = lastGcMillis;
+        readGcTotals();
+        hud.append(String.format("heap       %,d / %,d MB%n", usedMb, runtime.maxMemory() >> 20));
+        hud.append(String.format("gc         %d collections, %d ms this interval (%d ms total)%n",
+                lastGcCount - gcCount, lastGcMillis - gcMillis, lastGcMillis));
+
+        // FX pulses since the last refresh
+        long pulses = pulseIntervals.getCount();
+        if (pulses > 0) {
+            hud.append(String.format("fx pulse   p50 %s  p99 %s  max %s  (%.0f fps)",
+                    MetricsRegistry.formatNanos(pulseIntervals.getPercentileNanos(50)),
+                    MetricsRegistry.formatNanos(pulseIntervals.getPercentileNanos(99)),
+                    MetricsRegistry.formatNanos(pulseIntervals.getMaxNanos()),
+                    1e9 / pulseIntervals.getMeanNanos()));
+        } else {
+            hud.append("fx pulse   -");
+        }
+        pulseIntervals.reset();
+
+        text.setText(hud.toString());
+    }
+
+    private void readGcTotals() {
+        long count = 0;
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        lastGcCount = count;
+        lastGcMillis = millis;
+    }
+}
@@ -0,0 +1,217 @@
+package ca.macewan.thebatmap.utils.general;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless renderer writing the overlay of every filter combination to a directory, for serving
+ * pre-rendered overlays instead of rendering them on demand. The data is loaded once and the overlays
+ * are rendered on a fixed pool of workers, each with its own render target.
+ * A manifest.csv next to the images lists every combination with its file, size and render time.
+ */
+public class BatchRenderer {
+    public static final String MANIFEST_FILE = "manifest.csv";
+    private static final int MANIFEST_BUFFER_SIZE = 1 << 16;
+    private static final String[] CRIME_GROUPS = {"Category", "Group", "Type", "Simplified"};
+    private static final String[] PROPERTY_GROUPS = {"Ward", "Neighbourhood"};
+
+    private final CalculatePixelValue data;
+    private final int threads;
+
+    /**
+     * Outcome of one combination
+     * @param request The overlay
+     * @param file Written image, or null if no data matches the combination
+     * @param bytes Size of the image in bytes, 0 if none was written
+     * @param nanos Time taken to scan, color and encode the overlay
+     */
+    public record Entry(OverlayRequest request, Path file, long bytes, long nanos) {}
+
+    /**
+     * @param data Loaded data set; it must not be modified while rendering
+     * @param threads Number of overlays rendered at once
+     */
+    public BatchRenderer(CalculatePixelValue data, int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is needed, not " + threads);
+        }
+        this.data = data;
+        this.threads = threads;
+    }
+
+    /**
+     * Lists every combination of map type, filter group, filter value and assessment class in the data.
+     * Assessment classes are only combined with the wards and neighbourhoods that have properties in them.
+     * @return The overlays, crime maps first
+     */
+    public List<OverlayRequest> combinations() {
+        List<OverlayRequest> requests = new ArrayList<>();
+        FacetCatalog crimes = data.getCrimeFacets();
+        requests.add(new OverlayRequest("Crime", "None", "None", "None"));
+        for (String group : CRIME_GROUPS) {
+            for (String value : crimes.getValues(FilterIndex.Dimension.fromLabel(group))) {
+                requests.add(new OverlayRequest("Crime", group, value, "None"));
+            }
+        }
+
+        FacetCatalog properties = data.getPropertyFacets();
+        addPropertyRequests(requests, properties, "None", "None", Map.of());
+        for (String group : PROPERTY_GROUPS) {
+            FilterIndex.Dimension dimension = FilterIndex.Dimension.fromLabel(group);
+            for (String value : properties.getValues(dimension)) {
+                Map<FilterIndex.Dimension, Set<String>> selection = new EnumMap<>(FilterIndex.Dimension.class);
+                selection.put(dimension, Set.of(value));
+                addPropertyRequests(requests, properties, group, value, selection);
+            }
+        }
+        return requests;
+    }
+
+    private static void addPropertyRequests(List<OverlayRequest> requests, FacetCatalog properties, String group,
+                                            String value, Map<FilterIndex.Dimension, Set<String>> selection) {
+        requests.add(new OverlayRequest("Property", group, value, "None"));
+        for (FacetCatalog.Facet facet : properties.getFacets(FilterIndex.Dimension.ASSESSMENT_CLASS, selection)) {
+            requests.add(new OverlayRequest("Property", group, value, facet.value()));
+        }
+    }
+
+    /**
+     * Renders overlays into a directory and writes the manifest
+     * @param requests Overlays to render
+     * @param outputDir Destination directory, created if needed
+     * @return One entry per request, in the order given
+     * @throws IOException If an image or the manifest cannot be written
+     */
+    public List<Entry> render(List<OverlayRequest> requests, Path outputDir) throws IOException {
+        Files.createDirectories(outputDir);
+        // Layers are rendered once each, so none are cached
+        DrawOverlay overlay = new DrawOverlay(data, 0, threads);
+
+        List<Future<Entry>> futures = new ArrayList<>(requests.size());
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            for (OverlayRequest request : requests) {
+                futures.add(workers.submit(() -> renderOne(overlay, request, outputDir)));
+            }
+            List<Entry> entries = new ArrayList<>(requests.size());
+            for (Future<Entry> future : futures) {
+                entries.add(future.get());
+            }
+            writeManifest(entries, outputDir.resolve(MANIFEST_FILE));
+            return entries;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rendering", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw new IllegalStateException("Rendering failed", e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static Entry renderOne(DrawOverlay overlay, OverlayRequest request, Path outputDir) throws IOException {
+        long start = System.nanoTime();
+        Path file = outputDir.resolve(request.fileName());
+        // The image is encoded while the render target is still leased
+        Long bytes = overlay.render(request, image -> {
+            if (image == null) {
+                return null;
+            }
+            try {
+                return DrawOverlay.writeImage(image, file);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        long nanos = System.nanoTime() - start;
+        return bytes == null ? new Entry(request, null, 0, nanos) : new Entry(request, file, bytes, nanos);
+    }
+
+    private static void writeManifest(List<Entry> entries, Path file) throws IOException {
+        try (CsvWriter writer = new CsvWriter(FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE), MANIFEST_BUFFER_SIZE)) {
+            writer.field("map_type").field("category_or_group").field("filter").field("assessment")
+                    .field("file").field("bytes").field("render_ms").endRow();
+            for (Entry entry : entries) {
+                OverlayRequest request = entry.request();
+                writer.escapedField(request.mapType()).escapedField(request.categoryOrGroup())
+                        .escapedField(request.filter()).escapedField(request.assessment());
+                if (entry.file() == null) {
+                    writer.emptyField();
+                } else {
+                    writer.escapedField(entry.file().getFileName().toString());
+                }
+                writer.field(entry.bytes()).field(entry.nanos() / 1e6, 3).endRow();
+            }
+        }
+    }
+
+    /**
+     * Prints the number of overlays, throughput and render time percentiles of a run
+     */
+    private static void report(List<Entry> entries, long wallNanos, int threads) {
+        LatencyHistogram latencies = new LatencyHistogram();
+        long written = 0;
+        long bytes = 0;
+        for (Entry entry : entries) {
+            latencies.record(entry.nanos());
+            if (entry.file() != null) {
+                written++;
+                bytes += entry.bytes();
+            }
+        }
+        double seconds = wallNanos / 1e9;
+        System.out.printf("Rendered %,d overlays (%,d images, %,d KB) on %d threads in %.2f s (%.1f overlays/s)%n",
+                entries.size(), written, bytes / 1024, threads, seconds, entries.size() / seconds);
+        System.out.printf("Render time p50 %.1f ms, p95 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                latencies.getPercentileNanos(50) / 1e6, latencies.getPercentileNanos(95) / 1e6,
+                latencies.getPercentileNanos(99) / 1e6, latencies.getMaxNanos() / 1e6);
+    }
+
+    /**
+     * Renders every overlay of a data set
+     * @param args [output directory] [threads] [crime file] [property file];
+     *             the bundled data is loaded unless both files are given
+     */
+    public static void main(String[] args) {
+        Path outputDir = Paths.get(args.length > 0 ? args[0] : "overlays");
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        try {
+            CalculatePixelValue data = new CalculatePixelValue();
+            if (args.length > 3) {
+                data.loadCrimeData(Paths.get(args[2]));
+                data.loadPropertyData(Paths.get(args[3]));
+            } else {
+                data.loadData();
+            }
+
+            BatchRenderer renderer = new BatchRenderer(data, threads);
+            List<OverlayRequest> requests = renderer.combinations();
+            long start = System.nanoTime();
+            List<Entry> entries = renderer.render(requests, outputDir);
+            report(entries, System.nanoTime() - start, threads);
+            System.out.println("Overlays and manifest written to: " + outputDir.toAbsolutePath());
+        } catch (IOException e) {
+            System.err.println("Error rendering overlays: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
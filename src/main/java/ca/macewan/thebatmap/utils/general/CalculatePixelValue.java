@@ -1,159 +1,299 @@
 package ca.macewan.thebatmap.utils.general;
 
+import ca.macewan.thebatmap.utils.models.Assessment;
 import ca.macewan.thebatmap.utils.models.CrimeData;
+import ca.macewan.thebatmap.utils.models.CrimeLocation;
+import ca.macewan.thebatmap.utils.models.Location;
 import ca.macewan.thebatmap.utils.models.PropertyData;
 import ca.macewan.thebatmap.utils.parsers.ParseCrime;
 import ca.macewan.thebatmap.utils.parsers.ParseProperties;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Utility class for calculating pixel intensity values based on crime and property data
  */
-public class CalculatePixelValue {
+public class CalculatePixelValue implements AutoCloseable {
 
-    // Map dimensions
-    private static final int MAP_WIDTH = 1812;
-    private static final int MAP_HEIGHT = 1850;
+    // Normalization ranges (will need to adjust these based on the data)
+    private static final int MAX_EXPECTED_COUNT = 50;
+    private static final double MIN_EXPECTED_VALUE = 100000.0;
+    private static final double MAX_EXPECTED_VALUE = 1500000.0;
 
-    // Data storage
-    private final Map<String, CrimePixelData> crimePixels = new HashMap<>();
-    private final Map<String, PropertyPixelData> propertyPixels = new HashMap<>();
+    // Loaded records and the cell each one projects to (-1 if it has no location or is off the grid),
+    // kept so exports and other views of the data don't have to parse and project it again
+    private List<CrimeData> crimes = List.of();
+    private int[] crimeCells = new int[0];
+    private List<PropertyData> properties = List.of();
+    private int[] propertyCells = new int[0];
 
-    public Map<String, CrimePixelData> getCrimePixels() {
-        return crimePixels;
-    }
+    // Grid the data is aggregated into, and its dense totals kept off-heap
+    private final GridSpec gridSpec;
+    private PixelGrid grid;
+
+    // Source of data set ids
+    private static final AtomicLong NEXT_ID = new AtomicLong();
+    // Identifies this data set in cache keys, which must not keep a replaced data set alive
+    private final long id = NEXT_ID.incrementAndGet();
+
+    // Bumped whenever the data changes, so derived results (e.g. cached layers) can tell they are stale
+    private volatile long version;
+
+    // Joint category/group/type/month counts of the loaded crimes
+    private CrimeCube crimeCube = CrimeCube.EMPTY;
+
+    // Property counts and value sums per assessment class, neighbourhood and ward
+    private PropertyCube propertyCube = PropertyCube.EMPTY;
+
+    // Bitmap indexes for multi-select filters over the loaded records
+    private FilterIndex crimeIndex = FilterIndex.EMPTY;
+    private FilterIndex propertyIndex = FilterIndex.EMPTY;
 
-    public Map<String, PropertyPixelData> getPropertyPixels() {
-        return propertyPixels;
+    // Distinct filter values with their counts, built along with the indexes
+    private FacetCatalog crimeFacets = FacetCatalog.EMPTY;
+    private FacetCatalog propertyFacets = FacetCatalog.EMPTY;
+
+    // Simplified categories of the loaded crimes
+    private final CrimeClassifier classifier = new CrimeClassifier();
+
+    /**
+     * Creates an empty data set aggregated onto the bundled map image grid
+     */
+    public CalculatePixelValue() {
+        this(CoordinateToPixel.getMapGrid());
     }
 
     /**
-     * Inner class to store crime data for a specific pixel
+     * Creates an empty data set aggregated onto the given grid
+     * @param gridSpec Extent, resolution and projection to aggregate into
      */
-    public static class CrimePixelData {
-        private int count = 0;
-        private final Map<String, Integer> categoryCount = new HashMap<>();
-        private final Map<String, Integer> groupCount = new HashMap<>();
-        private final Map<String, Integer> groupTypeCount = new HashMap<>();
+    public CalculatePixelValue(GridSpec gridSpec) {
+        this(gridSpec, PixelGrid.allocate(gridSpec.getColumns(), gridSpec.getRows()));
+    }
 
-        public void addCrime(CrimeData crime) {
-            count++;
+    private CalculatePixelValue(GridSpec gridSpec, PixelGrid grid) {
+        this.gridSpec = gridSpec;
+        this.grid = grid;
+    }
 
-            // Count by category
-            String category = crime.getOccurrenceCategory();
-            if (category != null) {
-                categoryCount.put(category, categoryCount.getOrDefault(category, 0) + 1);
-            }
+    /**
+     * Creates a data set that keeps this one's property data and has no crime data, ready for new crime data.
+     * The property records and cube are shared rather than copied, since loads never modify them.
+     * @return A new data set, which must be closed separately
+     */
+    public CalculatePixelValue withoutCrimeData() {
+        CalculatePixelValue copy = new CalculatePixelValue(gridSpec, PixelGrid.copyOf(grid));
+        copy.grid.clearCrime();
+        copy.propertyCube = propertyCube;
+        copy.propertyIndex = propertyIndex;
+        copy.propertyFacets = propertyFacets;
+        copy.properties = properties;
+        copy.propertyCells = propertyCells;
+        return copy;
+    }
 
-            // Count by group
-            String group = crime.getOccurrenceGroup();
-            if (group != null) {
-                groupCount.put(group, groupCount.getOrDefault(group, 0) + 1);
-            }
+    /**
+     * Creates a data set that keeps this one's crime data and has no property data, ready for new property data.
+     * The crime records and cube are shared rather than copied, since loads never modify them.
+     * @return A new data set, which must be closed separately
+     */
+    public CalculatePixelValue withoutPropertyData() {
+        CalculatePixelValue copy = new CalculatePixelValue(gridSpec, PixelGrid.copyOf(grid));
+        copy.grid.clearProperty();
+        copy.crimeCube = crimeCube;
+        copy.crimeIndex = crimeIndex;
+        copy.crimeFacets = crimeFacets;
+        copy.crimes = crimes;
+        copy.crimeCells = crimeCells;
+        return copy;
+    }
 
-            // Count by group type
-            String groupType = crime.getOccurrenceTypeGroup();
-            if (groupType != null) {
-                groupTypeCount.put(groupType, groupTypeCount.getOrDefault(groupType, 0) + 1);
-            }
-        }
+    public GridSpec getGridSpec() {
+        return gridSpec;
+    }
 
-        public int getCount() {
-            return count;
-        }
+    public PixelGrid getGrid() {
+        return grid;
+    }
 
-        public int getCategoryCount(String category) {
-            return categoryCount.getOrDefault(category, 0);
-        }
+    /**
+     * @return Exact crime counts per cell for any combination of category, group, type and month
+     */
+    public CrimeCube getCrimeCube() {
+        return crimeCube;
+    }
 
-        public int getGroupCount(String group) {
-            return groupCount.getOrDefault(group, 0);
-        }
+    /**
+     * @return Property counts and value sums per cell for any combination of assessment class, neighbourhood and ward
+     */
+    public PropertyCube getPropertyCube() {
+        return propertyCube;
+    }
 
-        public int getGroupTypeCount(String groupType) {
-            return groupTypeCount.getOrDefault(groupType, 0);
-        }
+    /**
+     * @return Bitmap index of the crimes by category, group, type and month
+     */
+    public FilterIndex getCrimeIndex() {
+        return crimeIndex;
+    }
 
-        public Map<String, Integer> getCategoryCount() {
-            return categoryCount;
-        }
+    /**
+     * @return Bitmap index of the properties by ward, neighbourhood and assessment class
+     */
+    public FilterIndex getPropertyIndex() {
+        return propertyIndex;
+    }
 
-        public Map<String, Integer> getGroupCount() {
-            return groupCount;
-        }
+    /**
+     * @return Distinct crime filter values with their counts
+     */
+    public FacetCatalog getCrimeFacets() {
+        return crimeFacets;
+    }
 
-        public Map<String, Integer> getGroupTypeCount() {
-            return groupTypeCount;
-        }
+    /**
+     * @return Distinct property filter values with their counts
+     */
+    public FacetCatalog getPropertyFacets() {
+        return propertyFacets;
     }
 
     /**
-     * Inner class to store property data for a specific pixel
+     * @return Loaded crime records, in file order
      */
-    public static class PropertyPixelData {
-        private int count = 0;
-        private double totalValue = 0;
-        private final Map<String, Integer> wardCount = new HashMap<>();
-        private final Map<String, Integer> neighborhoodCount = new HashMap<>();
-        private final Map<String, Integer> assessmentClassCount = new HashMap<>();
+    public List<CrimeData> getCrimes() {
+        return crimes;
+    }
 
-        public void addProperty(PropertyData property) {
-            count++;
-            totalValue += property.getAssessment().getAssessedValue();
+    /**
+     * @return Cell index of each loaded crime, or -1 where it has no location or is outside the grid
+     */
+    public int[] getCrimeCells() {
+        return crimeCells;
+    }
 
-            // Count by ward
-            String ward = property.getNeighbourhood().getWard();
-            if (ward != null && !ward.isEmpty()) {
-                wardCount.put(ward, wardCount.getOrDefault(ward, 0) + 1);
-            }
+    /**
+     * @return Loaded property records, in file order
+     */
+    public List<PropertyData> getProperties() {
+        return properties;
+    }
 
-            // Count by neighborhood
-            String neighborhood = property.getNeighbourhood().getNeighbourhood();
-            if (neighborhood != null && !neighborhood.isEmpty()) {
-                neighborhoodCount.put(neighborhood, neighborhoodCount.getOrDefault(neighborhood, 0) + 1);
-            }
+    /**
+     * @return Cell index of each loaded property, or -1 where it has no location or is outside the grid
+     */
+    public int[] getPropertyCells() {
+        return propertyCells;
+    }
 
-            // Count by assessment class
-            String assessmentClass = property.getAssessment().getAssessment1().split(" ")[0];
-            if (assessmentClass != null && !assessmentClass.isEmpty()) {
-                assessmentClassCount.put(assessmentClass, assessmentClassCount.getOrDefault(assessmentClass, 0) + 1);
-            }
-        }
+    /**
+     * @return Number unique to this data set, to tell derived results of different data sets apart
+     */
+    public long getId() {
+        return id;
+    }
 
-        public int getCount() {
-            return count;
-        }
+    /**
+     * @return Number of times the data has changed since this data set was created
+     */
+    public long getVersion() {
+        return version;
+    }
 
-        public double getAverageValue() {
-            return count > 0 ? totalValue / count : 0;
-        }
+    /**
+     * Converts pixel coordinates to the cell index used as key in the cubes and layers
+     * @param x X coordinate
+     * @param y Y coordinate
+     * @return Cell index, or -1 if the coordinates are outside the grid
+     */
+    public int cellIndex(int x, int y) {
+        return grid.cellIndex(x, y);
+    }
 
-        public double getTotalValue() {
-            return totalValue;
+    /**
+     * Loads property and crime data and processes it into pixel maps.
+     * Columnar key data generated from the current exports (see GenerateKeyCSV) is read instead of the CSV files;
+     * the individual records are then not kept, so queries that have to scan them are not available.
+     * @throws IOException If an I/O error occurs
+     */
+    public void loadData() throws IOException {
+        // Release the previous grid before building a fresh one
+        grid.close();
+        grid = PixelGrid.allocate(gridSpec.getColumns(), gridSpec.getRows());
+
+        String propertyColumns = GenerateKeyCSV.KEY_PROPERTY_COLUMNS_PATH;
+        if (GenerateKeyCSV.isKeyColumnFileCurrent(propertyColumns, FileUtils.PROPERTY_DATA_PATH)) {
+            loadPropertyColumns(Paths.get(propertyColumns));
+        } else {
+            loadPropertyData();
+        }
+        String crimeColumns = GenerateKeyCSV.KEY_CRIME_COLUMNS_PATH;
+        if (GenerateKeyCSV.isKeyColumnFileCurrent(crimeColumns, FileUtils.CRIME_DATA_PATH)) {
+            loadCrimeColumns(Paths.get(crimeColumns));
+        } else {
+            loadCrimeData();
         }
+    }
 
-        public Map<String, Integer> getWardCount() {
-            return wardCount;
-        }
+    /**
+     * Saves the dense pixel totals to a snapshot file
+     * @param path Destination file
+     * @throws IOException If an I/O error occurs
+     */
+    public void saveSnapshot(Path path) throws IOException {
+        grid.save(path);
+    }
 
-        public Map<String, Integer> getNeighborhoodCount() {
-            return neighborhoodCount;
-        }
+    /**
+     * Replaces the current data with a read-only, memory-mapped snapshot.
+     * Only the unfiltered totals are available from a snapshot; the per-pixel breakdowns are emptied.
+     * @param path Snapshot file written by {@link #saveSnapshot(Path)}
+     * @throws IOException If the file cannot be read or is not a valid snapshot
+     */
+    public void loadSnapshot(Path path) throws IOException {
+        PixelGrid mapped = PixelGrid.map(path);
+        if (mapped.getWidth() != gridSpec.getColumns() || mapped.getHeight() != gridSpec.getRows()) {
+            mapped.close();
+            throw new IOException("Snapshot grid size does not match " + gridSpec + ": " + path);
+        }
+
+        grid.close();
+        grid = mapped;
+        crimeCube = CrimeCube.EMPTY;
+        propertyCube = PropertyCube.EMPTY;
+        crimeIndex = FilterIndex.EMPTY;
+        propertyIndex = FilterIndex.EMPTY;
+        crimeFacets = FacetCatalog.EMPTY;
+        propertyFacets = FacetCatalog.EMPTY;
+        crimes = List.of();
+        crimeCells = new int[0];
+        properties = List.of();
+        propertyCells = new int[0];
+        version++;
+    }
 
-        public Map<String, Integer> getAssessmentClassCount() {
-            return assessmentClassCount;
-        }
+    /**
+     * Releases the off-heap grid
+     */
+    @Override
+    public void close() {
+        grid.close();
     }
 
     /**
-     * Loads property and crime data and processes it into pixel maps
-     * @throws IOException If an I/O error occurs
+     * Makes sure the grid can be written to, copying a mapped snapshot into native memory if needed
      */
-    public void loadData() throws IOException {
-        loadPropertyData();
-        loadCrimeData();
+    private void ensureWritableGrid() {
+        if (grid.isReadOnly()) {
+            PixelGrid copy = PixelGrid.copyOf(grid);
+            grid.close();
+            grid = copy;
+        }
     }
 
     /**
@@ -161,34 +301,75 @@ public class CalculatePixelValue {
      * @throws IOException If an I/O error occurs
      */
     public void loadPropertyData() throws IOException {
-        propertyPixels.clear();
+        loadPropertyData(FileUtils.getResourceAsPath(FileUtils.PROPERTY_DATA_PATH));
+    }
 
-        List<PropertyData> properties = ParseProperties.parsePropertyData();
-        System.out.println("Processing " + properties.size() + " properties...");
+    /**
+     * Loads and processes property data from a specific file
+     * @param filePath Path to the CSV file containing property data
+     * @throws IOException If an I/O error occurs
+     */
+    public void loadPropertyData(Path filePath) throws IOException {
+        List<PropertyData> properties;
+        try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.PARSE)) {
+            properties = ParseProperties.parsePropertyData(filePath);
+            timer.rows(properties.size()).bytes(Files.size(filePath)).detail("property");
+        }
+        loadPropertyRecords(properties);
+    }
 
-        for (PropertyData property : properties) {
-            if (property.getLocation() == null) {
-                continue;
+    /**
+     * Replaces the property data with already parsed records, e.g. the part of a file read so far
+     * @param properties Property records, which must not be modified afterwards
+     */
+    public void loadPropertyRecords(List<PropertyData> properties) {
+        ensureWritableGrid();
+        propertyCube = PropertyCube.EMPTY;
+        propertyIndex = FilterIndex.EMPTY;
+        propertyFacets = FacetCatalog.EMPTY;
+        this.properties = List.of();
+        propertyCells = new int[0];
+        grid.clearProperty();
+
+        int[] cells;
+        try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.PROJECT)) {
+            cells = new int[properties.size()];
+            for (int i = 0; i < cells.length; i++) {
+                Location location = properties.get(i).getLocation();
+                cells[i] = location == null ? -1 : gridSpec.project(location.getLatitude(), location.getLongitude());
             }
-
-            double lat = property.getLocation().getLatitude();
-            double lon = property.getLocation().getLongitude();
-
-            // Skip properties outside map bounds
-            if (CoordinateToPixel.outOfBounds(lat, lon)) {
-                continue;
+            timer.rows(cells.length).detail("property");
+        }
+
+        try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.AGGREGATE)) {
+            PropertyCube.Builder cube = new PropertyCube.Builder(cells.length);
+            FilterIndex.Builder index = new FilterIndex.Builder(cells.length);
+            int aggregated = 0;
+            for (int i = 0; i < cells.length; i++) {
+                // Skip properties without a location or outside map bounds
+                int key = cells[i];
+                if (key < 0) {
+                    continue;
+                }
+
+                PropertyData property = properties.get(i);
+                Assessment assessment = property.getAssessment();
+                cube.add(key, property);
+                index.addProperty(key, assessment.getAssessedValue(), property.getNeighbourhood().getNeighbourhood(),
+                        property.getNeighbourhood().getWard(), PropertyCube.classKeys(assessment),
+                        PropertyCube.classPercents(assessment));
+                grid.addProperty(key, property.getAssessment().getAssessedValue());
+                aggregated++;
             }
-
-            int[] pixelCoords = CoordinateToPixel.geoToPixel(lat, lon);
-            String key = pixelCoords[0] + "," + pixelCoords[1];
-
-            // Get or create pixel data
-            PropertyPixelData pixelData = propertyPixels.getOrDefault(key, new PropertyPixelData());
-            pixelData.addProperty(property);
-            propertyPixels.put(key, pixelData);
+            propertyCube = cube.build();
+            propertyIndex = index.build();
+            propertyFacets = FacetCatalog.of(propertyIndex);
+            timer.rows(aggregated).detail("property");
         }
 
-        System.out.println("Processed properties into " + propertyPixels.size() + " unique pixels");
+        this.properties = properties;
+        this.propertyCells = cells;
+        version++;
     }
 
     /**
@@ -196,34 +377,230 @@ public class CalculatePixelValue {
      * @throws IOException If an I/O error occurs
      */
     public void loadCrimeData() throws IOException {
-        crimePixels.clear();
+        loadCrimeData(FileUtils.getResourceAsPath(FileUtils.CRIME_DATA_PATH));
+    }
 
-        List<CrimeData> crimes = ParseCrime.parseCrimeData();
-        System.out.println("Processing " + crimes.size() + " crimes...");
+    /**
+     * Loads and processes crime data from a specific file
+     * @param filePath Path to the CSV file containing crime data
+     * @throws IOException If an I/O error occurs
+     */
+    public void loadCrimeData(Path filePath) throws IOException {
+        List<CrimeData> crimes;
+        try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.PARSE)) {
+            crimes = ParseCrime.parseCrimeData(filePath);
+            timer.rows(crimes.size()).bytes(Files.size(filePath)).detail("crime");
+        }
+        loadCrimeRecords(crimes);
+    }
 
-        for (CrimeData crime : crimes) {
-            if (crime.getLocation() == null) {
-                continue;
+    /**
+     * Replaces the crime data with already parsed records, e.g. the part of a file read so far
+     * @param crimes Crime records, which must not be modified afterwards
+     */
+    public void loadCrimeRecords(List<CrimeData> crimes) {
+        ensureWritableGrid();
+        crimeCube = CrimeCube.EMPTY;
+        crimeIndex = FilterIndex.EMPTY;
+        crimeFacets = FacetCatalog.EMPTY;
+        this.crimes = List.of();
+        crimeCells = new int[0];
+        grid.clearCrime();
+
+        int[] cells;
+        try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.PROJECT)) {
+            cells = new int[crimes.size()];
+            for (int i = 0; i < cells.length; i++) {
+                CrimeLocation location = crimes.get(i).getLocation();
+                cells[i] = location == null ? -1 : gridSpec.project(location.getLatitude(), location.getLongitude());
+            }
+            timer.rows(cells.length).detail("crime");
+        }
+
+        try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.AGGREGATE)) {
+            CrimeCube.Builder cube = new CrimeCube.Builder(cells.length);
+            FilterIndex.Builder index = new FilterIndex.Builder(cells.length);
+            int aggregated = 0;
+            for (int i = 0; i < cells.length; i++) {
+                // Skip crimes without a location or outside map bounds
+                int key = cells[i];
+                if (key < 0) {
+                    continue;
+                }
+
+                CrimeData crime = crimes.get(i);
+                CrimeClassifier.Category simplified = classifier.classify(
+                        crime.getOccurrenceCategory(), crime.getOccurrenceGroup(), crime.getOccurrenceTypeGroup());
+                cube.add(key, crime.getOccurrenceCategory(), crime.getOccurrenceGroup(), crime.getOccurrenceTypeGroup(),
+                        crime.getEpochDayReported());
+                index.addCrime(key, crime.getOccurrenceCategory(), crime.getOccurrenceGroup(),
+                        crime.getOccurrenceTypeGroup(), simplified.getLabel(), crime.getEpochDayReported());
+                grid.addCrime(key);
+                aggregated++;
             }
+            crimeCube = cube.build();
+            crimeIndex = index.build();
+            crimeFacets = FacetCatalog.of(crimeIndex);
+            timer.rows(aggregated).detail("crime");
+        }
 
-            double lat = crime.getLocation().getLatitude();
-            double lon = crime.getLocation().getLongitude();
+        this.crimes = crimes;
+        this.crimeCells = cells;
+        version++;
+    }
 
-            // Skip crimes outside map bounds
-            if (CoordinateToPixel.outOfBounds(lat, lon)) {
-                continue;
+    /**
+     * Loads crime data from a columnar key data file written by GenerateKeyCSV.
+     * Only the aggregated pixel data is rebuilt; the individual crime records are not available afterwards.
+     * @param filePath Path to the columnar crime file
+     * @throws IOException If the file cannot be read or does not hold crime data
+     */
+    public void loadCrimeColumns(Path filePath) throws IOException {
+        ensureWritableGrid();
+        crimeCube = CrimeCube.EMPTY;
+        crimeIndex = FilterIndex.EMPTY;
+        crimeFacets = FacetCatalog.EMPTY;
+        crimes = List.of();
+        crimeCells = new int[0];
+        grid.clearCrime();
+
+        try (ColumnarKeyData columns = ColumnarKeyData.open(filePath)) {
+            if (columns.getKind() != ColumnarKeyData.Kind.CRIME) {
+                throw new IOException("Not a crime data file: " + filePath);
             }
 
-            int[] pixelCoords = CoordinateToPixel.geoToPixel(lat, lon);
-            String key = pixelCoords[0] + "," + pixelCoords[1];
+            String[] categories;
+            String[] groups;
+            String[] types;
+            int[] dates;
+            try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.PARSE)) {
+                categories = columns.getStrings(ColumnarKeyData.CATEGORY);
+                groups = columns.getStrings(ColumnarKeyData.GROUP);
+                types = columns.getStrings(ColumnarKeyData.TYPE);
+                dates = columns.getInts(ColumnarKeyData.DATE);
+                timer.rows(columns.getRowCount()).bytes(Files.size(filePath)).detail("crime columns");
+            }
 
-            // Get or create pixel data
-            CrimePixelData pixelData = crimePixels.getOrDefault(key, new CrimePixelData());
-            pixelData.addCrime(crime);
-            crimePixels.put(key, pixelData);
+            int[] cells = projectColumns(columns);
+
+            try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.AGGREGATE)) {
+                CrimeCube.Builder cube = new CrimeCube.Builder(cells.length);
+                FilterIndex.Builder index = new FilterIndex.Builder(cells.length);
+                int aggregated = 0;
+                for (int i = 0; i < cells.length; i++) {
+                    int key = cells[i];
+                    if (key < 0) {
+                        continue;
+                    }
+
+                    // Dictionary decoding shares string instances, so classification is a cached lookup
+                    CrimeClassifier.Category simplified = classifier.classify(categories[i], groups[i], types[i]);
+                    cube.add(key, categories[i], groups[i], types[i], dates[i]);
+                    index.addCrime(key, categories[i], groups[i], types[i], simplified.getLabel(), dates[i]);
+                    grid.addCrime(key);
+                    aggregated++;
+                }
+                crimeCube = cube.build();
+                crimeIndex = index.build();
+                crimeFacets = FacetCatalog.of(crimeIndex);
+                timer.rows(aggregated).detail("crime columns");
+            }
         }
 
-        System.out.println("Processed crimes into " + crimePixels.size() + " unique pixels");
+        version++;
+    }
+
+    /**
+     * Loads property data from a columnar key data file written by GenerateKeyCSV.
+     * Only the aggregated pixel data is rebuilt; the individual property records are not available afterwards.
+     * @param filePath Path to the columnar property file
+     * @throws IOException If the file cannot be read or does not hold property data
+     */
+    public void loadPropertyColumns(Path filePath) throws IOException {
+        ensureWritableGrid();
+        propertyCube = PropertyCube.EMPTY;
+        propertyIndex = FilterIndex.EMPTY;
+        propertyFacets = FacetCatalog.EMPTY;
+        properties = List.of();
+        propertyCells = new int[0];
+        grid.clearProperty();
+
+        try (ColumnarKeyData columns = ColumnarKeyData.open(filePath)) {
+            if (columns.getKind() != ColumnarKeyData.Kind.PROPERTY) {
+                throw new IOException("Not a property data file: " + filePath);
+            }
+
+            double[] values;
+            String[] wards;
+            String[] neighbourhoods;
+            String[][] assessmentClasses = new String[ColumnarKeyData.ASSESSMENT_CLASSES.size()][];
+            int[][] assessmentPercents = new int[ColumnarKeyData.ASSESSMENT_PERCENTS.size()][];
+            try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.PARSE)) {
+                values = columns.getDoubles(ColumnarKeyData.VALUE);
+                wards = columns.getStrings(ColumnarKeyData.WARD);
+                neighbourhoods = columns.getStrings(ColumnarKeyData.NEIGHBOURHOOD);
+                for (int c = 0; c < assessmentClasses.length; c++) {
+                    // Files written before the class shares were stored only have the main class
+                    String classColumn = ColumnarKeyData.ASSESSMENT_CLASSES.get(c);
+                    String percentColumn = ColumnarKeyData.ASSESSMENT_PERCENTS.get(c);
+                    assessmentClasses[c] = columns.hasColumn(classColumn)
+                            ? columns.getStrings(classColumn) : new String[values.length];
+                    assessmentPercents[c] = columns.hasColumn(percentColumn)
+                            ? columns.getInts(percentColumn) : new int[values.length];
+                }
+                timer.rows(columns.getRowCount()).bytes(Files.size(filePath)).detail("property columns");
+            }
+
+            int[] cells = projectColumns(columns);
+
+            try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.AGGREGATE)) {
+                PropertyCube.Builder cube = new PropertyCube.Builder(cells.length);
+                FilterIndex.Builder index = new FilterIndex.Builder(cells.length);
+                String[] classes = new String[assessmentClasses.length];
+                int[] percents = new int[assessmentPercents.length];
+                int aggregated = 0;
+                for (int i = 0; i < cells.length; i++) {
+                    int key = cells[i];
+                    if (key < 0) {
+                        continue;
+                    }
+
+                    for (int c = 0; c < classes.length; c++) {
+                        classes[c] = assessmentClasses[c][i];
+                        percents[c] = assessmentPercents[c][i];
+                    }
+                    cube.add(key, values[i], neighbourhoods[i], wards[i], classes, percents);
+                    index.addProperty(key, values[i], neighbourhoods[i], wards[i], classes, percents);
+                    grid.addProperty(key, values[i]);
+                    aggregated++;
+                }
+                propertyCube = cube.build();
+                propertyIndex = index.build();
+                propertyFacets = FacetCatalog.of(propertyIndex);
+                timer.rows(aggregated).detail("property columns");
+            }
+        }
+
+        version++;
+    }
+
+    /**
+     * Takes the stored cells if the file was exported on this grid, and projects the stored coordinates otherwise
+     */
+    private int[] projectColumns(ColumnarKeyData columns) {
+        try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.PROJECT)) {
+            int[] cells;
+            if (columns.matchesGrid(gridSpec)) {
+                cells = columns.getInts(ColumnarKeyData.CELL);
+            } else {
+                double[] latitudes = columns.getCoordinates(ColumnarKeyData.LATITUDE);
+                double[] longitudes = columns.getCoordinates(ColumnarKeyData.LONGITUDE);
+                cells = new int[latitudes.length];
+                gridSpec.projectAll(latitudes, longitudes, latitudes.length, cells);
+            }
+            timer.rows(cells.length).detail("columns");
+            return cells;
+        }
     }
 
     /**
@@ -245,38 +622,18 @@ public class CalculatePixelValue {
      * @return Crime intensity value (0-1)
      */
     public double getCrimeIntensity(int x, int y, String category, String group) {
-        if (x < 0 || x >= MAP_WIDTH || y < 0 || y >= MAP_HEIGHT) {
-            return 0.0;
-        }
-
-        String key = x + "," + y;
-        CrimePixelData pixelData = crimePixels.get(key);
-
-        if (pixelData == null) {
+        int key = grid.cellIndex(x, y);
+        if (key < 0) {
             return 0.0;
         }
 
         // If no filters, return based on total count
         if (category == null && group == null) {
-            return normalizeCount(pixelData.getCount());
-        }
-
-        // Filter by category if specified
-        if (category != null && group == null) {
-            return normalizeCount(pixelData.getCategoryCount(category));
-        }
-
-        // Filter by group if specified
-        if (category == null && group != null) {
-            return normalizeCount(pixelData.getGroupCount(group));
+            return normalizeCount(grid.getCrimeCount(key));
         }
 
-        // Filter by both category and group
-        int categoryCount = pixelData.getCategoryCount(category);
-        int groupCount = pixelData.getGroupCount(group);
-
-        // Return minimum of both filters (more restrictive)
-        return normalizeCount(Math.min(categoryCount, groupCount));
+        // Count the crimes matching the given category and group, rolled up over the other dimensions
+        return normalizeCount(crimeCube.count(key, category, group, null));
     }
 
     /**
@@ -298,36 +655,18 @@ public class CalculatePixelValue {
      * @return Property value intensity (0-1)
      */
     public double getPropertyIntensity(int x, int y, String neighborhood, String assessmentClass) {
-        if (x < 0 || x >= MAP_WIDTH || y < 0 || y >= MAP_HEIGHT) {
+        int key = grid.cellIndex(x, y);
+        if (key < 0) {
             return 0.0;
         }
 
-        String key = x + "," + y;
-        PropertyPixelData pixelData = propertyPixels.get(key);
-
-        if (pixelData == null) {
-            return 0.0;
+        // If no filters, return based on the total value
+        if (neighborhood == null && assessmentClass == null) {
+            return normalizeValue(grid.getAveragePropertyValue(key));
         }
 
-        // Apply filters based on parameters
-        boolean includePixel = true;
-
-        if (neighborhood != null) {
-            int count = pixelData.getNeighborhoodCount().getOrDefault(neighborhood, 0);
-            includePixel = includePixel && (count > 0);
-        }
-
-        if (assessmentClass != null) {
-            int count = pixelData.getAssessmentClassCount().getOrDefault(assessmentClass, 0);
-            includePixel = includePixel && (count > 0);
-        }
-
-        if (!includePixel) {
-            return 0.0;
-        }
-
-        // Return normalized average value
-        return normalizeValue(pixelData.getAverageValue());
+        // Average over only the properties (and class shares) that match the filters
+        return normalizeValue(propertyCube.getAverageValue(key, assessmentClass, neighborhood, null));
     }
 
     /**
@@ -340,7 +679,7 @@ public class CalculatePixelValue {
      * @return Correlation value (-1 to 1)
      */
     public double getCorrelationValue(int x, int y) {
-        if (x < 0 || x >= MAP_WIDTH || y < 0 || y >= MAP_HEIGHT) {
+        if (grid.cellIndex(x, y) < 0) {
             return 0.0;
         }
 
@@ -364,9 +703,6 @@ public class CalculatePixelValue {
      * @return Normalized intensity (0-1)
      */
     public static double normalizeCount(double count) {
-        // Will need to adjust this value based on the data
-        final int MAX_EXPECTED_COUNT = 50;
-
         return Math.min(1.0, count / (double) MAX_EXPECTED_COUNT);
     }
 
@@ -376,10 +712,6 @@ public class CalculatePixelValue {
      * @return Normalized intensity (0-1)
      */
     public static double normalizeValue(double value) {
-        // Will need to adjust these thresholds based on the data
-        final double MIN_EXPECTED_VALUE = 100000.0;
-        final double MAX_EXPECTED_VALUE = 1500000.0;
-
         if (value < MIN_EXPECTED_VALUE) {
             return 0.0;
         }
@@ -391,6 +723,24 @@ public class CalculatePixelValue {
         return (value - MIN_EXPECTED_VALUE) / (MAX_EXPECTED_VALUE - MIN_EXPECTED_VALUE);
     }
 
+    /**
+     * Normalizes a batch of crime counts in place, equivalent to calling normalizeCount on each
+     * @param counts Crime counts
+     * @param length Number of counts to normalize
+     */
+    public static void normalizeCounts(double[] counts, int length) {
+        ColorMapper.normalize(counts, length, 0.0, MAX_EXPECTED_COUNT);
+    }
+
+    /**
+     * Normalizes a batch of property values in place, equivalent to calling normalizeValue on each
+     * @param values Property values
+     * @param length Number of values to normalize
+     */
+    public static void normalizeValues(double[] values, int length) {
+        ColorMapper.normalize(values, length, MIN_EXPECTED_VALUE, MAX_EXPECTED_VALUE);
+    }
+
     /**
      * Gets the heat value for a pixel using a specific calculation mode
      * @param x X coordinate
@@ -416,8 +766,9 @@ public class CalculatePixelValue {
      */
     public int getMaxCrimeCount() {
         int max = 0;
-        for (CrimePixelData data : crimePixels.values()) {
-            max = Math.max(max, data.getCount());
+        int cells = grid.getWidth() * grid.getHeight();
+        for (int cell = 0; cell < cells; cell++) {
+            max = Math.max(max, grid.getCrimeCount(cell));
         }
         return max;
     }
@@ -428,8 +779,9 @@ public class CalculatePixelValue {
      */
     public double getMaxPropertyValue() {
         double max = 0.0;
-        for (PropertyPixelData data : propertyPixels.values()) {
-            max = Math.max(max, data.getAverageValue());
+        int cells = grid.getWidth() * grid.getHeight();
+        for (int cell = 0; cell < cells; cell++) {
+            max = Math.max(max, grid.getAveragePropertyValue(cell));
         }
         return max;
     }
@@ -439,15 +791,16 @@ public class CalculatePixelValue {
      * @return Average property value
      */
     public double getAveragePropertyValue() {
-        if (propertyPixels.isEmpty()) {
-            return 0.0;
-        }
-
         double sum = 0.0;
-        for (PropertyPixelData data : propertyPixels.values()) {
-            sum += data.getAverageValue();
+        int pixelCount = 0;
+        int cells = grid.getWidth() * grid.getHeight();
+        for (int cell = 0; cell < cells; cell++) {
+            if (grid.getPropertyCount(cell) > 0) {
+                sum += grid.getAveragePropertyValue(cell);
+                pixelCount++;
+            }
         }
-        return sum / propertyPixels.size();
+        return pixelCount > 0 ? sum / pixelCount : 0.0;
     }
 
     /**
@@ -455,15 +808,17 @@ public class CalculatePixelValue {
      * @return Average crime count
      */
     public double getAverageCrimeCount() {
-        if (crimePixels.isEmpty()) {
-            return 0.0;
-        }
-
-        int sum = 0;
-        for (CrimePixelData data : crimePixels.values()) {
-            sum += data.getCount();
+        long sum = 0;
+        int pixelCount = 0;
+        int cells = grid.getWidth() * grid.getHeight();
+        for (int cell = 0; cell < cells; cell++) {
+            int count = grid.getCrimeCount(cell);
+            if (count > 0) {
+                sum += count;
+                pixelCount++;
+            }
         }
-        return (double) sum / crimePixels.size();
+        return pixelCount > 0 ? (double) sum / pixelCount : 0.0;
     }
 
     /**
@@ -471,11 +826,15 @@ public class CalculatePixelValue {
      * @return Set of crime categories
      */
     public Set<String> getCrimeCategories() {
-        Set<String> categories = new HashSet<>();
-        for (CrimePixelData data : crimePixels.values()) {
-            categories.addAll(data.getCategoryCount().keySet());
-        }
-        return categories;
+        return crimeFacets.getValues(FilterIndex.Dimension.CATEGORY);
+    }
+
+    /**
+     * Gets the simplified crime categories present in the data
+     * @return Set of simplified category labels
+     */
+    public Set<String> getSimplifiedCrimeCategories() {
+        return crimeFacets.getValues(FilterIndex.Dimension.SIMPLIFIED);
     }
 
     /**
@@ -483,11 +842,7 @@ public class CalculatePixelValue {
      * @return Set of crime groups
      */
     public Set<String> getCrimeGroups() {
-        Set<String> groups = new HashSet<>();
-        for (CrimePixelData data : crimePixels.values()) {
-            groups.addAll(data.getGroupCount().keySet());
-        }
-        return groups;
+        return crimeFacets.getValues(FilterIndex.Dimension.GROUP);
     }
 
     /**
@@ -495,11 +850,7 @@ public class CalculatePixelValue {
      * @return Set of crime types
      */
     public Set<String> getCrimeTypes() {
-        Set<String> types = new HashSet<>();
-        for (CrimePixelData data : crimePixels.values()) {
-            types.addAll(data.getGroupTypeCount().keySet());
-        }
-        return types;
+        return crimeFacets.getValues(FilterIndex.Dimension.TYPE);
     }
 
     /**
@@ -507,11 +858,7 @@ public class CalculatePixelValue {
      * @return Set of neighborhoods
      */
     public Set<String> getNeighborhoods() {
-        Set<String> neighborhoods = new HashSet<>();
-        for (PropertyPixelData data : propertyPixels.values()) {
-            neighborhoods.addAll(data.getNeighborhoodCount().keySet());
-        }
-        return neighborhoods;
+        return propertyFacets.getValues(FilterIndex.Dimension.NEIGHBOURHOOD);
     }
 
     /**
@@ -519,18 +866,10 @@ public class CalculatePixelValue {
      * @return Set of assessment classes
      */
     public Set<String> getAssessmentClasses() {
-        Set<String> classes = new HashSet<>();
-        for (PropertyPixelData data : propertyPixels.values()) {
-            classes.addAll(data.getAssessmentClassCount().keySet());
-        }
-        return classes;
+        return propertyFacets.getValues(FilterIndex.Dimension.ASSESSMENT_CLASS);
     }
 
     public Set<String> getWards() {
-        Set<String> wards = new HashSet<>();
-        for (PropertyPixelData data : propertyPixels.values()) {
-            wards.addAll(data.getWardCount().keySet());
-        }
-        return wards;
+        return propertyFacets.getValues(FilterIndex.Dimension.WARD);
     }
 }
\ No newline at end of file
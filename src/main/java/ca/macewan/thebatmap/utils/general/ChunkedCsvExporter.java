@@ -0,0 +1,120 @@
+package ca.macewan.thebatmap.utils.general;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Writes large CSV files by formatting fixed-size chunks of rows in parallel and appending
+ * the finished chunks to the file in order. Only a few chunks are in flight at a time,
+ * so memory use stays bounded no matter how many rows are exported.
+ */
+public class ChunkedCsvExporter {
+    private static final int CHUNK_ROWS = 32_768;
+    private static final int CHUNK_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Formats a single row
+     */
+    @FunctionalInterface
+    public interface RowFormatter {
+        /**
+         * @param writer Writer to append the row's fields to; the row is ended by the exporter
+         * @param row Index of the row in the output, from 0
+         * @throws IOException If the writer fails
+         */
+        void write(CsvWriter writer, int row) throws IOException;
+    }
+
+    /**
+     * Exports rows on the common fork/join pool
+     * @param file Destination file, replaced if it exists
+     * @param header Header line, without the line break
+     * @param rows Number of rows to write
+     * @param formatter Formats each row; called concurrently for different rows
+     * @throws IOException If an I/O error occurs
+     */
+    public static void export(Path file, String header, int rows, RowFormatter formatter) throws IOException {
+        export(file, header, rows, formatter, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Exports rows, formatting chunks on the given executor
+     * @param file Destination file, replaced if it exists
+     * @param header Header line, without the line break
+     * @param rows Number of rows to write
+     * @param formatter Formats each row; called concurrently for different rows
+     * @param executor Executor the chunks are formatted on
+     * @throws IOException If an I/O error occurs
+     */
+    public static void export(Path file, String header, int rows, RowFormatter formatter,
+                              Executor executor) throws IOException {
+        int inFlight = 2 * Runtime.getRuntime().availableProcessors();
+        Deque<CompletableFuture<byte[]>> pending = new ArrayDeque<>();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(channel, (header + "\n").getBytes(StandardCharsets.UTF_8));
+
+            for (int start = 0; start < rows; start += CHUNK_ROWS) {
+                int from = start;
+                int to = Math.min(rows, start + CHUNK_ROWS);
+                pending.add(CompletableFuture.supplyAsync(() -> formatChunk(from, to, formatter), executor));
+
+                // Write finished chunks in order once enough are queued
+                if (pending.size() >= inFlight) {
+                    writeFully(channel, await(pending.poll()));
+                }
+            }
+            while (!pending.isEmpty()) {
+                writeFully(channel, await(pending.poll()));
+            }
+        } finally {
+            // Don't leave formatting work running after a failure
+            pending.forEach(future -> future.cancel(false));
+        }
+    }
+
+    private static byte[] formatChunk(int from, int to, RowFormatter formatter) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream((to - from) * 96);
+        try (CsvWriter writer = new CsvWriter(Channels.newChannel(out), CHUNK_BUFFER_SIZE)) {
+            for (int row = from; row < to; row++) {
+                formatter.write(writer, row);
+                writer.endRow();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> chunk) throws IOException {
+        try {
+            return chunk.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof UncheckedIOException io) {
+                throw io.getCause();
+            }
+            throw e;
+        }
+    }
+
+    private static void writeFully(FileChannel channel, byte[] bytes) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package ca.macewan.thebatmap.utils.general;
+
+/**
+ * Batch conversion of pixel values into ARGB colors and normalized intensities.
+ * Uses the incubating Vector API when the jdk.incubator.vector module is available,
+ * and an equivalent branch-free scalar loop otherwise.
+ */
+public class ColorMapper {
+    // Alpha used for the heat map and correlation ramps
+    static final int HEAT_ALPHA = 255;
+    static final int CORRELATION_ALPHA = 204;
+
+    private static final boolean VECTOR_AVAILABLE =
+            !"false".equals(System.getProperty("thebatmap.vector"))
+                    && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    /**
+     * @return true if the batch methods run on the Vector API
+     */
+    public static boolean isVectorized() {
+        return VECTOR_AVAILABLE;
+    }
+
+    /**
+     * Converts values into colors on the heat ramp. Blue (0) -> Green -> Red (upper bound and above).
+     * @param values Pixel values
+     * @param length Number of values to convert
+     * @param upperBound Value mapped to full red
+     * @param argb Output array receiving one ARGB color per value
+     */
+    public static void mapHeat(double[] values, int length, double upperBound, int[] argb) {
+        int start = VECTOR_AVAILABLE ? VectorColorMapper.mapHeat(values, length, upperBound, argb) : 0;
+        for (int i = start; i < length; i++) {
+            argb[i] = heatColor(values[i], upperBound);
+        }
+    }
+
+    /**
+     * Converts correlation values into colors. Positive values fade from blue to green, negative ones from green to red.
+     * @param values Correlation values between -1 and 1
+     * @param length Number of values to convert
+     * @param argb Output array receiving one ARGB color per value
+     */
+    public static void mapCorrelation(double[] values, int length, int[] argb) {
+        int start = VECTOR_AVAILABLE ? VectorColorMapper.mapCorrelation(values, length, argb) : 0;
+        for (int i = start; i < length; i++) {
+            argb[i] = correlationColor(values[i]);
+        }
+    }
+
+    /**
+     * Normalizes values in place to the range 0-1, clamping anything outside [min, max]
+     * @param values Values to normalize
+     * @param length Number of values to normalize
+     * @param min Value mapped to 0
+     * @param max Value mapped to 1
+     */
+    public static void normalize(double[] values, int length, double min, double max) {
+        int start = VECTOR_AVAILABLE ? VectorColorMapper.normalize(values, length, min, max) : 0;
+        double scale = 1.0 / (max - min);
+        for (int i = start; i < length; i++) {
+            values[i] = Math.min(1.0, Math.max(0.0, (values[i] - min) * scale));
+        }
+    }
+
+    /**
+     * Scalar heat ramp for a single value, written without branches so it matches the vector path
+     * @param value Pixel value
+     * @param upperBound Value mapped to full red
+     * @return ARGB color
+     */
+    static int heatColor(double value, double upperBound) {
+        // t runs 0 -> 2 across the ramp; the first half fades blue into yellow-green, the second into red
+        double t = Math.min(2.0, Math.max(0.0, value * (2.0 / upperBound)));
+        int r = (int) (255 * Math.min(t, 1.0));
+        int g = (int) (255 * Math.min(t, 2.0 - t));
+        int b = (int) (255 * Math.max(0.0, 1.0 - t));
+        return (HEAT_ALPHA << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Scalar correlation ramp for a single value
+     * @param value Correlation value between -1 and 1
+     * @return ARGB color
+     */
+    static int correlationColor(double value) {
+        double p = Math.min(1.0, Math.max(-1.0, value));
+        int r = (int) (255 * Math.max(0.0, -p));
+        int g = (int) (255 * (p > 0 ? p : 1.0 + p));
+        int b = p > 0 ? (int) (255 * (1.0 - p)) : 0;
+        return (CORRELATION_ALPHA << 24) | (r << 16) | (g << 8) | b;
+    }
+}
@@ -0,0 +1,622 @@
+package ca.macewan.thebatmap.utils.general;
+
+import ca.macewan.thebatmap.utils.models.Assessment;
+import ca.macewan.thebatmap.utils.models.CrimeData;
+import ca.macewan.thebatmap.utils.models.PropertyData;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact columnar binary form of the key crime and property data, read back through a memory mapping.
+ * <p>
+ * A file holds one data set. After a fixed header (magic, version, kind, row count and the grid the cells
+ * were projected on) comes a directory with one entry per column, the column names, then the column data,
+ * each section 8-byte aligned. Column types:
+ * <ul>
+ *     <li>DICTIONARY: the distinct strings once, then a 1, 2 or 4 byte code per row (code 0 is null)</li>
+ *     <li>INT32 and FLOAT64: fixed-width values</li>
+ *     <li>COORDINATE: degrees quantized to millionths, stored as zigzag varint deltas from the previous row</li>
+ *     <li>STRING: one string per row</li>
+ * </ul>
+ * Values are stored in native byte order, as in PixelGrid snapshots.
+ */
+public class ColumnarKeyData implements AutoCloseable {
+    private static final int MAGIC = 0x4254434C; // "BTCL"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 80;
+    private static final int DIRECTORY_ENTRY_BYTES = 48;
+    private static final double COORDINATE_SCALE = 1e6;
+
+    // Projections that can be recorded in the header; anything else never matches a grid
+    private static final int LINEAR_PROJECTION = 0;
+    private static final int WEB_MERCATOR_PROJECTION = 1;
+    private static final int OTHER_PROJECTION = -1;
+
+    // Column names
+    public static final String CATEGORY = "category";
+    public static final String GROUP = "group";
+    public static final String TYPE = "type";
+    public static final String INTERSECTION = "intersection";
+    public static final String DATE = "date";
+    public static final String VALUE = "value";
+    public static final String NEIGHBOURHOOD = "neighbourhood";
+    public static final String WARD = "ward";
+    public static final String ASSESSMENT_CLASS = "assessment_class";
+    public static final String ASSESSMENT_CLASS_2 = "assessment_class_2";
+    public static final String ASSESSMENT_CLASS_3 = "assessment_class_3";
+    public static final String ASSESSMENT_PERCENT = "assessment_percent";
+    public static final String ASSESSMENT_PERCENT_2 = "assessment_percent_2";
+    public static final String ASSESSMENT_PERCENT_3 = "assessment_percent_3";
+    public static final String ADDRESS = "address";
+    public static final String LATITUDE = "latitude";
+    public static final String LONGITUDE = "longitude";
+    public static final String CELL = "cell";
+
+    // Assessment class and percentage columns in class order
+    public static final List<String> ASSESSMENT_CLASSES = List.of(ASSESSMENT_CLASS, ASSESSMENT_CLASS_2, ASSESSMENT_CLASS_3);
+    public static final List<String> ASSESSMENT_PERCENTS = List.of(ASSESSMENT_PERCENT, ASSESSMENT_PERCENT_2, ASSESSMENT_PERCENT_3);
+
+    // Date column value for a missing date
+    public static final int NO_DATE = CrimeData.NO_DATE;
+
+    /**
+     * Data set stored in a file
+     */
+    public enum Kind { CRIME, PROPERTY }
+
+    private enum ColumnType { DICTIONARY, INT32, FLOAT64, COORDINATE, STRING }
+
+    private record Column(ColumnType type, int width, long dataOffset, long dataLength,
+                          long auxOffset, long auxLength) {}
+
+    private final Arena arena;
+    private final MemorySegment segment;
+    private final Kind kind;
+    private final int rowCount;
+    private final Map<String, Column> columns;
+
+    // Grid the cell column was projected on
+    private final int gridWidth;
+    private final int gridHeight;
+    private final double[] gridCorners;
+    private final int gridProjection;
+
+    private ColumnarKeyData(Arena arena, MemorySegment segment, Path path) throws IOException {
+        this.arena = arena;
+        this.segment = segment;
+
+        if (segment.byteSize() < HEADER_BYTES || segment.get(ValueLayout.JAVA_INT, 0) != MAGIC ||
+                segment.get(ValueLayout.JAVA_INT, 4) != VERSION) {
+            throw new IOException("Not a columnar key data file (or written on a different byte order): " + path);
+        }
+
+        int kindOrdinal = segment.get(ValueLayout.JAVA_INT, 8);
+        int columnCount = segment.get(ValueLayout.JAVA_INT, 12);
+        long rows = segment.get(ValueLayout.JAVA_LONG, 16);
+        if (kindOrdinal < 0 || kindOrdinal >= Kind.values().length || columnCount < 0 ||
+                rows < 0 || rows > Integer.MAX_VALUE) {
+            throw new IOException("Corrupt columnar key data header: " + path);
+        }
+        this.kind = Kind.values()[kindOrdinal];
+        this.rowCount = (int) rows;
+
+        this.gridWidth = segment.get(ValueLayout.JAVA_INT, 24);
+        this.gridHeight = segment.get(ValueLayout.JAVA_INT, 28);
+        this.gridCorners = new double[4];
+        for (int i = 0; i < 4; i++) {
+            gridCorners[i] = segment.get(ValueLayout.JAVA_DOUBLE, 32 + 8L * i);
+        }
+        this.gridProjection = segment.get(ValueLayout.JAVA_INT, 64);
+        long namesOffset = segment.get(ValueLayout.JAVA_LONG, 72);
+
+        try {
+            String[] names = readStrings(namesOffset);
+            this.columns = new LinkedHashMap<>();
+            for (int i = 0; i < columnCount; i++) {
+                long entry = HEADER_BYTES + (long) i * DIRECTORY_ENTRY_BYTES;
+                Column column = new Column(
+                        ColumnType.values()[segment.get(ValueLayout.JAVA_INT, entry)],
+                        segment.get(ValueLayout.JAVA_INT, entry + 4),
+                        segment.get(ValueLayout.JAVA_LONG, entry + 8),
+                        segment.get(ValueLayout.JAVA_LONG, entry + 16),
+                        segment.get(ValueLayout.JAVA_LONG, entry + 24),
+                        segment.get(ValueLayout.JAVA_LONG, entry + 32));
+                if (column.dataOffset() + column.dataLength() > segment.byteSize() ||
+                        column.auxOffset() + column.auxLength() > segment.byteSize()) {
+                    throw new IOException("Truncated columnar key data file: " + path);
+                }
+                columns.put(names[i], column);
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt columnar key data file: " + path, e);
+        }
+    }
+
+    /**
+     * Maps a file written by {@link #writeCrimes} or {@link #writeProperties} read-only
+     * @param path Path to the file
+     * @return The opened file, which must be closed by the caller
+     * @throws IOException If the file cannot be read or is not a valid columnar key data file
+     */
+    public static ColumnarKeyData open(Path path) throws IOException {
+        Arena arena = Arena.ofShared();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+            return new ColumnarKeyData(arena, segment, path);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    public Kind getKind() { return kind; }
+
+    public int getRowCount() { return rowCount; }
+
+    /**
+     * @return Column names in file order
+     */
+    public List<String> getColumnNames() {
+        return List.copyOf(columns.keySet());
+    }
+
+    public boolean hasColumn(String name) {
+        return columns.containsKey(name);
+    }
+
+    /**
+     * @param grid Grid to compare with
+     * @return true if the cell column was projected on this grid and can be used as is
+     */
+    public boolean matchesGrid(GridSpec grid) {
+        return gridProjection != OTHER_PROJECTION && gridProjection == projectionId(grid.getProjection()) &&
+                gridWidth == grid.getWidth() && gridHeight == grid.getHeight() &&
+                gridCorners[0] == grid.getTopLeftLat() && gridCorners[1] == grid.getTopLeftLon() &&
+                gridCorners[2] == grid.getBottomRightLat() && gridCorners[3] == grid.getBottomRightLon();
+    }
+
+    /**
+     * @param name Name of a DICTIONARY column
+     * @return The distinct values, indexed by code; entry 0 is null
+     */
+    public String[] getDictionary(String name) {
+        Column column = column(name, ColumnType.DICTIONARY);
+        String[] stored = readStrings(column.auxOffset());
+        String[] dictionary = new String[stored.length + 1];
+        System.arraycopy(stored, 0, dictionary, 1, stored.length);
+        return dictionary;
+    }
+
+    /**
+     * @param name Name of a DICTIONARY column
+     * @return The dictionary code of every row
+     */
+    public int[] getCodes(String name) {
+        Column column = column(name, ColumnType.DICTIONARY);
+        int[] codes = new int[rowCount];
+        long offset = column.dataOffset();
+        switch (column.width()) {
+            case 1 -> {
+                for (int i = 0; i < rowCount; i++) {
+                    codes[i] = Byte.toUnsignedInt(segment.get(ValueLayout.JAVA_BYTE, offset + i));
+                }
+            }
+            case 2 -> {
+                for (int i = 0; i < rowCount; i++) {
+                    codes[i] = Short.toUnsignedInt(segment.get(ValueLayout.JAVA_SHORT, offset + 2L * i));
+                }
+            }
+            default -> MemorySegment.copy(segment, ValueLayout.JAVA_INT, offset, codes, 0, rowCount);
+        }
+        return codes;
+    }
+
+    /**
+     * Decodes a DICTIONARY column into one string per row; rows with equal values share one instance
+     * @param name Name of a DICTIONARY column
+     * @return The value of every row
+     */
+    public String[] getStrings(String name) {
+        Column column = columns.get(name);
+        if (column != null && column.type() == ColumnType.STRING) {
+            return readStrings(column.dataOffset());
+        }
+
+        String[] dictionary = getDictionary(name);
+        int[] codes = getCodes(name);
+        String[] values = new String[rowCount];
+        for (int i = 0; i < rowCount; i++) {
+            values[i] = dictionary[codes[i]];
+        }
+        return values;
+    }
+
+    /**
+     * @param name Name of an INT32 column
+     * @return The value of every row
+     */
+    public int[] getInts(String name) {
+        Column column = column(name, ColumnType.INT32);
+        int[] values = new int[rowCount];
+        MemorySegment.copy(segment, ValueLayout.JAVA_INT, column.dataOffset(), values, 0, rowCount);
+        return values;
+    }
+
+    /**
+     * @param name Name of a FLOAT64 column
+     * @return The value of every row
+     */
+    public double[] getDoubles(String name) {
+        Column column = column(name, ColumnType.FLOAT64);
+        double[] values = new double[rowCount];
+        MemorySegment.copy(segment, ValueLayout.JAVA_DOUBLE, column.dataOffset(), values, 0, rowCount);
+        return values;
+    }
+
+    /**
+     * @param name Name of a COORDINATE column
+     * @return The coordinate of every row in degrees, to 6 decimals
+     */
+    public double[] getCoordinates(String name) {
+        Column column = column(name, ColumnType.COORDINATE);
+        double[] values = new double[rowCount];
+        long offset = column.dataOffset();
+        long previous = 0;
+        for (int i = 0; i < rowCount; i++) {
+            // Unsigned LEB128 varint holding the zigzag encoded delta
+            long encoded = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = segment.get(ValueLayout.JAVA_BYTE, offset++);
+                encoded |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            previous += (encoded >>> 1) ^ -(encoded & 1);
+            values[i] = previous / COORDINATE_SCALE;
+        }
+        return values;
+    }
+
+    /**
+     * Releases the mapping
+     */
+    @Override
+    public void close() {
+        arena.close();
+    }
+
+    private Column column(String name, ColumnType type) {
+        Column column = columns.get(name);
+        if (column == null || column.type() != type) {
+            throw new IllegalArgumentException("No " + type + " column named " + name + " in " + kind + " data");
+        }
+        return column;
+    }
+
+    private String[] readStrings(long offset) {
+        int count = segment.get(ValueLayout.JAVA_INT, offset);
+        long offsets = offset + Integer.BYTES;
+        long bytes = offsets + (long) (count + 1) * Integer.BYTES;
+        String[] strings = new String[count];
+        for (int i = 0; i < count; i++) {
+            int start = segment.get(ValueLayout.JAVA_INT, offsets + (long) i * Integer.BYTES);
+            int end = segment.get(ValueLayout.JAVA_INT, offsets + (long) (i + 1) * Integer.BYTES);
+            byte[] utf8 = segment.asSlice(bytes + start, end - start).toArray(ValueLayout.JAVA_BYTE);
+            strings[i] = new String(utf8, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    private static int projectionId(Projection projection) {
+        if (projection instanceof LinearProjection) { return LINEAR_PROJECTION; }
+        if (projection instanceof WebMercatorProjection) { return WEB_MERCATOR_PROJECTION; }
+        return OTHER_PROJECTION;
+    }
+
+    /**
+     * Writes the crimes that have a cell
+     * @param crimes Crime records
+     * @param cells Cell of each record on the grid, -1 to leave the record out
+     * @param grid Grid the cells were projected on
+     * @param path Destination file, replaced if it exists
+     * @throws IOException If an I/O error occurs
+     */
+    public static void writeCrimes(List<CrimeData> crimes, int[] cells, GridSpec grid, Path path) throws IOException {
+        int[] rows = keptRows(cells);
+        String[] categories = new String[rows.length];
+        String[] groups = new String[rows.length];
+        String[] types = new String[rows.length];
+        String[] intersections = new String[rows.length];
+        int[] dates = new int[rows.length];
+        double[] latitudes = new double[rows.length];
+        double[] longitudes = new double[rows.length];
+        int[] rowCells = new int[rows.length];
+
+        for (int i = 0; i < rows.length; i++) {
+            CrimeData crime = crimes.get(rows[i]);
+            categories[i] = crime.getOccurrenceCategory();
+            groups[i] = crime.getOccurrenceGroup();
+            types[i] = crime.getOccurrenceTypeGroup();
+            intersections[i] = crime.getIntersection();
+            dates[i] = crime.getEpochDayReported();
+            latitudes[i] = crime.getLocation().getLatitude();
+            longitudes[i] = crime.getLocation().getLongitude();
+            rowCells[i] = cells[rows[i]];
+        }
+
+        FileBuilder file = new FileBuilder(Kind.CRIME, rows.length, grid);
+        file.dictionary(CATEGORY, categories);
+        file.dictionary(GROUP, groups);
+        file.dictionary(TYPE, types);
+        file.dictionary(INTERSECTION, intersections);
+        file.ints(DATE, dates);
+        file.coordinates(LATITUDE, latitudes);
+        file.coordinates(LONGITUDE, longitudes);
+        file.ints(CELL, rowCells);
+        file.write(path);
+    }
+
+    /**
+     * Writes the properties that have a cell
+     * @param properties Property records
+     * @param cells Cell of each record on the grid, -1 to leave the record out
+     * @param grid Grid the cells were projected on
+     * @param path Destination file, replaced if it exists
+     * @throws IOException If an I/O error occurs
+     */
+    public static void writeProperties(List<PropertyData> properties, int[] cells, GridSpec grid, Path path)
+            throws IOException {
+        int[] rows = keptRows(cells);
+        double[] values = new double[rows.length];
+        String[] neighbourhoods = new String[rows.length];
+        String[] wards = new String[rows.length];
+        String[][] assessmentClasses = new String[ASSESSMENT_CLASSES.size()][rows.length];
+        int[][] assessmentPercents = new int[ASSESSMENT_PERCENTS.size()][rows.length];
+        String[] addresses = new String[rows.length];
+        double[] latitudes = new double[rows.length];
+        double[] longitudes = new double[rows.length];
+        int[] rowCells = new int[rows.length];
+
+        for (int i = 0; i < rows.length; i++) {
+            PropertyData property = properties.get(rows[i]);
+            values[i] = property.getAssessment().getAssessedValue();
+            neighbourhoods[i] = property.getNeighbourhood().getNeighbourhood();
+            wards[i] = property.getNeighbourhood().getWard();
+            // Same class keys the property cube uses
+            Assessment assessment = property.getAssessment();
+            assessmentClasses[0][i] = PropertyCube.classKey(assessment.getAssessmentClass1());
+            assessmentClasses[1][i] = PropertyCube.classKey(assessment.getAssessmentClass2());
+            assessmentClasses[2][i] = PropertyCube.classKey(assessment.getAssessmentClass3());
+            assessmentPercents[0][i] = assessment.getAssessmentClass1Percent();
+            assessmentPercents[1][i] = assessment.getAssessmentClass2Percent();
+            assessmentPercents[2][i] = assessment.getAssessmentClass3Percent();
+            addresses[i] = property.getAddress() != null ? property.getAddress().toString() : null;
+            latitudes[i] = property.getLocation().getLatitude();
+            longitudes[i] = property.getLocation().getLongitude();
+            rowCells[i] = cells[rows[i]];
+        }
+
+        FileBuilder file = new FileBuilder(Kind.PROPERTY, rows.length, grid);
+        file.doubles(VALUE, values);
+        file.dictionary(NEIGHBOURHOOD, neighbourhoods);
+        file.dictionary(WARD, wards);
+        for (int c = 0; c < ASSESSMENT_CLASSES.size(); c++) {
+            file.dictionary(ASSESSMENT_CLASSES.get(c), assessmentClasses[c]);
+            file.ints(ASSESSMENT_PERCENTS.get(c), assessmentPercents[c]);
+        }
+        file.strings(ADDRESS, addresses);
+        file.coordinates(LATITUDE, latitudes);
+        file.coordinates(LONGITUDE, longitudes);
+        file.ints(CELL, rowCells);
+        file.write(path);
+    }
+
+    private static int[] keptRows(int[] cells) {
+        int count = 0;
+        int[] rows = new int[cells.length];
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i] >= 0) {
+                rows[count++] = i;
+            }
+        }
+        return Arrays.copyOf(rows, count);
+    }
+
+    /**
+     * Collects encoded columns and lays them out into a file
+     */
+    private static final class FileBuilder {
+        private final Kind kind;
+        private final int rows;
+        private final GridSpec grid;
+        private final List<String> names = new ArrayList<>();
+        private final List<ColumnType> types = new ArrayList<>();
+        private final List<Integer> widths = new ArrayList<>();
+        private final List<byte[]> data = new ArrayList<>();
+        private final List<byte[]> aux = new ArrayList<>();
+
+        FileBuilder(Kind kind, int rows, GridSpec grid) {
+            this.kind = kind;
+            this.rows = rows;
+            this.grid = grid;
+        }
+
+        void dictionary(String name, String[] values) {
+            StringDictionary dictionary = new StringDictionary();
+            int[] codes = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                // Code 0 is reserved for null
+                codes[i] = values[i] == null ? 0 : dictionary.encode(values[i]) + 1;
+            }
+
+            int width = dictionary.size() < 0xFF ? 1 : dictionary.size() < 0xFFFF ? 2 : 4;
+            ByteBuffer buffer = allocate((long) codes.length * width);
+            for (int code : codes) {
+                switch (width) {
+                    case 1 -> buffer.put((byte) code);
+                    case 2 -> buffer.putShort((short) code);
+                    default -> buffer.putInt(code);
+                }
+            }
+            add(name, ColumnType.DICTIONARY, width, buffer.array(),
+                    encodeStrings(dictionary.values().toArray(new String[0])));
+        }
+
+        void ints(String name, int[] values) {
+            ByteBuffer buffer = allocate((long) values.length * Integer.BYTES);
+            buffer.asIntBuffer().put(values);
+            add(name, ColumnType.INT32, Integer.BYTES, buffer.array(), null);
+        }
+
+        void doubles(String name, double[] values) {
+            ByteBuffer buffer = allocate((long) values.length * Double.BYTES);
+            buffer.asDoubleBuffer().put(values);
+            add(name, ColumnType.FLOAT64, Double.BYTES, buffer.array(), null);
+        }
+
+        void coordinates(String name, double[] values) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(values.length * 3);
+            long previous = 0;
+            for (double value : values) {
+                long quantized = Math.round(value * COORDINATE_SCALE);
+                long delta = quantized - previous;
+                previous = quantized;
+
+                // Zigzag keeps small negative deltas short, then unsigned LEB128
+                long encoded = (delta << 1) ^ (delta >> 63);
+                while ((encoded & ~0x7FL) != 0) {
+                    out.write((int) ((encoded & 0x7F) | 0x80));
+                    encoded >>>= 7;
+                }
+                out.write((int) encoded);
+            }
+            add(name, ColumnType.COORDINATE, 0, out.toByteArray(), null);
+        }
+
+        void strings(String name, String[] values) {
+            String[] nonNull = new String[values.length];
+            for (int i = 0; i < values.length; i++) {
+                nonNull[i] = values[i] == null ? "" : values[i];
+            }
+            add(name, ColumnType.STRING, 0, encodeStrings(nonNull), null);
+        }
+
+        private void add(String name, ColumnType type, int width, byte[] columnData, byte[] columnAux) {
+            names.add(name);
+            types.add(type);
+            widths.add(width);
+            data.add(columnData);
+            aux.add(columnAux);
+        }
+
+        void write(Path path) throws IOException {
+            int columnCount = names.size();
+            byte[] nameBlock = encodeStrings(names.toArray(new String[0]));
+
+            // Lay out the names, then each column's data and auxiliary block, all 8-byte aligned
+            long offset = align(HEADER_BYTES + (long) columnCount * DIRECTORY_ENTRY_BYTES);
+            long namesOffset = offset;
+            offset = align(offset + nameBlock.length);
+            long[] dataOffsets = new long[columnCount];
+            long[] auxOffsets = new long[columnCount];
+            for (int i = 0; i < columnCount; i++) {
+                dataOffsets[i] = offset;
+                offset = align(offset + data.get(i).length);
+                if (aux.get(i) != null) {
+                    auxOffsets[i] = offset;
+                    offset = align(offset + aux.get(i).length);
+                }
+            }
+
+            ByteBuffer header = allocate(namesOffset);
+            header.putInt(MAGIC).putInt(VERSION).putInt(kind.ordinal()).putInt(columnCount).putLong(rows);
+            header.putInt(grid.getWidth()).putInt(grid.getHeight())
+                    .putDouble(grid.getTopLeftLat()).putDouble(grid.getTopLeftLon())
+                    .putDouble(grid.getBottomRightLat()).putDouble(grid.getBottomRightLon())
+                    .putInt(projectionId(grid.getProjection())).putInt(0)
+                    .putLong(namesOffset);
+            for (int i = 0; i < columnCount; i++) {
+                byte[] columnAux = aux.get(i);
+                header.putInt(types.get(i).ordinal()).putInt(widths.get(i))
+                        .putLong(dataOffsets[i]).putLong(data.get(i).length)
+                        .putLong(auxOffsets[i]).putLong(columnAux == null ? 0 : columnAux.length)
+                        .putLong(0);
+            }
+
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                writeAt(channel, header.array(), 0);
+                writeAt(channel, nameBlock, namesOffset);
+                for (int i = 0; i < columnCount; i++) {
+                    writeAt(channel, data.get(i), dataOffsets[i]);
+                    if (aux.get(i) != null) {
+                        writeAt(channel, aux.get(i), auxOffsets[i]);
+                    }
+                }
+                // Pad the file to the end of the last section
+                if (channel.size() < offset) {
+                    writeAt(channel, new byte[(int) (offset - channel.size())], channel.size());
+                }
+            }
+        }
+
+        /**
+         * Encodes strings as a count, count + 1 byte offsets, then the UTF-8 bytes
+         */
+        private static byte[] encodeStrings(String[] values) {
+            byte[][] utf8 = new byte[values.length][];
+            long length = 0;
+            for (int i = 0; i < values.length; i++) {
+                utf8[i] = values[i].getBytes(StandardCharsets.UTF_8);
+                length += utf8[i].length;
+            }
+
+            ByteBuffer buffer = allocate(Integer.BYTES * (values.length + 2L) + length);
+            buffer.putInt(values.length);
+            int position = 0;
+            for (byte[] bytes : utf8) {
+                buffer.putInt(position);
+                position += bytes.length;
+            }
+            buffer.putInt(position);
+            for (byte[] bytes : utf8) {
+                buffer.put(bytes);
+            }
+            return buffer.array();
+        }
+
+        private static ByteBuffer allocate(long size) {
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IllegalArgumentException("Column too large: " + size + " bytes");
+            }
+            return ByteBuffer.allocate((int) size).order(ByteOrder.nativeOrder());
+        }
+
+        private static long align(long offset) {
+            return (offset + 7) & ~7L;
+        }
+
+        private static void writeAt(FileChannel channel, byte[] bytes, long position) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+    }
+}
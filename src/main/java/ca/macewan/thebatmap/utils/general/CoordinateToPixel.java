@@ -3,24 +3,22 @@ package ca.macewan.thebatmap.utils.general;
 /**
  * Utility class for converting between geographic coordinates (latitude/longitude)
  * and pixel coordinates on the Edmonton map image.
+ * Delegates to {@link GridSpec#EDMONTON}; use a GridSpec directly for other resolutions or extents.
  */
 public class CoordinateToPixel {
-    // Map image dimensions (pixels)
-    private static final int MAP_WIDTH = 1812;
-    private static final int MAP_HEIGHT = 1850;
+    // Grid of the bundled map image
+    private static final GridSpec MAP_GRID = GridSpec.EDMONTON;
 
-    // Lat/lon boundaries of the map image
-    private static final double TOP_LEFT_LAT = 53.652716;
-    private static final double TOP_LEFT_LON = -113.698940;
-    private static final double BOTTOM_RIGHT_LAT = 53.420792;
-    private static final double BOTTOM_RIGHT_LON = -113.317686;
+    public static GridSpec getMapGrid() {
+        return MAP_GRID;
+    }
 
     public static int getMapWidth() {
-        return MAP_WIDTH;
+        return MAP_GRID.getWidth();
     }
 
     public static int getMapHeight() {
-        return MAP_HEIGHT;
+        return MAP_GRID.getHeight();
     }
 
     /**
@@ -29,8 +27,7 @@ public class CoordinateToPixel {
      * @return The X coordinate (pixel) on the map image
      */
     public static int longitudeToX(double longitude) {
-        return (int) Math.round(MAP_WIDTH *
-                (longitude - TOP_LEFT_LON) / (BOTTOM_RIGHT_LON - TOP_LEFT_LON));
+        return MAP_GRID.longitudeToX(longitude);
     }
 
     /**
@@ -39,8 +36,7 @@ public class CoordinateToPixel {
      * @return The Y coordinate (pixel) on the map image
      */
     public static int latitudeToY(double latitude) {
-        return (int) Math.round(MAP_HEIGHT *
-                (TOP_LEFT_LAT - latitude) / (TOP_LEFT_LAT - BOTTOM_RIGHT_LAT));
+        return MAP_GRID.latitudeToY(latitude);
     }
 
     /**
@@ -49,7 +45,7 @@ public class CoordinateToPixel {
      * @return The longitude value
      */
     public static double xToLongitude(int x) {
-        return TOP_LEFT_LON + (x * (BOTTOM_RIGHT_LON - TOP_LEFT_LON) / MAP_WIDTH);
+        return MAP_GRID.xToLongitude(x);
     }
 
     /**
@@ -58,7 +54,7 @@ public class CoordinateToPixel {
      * @return The latitude value
      */
     public static double yToLatitude(int y) {
-        return TOP_LEFT_LAT - (y * (TOP_LEFT_LAT - BOTTOM_RIGHT_LAT) / MAP_HEIGHT);
+        return MAP_GRID.yToLatitude(y);
     }
 
     /**
@@ -73,6 +69,18 @@ public class CoordinateToPixel {
         return new int[] {x, y};
     }
 
+    /**
+     * Converts latitude and longitude to a packed cell index without allocating
+     * @param latitude The latitude value
+     * @param longitude The longitude value
+     * @return Cell index (y * (width + 1) + x), or -1 if the coordinates are outside the map
+     * @see GridSpec#cellX(int)
+     * @see GridSpec#cellY(int)
+     */
+    public static int geoToCell(double latitude, double longitude) {
+        return MAP_GRID.project(latitude, longitude);
+    }
+
     /**
      * Checks if the provided coordinates are within the bounds of the map
      * @param latitude The latitude to check
@@ -80,9 +88,6 @@ public class CoordinateToPixel {
      * @return true if coordinates are within map bounds, false otherwise
      */
     public static boolean outOfBounds(double latitude, double longitude) {
-        return !(latitude <= TOP_LEFT_LAT) ||
-                !(latitude >= BOTTOM_RIGHT_LAT) ||
-                !(longitude >= TOP_LEFT_LON) ||
-                !(longitude <= BOTTOM_RIGHT_LON);
+        return MAP_GRID.outOfBounds(latitude, longitude);
     }
 }
\ No newline at end of file
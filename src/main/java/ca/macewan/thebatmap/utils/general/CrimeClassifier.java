@@ -0,0 +1,157 @@
+package ca.macewan.thebatmap.utils.general;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Classifies crimes into simplified categories for homebuyer-focused visualization.
+ * The data holds only a few hundred distinct (category, group, type) combinations, so each combination
+ * is dictionary coded and the rules run once per combination; later lookups are a table hit.
+ */
+public class CrimeClassifier {
+    /**
+     * Simplified crime categories
+     */
+    public enum Category {
+        VIOLENT("Violent Crime"),
+        PROPERTY("Property Crime"),
+        PUBLIC_DISORDER("Public Disorder"),
+        MISC("Misc");
+
+        private final String label;
+
+        Category(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() { return label; }
+
+        /**
+         * @param label A category label
+         * @return The category with that label, or null if there is none
+         */
+        public static Category fromLabel(String label) {
+            for (Category category : values()) {
+                if (category.label.equals(label)) {
+                    return category;
+                }
+            }
+            return null;
+        }
+    }
+
+    // Bits per dictionary code in a packed key
+    private static final int CODE_BITS = 21;
+    private static final int MAX_CODE = (1 << CODE_BITS) - 1;
+
+    private final StringDictionary categories = new StringDictionary();
+    private final StringDictionary groups = new StringDictionary();
+    private final StringDictionary types = new StringDictionary();
+    private final Map<Long, Category> compiled = new ConcurrentHashMap<>();
+
+    /**
+     * Classifies a crime
+     * @param category Original occurrence category
+     * @param group Original occurrence group
+     * @param type Original occurrence type
+     * @return Simplified category
+     */
+    public Category classify(String category, String group, String type) {
+        int categoryCode = code(categories, category);
+        int groupCode = code(groups, group);
+        int typeCode = code(types, type);
+        if (categoryCode > MAX_CODE || groupCode > MAX_CODE || typeCode > MAX_CODE) {
+            // Too many distinct values to pack into a key
+            return evaluate(category, group, type);
+        }
+
+        long key = ((long) categoryCode << (2 * CODE_BITS)) | ((long) groupCode << CODE_BITS) | typeCode;
+        Category result = compiled.get(key);
+        if (result == null) {
+            result = compiled.computeIfAbsent(key, _ -> evaluate(category, group, type));
+        }
+        return result;
+    }
+
+    /**
+     * @return Number of distinct combinations classified so far
+     */
+    public int size() {
+        return compiled.size();
+    }
+
+    private static int code(StringDictionary dictionary, String value) {
+        // Code 0 stands for a missing value
+        return value == null ? 0 : dictionary.encode(value) + 1;
+    }
+
+    /**
+     * Runs the classification rules for one combination
+     * @param category Original occurrence category
+     * @param group Original occurrence group
+     * @param type Original occurrence type
+     * @return Simplified category (Violent Crime, Property Crime, Public Disorder, or Misc)
+     */
+    static Category evaluate(String category, String group, String type) {
+        // Default to "Misc" if any values are null
+        if (category == null || group == null || type == null) {
+            return Category.MISC;
+        }
+
+        // 1. Violent Crimes
+        if (category.equals("Violent")) {
+            return Category.VIOLENT;
+        }
+
+        if (category.equals("Weapons")) {
+            return Category.VIOLENT;
+        }
+
+        if (group.equals("Personal Violence")) {
+            return Category.VIOLENT;
+        }
+
+        // Specific robbery cases (even if categorized as Property in original data)
+        if (type.contains("Robbery")) {
+            return Category.VIOLENT;
+        }
+
+        // 2. Property Crimes
+        if (group.equals("Property")) {
+            // Check for specific property crime types
+            if (type.contains("Break and Enter") ||
+                    type.contains("Theft") ||
+                    type.contains("Arson") ||
+                    type.contains("Property Damage")) {
+                return Category.PROPERTY;
+            }
+        }
+
+        // Vehicle-related property crimes
+        if (type.contains("Motor Vehicle")) {
+            return Category.PROPERTY;
+        }
+
+        // 3. Public Disorder
+        if (category.equals("Disorder")) {
+            // Exclude certain disorder types
+            if (!type.contains("Fraud")) {
+                return Category.PUBLIC_DISORDER;
+            }
+        }
+
+        if (group.equals("General Disorder")) {
+            return Category.PUBLIC_DISORDER;
+        }
+
+        if (type.equals("Trespassing") ||
+                type.equals("Suspicious Person") ||
+                type.equals("Disturbance") || type.equals("Drugs") ||
+                type.equals("Intoxicated Person")) {
+            return Category.PUBLIC_DISORDER;
+        }
+
+        // 4. Default to "Misc" for everything else
+        return Category.MISC;
+    }
+}
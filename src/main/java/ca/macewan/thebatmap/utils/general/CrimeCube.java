@@ -0,0 +1,486 @@
+package ca.macewan.thebatmap.utils.general;
+
+import ca.macewan.thebatmap.utils.models.CrimeData;
+
+import java.time.YearMonth;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sparse crime counts per grid cell over the joint (category, group, type, month) dimensions.
+ * Each distinct combination of the four dimensions is a tuple; the cube stores one count per (cell, tuple) that
+ * occurs, sorted by cell. Roll-ups over any subset of the dimensions are computed from these counts, without
+ * going back to the records, and the most recent ones are cached.
+ * Immutable once built, and safe to share between threads.
+ */
+public class CrimeCube {
+    // Number of roll-ups kept
+    private static final int CACHED_ROLL_UPS = 32;
+    // Bits per dimension code in a packed tuple; code 0 stands for a missing value
+    private static final int CODE_BITS = 16;
+    private static final int MAX_CODE = (1 << CODE_BITS) - 1;
+    // Month codes are offset so that months before 1970 stay positive
+    private static final int MONTH_OFFSET = 1 << (CODE_BITS - 1);
+
+    /** Cube without any crimes */
+    public static final CrimeCube EMPTY = new Builder(0).build();
+
+    // Dimension values, coded from 0 (tuples store code + 1)
+    private final StringDictionary categories;
+    private final StringDictionary groups;
+    private final StringDictionary types;
+
+    // Dimension codes of each tuple
+    private final int[] tupleCategory;
+    private final int[] tupleGroup;
+    private final int[] tupleType;
+    private final int[] tupleMonth;
+
+    // (cell << 32 | tuple) of every occurring pair in ascending order, and the number of crimes for each
+    private final long[] facts;
+    private final int[] counts;
+    private final long total;
+    private final int cellCount;
+
+    // Cubes with the cells merged into blocks, by grid width and block size
+    private final Map<Long, CrimeCube> coarseCubes = new ConcurrentHashMap<>();
+
+    private final Map<Slice, RollUp> rollUps = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Slice, RollUp> eldest) {
+            return size() > CACHED_ROLL_UPS;
+        }
+    };
+
+    /**
+     * Selection along the dimensions of the cube, in codes; -1 selects every value of a dimension
+     */
+    private record Slice(int category, int group, int type, int fromMonth, int toMonth) {}
+
+    /**
+     * Crime counts per cell for one selection
+     * @param cells Cells with at least one matching crime, ascending
+     * @param counts Number of matching crimes in each cell
+     */
+    public record RollUp(int[] cells, int[] counts) {
+        static final RollUp EMPTY = new RollUp(new int[0], new int[0]);
+
+        /**
+         * @return Number of cells with matching crimes
+         */
+        public int size() {
+            return cells.length;
+        }
+
+        /**
+         * @return The counts keyed by cell, in the form the overlay renderer scans
+         */
+        public Map<Integer, Double> toMap() {
+            Map<Integer, Double> map = new HashMap<>(cells.length * 4 / 3 + 1);
+            for (int i = 0; i < cells.length; i++) {
+                map.put(cells[i], (double) counts[i]);
+            }
+            return map;
+        }
+    }
+
+    private CrimeCube(Builder builder, long[] facts, int[] counts) {
+        this.categories = builder.categories;
+        this.groups = builder.groups;
+        this.types = builder.types;
+        int tuples = builder.tupleCount;
+        this.tupleCategory = Arrays.copyOf(builder.tupleCategory, tuples);
+        this.tupleGroup = Arrays.copyOf(builder.tupleGroup, tuples);
+        this.tupleType = Arrays.copyOf(builder.tupleType, tuples);
+        this.tupleMonth = Arrays.copyOf(builder.tupleMonth, tuples);
+        this.facts = facts;
+        this.counts = counts;
+        this.total = sum(counts);
+        this.cellCount = countCells(facts);
+    }
+
+    private CrimeCube(CrimeCube source, long[] facts, int[] counts) {
+        this.categories = source.categories;
+        this.groups = source.groups;
+        this.types = source.types;
+        this.tupleCategory = source.tupleCategory;
+        this.tupleGroup = source.tupleGroup;
+        this.tupleType = source.tupleType;
+        this.tupleMonth = source.tupleMonth;
+        this.facts = facts;
+        this.counts = counts;
+        this.total = sum(counts);
+        this.cellCount = countCells(facts);
+    }
+
+    private static long sum(int[] counts) {
+        long sum = 0;
+        for (int count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    private static int countCells(long[] facts) {
+        int cells = 0;
+        for (int i = 0; i < facts.length; i++) {
+            if (i == 0 || (int) (facts[i] >>> 32) != (int) (facts[i - 1] >>> 32)) {
+                cells++;
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * @return Number of crimes in the cube
+     */
+    public long getTotal() { return total; }
+
+    /**
+     * @return Number of distinct (category, group, type, month) combinations
+     */
+    public int getTupleCount() { return tupleCategory.length; }
+
+    /**
+     * @return Number of cells with at least one crime
+     */
+    public int getCellCount() { return cellCount; }
+
+    /**
+     * @return Number of stored (cell, combination) counts
+     */
+    public int getFactCount() { return facts.length; }
+
+    public List<String> getCategories() { return categories.values(); }
+
+    public List<String> getGroups() { return groups.values(); }
+
+    public List<String> getTypes() { return types.values(); }
+
+    /**
+     * Merges the cells of the cube into square blocks, for low resolution previews that roll up far fewer facts.
+     * The coarse cube is built on first use and kept with this cube.
+     * @param width Width of the grid the cells index, in cells
+     * @param factor Cells along each side of a block
+     * @return A cube whose cells are block indices, row by row over a grid ceil(width / factor) blocks wide
+     */
+    public CrimeCube coarsen(int width, int factor) {
+        return coarseCubes.computeIfAbsent((long) width << 32 | factor, _ -> {
+            int[] order = groupByBlock(facts, width, factor);
+            long[] blockFacts = new long[facts.length];
+            int[] blockCounts = new int[facts.length];
+            int size = 0;
+            for (int i = 0; i < order.length; i++) {
+                long fact = facts[order[i]];
+                long key = (long) blockOf((int) (fact >>> 32), width, factor) << 32 | (fact & 0xFFFFFFFFL);
+                if (size == 0 || blockFacts[size - 1] != key) {
+                    blockFacts[size++] = key;
+                }
+                blockCounts[size - 1] += counts[order[i]];
+            }
+            return new CrimeCube(this, Arrays.copyOf(blockFacts, size), Arrays.copyOf(blockCounts, size));
+        });
+    }
+
+    /**
+     * Orders facts by block and then by tuple, so equal (block, tuple) pairs are adjacent. The facts are
+     * bucketed by block in one pass, and only the few facts of each block are sorted.
+     * @param facts (cell << 32 | tuple) in ascending order
+     * @return Indices of the facts in (block, tuple) order
+     */
+    static int[] groupByBlock(long[] facts, int width, int factor) {
+        if (facts.length == 0) {
+            return new int[0];
+        }
+        // Cells are ascending, so the last fact is in the last row of blocks
+        int blockRows = (int) (facts[facts.length - 1] >>> 32) / width / factor + 1;
+        int blocks = blockRows * ((width + factor - 1) / factor);
+        int[] starts = new int[blocks + 1];
+        for (long fact : facts) {
+            starts[blockOf((int) (fact >>> 32), width, factor) + 1]++;
+        }
+        for (int block = 0; block < blocks; block++) {
+            starts[block + 1] += starts[block];
+        }
+
+        // (tuple << 32 | fact index) bucketed by block, then sorted within each bucket
+        long[] entries = new long[facts.length];
+        int[] next = Arrays.copyOf(starts, blocks);
+        for (int i = 0; i < facts.length; i++) {
+            entries[next[blockOf((int) (facts[i] >>> 32), width, factor)]++] = (facts[i] & 0xFFFFFFFFL) << 32 | i;
+        }
+        int[] order = new int[facts.length];
+        for (int block = 0; block < blocks; block++) {
+            Arrays.sort(entries, starts[block], starts[block + 1]);
+            for (int i = starts[block]; i < starts[block + 1]; i++) {
+                order[i] = (int) entries[i];
+            }
+        }
+        return order;
+    }
+
+    /**
+     * @param cell Cell index on a grid
+     * @param width Width of the grid in cells
+     * @param factor Cells along each side of a block
+     * @return Index of the block holding the cell, row by row over a grid ceil(width / factor) blocks wide
+     */
+    public static int blockOf(int cell, int width, int factor) {
+        return (cell / width / factor) * ((width + factor - 1) / factor) + (cell % width) / factor;
+    }
+
+    /**
+     * Counts the crimes per cell matching every given dimension value
+     * @param category Occurrence category, or null for all
+     * @param group Occurrence group, or null for all
+     * @param type Occurrence type group, or null for all
+     * @return Counts of the cells with matching crimes
+     */
+    public RollUp rollUp(String category, String group, String type) {
+        return rollUp(category, group, type, null, null);
+    }
+
+    /**
+     * Counts the crimes per cell matching every given dimension value within a range of months
+     * @param category Occurrence category, or null for all
+     * @param group Occurrence group, or null for all
+     * @param type Occurrence type group, or null for all
+     * @param from First month, or null for no lower bound
+     * @param to Last month, or null for no upper bound
+     * @return Counts of the cells with matching crimes; crimes without a date only match when neither bound is set
+     */
+    public RollUp rollUp(String category, String group, String type, YearMonth from, YearMonth to) {
+        int categoryCode = find(categories, category);
+        int groupCode = find(groups, group);
+        int typeCode = find(types, type);
+        if (categoryCode == 0 || groupCode == 0 || typeCode == 0) {
+            return RollUp.EMPTY;
+        }
+
+        Slice slice = new Slice(categoryCode, groupCode, typeCode,
+                from == null ? -1 : monthCode(from), to == null ? -1 : monthCode(to));
+        synchronized (rollUps) {
+            RollUp cached = rollUps.get(slice);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        // Computed outside the lock; two threads asking for the same slice at once both compute it
+        RollUp rollUp = compute(slice);
+        synchronized (rollUps) {
+            rollUps.put(slice, rollUp);
+        }
+        return rollUp;
+    }
+
+    /**
+     * Counts the crimes in one cell matching every given dimension value
+     * @param cell Cell index
+     * @param category Occurrence category, or null for all
+     * @param group Occurrence group, or null for all
+     * @param type Occurrence type group, or null for all
+     * @return Number of matching crimes
+     */
+    public int count(int cell, String category, String group, String type) {
+        int categoryCode = find(categories, category);
+        int groupCode = find(groups, group);
+        int typeCode = find(types, type);
+        if (categoryCode == 0 || groupCode == 0 || typeCode == 0) {
+            return 0;
+        }
+
+        Slice slice = new Slice(categoryCode, groupCode, typeCode, -1, -1);
+        int sum = 0;
+        for (int i = firstFact(cell); i < facts.length && (int) (facts[i] >>> 32) == cell; i++) {
+            if (matches(slice, (int) facts[i])) {
+                sum += counts[i];
+            }
+        }
+        return sum;
+    }
+
+    private RollUp compute(Slice slice) {
+        // Decide once per tuple, then sum the facts of matching tuples per cell
+        boolean[] selected = new boolean[tupleCategory.length];
+        boolean any = false;
+        for (int tuple = 0; tuple < selected.length; tuple++) {
+            selected[tuple] = matches(slice, tuple);
+            any |= selected[tuple];
+        }
+        if (!any) {
+            return RollUp.EMPTY;
+        }
+
+        int[] cells = new int[16];
+        int[] sums = new int[16];
+        int size = 0;
+        int lastCell = -1;
+        for (int i = 0; i < facts.length; i++) {
+            if (!selected[(int) facts[i]]) {
+                continue;
+            }
+            int cell = (int) (facts[i] >>> 32);
+            if (cell != lastCell) {
+                if (size == cells.length) {
+                    cells = Arrays.copyOf(cells, size * 2);
+                    sums = Arrays.copyOf(sums, size * 2);
+                }
+                cells[size] = cell;
+                size++;
+                lastCell = cell;
+            }
+            sums[size - 1] += counts[i];
+        }
+        return new RollUp(Arrays.copyOf(cells, size), Arrays.copyOf(sums, size));
+    }
+
+    private boolean matches(Slice slice, int tuple) {
+        if (slice.category >= 0 && tupleCategory[tuple] != slice.category) { return false; }
+        if (slice.group >= 0 && tupleGroup[tuple] != slice.group) { return false; }
+        if (slice.type >= 0 && tupleType[tuple] != slice.type) { return false; }
+        if (slice.fromMonth < 0 && slice.toMonth < 0) { return true; }
+
+        int month = tupleMonth[tuple];
+        return month != 0 && (slice.fromMonth < 0 || month >= slice.fromMonth)
+                && (slice.toMonth < 0 || month <= slice.toMonth);
+    }
+
+    /**
+     * @return Index of the first fact of a cell, or where it would be
+     */
+    private int firstFact(int cell) {
+        int index = Arrays.binarySearch(facts, (long) cell << 32);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * @return -1 for null (any value), the code of a known value, or 0 if the value does not occur
+     */
+    private static int find(StringDictionary values, String value) {
+        return value == null ? -1 : values.find(value) + 1;
+    }
+
+    private static int monthCode(YearMonth month) {
+        return Math.clamp((month.getYear() - 1970) * 12L + month.getMonthValue() - 1 + MONTH_OFFSET, 1, MAX_CODE);
+    }
+
+    /**
+     * @return Code of the month a date falls in, or 0 for NO_DATE
+     */
+    private static int monthCodeOfDay(int epochDay) {
+        if (epochDay == CrimeData.NO_DATE) {
+            return 0;
+        }
+        // Civil date from days, see "chrono-Compatible Low-Level Date Algorithms" (H. Hinnant)
+        int z = epochDay + 719_468;
+        int era = Math.floorDiv(z, 146_097);
+        int dayOfEra = z - era * 146_097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36_524 - dayOfEra / 146_096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return Math.clamp((year - 1970) * 12L + month - 1 + MONTH_OFFSET, 1, MAX_CODE);
+    }
+
+    /**
+     * Collects crimes one at a time. Not thread-safe.
+     */
+    public static class Builder {
+        private final StringDictionary categories = new StringDictionary();
+        private final StringDictionary groups = new StringDictionary();
+        private final StringDictionary types = new StringDictionary();
+        private final Map<Long, Integer> tupleIds = new HashMap<>();
+        private int[] tupleCategory = new int[64];
+        private int[] tupleGroup = new int[64];
+        private int[] tupleType = new int[64];
+        private int[] tupleMonth = new int[64];
+        private int tupleCount;
+
+        // (cell << 32 | tuple) of every crime added
+        private long[] keys;
+        private int size;
+
+        /**
+         * @param expectedCrimes Number of crimes that will be added, to size the buffer
+         */
+        public Builder(int expectedCrimes) {
+            keys = new long[Math.max(16, expectedCrimes)];
+        }
+
+        /**
+         * @param cell Cell the crime falls in, not negative
+         * @param category Occurrence category, may be null
+         * @param group Occurrence group, may be null
+         * @param type Occurrence type group, may be null
+         * @param epochDay Report date in days since 1970-01-01, or CrimeData.NO_DATE
+         */
+        public void add(int cell, String category, String group, String type, int epochDay) {
+            int tuple = tuple(code(categories, category), code(groups, group), code(types, type), monthCodeOfDay(epochDay));
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+            }
+            keys[size++] = (long) cell << 32 | tuple;
+        }
+
+        private static int code(StringDictionary dictionary, String value) {
+            if (value == null) {
+                return 0;
+            }
+            int code = dictionary.encode(value) + 1;
+            if (code > MAX_CODE) {
+                throw new IllegalStateException("Too many distinct values for a crime cube dimension: " + code);
+            }
+            return code;
+        }
+
+        private int tuple(int category, int group, int type, int month) {
+            long packed = (long) category << (3 * CODE_BITS) | (long) group << (2 * CODE_BITS)
+                    | (long) type << CODE_BITS | month;
+            Integer existing = tupleIds.get(packed);
+            if (existing != null) {
+                return existing;
+            }
+
+            if (tupleCount == tupleCategory.length) {
+                int capacity = tupleCount * 2;
+                tupleCategory = Arrays.copyOf(tupleCategory, capacity);
+                tupleGroup = Arrays.copyOf(tupleGroup, capacity);
+                tupleType = Arrays.copyOf(tupleType, capacity);
+                tupleMonth = Arrays.copyOf(tupleMonth, capacity);
+            }
+            tupleCategory[tupleCount] = category;
+            tupleGroup[tupleCount] = group;
+            tupleType[tupleCount] = type;
+            tupleMonth[tupleCount] = month;
+            tupleIds.put(packed, tupleCount);
+            return tupleCount++;
+        }
+
+        /**
+         * @return The cube of the crimes added so far; the builder must not be used afterwards
+         */
+        public CrimeCube build() {
+            long[] sorted = Arrays.copyOf(keys, size);
+            Arrays.parallelSort(sorted);
+
+            // Run-length encode equal (cell, tuple) keys
+            int distinct = 0;
+            int[] counts = new int[size];
+            for (int i = 0; i < size; i++) {
+                if (distinct > 0 && sorted[distinct - 1] == sorted[i]) {
+                    counts[distinct - 1]++;
+                } else {
+                    sorted[distinct] = sorted[i];
+                    counts[distinct++] = 1;
+                }
+            }
+            return new CrimeCube(this, Arrays.copyOf(sorted, distinct), Arrays.copyOf(counts, distinct));
+        }
+    }
+}
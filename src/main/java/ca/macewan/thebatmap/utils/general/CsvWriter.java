@@ -0,0 +1,197 @@
+package ca.macewan.thebatmap.utils.general;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered CSV writer that formats numbers straight into a byte buffer.
+ * Unlike String.format it allocates nothing per value and always uses '.' as the decimal separator.
+ */
+public class CsvWriter implements Closeable {
+    private static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L};
+
+    private final WritableByteChannel channel;
+    private final byte[] buffer;
+    private final ByteBuffer view;
+    private final byte[] digits = new byte[20];
+    private int position;
+    private boolean firstField = true;
+
+    /**
+     * @param channel Destination, closed together with this writer
+     * @param bufferSize Size of the output buffer in bytes
+     */
+    public CsvWriter(WritableByteChannel channel, int bufferSize) {
+        this.channel = channel;
+        this.buffer = new byte[bufferSize];
+        this.view = ByteBuffer.wrap(buffer);
+    }
+
+    /**
+     * Writes a field as-is. The value must not contain commas, quotes or line breaks.
+     * @param value Field value, null is written as an empty field
+     * @return This writer
+     */
+    public CsvWriter field(String value) throws IOException {
+        separator();
+        if (value != null) {
+            writeString(value);
+        }
+        return this;
+    }
+
+    /**
+     * Writes an empty field
+     * @return This writer
+     */
+    public CsvWriter emptyField() throws IOException {
+        separator();
+        return this;
+    }
+
+    /**
+     * Writes a field, quoting it if it contains a comma, quote or line break
+     * @param value Field value, null is written as an empty field
+     * @return This writer
+     */
+    public CsvWriter escapedField(String value) throws IOException {
+        if (value == null || (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0)) {
+            return field(value);
+        }
+        separator();
+        writeByte('"');
+        writeString(value.replace("\"", "\"\""));
+        writeByte('"');
+        return this;
+    }
+
+    /**
+     * Writes an integer field
+     * @param value Field value
+     * @return This writer
+     */
+    public CsvWriter field(long value) throws IOException {
+        separator();
+        writeLong(value);
+        return this;
+    }
+
+    /**
+     * Writes a decimal field with a fixed number of decimals (rounded half up)
+     * @param value Field value
+     * @param decimals Number of decimals, at most 9
+     * @return This writer
+     */
+    public CsvWriter field(double value, int decimals) throws IOException {
+        separator();
+        long scale = POWERS_OF_TEN[decimals];
+        double scaled = Math.abs(value) * scale;
+
+        // Values too large for a long (or not finite) take the slow path
+        if (!(scaled < 9.0e18)) {
+            writeString(Double.isFinite(value)
+                    ? new BigDecimal(value).setScale(decimals, RoundingMode.HALF_UP).toPlainString()
+                    : Double.toString(value));
+            return this;
+        }
+
+        long rounded = Math.round(scaled);
+        if (value < 0 && rounded != 0) {
+            writeByte('-');
+        }
+        writeLong(rounded / scale);
+        if (decimals > 0) {
+            writeByte('.');
+            long fraction = rounded % scale;
+            for (long divisor = scale / 10; divisor > 0; divisor /= 10) {
+                writeByte('0' + (int) (fraction / divisor % 10));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Ends the current row
+     * @return This writer
+     */
+    public CsvWriter endRow() throws IOException {
+        writeByte('\n');
+        firstField = true;
+        return this;
+    }
+
+    /**
+     * Writes any buffered bytes to the channel
+     */
+    public void flush() throws IOException {
+        view.clear().limit(position);
+        while (view.hasRemaining()) {
+            channel.write(view);
+        }
+        position = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void separator() throws IOException {
+        if (!firstField) {
+            writeByte(',');
+        }
+        firstField = false;
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (position == buffer.length) {
+            flush();
+        }
+        buffer[position++] = (byte) b;
+    }
+
+    private void writeLong(long value) throws IOException {
+        if (value < 0) {
+            writeByte('-');
+            if (value == Long.MIN_VALUE) {
+                writeString("9223372036854775808");
+                return;
+            }
+            value = -value;
+        }
+
+        int count = 0;
+        do {
+            digits[count++] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        while (count > 0) {
+            writeByte(digits[--count]);
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                // Fall back to the encoder for anything outside ASCII
+                for (byte b : value.substring(i).getBytes(StandardCharsets.UTF_8)) {
+                    writeByte(b);
+                }
+                return;
+            }
+            writeByte(c);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package ca.macewan.thebatmap.utils.general;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches a data directory for new crime and property exports and reloads the data set of an overlay when one lands.
+ * Events are debounced, so a file that is written in several steps is only loaded once it has stopped changing.
+ * Only the changed data set is loaded again, into a copy of the current data, which then replaces it in one step;
+ * renders keep using the previous data until the new data is complete.
+ */
+public class DataDirectoryWatcher implements AutoCloseable {
+    // How long a directory must stay quiet before changed files are loaded
+    public static final Duration DEFAULT_DEBOUNCE = Duration.ofSeconds(2);
+
+    private final Path directory;
+    private final DrawOverlay overlay;
+    private final Duration debounce;
+    private final Consumer<CalculatePixelValue> onReload;
+    private final WatchService watchService;
+    private final Thread thread;
+    private volatile boolean closed;
+
+    // Changed files waiting for the directory to go quiet, only used by the watcher thread
+    private Path changedCrimeFile;
+    private Path changedPropertyFile;
+
+    /**
+     * Starts watching a directory
+     * @param directory Directory the crime_stats.csv and property_data.csv exports (optionally .gz) are written to
+     * @param overlay Overlay whose data set is replaced after a reload
+     * @param debounce How long the directory must stay quiet before changed files are loaded
+     * @param onReload Called on the watcher thread with the new data set once the overlay uses it
+     * @throws IOException If the directory cannot be watched
+     */
+    public DataDirectoryWatcher(Path directory, DrawOverlay overlay, Duration debounce,
+                                Consumer<CalculatePixelValue> onReload) throws IOException {
+        this.directory = directory;
+        this.overlay = overlay;
+        this.debounce = debounce;
+        this.onReload = onReload;
+        this.watchService = directory.getFileSystem().newWatchService();
+        try {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            watchService.close();
+            throw e;
+        }
+        this.thread = Thread.ofPlatform()
+                .name("data-watcher")
+                .daemon()
+                .start(this::watch);
+        System.out.println("Watching for new data in: " + directory.toAbsolutePath());
+    }
+
+    private void watch() {
+        try {
+            while (!closed) {
+                // Wait for the first event of a burst, then until no event has arrived for the debounce time
+                boolean pending = changedCrimeFile != null || changedPropertyFile != null;
+                WatchKey key = pending ? watchService.poll(debounce.toMillis(), TimeUnit.MILLISECONDS)
+                        : watchService.take();
+                if (key == null) {
+                    reload(changedCrimeFile, changedPropertyFile);
+                    changedCrimeFile = null;
+                    changedPropertyFile = null;
+                    continue;
+                }
+
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // Events were lost, so reload whatever exports are there
+                        changedCrimeFile = findExport(FileUtils.CRIME_DATA_FILE);
+                        changedPropertyFile = findExport(FileUtils.PROPERTY_DATA_FILE);
+                    } else {
+                        recordChange(directory.resolve((Path) event.context()));
+                    }
+                }
+
+                if (!key.reset()) {
+                    System.err.println("Data directory is no longer accessible: " + directory.toAbsolutePath());
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Closed
+        }
+    }
+
+    private void recordChange(Path file) {
+        String name = file.getFileName().toString();
+        if (isExport(name, FileUtils.CRIME_DATA_FILE)) {
+            changedCrimeFile = file;
+        } else if (isExport(name, FileUtils.PROPERTY_DATA_FILE)) {
+            changedPropertyFile = file;
+        }
+    }
+
+    private static boolean isExport(String name, String exportName) {
+        return name.equals(exportName) || name.equals(exportName + FileUtils.GZIP_SUFFIX);
+    }
+
+    /**
+     * @return The export with the given name in the directory, compressed or not, or null if there is none
+     */
+    private Path findExport(String exportName) {
+        Path plain = directory.resolve(exportName);
+        if (Files.exists(plain)) {
+            return plain;
+        }
+        Path compressed = directory.resolve(exportName + FileUtils.GZIP_SUFFIX);
+        return Files.exists(compressed) ? compressed : null;
+    }
+
+    /**
+     * Loads the changed files into a new data set and swaps it into the overlay.
+     * If loading fails the overlay keeps its current data.
+     */
+    private void reload(Path crimeFile, Path propertyFile) {
+        CalculatePixelValue previous = overlay.getData();
+        CalculatePixelValue next = null;
+        try {
+            if (crimeFile != null && propertyFile != null) {
+                next = new CalculatePixelValue(previous.getGridSpec());
+                next.loadCrimeData(crimeFile);
+                next.loadPropertyData(propertyFile);
+            } else if (crimeFile != null) {
+                next = previous.withoutCrimeData();
+                next.loadCrimeData(crimeFile);
+            } else {
+                next = previous.withoutPropertyData();
+                next.loadPropertyData(propertyFile);
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to reload data from " + directory.toAbsolutePath() + ": " + e.getMessage());
+            if (next != null) {
+                next.close();
+            }
+            return;
+        }
+
+        overlay.setData(next);
+        // Renders still reading the previous grid hold it open, so it is freed once they finish
+        previous.close();
+        System.out.println("Reloaded " + (crimeFile != null ? crimeFile.getFileName() + " " : "") +
+                (propertyFile != null ? propertyFile.getFileName() : ""));
+        onReload.accept(next);
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        watchService.close();
+        thread.interrupt();
+    }
+}
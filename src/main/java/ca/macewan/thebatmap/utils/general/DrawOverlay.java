@@ -1,30 +1,135 @@
 package ca.macewan.thebatmap.utils.general;
 
 import javax.imageio.ImageIO;
-import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.List;
-import java.util.stream.Collectors;
-
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.regex.Pattern;
+
+/**
+ * Renders heat map overlays from a loaded data set.
+ * Each render reads the data set it started with and draws into its own image leased from a small pool,
+ * so several overlays (or several DrawOverlay instances sharing one data set) can render in parallel.
+ */
 public class DrawOverlay {
-    private static final CalculatePixelValue pixels = new CalculatePixelValue();
-    private static final int width = CoordinateToPixel.getMapWidth() + 1;
-    private static final int height = CoordinateToPixel.getMapHeight() + 1;
-    private static final BufferedImage img = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+    // Number of images kept for concurrent renders
+    private static final int RENDER_TARGETS = 3;
+    // Number of scanned layers kept for switching back and forth between overlays
+    private static final int CACHED_LAYERS = 16;
+    private static final OverlayRequest CORRELATION_REQUEST = new OverlayRequest("Correlation", "", "", "");
+    // Record count appended to list entries, e.g. " (12,345)"
+    private static final Pattern COUNT_SUFFIX = Pattern.compile(" \\([\\d,]+\\)$");
+    // Counter of the renders that found no matching data, see MetricsRegistry
+    public static final String EMPTY_OVERLAYS_COUNTER = "empty overlays";
+
+    private volatile CalculatePixelValue pixels;
+    private final GridSpec gridSpec;
+    private final int width;
+    private final int height;
+    private final int stampSize;
+    private final RenderTargetPool renderTargets;
+    private final LayerCache layerCache;
+    // Hexagon geometry by size, kept across data sets since it only depends on the grid
+    private final Map<Integer, HexGrid> hexGrids = new ConcurrentHashMap<>();
+    // Layers are cached above, so the engine does not keep results of its own
+    private final QueryEngine queryEngine = new QueryEngine(0);
+
+    // Current selection in the control panel
     private String mapType = "";
     private String categoryOrGroup = "";
     private String filter = "";
     private String assessment = "";
-    private final String[] crimeCategoryArray = new String[]{"Category", "Group", "Type", "None"};
+    private final String[] crimeCategoryArray = new String[]{"Category", "Group", "Type", "Simplified", "None"};
     private final String[] propertyCategoryArray = new String[]{"Ward", "Neighbourhood", "None"};
-    private final Map<String, String> titleCaseToOriginalMap = new HashMap<>();
+    // Original value of each entry in the filter and assessment class lists, by its title cased name;
+    // replaced whenever a list is built, so values that left the data do not pile up
+    private volatile Map<String, String> filterValues = Map.of();
+    private volatile Map<String, String> assessmentValues = Map.of();
 
+    /**
+     * Creates an overlay renderer and loads the default data set
+     */
     public DrawOverlay() {
+        this(loadDefaultData());
+    }
+
+    /**
+     * Creates an overlay renderer over an already loaded data set
+     * @param pixels The data set to render; it must not be modified while renders are running
+     */
+    public DrawOverlay(CalculatePixelValue pixels) {
+        this(pixels, CACHED_LAYERS);
+    }
+
+    /**
+     * Creates an overlay renderer over an already loaded data set
+     * @param pixels The data set to render; it must not be modified while renders are running
+     * @param cachedLayers Number of scanned layers to keep, 0 to scan on every render
+     */
+    public DrawOverlay(CalculatePixelValue pixels, int cachedLayers) {
+        this(pixels, cachedLayers, RENDER_TARGETS);
+    }
+
+    /**
+     * Creates an overlay renderer over an already loaded data set
+     * @param pixels The data set to render; it must not be modified while renders are running
+     * @param cachedLayers Number of scanned layers to keep, 0 to scan on every render
+     * @param renderTargets Number of images kept, which is the number of renders that can run at once
+     */
+    public DrawOverlay(CalculatePixelValue pixels, int cachedLayers, int renderTargets) {
+        this.pixels = pixels;
+        this.gridSpec = pixels.getGridSpec();
+        this.width = gridSpec.getColumns();
+        this.height = gridSpec.getRows();
+        // Data points are drawn as 5x5 squares on the full size map, scaled along with the grid
+        this.stampSize = (int) Math.max(1, Math.round(5.0 * gridSpec.getWidth() / CoordinateToPixel.getMapWidth()));
+        this.renderTargets = new RenderTargetPool(width, height, renderTargets);
+        this.layerCache = new LayerCache(cachedLayers);
+    }
+
+    private static CalculatePixelValue loadDefaultData() {
+        CalculatePixelValue pixels = new CalculatePixelValue();
         try { pixels.loadData(); }
         catch (IOException e) { throw new RuntimeException(e); }
+        return pixels;
+    }
+
+    /**
+     * @return The data set renders currently start from
+     */
+    public CalculatePixelValue getData() { return pixels; }
+
+    /**
+     * Replaces the data set used by subsequent renders. Renders already running keep the previous one.
+     * @param pixels The new data set, on the same grid
+     */
+    public void setData(CalculatePixelValue pixels) {
+        if (pixels.getGridSpec().getColumns() != width || pixels.getGridSpec().getRows() != height) {
+            throw new IllegalArgumentException("Data set grid does not match this overlay: " + pixels.getGridSpec());
+        }
+        this.pixels = pixels;
+        layerCache.clear();
+    }
+
+    /**
+     * @return Cache of scanned layers, with its hit and miss counts
+     */
+    public LayerCache getLayerCache() { return layerCache; }
+
+    /**
+     * @return The current control panel selection as an immutable request
+     */
+    public OverlayRequest getRequest() {
+        return new OverlayRequest(mapType, categoryOrGroup, filter, assessment);
     }
 
     public void setMapType(String mapType) { this.mapType = mapType; }
@@ -40,54 +145,102 @@ public class DrawOverlay {
         else { return propertyCategoryArray; }
     }
 
+    /**
+     * Lists the values of a filter group with their record counts, e.g. "Theft (12,345)", from the facet catalog
+     * @param newValue Filter group (Category, Group, Type, Simplified, Ward, Neighbourhood or None)
+     * @return "None" followed by the labels of the values
+     */
     public String[] getFilters(String newValue) {
-        Set<String> filterSet = new HashSet<>();
-        titleCaseToOriginalMap.clear(); // Clear previous mappings
+        FilterIndex.Dimension dimension = newValue == null ? null : FilterIndex.Dimension.fromLabel(newValue);
+        Map<String, String> values = new HashMap<>();
+        String[] labels = dimension == null ? facetsToArray(List.of(), values)
+                : facetsToArray(getCatalog(this.pixels, dimension).getFacets(dimension), values);
+        filterValues = Map.copyOf(values);
+        return labels;
+    }
+
+    public String[] getAssessmentClass(String newValue) {
+        return getAssessmentClass(newValue, "None", "None");
+    }
 
-        // Populate the filter set based on the selected category/group
-        switch (newValue) {
-            case "Category" -> filterSet = pixels.getCrimeCategories();
-            case "Group" -> filterSet = pixels.getCrimeGroups();
-            case "Type" -> filterSet = pixels.getCrimeTypes();
-            case "Ward" -> filterSet = pixels.getWards();
-            case "Neighbourhood" -> filterSet = pixels.getNeighborhoods();
-            case null, default -> {}
+    /**
+     * Lists the assessment classes with at least one property under the selected ward or neighbourhood,
+     * with their property counts
+     * @param newValue Map type
+     * @param categoryOrGroup Selected filter group
+     * @param filter Selected filter label or value, or "None"
+     * @return "None" followed by the labels of the classes
+     */
+    public String[] getAssessmentClass(String newValue, String categoryOrGroup, String filter) {
+        if (!newValue.equals("Property")) {
+            return new String[]{"None"};
+        }
+
+        Map<FilterIndex.Dimension, Set<String>> selection = new EnumMap<>(FilterIndex.Dimension.class);
+        FilterIndex.Dimension dimension = categoryOrGroup == null ? null
+                : FilterIndex.Dimension.fromLabel(categoryOrGroup);
+        if (dimension != null && filter != null && !filter.equals("None")) {
+            selection.put(dimension, Set.of(resolve(filterValues, filter)));
         }
-        return setToArray(filterSet);
+        FacetCatalog catalog = this.pixels.getPropertyFacets();
+        Map<String, String> values = new HashMap<>();
+        String[] labels = facetsToArray(catalog.getFacets(FilterIndex.Dimension.ASSESSMENT_CLASS, selection), values);
+        assessmentValues = Map.copyOf(values);
+        return labels;
     }
 
-    public String[] getAssessmentClass(String newValue) {
-        if (newValue.equals("Property")) {
-            Set<String> assessmentClasses = pixels.getAssessmentClasses();
-            return setToArray(assessmentClasses);
+    /**
+     * @param label A filter list entry, e.g. "Theft (12,345)"
+     * @return The value in the data it stands for, or the label itself if it is not a list entry
+     */
+    public String toFilterValue(String label) {
+        String value = resolve(filterValues, label);
+        return value.equals(label) ? resolve(assessmentValues, label) : value;
+    }
+
+    /**
+     * Looks up the original value of a list entry, ignoring its record count, so an entry listed with
+     * an older count (e.g. before the data was reloaded) still resolves
+     */
+    private static String resolve(Map<String, String> values, String label) {
+        String value = values.get(label);
+        if (value == null) {
+            value = values.get(COUNT_SUFFIX.matcher(label).replaceFirst(""));
         }
-        return new String[]{"None"};
+        return value == null ? label : value;
+    }
+
+    private static FacetCatalog getCatalog(CalculatePixelValue pixels, FilterIndex.Dimension dimension) {
+        return switch (dimension) {
+            case WARD, NEIGHBOURHOOD, ASSESSMENT_CLASS -> pixels.getPropertyFacets();
+            default -> pixels.getCrimeFacets();
+        };
     }
 
-    private String[] setToArray(Set<String> set) {
+    private String[] facetsToArray(List<FacetCatalog.Facet> facets, Map<String, String> values) {
         // Create the final list with "None" at top
         List<String> result = new ArrayList<>();
         result.add("None");
 
-        // Check for "Other" to add at the end
-        boolean hasOther = set.remove("Other");
-
-        // Add remaining items in alphabetical order
-        List<String> sortedItems = new ArrayList<>(set);
-        Collections.sort(sortedItems);
-
-        // Apply title case to each item and map to original
-        for (String item : sortedItems) {
-            if (item.equals("None") || item.equals("Other")) {
-                result.add(item);
-            } else {
+        // Facets come sorted by value; "Other" goes at the end
+        FacetCatalog.Facet other = null;
+        for (FacetCatalog.Facet facet : facets) {
+            String item = facet.value();
+            if (item.equals("Other")) {
+                other = facet;
+            } else if (!item.equals("None")) {
                 String titleCased = toTitleCase(item);
-                result.add(titleCased);
+                String label = facet.label(titleCased);
+                result.add(label);
                 // Store mapping from title case to original
-                titleCaseToOriginalMap.put(titleCased, item);
+                values.put(titleCased, item);
             }
         }
-        if (hasOther) { result.add("Other"); }
+        if (other != null) {
+            String label = other.label("Other");
+            result.add(label);
+            values.put("Other", "Other");
+        }
 
         return result.toArray(new String[0]);
     }
@@ -98,28 +251,67 @@ public class DrawOverlay {
      * @return Path to the generated image file, or null if generation failed
      */
     public String drawCorrelationImage() {
-        Map<String, Double> correlationValues = getCorrelationValues();
+        String fileName = "correlation_" + System.currentTimeMillis() + ".png";
+        return renderCorrelation(image -> image == null ? null : createImageFile(image, fileName));
+    }
 
-        if (correlationValues.isEmpty()) {
-            System.out.println("No correlation data available");
-            return null;
-        } else {
-            colorImage(correlationValues, "Correlation", 0);
+    /**
+     * Renders the correlation heatmap into a pooled image and hands it to a consumer
+     * @param consumer Receives the rendered image (or null if there is no data) while it is leased;
+     *                 it must not keep a reference to the image
+     * @return The consumer's result
+     */
+    public <T> T renderCorrelation(Function<BufferedImage, T> consumer) {
+        // The correlation is read from the grid, which is held open in case the data set is replaced meanwhile
+        LayerCache.Layer layer = withData(pixels -> layerCache.get(CORRELATION_REQUEST.mapType(),
+                new LayerKey(pixels.getId(), pixels.getVersion(), CORRELATION_REQUEST), () -> {
+                    try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.SCAN)) {
+                        Map<Integer, Double> correlationValues = getCorrelationValues(pixels);
+                        timer.rows(correlationValues.size()).detail("correlation");
+                        return LayerCache.Layer.of(correlationValues, 0);
+                    }
+                }));
+
+        if (layer.isEmpty()) {
+            MetricsRegistry.count(EMPTY_OVERLAYS_COUNTER, 1);
+            return consumer.apply(null);
+        }
+        return withRenderTarget(image -> {
+            colorImage(image, layer, "Correlation");
+            return consumer.apply(image);
+        });
+    }
 
-            // Save the image
-            String fileName = "correlation_" + System.currentTimeMillis() + ".png";
-            return createImageFile(fileName);
+    /**
+     * Runs an action on the current data set, holding its grid open meanwhile. A grid is only closed after
+     * its data set has been replaced, so on a closed grid the current data set is read again.
+     * @throws IllegalStateException If the current data set was closed without being replaced
+     */
+    private <T> T withData(Function<CalculatePixelValue, T> action) {
+        while (true) {
+            CalculatePixelValue data = this.pixels;
+            PixelGrid grid = data.getGrid();
+            if (grid.acquire()) {
+                try {
+                    return action.apply(data);
+                } finally {
+                    grid.release();
+                }
+            }
+            if (data == this.pixels) {
+                throw new IllegalStateException("The overlay's data set is closed");
+            }
         }
     }
 
-    private Map<String, Double> getCorrelationValues() {
-        Map<String, Double> correlationValues = new HashMap<>();
+    private Map<Integer, Double> getCorrelationValues(CalculatePixelValue pixels) {
+        Map<Integer, Double> correlationValues = new HashMap<>();
 
         // Calculate correlation values for each pixel
         for (int x = 0; x < width; x++) {
             for (int y = 0; y < height; y++) {
                 // Get property value and crime count for this pixel
-                String key = x + "," + y;
+                int key = pixels.cellIndex(x, y);
                 double propertyValue = pixels.getPropertyIntensity(x, y);
                 double crimeIntensity = pixels.getCrimeIntensity(x, y);
 
@@ -144,194 +336,545 @@ public class DrawOverlay {
      * @return Path to the generated image file, or null if generation failed
      */
     public String drawImage() {
-        // Convert title case filter back to original if needed
-        String originalFilter = titleCaseToOriginalMap.getOrDefault(filter, filter);
-        String originalAssessment = titleCaseToOriginalMap.getOrDefault(assessment, assessment);
+        return drawImage(getRequest());
+    }
 
-        if (!originalAssessment.equals("None")) { originalAssessment = originalAssessment.toUpperCase(); }
+    /**
+     * Generates and saves a heat map overlay for the given request
+     * @param request The overlay to draw
+     * @return Path to the generated image file, or null if generation failed
+     */
+    public String drawImage(OverlayRequest request) {
+        return render(request, image -> image == null ? null : createImageFile(image, request.fileName()));
+    }
 
-        System.out.println("DEBUG: Using filter: " + filter + " -> " + originalFilter);
-        System.out.println("DEBUG: Using assessment: " + assessment + " -> " + originalAssessment);
+    /**
+     * Renders a heat map overlay into a pooled image and hands it to a consumer
+     * @param request The overlay to draw
+     * @param consumer Receives the rendered image (or null if no data matches) while it is leased;
+     *                 it must not keep a reference to the image
+     * @return The consumer's result
+     * @throws CancellationException If the thread is interrupted before the image is handed to the consumer
+     */
+    public <T> T render(OverlayRequest request, Function<BufferedImage, T> consumer) {
+        checkCancelled();
+        LayerCache.Layer layer = getLayer(this.pixels, request);
+        if (layer.isEmpty()) {
+            return consumer.apply(null);
+        }
+        checkCancelled();
 
-        Map<String, Double> pixelValues = getPixelValues(originalFilter);
+        return withRenderTarget(image -> {
+            colorImage(image, layer, "notCorrelation");
+            checkCancelled();
+            return consumer.apply(image);
+        });
+    }
 
-        String safeFilter = replaceSymbols(filter);
+    /**
+     * Generates and saves a low resolution preview of a heat map overlay, which is quick to draw and to show
+     * while the full resolution overlay is rendered
+     * @param request The overlay to draw
+     * @param factor Number of map pixels along each side of a preview pixel
+     * @return Path to the generated image file, or null if generation failed
+     */
+    public String drawCoarseImage(OverlayRequest request, int factor) {
+        return renderCoarse(request, factor,
+                image -> image == null ? null : createImageFile(image, "coarse_" + request.fileName()));
+    }
 
-        if (pixelValues.isEmpty()) {
-            // Create a simple message for "no data" case
-            System.out.println("No data matches filter: " + mapType + "_" + categoryOrGroup + "_" + filter + "_" + assessment);
-            return null;
-        } else {
-            List<Double> bounds = detectOutlier(pixelValues);
-            colorImage(pixelValues, "notCorrelation", bounds.get(1));
+    /**
+     * Renders a heat map overlay at a lower resolution, one pixel per block of map pixels, on its own color scale.
+     * The blocks are rolled up from the data set's cubes merged into blocks (or, for simplified crime categories,
+     * from the bitmap index), so the preview does not wait for the full resolution layer.
+     * The image is not pooled, so the consumer may keep it.
+     * @param request The overlay to draw
+     * @param factor Number of map pixels along each side of an image pixel
+     * @param consumer Receives the rendered image, or null if no data matches
+     * @return The consumer's result
+     */
+    public <T> T renderCoarse(OverlayRequest request, int factor, Function<BufferedImage, T> consumer) {
+        CalculatePixelValue pixels = this.pixels;
+        OverlayRequest resolved = getLayerKey(pixels, request).request();
+        LayerCache.Layer blocks;
+        try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.AGGREGATE)) {
+            blocks = getBlockLayer(pixels, resolved, factor);
+            timer.rows(blocks.size()).detail("coarse " + factor);
+        }
+        if (blocks.isEmpty()) {
+            return consumer.apply(null);
+        }
 
-            // Save the image
-            String fileName = mapType + "_" + categoryOrGroup + "_" + safeFilter + "_" + assessment + ".png";
-            return createImageFile(fileName);
+        int coarseWidth = (width + factor - 1) / factor;
+        int coarseHeight = (height + factor - 1) / factor;
+        BufferedImage image = new BufferedImage(coarseWidth, coarseHeight, BufferedImage.TYPE_INT_ARGB);
+        try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.RASTERIZE)) {
+            int[] colors = new int[blocks.size()];
+            ColorMapper.mapHeat(blocks.values(), blocks.size(), detectOutlier(blocks.values()).get(1), colors);
+            int[] raster = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            for (int j = 0; j < colors.length; j++) {
+                raster[blocks.cells()[j]] = colors[j];
+            }
+            timer.rows(blocks.size()).bytes((long) raster.length * Integer.BYTES).detail("coarse " + factor);
         }
+        return consumer.apply(image);
     }
 
-    private Map<String, Double> getPixelValues(String filterValue) {
-        Map<String, Double> pixelValues;
+    /**
+     * Rolls up the values of a resolved request per block of factor x factor cells
+     * @return Block indices and their crime counts or average property values; the bound is left at 0
+     */
+    private LayerCache.Layer getBlockLayer(CalculatePixelValue pixels, OverlayRequest resolved, int factor) {
+        String filterValue = resolved.filter();
+        if (resolved.mapType().equals("Crime")) {
+            if (resolved.categoryOrGroup().equals("Simplified")) {
+                // Not a cube dimension, so the selected records are summed per block from the index
+                FilterIndex index = pixels.getCrimeIndex();
+                FilterIndex.Aggregate aggregate = index.aggregate(
+                        index.select(Map.of(FilterIndex.Dimension.SIMPLIFIED, Set.of(filterValue))));
+                return sumBlocks(aggregate.cells(), aggregate.weights(), factor);
+            }
+            CrimeCube cube = pixels.getCrimeCube().coarsen(width, factor);
+            CrimeCube.RollUp rollUp = switch (resolved.categoryOrGroup()) {
+                case "Category" -> cube.rollUp(filterValue, null, null);
+                case "Group" -> cube.rollUp(null, filterValue, null);
+                case "Type" -> cube.rollUp(null, null, filterValue);
+                default -> cube.rollUp(null, null, null);
+            };
+            double[] values = new double[rollUp.size()];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = rollUp.counts()[i];
+            }
+            return new LayerCache.Layer(rollUp.cells(), values, 0);
+        }
 
-        if (mapType.equals("Crime")) {
-            pixelValues = getPixelCrimeCount(filterValue);
+        boolean filtered = !filterValue.equals("None");
+        String assessmentClass = resolved.assessment().equals("None") ? null : resolved.assessment();
+        PropertyCube.RollUp rollUp = pixels.getPropertyCube().coarsen(width, factor).rollUp(assessmentClass,
+                filtered && resolved.categoryOrGroup().equals("Neighbourhood") ? filterValue : null,
+                filtered && resolved.categoryOrGroup().equals("Ward") ? filterValue : null);
+        double[] values = new double[rollUp.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rollUp.getAverageValue(i);
         }
-        else { // mapType.equals("Property")
-            pixelValues = getPixelPropertyCount(filterValue);
+        return new LayerCache.Layer(rollUp.cells(), values, 0);
+    }
+
+    private LayerCache.Layer sumBlocks(int[] cells, double[] weights, int factor) {
+        int coarseWidth = (width + factor - 1) / factor;
+        double[] sums = new double[coarseWidth * ((height + factor - 1) / factor)];
+        int filled = 0;
+        for (int i = 0; i < cells.length; i++) {
+            int block = CrimeCube.blockOf(cells[i], width, factor);
+            if (sums[block] == 0) {
+                filled++;
+            }
+            sums[block] += weights[i];
         }
 
-        System.out.println("Found " + pixelValues.size() + " matching properties for filter: " +
-                mapType + "/" + categoryOrGroup + "/" + filterValue + "/" + assessment);
+        int[] blocks = new int[filled];
+        double[] values = new double[filled];
+        int j = 0;
+        for (int block = 0; block < sums.length; block++) {
+            if (sums[block] != 0) {
+                blocks[j] = block;
+                values[j++] = sums[block];
+            }
+        }
+        return new LayerCache.Layer(blocks, values, 0);
+    }
 
-        return pixelValues;
+    /**
+     * Generates and saves a hexbin heat map overlay
+     * @param request The overlay to draw
+     * @param hexSize Distance from a hexagon's center to its corners, in map pixels
+     * @return Path to the generated image file, or null if generation failed
+     */
+    public String drawHexImage(OverlayRequest request, int hexSize) {
+        return renderHex(request, hexSize,
+                image -> image == null ? null : createImageFile(image, "hex" + hexSize + "_" + request.fileName()));
     }
 
-    private Map<String, Double> getPixelCrimeCount(String filterValue) {
-        Map<String, Double> pixelValues = new HashMap<>();
-        double count;
+    /**
+     * Renders a heat map overlay binned into hexagons instead of drawn as squares: the layer's cells are merged
+     * into the hexagon their center falls in (counts are added up and averages averaged), and each hexagon is
+     * filled as a polygon on the hexagons' own color scale. The binned layers are cached per hexagon size,
+     * so switching between sizes of an overlay already drawn only fills the polygons again.
+     * @param request The overlay to draw
+     * @param hexSize Distance from a hexagon's center to its corners, in map pixels
+     * @param consumer Receives the rendered image (or null if no data matches) while it is leased;
+     *                 it must not keep a reference to the image
+     * @return The consumer's result
+     * @throws CancellationException If the thread is interrupted before the image is handed to the consumer
+     */
+    public <T> T renderHex(OverlayRequest request, int hexSize, Function<BufferedImage, T> consumer) {
+        CalculatePixelValue pixels = this.pixels;
+        HexGrid hexGrid = hexGrids.computeIfAbsent(hexSize, size -> new HexGrid(width, height, size));
+        LayerKey key = getLayerKey(pixels, request);
+        LayerCache.Layer hexLayer = layerCache.get("Hex", new HexKey(key, hexSize), () -> {
+            LayerCache.Layer layer = getLayer(pixels, request);
+            if (layer.isEmpty()) {
+                return LayerCache.Layer.EMPTY;
+            }
+            try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.AGGREGATE)) {
+                LayerCache.Layer hexes = hexGrid.aggregate(layer, request.mapType().equals("Property"));
+                timer.rows(layer.size()).detail("hex " + hexSize);
+                return new LayerCache.Layer(hexes.cells(), hexes.values(), detectOutlier(hexes.values()).get(1));
+            }
+        });
+        if (hexLayer.isEmpty()) {
+            return consumer.apply(null);
+        }
+        checkCancelled();
+
+        return withRenderTarget(image -> {
+            try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.RASTERIZE)) {
+                int[] colors = new int[hexLayer.size()];
+                ColorMapper.mapHeat(hexLayer.values(), hexLayer.size(), hexLayer.bound(), colors);
+                int[] raster = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+                Arrays.fill(raster, 0);
+                for (int j = 0; j < colors.length; j++) {
+                    hexGrid.fill(raster, hexLayer.cells()[j], colors[j]);
+                }
+                timer.rows(hexLayer.size()).bytes((long) raster.length * Integer.BYTES).detail("hex " + hexSize);
+            }
+            checkCancelled();
+            return consumer.apply(image);
+        });
+    }
+
+    /**
+     * Looks up the scanned layer of a heat map overlay, scanning the data set if it is not cached
+     */
+    private LayerCache.Layer getLayer(CalculatePixelValue pixels, OverlayRequest request) {
+        LayerKey key = getLayerKey(pixels, request);
+        LayerCache.Layer layer = layerCache.get(request.mapType(), key,
+                () -> {
+                    QueryResult result = getPixelValues(pixels, key.request(), key.request().filter());
+                    // A cancelled refinement skips the quantiles, and nothing is cached for it
+                    checkCancelled();
+                    return toLayer(result.cells(), result.values());
+                });
+
+        if (layer.isEmpty()) {
+            MetricsRegistry.count(EMPTY_OVERLAYS_COUNTER, 1);
+        }
+        return layer;
+    }
 
-        for (Map.Entry<String, CalculatePixelValue.CrimePixelData> entry : pixels.getCrimePixels().entrySet()) {
-            CalculatePixelValue.CrimePixelData crimeData = entry.getValue();
+    /**
+     * Builds the cache key of a heat map overlay, with its filter and assessment class resolved to original values
+     */
+    private LayerKey getLayerKey(CalculatePixelValue pixels, OverlayRequest request) {
+        // Convert title case filter back to original if needed
+        String originalFilter = resolve(filterValues, request.filter());
+        String assessmentValue = resolve(assessmentValues, request.assessment());
+        String originalAssessment = assessmentValue.equals("None") ? assessmentValue : assessmentValue.toUpperCase();
+
+        // Cached by the resolved selection, so title case and original names share an entry
+        OverlayRequest resolved = new OverlayRequest(request.mapType(), request.categoryOrGroup(),
+                originalFilter, originalAssessment);
+        return new LayerKey(pixels.getId(), pixels.getVersion(), resolved);
+    }
 
-            count = switch (categoryOrGroup) {
-                case "Category" -> crimeData.getCategoryCount(filterValue);
-                case "Group" -> crimeData.getGroupCount(filterValue);
-                case "Type" -> crimeData.getGroupTypeCount(filterValue);
-                default -> crimeData.getCount();
-            };
-            if (count > 0) pixelValues.put(entry.getKey(), count);
+    /**
+     * Stops a render whose thread has been interrupted, e.g. because a newer selection replaced it
+     * @throws CancellationException If the current thread is interrupted
+     */
+    private static void checkCancelled() {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException("Render cancelled");
         }
+    }
 
-        return pixelValues;
+    private static LayerCache.Layer toLayer(Map<Integer, Double> pixelValues) {
+        if (pixelValues.isEmpty()) {
+            return LayerCache.Layer.EMPTY;
+        }
+        List<Double> bounds = detectOutlier(pixelValues);
+        return LayerCache.Layer.of(pixelValues, bounds.get(1));
     }
 
-    private Map<String, Double> getPixelPropertyCount(String filterValue) {
-        Map<String, Double> pixelValues = new HashMap<>();
-        double count;
+    /**
+     * Builds a layer straight from a query's cells and values, which the layer then shares
+     */
+    private static LayerCache.Layer toLayer(int[] cells, double[] values) {
+        if (cells.length == 0) {
+            return LayerCache.Layer.EMPTY;
+        }
+        return new LayerCache.Layer(cells, values, detectOutlier(values).get(1));
+    }
 
-        for (Map.Entry<String, CalculatePixelValue.PropertyPixelData> entry : pixels.getPropertyPixels().entrySet()) {
-            CalculatePixelValue.PropertyPixelData propertyValues = entry.getValue();
+    /**
+     * Generates and saves a heat map overlay for a multi-select filter
+     * @param mapType "Crime" or "Property"
+     * @param selection Chosen values per dimension, as shown in the control panel
+     * @return Path to the generated image file, or null if no data matches
+     */
+    public String drawSelectionImage(String mapType, Map<FilterIndex.Dimension, ? extends Collection<String>> selection) {
+        String fileName = mapType + "_selection_" + System.currentTimeMillis() + ".png";
+        return render(mapType, selection, image -> image == null ? null : createImageFile(image, fileName));
+    }
 
-            Map<String, Integer> propertyMap = null;
-            Map<String, Integer> assessmentMap = null;
+    /**
+     * Renders a heat map overlay for a multi-select filter, evaluated on the data set's bitmap indexes.
+     * Values chosen within a dimension are combined with OR, and the dimensions with AND.
+     * @param mapType "Crime" or "Property"
+     * @param selection Chosen values per dimension, as shown in the control panel
+     * @param consumer Receives the rendered image (or null if no data matches) while it is leased;
+     *                 it must not keep a reference to the image
+     * @return The consumer's result
+     */
+    public <T> T render(String mapType, Map<FilterIndex.Dimension, ? extends Collection<String>> selection,
+                        Function<BufferedImage, T> consumer) {
+        CalculatePixelValue pixels = this.pixels;
+        Map<FilterIndex.Dimension, Set<String>> resolved = resolveSelection(selection);
+        SelectionKey key = new SelectionKey(pixels.getId(), pixels.getVersion(), mapType, resolved);
+        LayerCache.Layer layer = layerCache.get(mapType, key, () -> scanSelection(pixels, mapType, resolved));
+
+        if (layer.isEmpty()) {
+            MetricsRegistry.count(EMPTY_OVERLAYS_COUNTER, 1);
+            return consumer.apply(null);
+        }
+
+        return withRenderTarget(image -> {
+            colorImage(image, layer, "notCorrelation");
+            return consumer.apply(image);
+        });
+    }
 
-            // If category/group is "None", we don't filter by it
-            if (!categoryOrGroup.equals("None")) {
-                if (categoryOrGroup.equals("Ward")) { propertyMap = propertyValues.getWardCount(); }
-                else if (categoryOrGroup.equals("Neighbourhood")) { propertyMap = propertyValues.getNeighborhoodCount(); }
+    /**
+     * Converts title case values back to the original names, in a form usable as a cache key
+     */
+    private Map<FilterIndex.Dimension, Set<String>> resolveSelection(
+            Map<FilterIndex.Dimension, ? extends Collection<String>> selection) {
+        Map<FilterIndex.Dimension, Set<String>> resolved = new EnumMap<>(FilterIndex.Dimension.class);
+        for (Map.Entry<FilterIndex.Dimension, ? extends Collection<String>> entry : selection.entrySet()) {
+            Set<String> values = new TreeSet<>();
+            for (String value : entry.getValue()) {
+                if (entry.getKey() == FilterIndex.Dimension.ASSESSMENT_CLASS) {
+                    values.add(resolve(assessmentValues, value).toUpperCase());
+                } else {
+                    values.add(resolve(filterValues, value));
+                }
+            }
+            if (!values.isEmpty()) {
+                resolved.put(entry.getKey(), Collections.unmodifiableSet(values));
             }
+        }
+        return Collections.unmodifiableMap(resolved);
+    }
 
-            if (!assessment.equals("None")) { assessmentMap = propertyValues.getAssessmentClassCount(); }
+    /**
+     * Selects the records of a multi-select filter on the bitmap index and sums them into a layer
+     */
+    private static LayerCache.Layer scanSelection(CalculatePixelValue pixels, String mapType,
+                                                  Map<FilterIndex.Dimension, Set<String>> selection) {
+        FilterIndex index = mapType.equals("Crime") ? pixels.getCrimeIndex() : pixels.getPropertyIndex();
+        Map<Integer, Double> pixelValues;
+        try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.SCAN)) {
+            RecordBitmap records = index.select(selection);
+            FilterIndex.Aggregate aggregate = index.aggregate(records);
+            pixelValues = index.hasValues() ? aggregate.toAverageMap() : aggregate.toCountMap();
+            timer.rows(records.getCardinality()).detail(() -> mapType + " " + selection);
+        }
+        return toLayer(pixelValues);
+    }
 
-            // When category/group is "None", we don't check propertyMap
-            // When filter is "None", we don't check for a specific key
-            boolean includeProperty = true;
+    /**
+     * Identifies a cached layer: the data set (by id) and its version, plus the resolved selection.
+     * A layer put back by a render that outlived its data set then only holds its own arrays.
+     */
+    private record LayerKey(long dataId, long version, OverlayRequest request) {}
 
-            if (propertyMap != null && !filterValue.equals("None")) {
-                includeProperty = propertyMap.containsKey(filterValue);
-            }
+    /**
+     * Identifies a cached hexbin layer: the layer it was binned from and the hexagon size
+     */
+    private record HexKey(LayerKey layer, int hexSize) {}
 
-            if (assessmentMap != null && !assessment.equals("None")) {
-                includeProperty = includeProperty && assessmentMap.containsKey(assessment.toUpperCase());
-            }
+    /**
+     * Identifies a cached multi-select layer
+     */
+    private record SelectionKey(long dataId, long version, String mapType,
+                                Map<FilterIndex.Dimension, Set<String>> selection) {}
+
+    /**
+     * Leases a render target for the duration of a call
+     * @throws CancellationException If the thread is interrupted while waiting for a target
+     */
+    private <T> T withRenderTarget(Function<BufferedImage, T> action) {
+        BufferedImage image;
+        try {
+            image = renderTargets.acquire();
+        } catch (InterruptedException e) {
+            // Keep the interrupt for the caller, and cancel like checkCancelled does
+            Thread.currentThread().interrupt();
+            CancellationException cancelled = new CancellationException("Render cancelled");
+            cancelled.initCause(e);
+            throw cancelled;
+        }
 
-            if (includeProperty) {
-                count = propertyValues.getAverageValue();
-                pixelValues.put(entry.getKey(), count);
+        try {
+            return action.apply(image);
+        } finally {
+            renderTargets.release(image);
+        }
+    }
+
+    /**
+     * @return The engine answering the overlay's queries
+     */
+    public QueryEngine getQueryEngine() { return queryEngine; }
+
+    private QueryResult getPixelValues(CalculatePixelValue pixels, OverlayRequest request, String filterValue) {
+        Query query;
+
+        if (request.mapType().equals("Crime")) {
+            query = getCrimeQuery(request.categoryOrGroup(), filterValue);
+        }
+        else { // mapType.equals("Property")
+            query = getPropertyQuery(request.categoryOrGroup(), filterValue, request.assessment());
+        }
+        return queryEngine.execute(pixels, query);
+    }
+
+    private static Query getCrimeQuery(String categoryOrGroup, String filterValue) {
+        Query.Builder query = Query.crimes().groupBy(Query.GroupBy.CELL).count();
+        switch (categoryOrGroup) {
+            case "Category" -> query.where(FilterIndex.Dimension.CATEGORY, filterValue);
+            case "Group" -> query.where(FilterIndex.Dimension.GROUP, filterValue);
+            case "Type" -> query.where(FilterIndex.Dimension.TYPE, filterValue);
+            case "Simplified" -> query.where(FilterIndex.Dimension.SIMPLIFIED, filterValue);
+            default -> {}
+        }
+        return query.build();
+    }
+
+    private static Query getPropertyQuery(String categoryOrGroup, String filterValue, String assessment) {
+        // Average only the properties (and class shares) matching every filter, not every property in the pixel
+        Query.Builder query = Query.properties().groupBy(Query.GroupBy.CELL).mean();
+        if (!filterValue.equals("None")) {
+            if (categoryOrGroup.equals("Ward")) { query.where(FilterIndex.Dimension.WARD, filterValue); }
+            else if (categoryOrGroup.equals("Neighbourhood")) {
+                query.where(FilterIndex.Dimension.NEIGHBOURHOOD, filterValue);
             }
         }
-        return pixelValues;
+        if (!assessment.equals("None")) {
+            query.where(FilterIndex.Dimension.ASSESSMENT_CLASS, assessment.toUpperCase());
+        }
+        return query.build();
     }
 
-    private static List<Double> detectOutlier(Map<String, Double> pixelValues) {
-        // Sort data
-        List<Double> sortedData = pixelValues.values().stream().sorted().collect(Collectors.toList());
+    /**
+     * Computes outlier bounds for a layer from its 5th and 95th percentiles
+     * @param pixelValues Non-empty layer values keyed by cell index
+     * @return List holding the lower and upper bound
+     */
+    public static List<Double> detectOutlier(Map<Integer, Double> pixelValues) {
+        double[] values = new double[pixelValues.size()];
+        int i = 0;
+        for (double value : pixelValues.values()) {
+            values[i++] = value;
+        }
+        return detectOutlier(values);
+    }
 
-        // Compute Q1 and Q3
-        double q1 = getPercentile(sortedData, 5); //25
-        double q3 = getPercentile(sortedData, 95); //75
+    /**
+     * Computes outlier bounds for a layer from its 5th and 95th percentiles
+     * @param values Non-empty layer values; the array is not modified
+     * @return List holding the lower and upper bound
+     */
+    public static List<Double> detectOutlier(double[] values) {
+        double q1;
+        double q3;
+        try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.QUANTILE)) {
+            // Sort data
+            double[] sortedData = values.clone();
+            Arrays.sort(sortedData);
+
+            // Compute Q1 and Q3
+            q1 = getPercentile(sortedData, 5); //25
+            q3 = getPercentile(sortedData, 95); //75
+            timer.rows(sortedData.length);
+        }
         double iqr = q3 - q1;
 
         // Define thresholds
         double lowerBound = q1 - 1.5 * iqr;
         double upperBound = q3 + 1.5 * iqr;
 
-        System.out.println("q1: " + q1 + " q3: " + q3 + " iqr: " + iqr);
-        System.out.println("Lower bound: " + lowerBound + " Upper bound: " + upperBound);
-
         List<Double> bounds = new ArrayList<>();
         bounds.add(lowerBound);
         bounds.add(upperBound);
         return bounds;
     }
 
-    private static double getPercentile(List<Double> sortedData, double percentile) {
-        int index = (int) Math.ceil(percentile / 100.0 * sortedData.size()) - 1;
-        return sortedData.get(index);
+    private static double getPercentile(double[] sortedData, double percentile) {
+        int index = (int) Math.ceil(percentile / 100.0 * sortedData.length) - 1;
+        return sortedData[index];
     }
 
-    private void colorImage(Map<String, Double> stringDoubleMap, String mapType, double bound) {
-        // Create a fresh image
-        Graphics2D g2d = img.createGraphics();
-
-        // Clear the image completely
-        g2d.setComposite(AlphaComposite.Clear);
-        g2d.fillRect(0, 0, width, height);
-        g2d.setComposite(AlphaComposite.SrcOver);
+    private void colorImage(BufferedImage img, LayerCache.Layer layer, String mapType) {
+        try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.RASTERIZE)) {
+            colorImage(img, layer, mapType.equals("Correlation"));
+            timer.rows(layer.size()).bytes((long) width * height * Integer.BYTES).detail(mapType);
+        }
+    }
 
-        // Draw each data point with color based on correlation value
-        for (Map.Entry<String, Double> entry : stringDoubleMap.entrySet()) {
-            double entryValue = entry.getValue();
-            Color color = getColor(entryValue, bound, mapType);
-            g2d.setColor(color);
+    private void colorImage(BufferedImage img, LayerCache.Layer layer, boolean correlation) {
+        // The layer is already flattened into primitive arrays, so the whole batch is colored in one pass
+        int length = layer.size();
+        int[] cells = layer.cells();
+        int[] colors = new int[length];
+        if (correlation) {
+            ColorMapper.mapCorrelation(layer.values(), length, colors);
+        } else {
+            ColorMapper.mapHeat(layer.values(), length, layer.bound(), colors);
+        }
 
-            String[] coordinate = entry.getKey().split(",");
-            int x = Integer.parseInt(coordinate[0]);
-            int y = Integer.parseInt(coordinate[1]);
-            g2d.fillRect(x, y, 5, 5); // Draw each data point as a 5x5 pixel rectangle
+        // Clear the image completely, then stamp each data point straight into the raster
+        int[] raster = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        Arrays.fill(raster, 0);
+        for (int j = 0; j < length; j++) {
+            stamp(raster, cells[j] % width, cells[j] / width, colors[j]);
         }
-        g2d.dispose();
     }
 
     /**
-     * Convert normalized value into RGB values. Blue (min) -> Green -> Red (max).
-     * @param value - Normalized value between 0 - 1
-     * @return - Color(r,g,b,a)
+     * Draws a data point as a stampSize square, compositing source-over like Graphics2D.fillRect did
      */
-    private static Color getColor(double value, double upperBound, String mapType) {
-        int r, g, b, a;
-        boolean isCorrelation = mapType.equals("Correlation");
-        boolean valueThreshold;
-        double posRatio;
-        double negRatio;
+    private void stamp(int[] raster, int x, int y, int argb) {
+        int maxX = Math.min(width, x + stampSize);
+        int maxY = Math.min(height, y + stampSize);
+        boolean opaque = (argb >>> 24) == 255;
+
+        for (int py = y; py < maxY; py++) {
+            int row = py * width;
+            for (int px = x; px < maxX; px++) {
+                raster[row + px] = opaque ? argb : blendOver(argb, raster[row + px]);
+            }
+        }
+    }
 
-        if (isCorrelation) {
-            valueThreshold = value > 0;
-            posRatio = Math.min(1.0, value);
-            negRatio = Math.min(1.0, -value);
-            a = 204;
-        } else {
-            value = Math.min(1.0, value / upperBound);
-            valueThreshold = value < 0.5;
-            posRatio = value / 0.5;
-            negRatio = (value - 0.5) / 0.5;
-            a = 255;
+    private static int blendOver(int src, int dst) {
+        int srcAlpha = src >>> 24;
+        int dstAlpha = dst >>> 24;
+        if (dstAlpha == 0) {
+            return src;
         }
 
-        if (valueThreshold) {
-            r = isCorrelation ? 0 : (int) (255 * posRatio);
-            g = (int) (255 * posRatio);
-            b = (int) (255 * (1 - posRatio));
-        } else {
-            r = isCorrelation ? (int) (255 * negRatio) : 255;
-            g = (int) (255 * (1 - negRatio));
-            b = 0;
+        // Destination weight after the source covers it
+        int dstWeight = dstAlpha * (255 - srcAlpha) / 255;
+        int outAlpha = srcAlpha + dstWeight;
+        int result = outAlpha << 24;
+        for (int shift = 0; shift <= 16; shift += 8) {
+            int channel = (((src >> shift) & 0xFF) * srcAlpha + ((dst >> shift) & 0xFF) * dstWeight) / outAlpha;
+            result |= channel << shift;
         }
-        return new Color(r, g, b, a);
+        return result;
     }
 
-    private String createImageFile(String fileName) {
+    private String createImageFile(BufferedImage img, String fileName) {
         String outputDir = "src/main/resources/ca/macewan/thebatmap/assets/";
 
         // Ensure directory exists
@@ -343,9 +886,7 @@ public class DrawOverlay {
         File outputFile = new File(outputDir + fileName);
 
         try {
-            // Write using PNG format which supports transparency
-            ImageIO.write(img, "png", outputFile);
-            System.out.println("Image created at " + outputFile.getAbsolutePath());
+            writeImage(img, outputFile.toPath());
             return outputFile.getAbsolutePath();
         } catch (IOException e) {
             System.err.println("Error creating image: " + e.getMessage());
@@ -354,6 +895,36 @@ public class DrawOverlay {
         }
     }
 
+    /**
+     * Writes an overlay as a PNG, which supports transparency. The image is written to a temporary file
+     * and moved into place, so a concurrent render of the same overlay never exposes a half-written file.
+     * @param img Rendered overlay
+     * @param outputFile Destination file; its directory must exist
+     * @return Size of the written file in bytes
+     * @throws IOException If an I/O error occurs
+     */
+    static long writeImage(BufferedImage img, Path outputFile) throws IOException {
+        try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.ENCODE)) {
+            Path fileName = outputFile.getFileName();
+            Path tempFile = Files.createTempFile(outputFile.toAbsolutePath().getParent(), fileName.toString(), ".tmp");
+            try {
+                ImageIO.write(img, "png", tempFile.toFile());
+                long bytes = Files.size(tempFile);
+                timer.rows((long) img.getWidth() * img.getHeight()).bytes(bytes).detail(fileName.toString());
+                Files.move(tempFile, outputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                return bytes;
+            } catch (IOException | RuntimeException e) {
+                // Don't leave a partly written (or unmoved) temporary file next to the overlays
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException deleteFailure) {
+                    e.addSuppressed(deleteFailure);
+                }
+                throw e;
+            }
+        }
+    }
+
     private String toTitleCase(String input) {
         if (input == null || input.isEmpty()) {
             return input;
@@ -376,10 +947,4 @@ public class DrawOverlay {
 
         return titleCase.toString();
     }
-
-    private String replaceSymbols(String string) {
-        return string.replace('/', '_').replace('\\', '_').replace(':', '_')
-                .replace('*', '_').replace('?', '_').replace('"', '_')
-                .replace('<', '_').replace('>', '_').replace('|', '_');
-    }
 }
\ No newline at end of file
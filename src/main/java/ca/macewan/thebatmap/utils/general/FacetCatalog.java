@@ -0,0 +1,139 @@
+package ca.macewan.thebatmap.utils.general;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Every distinct filter value of a data set with the number of records that have it, built once when the
+ * data is loaded. Counts under a selection on the other dimensions come from the bitmap index the catalog
+ * was built from, so filter lists can show how many records each option keeps and leave out empty ones.
+ * Immutable, and safe to share between threads.
+ */
+public class FacetCatalog {
+    /** Catalog without any values */
+    public static final FacetCatalog EMPTY = of(FilterIndex.EMPTY);
+
+    private final FilterIndex index;
+    // Values of each dimension with their totals, by value
+    private final Map<FilterIndex.Dimension, List<Facet>> facets;
+    private final Map<FilterIndex.Dimension, Map<String, Long>> totals;
+
+    /**
+     * One filter value and the number of records that have it
+     * @param value Value as stored in the data
+     * @param count Number of records, rounded where properties are split between assessment classes
+     */
+    public record Facet(String value, long count) {
+        /**
+         * @param displayValue Value as shown, e.g. in title case
+         * @return Label for a filter list, e.g. "Theft (12,345)"
+         */
+        public String label(String displayValue) {
+            return String.format("%s (%,d)", displayValue, count);
+        }
+    }
+
+    private FacetCatalog(FilterIndex index, Map<FilterIndex.Dimension, List<Facet>> facets) {
+        this.index = index;
+        this.facets = facets;
+        this.totals = new EnumMap<>(FilterIndex.Dimension.class);
+        for (Map.Entry<FilterIndex.Dimension, List<Facet>> entry : facets.entrySet()) {
+            Map<String, Long> counts = new HashMap<>();
+            for (Facet facet : entry.getValue()) {
+                counts.put(facet.value(), facet.count());
+            }
+            totals.put(entry.getKey(), counts);
+        }
+    }
+
+    /**
+     * Counts the records of every value in an index
+     * @param index Index of the loaded records
+     * @return The catalog
+     */
+    public static FacetCatalog of(FilterIndex index) {
+        Map<FilterIndex.Dimension, List<Facet>> facets = new EnumMap<>(FilterIndex.Dimension.class);
+        for (FilterIndex.Dimension dimension : index.getDimensions()) {
+            List<Facet> dimensionFacets = new ArrayList<>();
+            for (String value : index.getValues(dimension)) {
+                dimensionFacets.add(new Facet(value, displayCount(index.count(index.getBitmap(dimension, value)))));
+            }
+            dimensionFacets.sort(Comparator.comparing(Facet::value));
+            facets.put(dimension, List.copyOf(dimensionFacets));
+        }
+        return new FacetCatalog(index, facets);
+    }
+
+    /**
+     * @param dimension Dimension to list
+     * @return Every value of the dimension with its total, by value
+     */
+    public List<Facet> getFacets(FilterIndex.Dimension dimension) {
+        return facets.getOrDefault(dimension, List.of());
+    }
+
+    /**
+     * @param dimension Dimension to list
+     * @return Every value of the dimension, by value
+     */
+    public Set<String> getValues(FilterIndex.Dimension dimension) {
+        Set<String> values = new LinkedHashSet<>();
+        for (Facet facet : getFacets(dimension)) {
+            values.add(facet.value());
+        }
+        return values;
+    }
+
+    /**
+     * @param dimension Dimension of the value
+     * @param value Value to look up
+     * @return Total number of records with the value, 0 if it does not occur
+     */
+    public long getCount(FilterIndex.Dimension dimension, String value) {
+        return totals.getOrDefault(dimension, Map.of()).getOrDefault(value, 0L);
+    }
+
+    /**
+     * Counts the values of one dimension among the records matching a selection on the other dimensions.
+     * The selection's own constraint on the dimension is ignored, so the result lists the alternatives to it.
+     * @param dimension Dimension to list
+     * @param selection Chosen values per dimension, as for FilterIndex.select
+     * @return Values that keep at least one record, with their counts, by value
+     */
+    public List<Facet> getFacets(FilterIndex.Dimension dimension,
+                                 Map<FilterIndex.Dimension, ? extends Collection<String>> selection) {
+        Map<FilterIndex.Dimension, Collection<String>> others = new EnumMap<>(FilterIndex.Dimension.class);
+        for (Map.Entry<FilterIndex.Dimension, ? extends Collection<String>> entry : selection.entrySet()) {
+            if (entry.getKey() != dimension && !entry.getValue().isEmpty()) {
+                others.put(entry.getKey(), entry.getValue());
+            }
+        }
+        if (others.isEmpty()) {
+            return getFacets(dimension);
+        }
+
+        RecordBitmap within = index.select(others);
+        List<Facet> result = new ArrayList<>();
+        for (Facet facet : getFacets(dimension)) {
+            double count = within.isEmpty() ? 0 : index.count(index.getBitmap(dimension, facet.value()), within);
+            if (count > 0) {
+                result.add(new Facet(facet.value(), displayCount(count)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Rounds a weighted count, keeping a small class share from showing as 0
+     */
+    private static long displayCount(double count) {
+        return count > 0 ? Math.max(1, Math.round(count)) : 0;
+    }
+}
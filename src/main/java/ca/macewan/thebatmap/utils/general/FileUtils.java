@@ -1,7 +1,11 @@
 package ca.macewan.thebatmap.utils.general;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
@@ -14,9 +18,18 @@ public class FileUtils {
     // Base path for sample data
     private static final String SAMPLE_DATA_DIR = "/ca/macewan/thebatmap/sample-data/";
 
+    // File names of the raw exports
+    public static final String PROPERTY_DATA_FILE = "property_data.csv";
+    public static final String CRIME_DATA_FILE = "crime_stats.csv";
+
     // File paths as resource names
-    public static final String PROPERTY_DATA_PATH = SAMPLE_DATA_DIR + "property_data.csv";
-    public static final String CRIME_DATA_PATH = SAMPLE_DATA_DIR + "crime_stats.csv";
+    public static final String PROPERTY_DATA_PATH = SAMPLE_DATA_DIR + PROPERTY_DATA_FILE;
+    public static final String CRIME_DATA_PATH = SAMPLE_DATA_DIR + CRIME_DATA_FILE;
+
+    // Suffix of gzip-compressed exports
+    public static final String GZIP_SUFFIX = ".gz";
+    private static final int GZIP_MAGIC = 0x1F8B;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
 
     /**
      * Gets an input stream for a resource
@@ -30,13 +43,29 @@ public class FileUtils {
     }
 
     /**
-     * Creates a temporary file from a resource and returns its path
+     * Resolves a resource name to the resource that exists, preferring the uncompressed one
+     *
+     * @param resourceName Name of the uncompressed resource
+     * @return The name itself, or the name with GZIP_SUFFIX if only the compressed resource exists
+     */
+    private static String findResource(String resourceName) {
+        if (FileUtils.class.getResource(resourceName) == null
+                && FileUtils.class.getResource(resourceName + GZIP_SUFFIX) != null) {
+            return resourceName + GZIP_SUFFIX;
+        }
+        return resourceName;
+    }
+
+    /**
+     * Creates a temporary file from a resource and returns its path.
+     * If only a gzipped copy of the resource exists, the compressed bytes are copied as-is.
      *
      * @param resourceName Name of the resource
      * @return Path to the temporary file
      * @throws IOException If an I/O error occurs
      */
     public static Path getResourceAsPath(String resourceName) throws IOException {
+        resourceName = findResource(resourceName);
         String fileName = resourceName.substring(resourceName.lastIndexOf('/') + 1);
         Path tempFile = Files.createTempFile("thebatmap-", fileName);
 
@@ -49,4 +78,45 @@ public class FileUtils {
 
         return tempFile;
     }
-}
\ No newline at end of file
+
+    /**
+     * Checks whether a file is gzip-compressed, by its content rather than its name
+     *
+     * @param path File to check
+     * @return true if the file starts with the gzip magic number
+     * @throws IOException If an I/O error occurs
+     */
+    public static boolean isGzip(Path path) throws IOException {
+        try (InputStream in = Files.newInputStream(path)) {
+            int first = in.read();
+            int second = in.read();
+            return second >= 0 && ((first << 8) | second) == GZIP_MAGIC;
+        }
+    }
+
+    /**
+     * Opens a file for reading, decompressing it on a background thread if it is gzip-compressed
+     *
+     * @param path File to open
+     * @return Stream of the (decompressed) file contents
+     * @throws IOException If an I/O error occurs
+     */
+    public static InputStream openDecompressed(Path path) throws IOException {
+        if (isGzip(path)) {
+            return new PipelinedGzipInputStream(Files.newInputStream(path), path.getFileName().toString());
+        }
+        return new BufferedInputStream(Files.newInputStream(path), READ_BUFFER_SIZE);
+    }
+
+    /**
+     * Opens a UTF-8 text file for reading, decompressing it if it is gzip-compressed
+     *
+     * @param path File to open
+     * @return Reader over the (decompressed) file contents
+     * @throws IOException If an I/O error occurs
+     */
+    public static BufferedReader newBufferedReader(Path path) throws IOException {
+        return new BufferedReader(new InputStreamReader(openDecompressed(path), StandardCharsets.UTF_8),
+                READ_BUFFER_SIZE);
+    }
+}
@@ -0,0 +1,441 @@
+package ca.macewan.thebatmap.utils.general;
+
+import ca.macewan.thebatmap.utils.models.CrimeData;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Bitmap indexes over the records of one data set, one RecordBitmap per distinct value of each dimension.
+ * A selection ORs the bitmaps of the chosen values within a dimension and ANDs the dimensions together,
+ * so a multi-select filter costs a few word-level bitmap operations instead of a scan of the records.
+ * <p>
+ * Records are renumbered in cell order when the index is built, so the selected IDs can be summed into
+ * per-cell layer values in one sequential pass. A property assessed under several classes becomes one record
+ * per class, weighted by its class percentage.
+ * Immutable once built, and safe to share between threads.
+ */
+public class FilterIndex {
+    /** Index without any records */
+    public static final FilterIndex EMPTY = new Builder(0).build();
+
+    /**
+     * Attributes records can be filtered by
+     */
+    public enum Dimension {
+        CATEGORY("Category"),
+        GROUP("Group"),
+        TYPE("Type"),
+        SIMPLIFIED("Simplified"),
+        MONTH("Month"),
+        WARD("Ward"),
+        NEIGHBOURHOOD("Neighbourhood"),
+        ASSESSMENT_CLASS("Assessment Class");
+
+        private final String label;
+
+        Dimension(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() { return label; }
+
+        /**
+         * @param label Label as shown in the control panel, e.g. "Neighbourhood"
+         * @return The matching dimension, or null if there is none
+         */
+        public static Dimension fromLabel(String label) {
+            for (Dimension dimension : values()) {
+                if (dimension.label.equals(label)) {
+                    return dimension;
+                }
+            }
+            return null;
+        }
+    }
+
+    // Cell of each record, ascending; the weight and value of each record (null for weight 1 and no value)
+    private final int[] cells;
+    private final double[] weights;
+    private final double[] values;
+
+    // Bitmap of the records with each value, per dimension
+    private final Map<Dimension, Map<String, RecordBitmap>> bitmaps;
+    private final RecordBitmap all;
+
+    /**
+     * Layer values for one selection
+     * @param cells Cells with selected records, ascending
+     * @param weights Number of selected records in each cell, counting partial class shares
+     * @param valueSums Value of the selected records in each cell, or null if the records have no values
+     */
+    public record Aggregate(int[] cells, double[] weights, double[] valueSums) {
+        /**
+         * @return Number of cells with selected records
+         */
+        public int size() {
+            return cells.length;
+        }
+
+        /**
+         * @return Record counts keyed by cell, in the form the overlay renderer scans
+         */
+        public Map<Integer, Double> toCountMap() {
+            Map<Integer, Double> map = new HashMap<>(cells.length * 4 / 3 + 1);
+            for (int i = 0; i < cells.length; i++) {
+                map.put(cells[i], weights[i]);
+            }
+            return map;
+        }
+
+        /**
+         * @return Average record values keyed by cell
+         */
+        public Map<Integer, Double> toAverageMap() {
+            Map<Integer, Double> map = new HashMap<>(cells.length * 4 / 3 + 1);
+            for (int i = 0; i < cells.length; i++) {
+                map.put(cells[i], valueSums[i] / weights[i]);
+            }
+            return map;
+        }
+    }
+
+    private FilterIndex(int[] cells, double[] weights, double[] values,
+                        Map<Dimension, Map<String, RecordBitmap>> bitmaps) {
+        this.cells = cells;
+        this.weights = weights;
+        this.values = values;
+        this.bitmaps = bitmaps;
+        this.all = RecordBitmap.range(cells.length);
+    }
+
+    /**
+     * @return Number of indexed records
+     */
+    public int getRecordCount() {
+        return cells.length;
+    }
+
+    /**
+     * @return true if the records carry a value, as properties do
+     */
+    public boolean hasValues() {
+        return values != null;
+    }
+
+    /**
+     * @return Dimensions with at least one value
+     */
+    public Set<Dimension> getDimensions() {
+        return bitmaps.keySet();
+    }
+
+    /**
+     * @param dimension Dimension to list
+     * @return Values of the dimension, in order of first appearance
+     */
+    public List<String> getValues(Dimension dimension) {
+        return List.copyOf(bitmaps.getOrDefault(dimension, Map.of()).keySet());
+    }
+
+    /**
+     * @param dimension Dimension of the value
+     * @param value Value to look up
+     * @return Records with the value, empty if it does not occur
+     */
+    public RecordBitmap getBitmap(Dimension dimension, String value) {
+        return bitmaps.getOrDefault(dimension, Map.of()).getOrDefault(value, RecordBitmap.EMPTY);
+    }
+
+    /**
+     * @return Every record
+     */
+    public RecordBitmap getAll() {
+        return all;
+    }
+
+    /**
+     * Selects the records matching any chosen value of every constrained dimension
+     * @param selection Chosen values per dimension; a dimension that is absent or has no values is unconstrained
+     * @return The matching records
+     */
+    public RecordBitmap select(Map<Dimension, ? extends Collection<String>> selection) {
+        List<RecordBitmap> constraints = new ArrayList<>();
+        for (Map.Entry<Dimension, ? extends Collection<String>> entry : selection.entrySet()) {
+            if (entry.getValue().isEmpty()) {
+                continue;
+            }
+            List<RecordBitmap> chosen = new ArrayList<>(entry.getValue().size());
+            for (String value : entry.getValue()) {
+                chosen.add(getBitmap(entry.getKey(), value));
+            }
+            constraints.add(RecordBitmap.or(chosen));
+        }
+        if (constraints.isEmpty()) {
+            return all;
+        }
+
+        // Intersect the smallest sets first, so the intermediate results shrink as fast as possible
+        constraints.sort(Comparator.comparingInt(RecordBitmap::getCardinality));
+        RecordBitmap result = constraints.getFirst();
+        for (int i = 1; i < constraints.size() && !result.isEmpty(); i++) {
+            result = result.and(constraints.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * @param records Records returned by select or getBitmap
+     * @return Number of records, counting partial class shares
+     */
+    public double count(RecordBitmap records) {
+        if (weights == null) {
+            return records.getCardinality();
+        }
+        double[] total = {0};
+        records.forEach(record -> total[0] += weights[record]);
+        return total[0];
+    }
+
+    /**
+     * @param records Records returned by select or getBitmap
+     * @return Total value of the records, 0 if the records have no values
+     */
+    public double sum(RecordBitmap records) {
+        if (values == null) {
+            return 0;
+        }
+        double[] total = {0};
+        records.forEach(record -> total[0] += values[record]);
+        return total[0];
+    }
+
+    /**
+     * @param records Records returned by select or getBitmap
+     * @param within Records to restrict the count to
+     * @return Number of records in both sets, counting partial class shares
+     */
+    public double count(RecordBitmap records, RecordBitmap within) {
+        return weights == null ? records.andCardinality(within) : count(records.and(within));
+    }
+
+    /**
+     * Sums the selected records per cell
+     * @param records Records returned by select
+     * @return Record counts, and value sums for records with values
+     */
+    public Aggregate aggregate(RecordBitmap records) {
+        Accumulator accumulator = new Accumulator(Math.min(records.getCardinality(), 1024));
+        records.forEach(accumulator::add);
+        return accumulator.finish();
+    }
+
+    /**
+     * Groups consecutive records of the same cell; records arrive in ID order, which is cell order
+     */
+    private final class Accumulator {
+        private int[] cellsOut;
+        private double[] weightsOut;
+        private double[] valuesOut;
+        private int size;
+        private int lastCell = -1;
+
+        Accumulator(int capacity) {
+            cellsOut = new int[Math.max(16, capacity)];
+            weightsOut = new double[cellsOut.length];
+            valuesOut = values == null ? null : new double[cellsOut.length];
+        }
+
+        void add(int record) {
+            int cell = cells[record];
+            if (cell != lastCell) {
+                if (size == cellsOut.length) {
+                    cellsOut = Arrays.copyOf(cellsOut, size * 2);
+                    weightsOut = Arrays.copyOf(weightsOut, size * 2);
+                    if (valuesOut != null) {
+                        valuesOut = Arrays.copyOf(valuesOut, size * 2);
+                    }
+                }
+                cellsOut[size++] = cell;
+                lastCell = cell;
+            }
+            weightsOut[size - 1] += weights == null ? 1.0 : weights[record];
+            if (valuesOut != null) {
+                valuesOut[size - 1] += values[record];
+            }
+        }
+
+        Aggregate finish() {
+            return new Aggregate(Arrays.copyOf(cellsOut, size), Arrays.copyOf(weightsOut, size),
+                    valuesOut == null ? null : Arrays.copyOf(valuesOut, size));
+        }
+    }
+
+    /**
+     * @param epochDay Days since 1970-01-01, or CrimeData.NO_DATE
+     * @return Month label used by the MONTH dimension, e.g. "2023-05", or null without a date
+     */
+    public static String monthOf(int epochDay) {
+        return epochDay == CrimeData.NO_DATE ? null : YearMonth.from(LocalDate.ofEpochDay(epochDay)).toString();
+    }
+
+    /**
+     * Collects records one at a time. Not thread-safe.
+     */
+    public static class Builder {
+        private static final Dimension[] DIMENSIONS = Dimension.values();
+
+        private final Map<Dimension, StringDictionary> dictionaries = new EnumMap<>(Dimension.class);
+        private int[] cells;
+        private double[] weights;
+        private double[] values;
+        // Value code + 1 of each record per dimension, 0 where it has none
+        private final int[][] codes = new int[DIMENSIONS.length][];
+        private int size;
+        private boolean weighted;
+        private boolean valued;
+
+        // Month labels by epoch day, so records of the same day share one label
+        private final Map<Integer, String> months = new HashMap<>();
+        private final double[] shares = new double[3];
+
+        /**
+         * @param expectedRecords Number of records that will be added, to size the buffers
+         */
+        public Builder(int expectedRecords) {
+            int capacity = Math.max(16, expectedRecords);
+            cells = new int[capacity];
+            weights = new double[capacity];
+            values = new double[capacity];
+            for (int d = 0; d < DIMENSIONS.length; d++) {
+                codes[d] = new int[capacity];
+            }
+        }
+
+        /**
+         * Adds a crime
+         * @param cell Cell the crime falls in, not negative
+         * @param category Occurrence category, may be null
+         * @param group Occurrence group, may be null
+         * @param type Occurrence type group, may be null
+         * @param simplified Simplified category label, may be null
+         * @param epochDay Report date in days since 1970-01-01, or CrimeData.NO_DATE
+         */
+        public void addCrime(int cell, String category, String group, String type, String simplified, int epochDay) {
+            int record = add(cell, 1.0, 0.0);
+            set(record, Dimension.CATEGORY, category);
+            set(record, Dimension.GROUP, group);
+            set(record, Dimension.TYPE, type);
+            set(record, Dimension.SIMPLIFIED, simplified);
+            set(record, Dimension.MONTH, epochDay == CrimeData.NO_DATE ? null
+                    : months.computeIfAbsent(epochDay, FilterIndex::monthOf));
+        }
+
+        /**
+         * Adds a property as one record per assessment class, weighted by the class percentages
+         * @param cell Cell the property falls in, not negative
+         * @param value Assessed value
+         * @param neighbourhood Neighbourhood, may be null
+         * @param ward Ward, may be null
+         * @param classes Up to three assessment class keys (see PropertyCube.classKey), null where missing
+         * @param percents Percentage of the value in each class
+         */
+        public void addProperty(int cell, double value, String neighbourhood, String ward,
+                                String[] classes, int[] percents) {
+            double[] shares = classes.length == this.shares.length ? this.shares : new double[classes.length];
+            PropertyCube.classWeights(classes, percents, shares);
+            for (int i = 0; i < classes.length; i++) {
+                if (shares[i] > 0) {
+                    int record = add(cell, shares[i], shares[i] * value);
+                    set(record, Dimension.WARD, ward);
+                    set(record, Dimension.NEIGHBOURHOOD, neighbourhood);
+                    set(record, Dimension.ASSESSMENT_CLASS, classes[i]);
+                    valued = true;
+                }
+            }
+        }
+
+        private int add(int cell, double weight, double value) {
+            if (size == cells.length) {
+                int capacity = size * 2;
+                cells = Arrays.copyOf(cells, capacity);
+                weights = Arrays.copyOf(weights, capacity);
+                values = Arrays.copyOf(values, capacity);
+                for (int d = 0; d < DIMENSIONS.length; d++) {
+                    codes[d] = Arrays.copyOf(codes[d], capacity);
+                }
+            }
+            cells[size] = cell;
+            weights[size] = weight;
+            values[size] = value;
+            weighted |= weight != 1.0;
+            return size++;
+        }
+
+        private void set(int record, Dimension dimension, String value) {
+            if (value != null && !value.isEmpty()) {
+                codes[dimension.ordinal()][record] =
+                        dictionaries.computeIfAbsent(dimension, _ -> new StringDictionary()).encode(value) + 1;
+            }
+        }
+
+        /**
+         * @return The index of the records added so far; the builder must not be used afterwards
+         */
+        public FilterIndex build() {
+            // Renumber the records in cell order, keeping file order within a cell
+            long[] order = new long[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = (long) cells[i] << 32 | i;
+            }
+            Arrays.parallelSort(order);
+
+            int[] sortedCells = new int[size];
+            double[] sortedWeights = weighted ? new double[size] : null;
+            double[] sortedValues = valued ? new double[size] : null;
+            for (int id = 0; id < size; id++) {
+                int record = (int) order[id];
+                sortedCells[id] = cells[record];
+                if (sortedWeights != null) {
+                    sortedWeights[id] = weights[record];
+                }
+                if (sortedValues != null) {
+                    sortedValues[id] = values[record];
+                }
+            }
+
+            Map<Dimension, Map<String, RecordBitmap>> bitmaps = new EnumMap<>(Dimension.class);
+            for (Map.Entry<Dimension, StringDictionary> entry : dictionaries.entrySet()) {
+                int[] recordCodes = codes[entry.getKey().ordinal()];
+                List<String> dimensionValues = entry.getValue().values();
+                RecordBitmap.Builder[] builders = new RecordBitmap.Builder[dimensionValues.size()];
+                for (int code = 0; code < builders.length; code++) {
+                    builders[code] = new RecordBitmap.Builder();
+                }
+                for (int id = 0; id < size; id++) {
+                    int code = recordCodes[(int) order[id]];
+                    if (code > 0) {
+                        builders[code - 1].add(id);
+                    }
+                }
+
+                Map<String, RecordBitmap> valueBitmaps = new LinkedHashMap<>();
+                for (int code = 0; code < builders.length; code++) {
+                    valueBitmaps.put(dimensionValues.get(code), builders[code].build());
+                }
+                bitmaps.put(entry.getKey(), valueBitmaps);
+            }
+            return new FilterIndex(sortedCells, sortedWeights, sortedValues, bitmaps);
+        }
+    }
+}
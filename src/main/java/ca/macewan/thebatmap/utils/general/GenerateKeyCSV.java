@@ -1,265 +1,234 @@
 package ca.macewan.thebatmap.utils.general;
 
 import ca.macewan.thebatmap.utils.models.CrimeData;
+import ca.macewan.thebatmap.utils.models.CrimeLocation;
+import ca.macewan.thebatmap.utils.models.Location;
 import ca.macewan.thebatmap.utils.models.PropertyData;
-import ca.macewan.thebatmap.utils.parsers.ParseCrime;
-import ca.macewan.thebatmap.utils.parsers.ParseProperties;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
 
 /**
  * Utility class for generating CSV files with key data for heatmap visualization
  */
 public class GenerateKeyCSV {
-    private static final String OUTPUT_DIR = "src/main/resources/ca/macewan/thebatmap/key-data/";
+    private static final GridSpec MAP_GRID = CoordinateToPixel.getMapGrid();
+    private static final CrimeClassifier CLASSIFIER = new CrimeClassifier();
+    // Source folder of the bundled resources, which the key data is generated into
+    private static final String RESOURCES_DIR = "src/main/resources";
+    private static final String OUTPUT_DIR = RESOURCES_DIR + "/ca/macewan/thebatmap/key-data/";
     public static final String KEY_PROPERTY_DATA_PATH = OUTPUT_DIR + "key_property_data.csv";
     public static final String KEY_CRIME_DATA_PATH = OUTPUT_DIR + "key_crime_data.csv";
+    // Columnar binary versions of the same data, see ColumnarKeyData
+    public static final String KEY_PROPERTY_COLUMNS_PATH = OUTPUT_DIR + "key_property_data.btcl";
+    public static final String KEY_CRIME_COLUMNS_PATH = OUTPUT_DIR + "key_crime_data.btcl";
 
     /**
-     * Generates a CSV file with key property data (value and location)
+     * Generates both key data CSVs from an already loaded data set, without parsing or projecting anything again
      *
+     * @param data Loaded data set on the map grid
      * @throws IOException If an I/O error occurs
      */
-    public static void generateKeyPropertyData() throws IOException {
-        // Ensure output directory exists
-        Files.createDirectories(Paths.get(OUTPUT_DIR));
-
-        // Get property data
-        List<PropertyData> properties = ParseProperties.parsePropertyData();
-
-        // Write to CSV
-        Path outputPath = Paths.get(KEY_PROPERTY_DATA_PATH);
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputPath.toFile()))) {
-            // Write header
-            writer.write("id,value,latitude,longitude,x,y,neighborhood,ward,address");
-            writer.newLine();
-
-            // Write data rows
-            int id = 1;
-            for (PropertyData property : properties) {
-                if (property.getLocation() == null) {
-                    continue; // Skip properties without location data
-                }
-
-                double lat = property.getLocation().getLatitude();
-                double lon = property.getLocation().getLongitude();
-
-                // Skip properties outside map bounds
-                if (CoordinateToPixel.outOfBounds(lat, lon)) {
-                    continue;
-                }
-
-                int[] pixelCoords = CoordinateToPixel.geoToPixel(lat, lon);
-
-                // Get the full address as a string
-                String address = property.getAddress() != null ? property.getAddress().toString() : "";
-
-                writer.write(String.format("%d,%.2f,%.6f,%.6f,%d,%d,%s,%s,%s",
-                        id++,
-                        property.getAssessment().getAssessedValue(),
-                        lat,
-                        lon,
-                        pixelCoords[0],
-                        pixelCoords[1],
-                        escapeCSV(property.getNeighbourhood().getNeighbourhood()),
-                        escapeCSV(property.getNeighbourhood().getWard()),
-                        escapeCSV(address)
-                ));
-                writer.newLine();
-            }
+    public static void generateKeyData(CalculatePixelValue data) throws IOException {
+        if (data.getGridSpec().getColumns() != MAP_GRID.getColumns() || data.getGridSpec().getRows() != MAP_GRID.getRows()) {
+            throw new IllegalArgumentException("Key data is exported on the map grid, not " + data.getGridSpec());
         }
-
-        System.out.println("Generated property data CSV at: " + outputPath.toAbsolutePath());
+        writeKeyPropertyData(data.getProperties(), data.getPropertyCells(), Paths.get(KEY_PROPERTY_DATA_PATH));
+        writeKeyCrimeData(data.getCrimes(), data.getCrimeCells(), Paths.get(KEY_CRIME_DATA_PATH));
+        writeKeyPropertyColumns(data.getProperties(), data.getPropertyCells(), Paths.get(KEY_PROPERTY_COLUMNS_PATH));
+        writeKeyCrimeColumns(data.getCrimes(), data.getCrimeCells(), Paths.get(KEY_CRIME_COLUMNS_PATH));
     }
 
     /**
-     * Generates a CSV file with simplified crime data categories
-     * tailored for homebuyer-focused heatmap visualization
+     * Writes the key property data in the columnar binary format, which CalculatePixelValue.loadPropertyColumns reads
      *
+     * @param properties Property records
+     * @param cells Map grid cell of each record (-1 to skip it)
+     * @param outputPath Destination file
      * @throws IOException If an I/O error occurs
      */
-    public static void generateKeyCrimeData() throws IOException {
-        // Ensure output directory exists
-        Files.createDirectories(Paths.get(OUTPUT_DIR));
-
-        // Get crime data
-        List<CrimeData> crimes = ParseCrime.parseCrimeData();
-
-        // Write to CSV
-        Path outputPath = Paths.get(KEY_CRIME_DATA_PATH);
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(outputPath.toFile()))) {
-            // Write header with simplified categories
-            writer.write("id,simplified_category,original_category,type,latitude,longitude,x,y,intersection");
-            writer.newLine();
-
-            // Stats counters
-            int violentCount = 0;
-            int propertyCount = 0;
-            int disorderCount = 0;
-            int miscCount = 0;
-            int skippedCount = 0;
-
-            // Write data rows
-            int id = 1;
-            for (CrimeData crime : crimes) {
-                if (crime.getLocation() == null) {
-                    skippedCount++;
-                    continue;
-                }
-
-                double lat = crime.getLocation().getLatitude();
-                double lon = crime.getLocation().getLongitude();
-
-                // Skip crimes outside map bounds
-                if (CoordinateToPixel.outOfBounds(lat, lon)) {
-                    skippedCount++;
-                    continue;
-                }
-
-                int[] pixelCoords = CoordinateToPixel.geoToPixel(lat, lon);
-
-                // Get original values (with null checks)
-                String originalCategory = crime.getOccurrenceCategory() != null ? crime.getOccurrenceCategory() : "";
-                String group = crime.getOccurrenceGroup() != null ? crime.getOccurrenceGroup() : "";
-                String type = crime.getOccurrenceTypeGroup() != null ? crime.getOccurrenceTypeGroup() : "";
-                String intersection = crime.getIntersection() != null ? crime.getIntersection() : "";
-
-                // Classify into simplified categories
-                String simplifiedCategory = classifyCrime(originalCategory, group, type);
-
-                // Update counters
-                switch (simplifiedCategory) {
-                    case "Violent Crime":
-                        violentCount++;
-                        break;
-                    case "Property Crime":
-                        propertyCount++;
-                        break;
-                    case "Public Disorder":
-                        disorderCount++;
-                        break;
-                    case "Misc":
-                        miscCount++;
-                        break;
-                }
-
-                writer.write(String.format("%d,%s,%s,%s,%.6f,%.6f,%d,%d,%s",
-                        id++,
-                        escapeCSV(simplifiedCategory),
-                        escapeCSV(originalCategory),
-                        escapeCSV(type),
-                        lat,
-                        lon,
-                        pixelCoords[0],
-                        pixelCoords[1],
-                        escapeCSV(intersection)
-                ));
-                writer.newLine();
-            }
-
-            System.out.println("Crime classification stats:");
-            System.out.println("- Violent Crimes: " + violentCount);
-            System.out.println("- Property Crimes: " + propertyCount);
-            System.out.println("- Public Disorder: " + disorderCount);
-            System.out.println("- Misc: " + miscCount);
-            System.out.println("- Skipped: " + skippedCount + " (missing or out-of-bounds location)");
+    public static void writeKeyPropertyColumns(List<PropertyData> properties, int[] cells, Path outputPath)
+            throws IOException {
+        try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.ENCODE)) {
+            createParentDirectories(outputPath);
+            ColumnarKeyData.writeProperties(properties, cells, MAP_GRID, outputPath);
+            timer.rows(properties.size()).bytes(Files.size(outputPath)).detail(outputPath.getFileName().toString());
         }
-
-        System.out.println("Generated simplified crime data CSV at: " + outputPath.toAbsolutePath());
+        System.out.println("Generated property data columns at: " + outputPath.toAbsolutePath());
     }
 
     /**
-     * Classifies crimes into simplified categories for homebuyer-focused visualization
+     * Writes the key crime data in the columnar binary format, which CalculatePixelValue.loadCrimeColumns reads
      *
-     * @param category Original occurrence category
-     * @param group Original occurrence group
-     * @param type Original occurrence type
-     * @return Simplified category (Violent Crime, Property Crime, Public Disorder, or Misc)
+     * @param crimes Crime records
+     * @param cells Map grid cell of each record (-1 to skip it)
+     * @param outputPath Destination file
+     * @throws IOException If an I/O error occurs
      */
-    private static String classifyCrime(String category, String group, String type) {
-        // Default to "Misc" if any values are null
-        if (category == null || group == null || type == null) {
-            return "Misc";
-        }
-
-        // 1. Violent Crimes
-        if (category.equals("Violent")) {
-            return "Violent Crime";
-        }
-
-        if (category.equals("Weapons")) {
-            return "Violent Crime";
+    public static void writeKeyCrimeColumns(List<CrimeData> crimes, int[] cells, Path outputPath) throws IOException {
+        try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.ENCODE)) {
+            createParentDirectories(outputPath);
+            ColumnarKeyData.writeCrimes(crimes, cells, MAP_GRID, outputPath);
+            timer.rows(crimes.size()).bytes(Files.size(outputPath)).detail(outputPath.getFileName().toString());
         }
+        System.out.println("Generated crime data columns at: " + outputPath.toAbsolutePath());
+    }
 
-        if (group.equals("Personal Violence")) {
-            return "Violent Crime";
+    /**
+     * Writes the key property data CSV
+     *
+     * @param properties Property records
+     * @param cells Map grid cell of each record (-1 to skip it), or null to project the records here
+     * @param outputPath Destination file
+     * @throws IOException If an I/O error occurs
+     */
+    public static void writeKeyPropertyData(List<PropertyData> properties, int[] cells, Path outputPath)
+            throws IOException {
+        if (cells == null) {
+            cells = projectAll(properties, PropertyData::getLocation, Location::getLatitude, Location::getLongitude);
         }
 
-        // Specific robbery cases (even if categorized as Property in original data)
-        if (type.contains("Robbery")) {
-            return "Violent Crime";
+        // Skip properties without location data or outside map bounds
+        int[] rows = keptRows(cells);
+        int[] rowCells = cells;
+
+        try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.ENCODE)) {
+            createParentDirectories(outputPath);
+            ChunkedCsvExporter.export(outputPath, "id,value,latitude,longitude,x,y,neighborhood,ward,address",
+                    rows.length, (writer, row) -> {
+                        PropertyData property = properties.get(rows[row]);
+                        int cell = rowCells[rows[row]];
+
+                        // Get the full address as a string
+                        String address = property.getAddress() != null ? property.getAddress().toString() : "";
+
+                        writer.field(row + 1)
+                                .field(property.getAssessment().getAssessedValue(), 2)
+                                .field(property.getLocation().getLatitude(), 6)
+                                .field(property.getLocation().getLongitude(), 6)
+                                .field(MAP_GRID.cellX(cell))
+                                .field(MAP_GRID.cellY(cell))
+                                .escapedField(property.getNeighbourhood().getNeighbourhood())
+                                .escapedField(property.getNeighbourhood().getWard())
+                                .escapedField(address);
+                    });
+            timer.rows(rows.length).bytes(Files.size(outputPath)).detail(outputPath.getFileName().toString());
         }
 
-        // 2. Property Crimes
-        if (group.equals("Property")) {
-            // Check for specific property crime types
-            if (type.contains("Break and Enter") ||
-                    type.contains("Theft") ||
-                    type.contains("Arson") ||
-                    type.contains("Property Damage")) {
-                return "Property Crime";
-            }
-        }
+        System.out.println("Generated property data CSV at: " + outputPath.toAbsolutePath());
+    }
 
-        // Vehicle-related property crimes
-        if (type.contains("Motor Vehicle")) {
-            return "Property Crime";
+    /**
+     * Writes the simplified crime data CSV
+     *
+     * @param crimes Crime records
+     * @param cells Map grid cell of each record (-1 to skip it), or null to project the records here
+     * @param outputPath Destination file
+     * @throws IOException If an I/O error occurs
+     */
+    public static void writeKeyCrimeData(List<CrimeData> crimes, int[] cells, Path outputPath) throws IOException {
+        if (cells == null) {
+            cells = projectAll(crimes, CrimeData::getLocation, CrimeLocation::getLatitude, CrimeLocation::getLongitude);
         }
 
-        // 3. Public Disorder
-        if (category.equals("Disorder")) {
-            // Exclude certain disorder types
-            if (!type.contains("Fraud")) {
-                return "Public Disorder";
-            }
+        // Skip crimes without location data or outside map bounds
+        int[] rows = keptRows(cells);
+        int[] rowCells = cells;
+
+        // Stats counters, updated from the formatting threads
+        LongAdder violentCount = new LongAdder();
+        LongAdder propertyCount = new LongAdder();
+        LongAdder disorderCount = new LongAdder();
+        LongAdder miscCount = new LongAdder();
+
+        try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.ENCODE)) {
+            createParentDirectories(outputPath);
+            ChunkedCsvExporter.export(outputPath,
+                    "id,simplified_category,original_category,type,latitude,longitude,x,y,intersection",
+                    rows.length, (writer, row) -> {
+                        CrimeData crime = crimes.get(rows[row]);
+                        int cell = rowCells[rows[row]];
+
+                        // Get original values (with null checks)
+                        String originalCategory = crime.getOccurrenceCategory() != null ? crime.getOccurrenceCategory() : "";
+                        String group = crime.getOccurrenceGroup() != null ? crime.getOccurrenceGroup() : "";
+                        String type = crime.getOccurrenceTypeGroup() != null ? crime.getOccurrenceTypeGroup() : "";
+
+                        // Classify into simplified categories
+                        CrimeClassifier.Category simplifiedCategory = CLASSIFIER.classify(originalCategory, group, type);
+
+                        // Update counters
+                        switch (simplifiedCategory) {
+                            case VIOLENT -> violentCount.increment();
+                            case PROPERTY -> propertyCount.increment();
+                            case PUBLIC_DISORDER -> disorderCount.increment();
+                            case MISC -> miscCount.increment();
+                        }
+
+                        writer.field(row + 1)
+                                .field(simplifiedCategory.getLabel())
+                                .escapedField(originalCategory)
+                                .escapedField(type)
+                                .field(crime.getLocation().getLatitude(), 6)
+                                .field(crime.getLocation().getLongitude(), 6)
+                                .field(MAP_GRID.cellX(cell))
+                                .field(MAP_GRID.cellY(cell))
+                                .escapedField(crime.getIntersection() != null ? crime.getIntersection() : "");
+                    });
+            timer.rows(rows.length).bytes(Files.size(outputPath)).detail(outputPath.getFileName().toString());
         }
 
-        if (group.equals("General Disorder")) {
-            return "Public Disorder";
-        }
+        System.out.println("Crime classification stats:");
+        System.out.println("- Violent Crimes: " + violentCount.sum());
+        System.out.println("- Property Crimes: " + propertyCount.sum());
+        System.out.println("- Public Disorder: " + disorderCount.sum());
+        System.out.println("- Misc: " + miscCount.sum());
+        System.out.println("- Skipped: " + (crimes.size() - rows.length) + " (missing or out-of-bounds location)");
+        System.out.println("Generated simplified crime data CSV at: " + outputPath.toAbsolutePath());
+    }
 
-        if (type.equals("Trespassing") ||
-                type.equals("Suspicious Person") ||
-                type.equals("Disturbance") || type.equals("Drugs") ||
-                type.equals("Intoxicated Person")) {
-            return "Public Disorder";
+    /**
+     * Projects records onto the map grid
+     * @return Cell index of each record, or -1 where it has no location or is outside the map
+     */
+    private static <T, L> int[] projectAll(List<T> records, Function<T, L> location,
+                                           ToDoubleFunction<L> latitude, ToDoubleFunction<L> longitude) {
+        int[] cells = new int[records.size()];
+        for (int i = 0; i < cells.length; i++) {
+            L recordLocation = location.apply(records.get(i));
+            cells[i] = recordLocation == null ? -1 :
+                    CoordinateToPixel.geoToCell(latitude.applyAsDouble(recordLocation), longitude.applyAsDouble(recordLocation));
         }
-
-        // 4. Default to "Misc" for everything else
-        return "Misc";
+        return cells;
     }
 
     /**
-     * Helper method to escape special characters in CSV values
-     * @param value The string to escape
-     * @return Escaped string safe for CSV
+     * @return Indices of the records that have a cell, in order
      */
-    private static String escapeCSV(String value) {
-        if (value == null) {
-            return "";
+    private static int[] keptRows(int[] cells) {
+        int[] rows = new int[cells.length];
+        int count = 0;
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i] >= 0) {
+                rows[count++] = i;
+            }
         }
+        return Arrays.copyOf(rows, count);
+    }
 
-        // Add quotes and escape existing quotes if value contains comma, quote or newline
-        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
-            return "\"" + value.replace("\"", "\"\"") + "\"";
+    private static void createParentDirectories(Path outputPath) throws IOException {
+        Path parent = outputPath.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
         }
-        return value;
     }
 
     /**
@@ -273,13 +242,45 @@ public class GenerateKeyCSV {
     }
 
     /**
-     * Main method to generate both CSV files
+     * Checks if the columnar binary files exist
+     * @return true if both files exist, false otherwise
+     */
+    public static boolean keyColumnFilesExist() {
+        return Files.exists(Paths.get(KEY_PROPERTY_COLUMNS_PATH)) && Files.exists(Paths.get(KEY_CRIME_COLUMNS_PATH));
+    }
+
+    /**
+     * Checks whether a columnar key data file can stand in for the export it is generated from:
+     * it exists, and the export in the source folder (if there) has not changed since
+     * @param columnsPath KEY_CRIME_COLUMNS_PATH or KEY_PROPERTY_COLUMNS_PATH
+     * @param exportResource Resource name of the export, FileUtils.CRIME_DATA_PATH or FileUtils.PROPERTY_DATA_PATH
+     * @return true if the columnar file is current
+     * @throws IOException If an I/O error occurs
+     */
+    public static boolean isKeyColumnFileCurrent(String columnsPath, String exportResource) throws IOException {
+        Path columns = Paths.get(columnsPath);
+        if (!Files.isRegularFile(columns)) {
+            return false;
+        }
+        FileTime generated = Files.getLastModifiedTime(columns);
+        for (String resource : List.of(exportResource, exportResource + FileUtils.GZIP_SUFFIX)) {
+            Path export = Paths.get(RESOURCES_DIR + resource);
+            if (Files.exists(export) && Files.getLastModifiedTime(export).compareTo(generated) > 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Main method to generate both CSV files from the bundled exports, which are parsed and projected once
      * @param args Command line arguments (not used)
      */
     public static void main(String[] args) {
-        try {
-            generateKeyPropertyData();
-            generateKeyCrimeData();
+        try (CalculatePixelValue data = new CalculatePixelValue(MAP_GRID)) {
+            data.loadPropertyData();
+            data.loadCrimeData();
+            generateKeyData(data);
             System.out.println("CSV generation completed successfully!");
         } catch (IOException e) {
             System.err.println("Error generating CSV files: " + e.getMessage());
@@ -0,0 +1,307 @@
+package ca.macewan.thebatmap.utils.general;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Describes the grid that data is aggregated into and rendered from:
+ * the geographic extent it covers, its resolution in pixels, and the projection between them.
+ * Pixel coordinates are rounded to the nearest pixel, so they run from 0 to width (and height) inclusive.
+ * The pixel edge of every column and row is precomputed, so projecting a point inside the grid
+ * costs a table lookup rather than evaluating the projection.
+ */
+public class GridSpec {
+    /** Grid matching the bundled 1812x1850 Edmonton map image, which is rendered in Web Mercator */
+    public static final GridSpec EDMONTON = new GridSpec(
+            53.652716, -113.698940, 53.420792, -113.317686,
+            1812, 1850, WebMercatorProjection.INSTANCE);
+
+    // Lat/lon boundaries of the grid
+    private final double topLeftLat;
+    private final double topLeftLon;
+    private final double bottomRightLat;
+    private final double bottomRightLon;
+
+    // Grid dimensions (pixels)
+    private final int width;
+    private final int height;
+
+    private final Projection projection;
+
+    // Projected corners
+    private final double left;
+    private final double right;
+    private final double top;
+    private final double bottom;
+
+    // Precomputed pixel edges; rows are looked up by negated latitude so both axes increase
+    private final AxisTable columnTable;
+    private final AxisTable rowTable;
+
+    public GridSpec(double topLeftLat, double topLeftLon, double bottomRightLat, double bottomRightLon,
+                    int width, int height, Projection projection) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Grid dimensions must be positive: " + width + "x" + height);
+        }
+        if (topLeftLat <= bottomRightLat || topLeftLon >= bottomRightLon) {
+            throw new IllegalArgumentException("Top left corner must be north-west of the bottom right corner");
+        }
+
+        this.topLeftLat = topLeftLat;
+        this.topLeftLon = topLeftLon;
+        this.bottomRightLat = bottomRightLat;
+        this.bottomRightLon = bottomRightLon;
+        this.width = width;
+        this.height = height;
+        this.projection = projection;
+
+        this.left = projection.projectX(topLeftLon);
+        this.right = projection.projectX(bottomRightLon);
+        this.top = projection.projectY(topLeftLat);
+        this.bottom = projection.projectY(bottomRightLat);
+
+        this.columnTable = new AxisTable(topLeftLon, bottomRightLon, width,
+                fraction -> projection.unprojectX(left + fraction * (right - left)));
+        this.rowTable = new AxisTable(-topLeftLat, -bottomRightLat, height,
+                fraction -> -projection.unprojectY(top - fraction * (top - bottom)));
+    }
+
+    /**
+     * Creates a grid over the same extent where each pixel covers the given number of degrees of longitude.
+     * The height is chosen to keep the aspect ratio of this grid.
+     * @param cellSizeDegrees Width of one pixel in degrees of longitude
+     * @return A new grid spec
+     */
+    public GridSpec withCellSize(double cellSizeDegrees) {
+        int newWidth = (int) Math.max(1, Math.round((bottomRightLon - topLeftLon) / cellSizeDegrees));
+        return scaled(newWidth / (double) width);
+    }
+
+    /**
+     * Creates a coarser (factor below 1) or finer (factor above 1) grid over the same extent
+     * @param factor Scale factor applied to both dimensions
+     * @return A new grid spec
+     */
+    public GridSpec scaled(double factor) {
+        return withSize((int) Math.max(1, Math.round(width * factor)),
+                (int) Math.max(1, Math.round(height * factor)));
+    }
+
+    /**
+     * Creates a grid over the same extent and projection with a different resolution
+     * @param width Grid width in pixels
+     * @param height Grid height in pixels
+     * @return A new grid spec
+     */
+    public GridSpec withSize(int width, int height) {
+        return new GridSpec(topLeftLat, topLeftLon, bottomRightLat, bottomRightLon, width, height, projection);
+    }
+
+    /**
+     * Creates a grid over the same extent and resolution with a different projection
+     * @param projection The projection to use
+     * @return A new grid spec
+     */
+    public GridSpec withProjection(Projection projection) {
+        return new GridSpec(topLeftLat, topLeftLon, bottomRightLat, bottomRightLon, width, height, projection);
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    /**
+     * @return Number of pixel columns, including the one at x = width
+     */
+    public int getColumns() { return width + 1; }
+
+    /**
+     * @return Number of pixel rows, including the one at y = height
+     */
+    public int getRows() { return height + 1; }
+
+    public int getCellCount() { return getColumns() * getRows(); }
+
+    public Projection getProjection() { return projection; }
+
+    public double getTopLeftLat() { return topLeftLat; }
+
+    public double getTopLeftLon() { return topLeftLon; }
+
+    public double getBottomRightLat() { return bottomRightLat; }
+
+    public double getBottomRightLon() { return bottomRightLon; }
+
+    /**
+     * Converts a longitude to the pixel X coordinate
+     * @param longitude The longitude value to convert
+     * @return The X coordinate (pixel)
+     */
+    public int longitudeToX(double longitude) {
+        int x = columnTable.lookup(longitude);
+        if (x >= 0) {
+            return x;
+        }
+        return (int) Math.round(width * (projection.projectX(longitude) - left) / (right - left));
+    }
+
+    /**
+     * Converts a latitude to the pixel Y coordinate
+     * @param latitude The latitude value to convert
+     * @return The Y coordinate (pixel)
+     */
+    public int latitudeToY(double latitude) {
+        int y = rowTable.lookup(-latitude);
+        if (y >= 0) {
+            return y;
+        }
+        return (int) Math.round(height * (top - projection.projectY(latitude)) / (top - bottom));
+    }
+
+    /**
+     * Converts from pixel X coordinate to longitude
+     * @param x The X coordinate (pixel)
+     * @return The longitude value
+     */
+    public double xToLongitude(int x) {
+        return projection.unprojectX(left + (x * (right - left) / width));
+    }
+
+    /**
+     * Converts from pixel Y coordinate to latitude
+     * @param y The Y coordinate (pixel)
+     * @return The latitude value
+     */
+    public double yToLatitude(int y) {
+        return projection.unprojectY(top - (y * (top - bottom) / height));
+    }
+
+    /**
+     * Checks if the provided coordinates are within the extent of the grid
+     * @param latitude The latitude to check
+     * @param longitude The longitude to check
+     * @return true if coordinates are outside the grid, false otherwise
+     */
+    public boolean outOfBounds(double latitude, double longitude) {
+        return !(latitude <= topLeftLat) ||
+                !(latitude >= bottomRightLat) ||
+                !(longitude >= topLeftLon) ||
+                !(longitude <= bottomRightLon);
+    }
+
+    /**
+     * Projects a coordinate straight to its packed cell index without allocating
+     * @param latitude The latitude value
+     * @param longitude The longitude value
+     * @return Cell index (y * columns + x), or -1 if the coordinates are outside the grid
+     */
+    public int project(double latitude, double longitude) {
+        if (outOfBounds(latitude, longitude)) {
+            return -1;
+        }
+        return rowTable.lookup(-latitude) * getColumns() + columnTable.lookup(longitude);
+    }
+
+    /**
+     * Projects a batch of coordinates to packed cell indices
+     * @param latitudes Latitude values
+     * @param longitudes Longitude values
+     * @param length Number of coordinates to project
+     * @param cells Output array receiving the cell index (or -1) of each coordinate
+     */
+    public void projectAll(double[] latitudes, double[] longitudes, int length, int[] cells) {
+        for (int i = 0; i < length; i++) {
+            cells[i] = project(latitudes[i], longitudes[i]);
+        }
+    }
+
+    /**
+     * @param cell Packed cell index
+     * @return The X coordinate (pixel) of the cell
+     */
+    public int cellX(int cell) { return cell % getColumns(); }
+
+    /**
+     * @param cell Packed cell index
+     * @return The Y coordinate (pixel) of the cell
+     */
+    public int cellY(int cell) { return cell / getColumns(); }
+
+    /**
+     * Converts pixel coordinates to a cell index (y * columns + x)
+     * @param x X coordinate
+     * @param y Y coordinate
+     * @return Cell index, or -1 if the coordinates are outside the grid
+     */
+    public int cellIndex(int x, int y) {
+        if (x < 0 || x > width || y < 0 || y > height) {
+            return -1;
+        }
+        return y * getColumns() + x;
+    }
+
+    /**
+     * Lookup table from an increasing coordinate to the nearest pixel along one axis.
+     * Stores the coordinate where each pixel starts, plus a bucket table that gives a starting pixel
+     * for any coordinate; buckets are finer than pixels, so a lookup advances at most a step or two.
+     */
+    private static final class AxisTable {
+        private final int size;
+        private final double start;
+        private final double end;
+        private final double bucketScale;
+        private final int[] bucketPixel;
+        // edges[p] is the coordinate where pixel p starts; edges[size + 1] is +infinity
+        private final double[] edges;
+
+        AxisTable(double start, double end, int size, DoubleUnaryOperator coordinateAtFraction) {
+            this.size = size;
+            this.start = start;
+            this.end = end;
+
+            // Pixel p covers fractions from (p - 0.5) / size, matching Math.round
+            edges = new double[size + 2];
+            edges[0] = Double.NEGATIVE_INFINITY;
+            for (int p = 1; p <= size; p++) {
+                edges[p] = coordinateAtFraction.applyAsDouble((p - 0.5) / size);
+            }
+            edges[size + 1] = Double.POSITIVE_INFINITY;
+
+            int buckets = 2 * (size + 1);
+            bucketScale = buckets / (end - start);
+            bucketPixel = new int[buckets];
+            int pixel = 0;
+            for (int b = 0; b < buckets; b++) {
+                double coordinate = start + b / bucketScale;
+                while (pixel < size && coordinate >= edges[pixel + 1]) {
+                    pixel++;
+                }
+                bucketPixel[b] = pixel;
+            }
+        }
+
+        /**
+         * @param coordinate Coordinate to look up
+         * @return Pixel index, or -1 if the coordinate is outside the table
+         */
+        int lookup(double coordinate) {
+            if (!(coordinate >= start && coordinate <= end)) {
+                return -1;
+            }
+
+            // The end of the range falls exactly on the last bucket boundary
+            int bucket = (int) ((coordinate - start) * bucketScale);
+            int pixel = bucketPixel[Math.min(bucket, bucketPixel.length - 1)];
+            while (pixel < size && coordinate >= edges[pixel + 1]) {
+                pixel++;
+            }
+            return pixel;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "GridSpec{" + width + "x" + height +
+                ", (" + topLeftLat + ", " + topLeftLon + ") - (" + bottomRightLat + ", " + bottomRightLon + ")" +
+                ", " + projection.getClass().getSimpleName() + '}';
+    }
+}
@@ -0,0 +1,144 @@
+package ca.macewan.thebatmap.utils.general;
+
+/**
+ * Pointy-top hexagons of one size tiling an overlay grid, for hexbin overlays: hexagons cover the map without gaps
+ * or overlaps and are the same width in every direction, so density reads alike across the map.
+ * Rows of hexagons are offset by half a hexagon on odd rows, and each hexagon is identified by an int,
+ * row * columns + column, so hex values can be held in primitive arrays.
+ */
+public class HexGrid {
+    private static final double SQRT3 = Math.sqrt(3);
+
+    private final int width;
+    private final int height;
+    private final int size;
+    // Distance between hexagon centers along a row, and between rows
+    private final double columnStep;
+    private final double rowStep;
+    private final int columns;
+    private final int rows;
+
+    /**
+     * @param width Overlay grid width in pixels
+     * @param height Overlay grid height in pixels
+     * @param size Distance from a hexagon's center to its corners, in pixels
+     */
+    public HexGrid(int width, int height, int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Hexagon size must be at least one pixel, not " + size);
+        }
+        this.width = width;
+        this.height = height;
+        this.size = size;
+        this.columnStep = SQRT3 * size;
+        this.rowStep = 1.5 * size;
+        this.columns = (int) Math.ceil(width / columnStep) + 1;
+        this.rows = (int) Math.ceil(height / rowStep) + 1;
+    }
+
+    public int getSize() { return size; }
+
+    /**
+     * @return Number of hexagon ids, including hexagons that only partly cover the grid
+     */
+    public int getHexCount() { return columns * rows; }
+
+    /**
+     * Finds the hexagon a pixel's center falls in
+     * @param x Pixel column
+     * @param y Pixel row
+     * @return The hexagon's id
+     */
+    public int hexOf(int x, int y) {
+        // Fractional axial coordinates, rounded to the nearest hexagon in cube coordinates
+        double px = x + 0.5;
+        double py = y + 0.5;
+        double q = (SQRT3 / 3 * px - py / 3) / size;
+        double r = 2.0 / 3 * py / size;
+        double s = -q - r;
+        long rq = Math.round(q);
+        long rr = Math.round(r);
+        long rs = Math.round(s);
+        double dq = Math.abs(rq - q);
+        double dr = Math.abs(rr - r);
+        double ds = Math.abs(rs - s);
+        if (dq > dr && dq > ds) {
+            rq = -rr - rs;
+        } else if (dr > ds) {
+            rr = -rq - rs;
+        }
+
+        // Axial to offset coordinates
+        int row = (int) rr;
+        int column = (int) (rq + (rr - (rr & 1)) / 2);
+        return row * columns + column;
+    }
+
+    public double centerX(int hex) {
+        int row = hex / columns;
+        return columnStep * (hex % columns + 0.5 * (row & 1));
+    }
+
+    public double centerY(int hex) {
+        return rowStep * (hex / columns);
+    }
+
+    /**
+     * Bins a layer's cells into hexagons in one pass over primitive arrays
+     * @param layer Cells of the overlay grid and their values
+     * @param average Whether a hexagon takes the mean of its cells (for values) rather than their sum (for counts)
+     * @return Hexagon ids that have data and their values; the bound is left at 0
+     */
+    public LayerCache.Layer aggregate(LayerCache.Layer layer, boolean average) {
+        int[] cells = layer.cells();
+        double[] values = layer.values();
+        double[] sums = new double[getHexCount()];
+        int[] counts = new int[sums.length];
+        int filled = 0;
+        for (int i = 0; i < cells.length; i++) {
+            int hex = hexOf(cells[i] % width, cells[i] / width);
+            if (counts[hex]++ == 0) {
+                filled++;
+            }
+            sums[hex] += values[i];
+        }
+
+        int[] hexes = new int[filled];
+        double[] hexValues = new double[filled];
+        int j = 0;
+        for (int hex = 0; hex < sums.length; hex++) {
+            if (counts[hex] > 0) {
+                hexes[j] = hex;
+                hexValues[j++] = average ? sums[hex] / counts[hex] : sums[hex];
+            }
+        }
+        return new LayerCache.Layer(hexes, hexValues, 0);
+    }
+
+    /**
+     * Fills a hexagon into a raster as a polygon, scanline by scanline. A pixel is covered if its center lies
+     * inside the hexagon (on the left edge but not the right), so neighbouring hexagons do not overlap.
+     * @param raster Pixels of a width x height ARGB image
+     * @param hex Hexagon to fill
+     * @param argb Color written to the covered pixels
+     */
+    public void fill(int[] raster, int hex, int argb) {
+        double cx = centerX(hex);
+        double cy = centerY(hex);
+        double halfWidth = columnStep / 2;
+        int minY = Math.max(0, (int) Math.ceil(cy - size - 0.5));
+        int maxY = Math.min(height - 1, (int) Math.floor(cy + size - 0.5));
+
+        for (int y = minY; y <= maxY; y++) {
+            double dy = Math.abs(y + 0.5 - cy);
+            // Full width between the side corners, narrowing linearly to the top and bottom corners
+            double half = dy <= size / 2.0 ? halfWidth : halfWidth * (size - dy) / (size / 2.0);
+            int minX = Math.max(0, (int) Math.ceil(cx - half - 0.5));
+            int maxX = Math.min(width, (int) Math.ceil(cx + half - 0.5));
+            int row = y * width;
+            for (int x = minX; x < maxX; x++) {
+                raster[row + x] = argb;
+            }
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package ca.macewan.thebatmap.utils.general;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Small LRU cache of scanned overlay layers, so switching back to an overlay skips the scan and quantile phases.
+ * Layers are computed outside the cache lock; two renders missing on the same key at once both compute it.
+ * Hits and misses are counted per layer type (e.g. "Crime", "Property", "Correlation").
+ */
+public class LayerCache {
+    private final int capacity;
+    private final Map<Object, Layer> layers;
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * @param capacity Maximum number of cached layers; 0 disables caching
+     */
+    public LayerCache(int capacity) {
+        this.capacity = capacity;
+        this.layers = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Layer> eldest) {
+                return size() > LayerCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns a cached layer, computing and caching it on a miss
+     * @param layerType Type the hit or miss is counted against
+     * @param key Key identifying the data set and selection the layer was scanned from
+     * @param loader Computes the layer on a miss
+     * @return The layer
+     */
+    public Layer get(String layerType, Object key, Supplier<Layer> loader) {
+        Stats typeStats = stats.computeIfAbsent(layerType, _ -> new Stats());
+        Layer layer;
+        synchronized (layers) {
+            layer = layers.get(key);
+        }
+        if (layer != null) {
+            typeStats.hits.increment();
+            return layer;
+        }
+
+        typeStats.misses.increment();
+        layer = loader.get();
+        if (capacity > 0) {
+            synchronized (layers) {
+                layers.put(key, layer);
+            }
+        }
+        return layer;
+    }
+
+    /**
+     * Drops every cached layer; the hit and miss counts are kept
+     */
+    public void clear() {
+        synchronized (layers) {
+            layers.clear();
+        }
+    }
+
+    /**
+     * @return Number of layers currently cached
+     */
+    public int size() {
+        synchronized (layers) {
+            return layers.size();
+        }
+    }
+
+    public int getCapacity() { return capacity; }
+
+    /**
+     * @return Hit and miss counts by layer type
+     */
+    public Map<String, Stats> getStats() {
+        return Map.copyOf(stats);
+    }
+
+    /**
+     * A scanned layer: the cells that have data, their values, and the upper bound of the color scale.
+     * The arrays are shared by every render of the layer and must not be modified.
+     */
+    public record Layer(int[] cells, double[] values, double bound) {
+        public static final Layer EMPTY = new Layer(new int[0], new double[0], 0);
+
+        /**
+         * Flattens a map of cell values into a layer
+         * @param pixelValues Values keyed by cell index
+         * @param bound Upper bound of the color scale
+         * @return A new layer
+         */
+        public static Layer of(Map<Integer, Double> pixelValues, double bound) {
+            int[] cells = new int[pixelValues.size()];
+            double[] values = new double[cells.length];
+            int i = 0;
+            for (Map.Entry<Integer, Double> entry : pixelValues.entrySet()) {
+                cells[i] = entry.getKey();
+                values[i++] = entry.getValue();
+            }
+            return new Layer(cells, values, bound);
+        }
+
+        public int size() { return cells.length; }
+
+        public boolean isEmpty() { return cells.length == 0; }
+    }
+
+    /**
+     * Hit and miss counters of one layer type
+     */
+    public static final class Stats {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        public long getHits() { return hits.sum(); }
+
+        public long getMisses() { return misses.sum(); }
+
+        /**
+         * @return Share of lookups served from the cache, 0 if there were none
+         */
+        public double getHitRatio() {
+            long h = hits.sum();
+            long total = h + misses.sum();
+            return total == 0 ? 0 : h / (double) total;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package ca.macewan.thebatmap.utils.general;
+
+/**
+ * Projection that treats latitude and longitude as planar coordinates (plate carrée)
+ */
+public class LinearProjection implements Projection {
+    public static final LinearProjection INSTANCE = new LinearProjection();
+
+    @Override
+    public double projectX(double longitude) { return longitude; }
+
+    @Override
+    public double projectY(double latitude) { return latitude; }
+
+    @Override
+    public double unprojectX(double x) { return x; }
+
+    @Override
+    public double unprojectY(double y) { return y; }
+}
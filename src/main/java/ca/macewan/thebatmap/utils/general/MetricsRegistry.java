@@ -0,0 +1,217 @@
+package ca.macewan.thebatmap.utils.general;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * In-process metrics for the pipeline phases. Every timed phase records its latency into a histogram
+ * along with the rows and bytes it processed, and emits a PhaseEvent for Flight Recorder.
+ * Named counters hold anything else worth reporting, such as malformed values skipped by the parsers.
+ * <pre>
+ * try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.PARSE)) {
+ *     crimes = ParseCrime.parseCrimeData(file);
+ *     timer.rows(crimes.size());
+ * }
+ * </pre>
+ */
+public class MetricsRegistry {
+    private static final Map<Phase, PhaseMetrics> METRICS = new EnumMap<>(Phase.class);
+    private static final Map<String, LongAdder> COUNTERS = new ConcurrentSkipListMap<>();
+
+    static {
+        for (Phase phase : Phase.values()) {
+            METRICS.put(phase, new PhaseMetrics());
+        }
+    }
+
+    private MetricsRegistry() {}
+
+    /**
+     * Starts timing a phase; the measurement is recorded when the returned timer is closed
+     * @param phase The phase being timed
+     * @return A running timer
+     */
+    public static PhaseTimer time(Phase phase) {
+        return new PhaseTimer(phase);
+    }
+
+    /**
+     * @param phase The phase to look up
+     * @return Latency histogram of the phase
+     */
+    public static LatencyHistogram getHistogram(Phase phase) {
+        return METRICS.get(phase).latency;
+    }
+
+    /**
+     * @param phase The phase to look up
+     * @return Total rows processed by the phase
+     */
+    public static long getRows(Phase phase) {
+        return METRICS.get(phase).rows.sum();
+    }
+
+    /**
+     * @param phase The phase to look up
+     * @return Total bytes processed by the phase
+     */
+    public static long getBytes(Phase phase) {
+        return METRICS.get(phase).bytes.sum();
+    }
+
+    /**
+     * Adds to a named counter
+     * @param name Counter name, e.g. "bad values/crime"
+     * @param delta Amount to add
+     */
+    public static void count(String name, long delta) {
+        COUNTERS.computeIfAbsent(name, _ -> new LongAdder()).add(delta);
+    }
+
+    /**
+     * @param name Counter name
+     * @return Total of the counter, 0 if nothing was counted
+     */
+    public static long getCount(String name) {
+        LongAdder counter = COUNTERS.get(name);
+        return counter == null ? 0 : counter.sum();
+    }
+
+    /**
+     * Clears the metrics of every phase and all counters
+     */
+    public static void reset() {
+        for (PhaseMetrics metrics : METRICS.values()) {
+            metrics.latency.reset();
+            metrics.rows.reset();
+            metrics.bytes.reset();
+        }
+        COUNTERS.clear();
+    }
+
+    /**
+     * Formats one line per phase that has been recorded, e.g.
+     * "parse      n=2  p50=412.0 ms  p99=530.0 ms  max=530.0 ms  rows=1,200,000  bytes=96.1 MB",
+     * followed by one line per counter
+     * @return Human readable summary, empty if nothing has been recorded
+     */
+    public static String report() {
+        StringBuilder report = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            LatencyHistogram latency = getHistogram(phase);
+            long count = latency.getCount();
+            if (count == 0) {
+                continue;
+            }
+            report.append(String.format("%-10s n=%-4d p50=%s  p99=%s  max=%s  rows=%,d  bytes=%s%n",
+                    phase.getLabel(), count,
+                    formatNanos(latency.getPercentileNanos(50)),
+                    formatNanos(latency.getPercentileNanos(99)),
+                    formatNanos(latency.getMaxNanos()),
+                    getRows(phase), formatBytes(getBytes(phase))));
+        }
+        for (Map.Entry<String, LongAdder> counter : COUNTERS.entrySet()) {
+            report.append(String.format("%-10s %,d%n", counter.getKey(), counter.getValue().sum()));
+        }
+        return report.toString();
+    }
+
+    /**
+     * @param nanos Duration in nanoseconds
+     * @return The duration in the most readable unit
+     */
+    public static String formatNanos(double nanos) {
+        if (nanos >= 1e9) { return String.format("%.2f s", nanos / 1e9); }
+        if (nanos >= 1e6) { return String.format("%.1f ms", nanos / 1e6); }
+        return String.format("%.1f us", nanos / 1e3);
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes >= 1L << 20) { return String.format("%.1f MB", bytes / (double) (1L << 20)); }
+        if (bytes >= 1L << 10) { return String.format("%.1f KB", bytes / (double) (1L << 10)); }
+        return bytes + " B";
+    }
+
+    private static final class PhaseMetrics {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder rows = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+    }
+
+    /**
+     * Measurement of one run of a phase. Not thread-safe; each run gets its own timer.
+     */
+    public static final class PhaseTimer implements AutoCloseable {
+        private final Phase phase;
+        private final PhaseEvent event = new PhaseEvent();
+        private final long start;
+        private long rows;
+        private long bytes;
+        private String detail;
+        private Supplier<String> lazyDetail;
+
+        private PhaseTimer(Phase phase) {
+            this.phase = phase;
+            this.event.begin();
+            this.start = System.nanoTime();
+        }
+
+        /**
+         * @param rows Number of records or cells processed
+         * @return This timer
+         */
+        public PhaseTimer rows(long rows) {
+            this.rows = rows;
+            return this;
+        }
+
+        /**
+         * @param bytes Number of bytes read or written
+         * @return This timer
+         */
+        public PhaseTimer bytes(long bytes) {
+            this.bytes = bytes;
+            return this;
+        }
+
+        /**
+         * @param detail Free text shown with the Flight Recorder event, e.g. the active filter
+         * @return This timer
+         */
+        public PhaseTimer detail(String detail) {
+            this.detail = detail;
+            return this;
+        }
+
+        /**
+         * @param detail Builds the free text shown with the Flight Recorder event; only called if the event is
+         *               recorded, for details that are costly to format
+         * @return This timer
+         */
+        public PhaseTimer detail(Supplier<String> detail) {
+            this.lazyDetail = detail;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            long elapsed = System.nanoTime() - start;
+            PhaseMetrics metrics = METRICS.get(phase);
+            metrics.latency.record(elapsed);
+            metrics.rows.add(rows);
+            metrics.bytes.add(bytes);
+
+            event.end();
+            if (event.shouldCommit()) {
+                event.phase = phase.getLabel();
+                event.rows = rows;
+                event.bytes = bytes;
+                event.detail = detail == null && lazyDetail != null ? lazyDetail.get() : detail;
+                event.commit();
+            }
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package ca.macewan.thebatmap.utils.general;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Load test client for OverlayServer: a number of virtual threads request random paths from a list
+ * as fast as the server answers, then the throughput, latency percentiles and status codes are printed.
+ */
+public class OverlayLoadTest {
+    private final HttpClient client;
+    private final URI base;
+    private final List<String> paths;
+    private final boolean conditional;
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private final LongAdder bytes = new LongAdder();
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+    private final Map<String, String> etags = new ConcurrentHashMap<>();
+
+    /**
+     * @param base Server address, e.g. http://localhost:8080/
+     * @param paths Paths (with query strings) to request, picked at random
+     * @param conditional Whether to send the last ETag seen for a path, as a browser revalidating would
+     */
+    public OverlayLoadTest(URI base, List<String> paths, boolean conditional) {
+        this.client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1)
+                .executor(Executors.newVirtualThreadPerTaskExecutor()).build();
+        this.base = base;
+        this.paths = List.copyOf(paths);
+        this.conditional = conditional;
+    }
+
+    /**
+     * Sends requests until the time is up
+     * @param concurrency Number of requests in flight
+     * @param seconds Duration of the test
+     * @throws InterruptedException If interrupted while waiting for the clients
+     */
+    public void run(int concurrency, double seconds) throws InterruptedException {
+        long end = System.nanoTime() + (long) (seconds * 1e9);
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < concurrency; i++) {
+                clients.submit(() -> {
+                    while (System.nanoTime() < end) {
+                        request(paths.get(ThreadLocalRandom.current().nextInt(paths.size())));
+                    }
+                    return null;
+                });
+            }
+        }
+    }
+
+    private void request(String path) throws InterruptedException {
+        HttpRequest.Builder request = HttpRequest.newBuilder(base.resolve(path)).GET();
+        String etag = etags.get(path);
+        if (conditional && etag != null) {
+            request.header("If-None-Match", etag);
+        }
+
+        long start = System.nanoTime();
+        int status;
+        try {
+            HttpResponse<byte[]> response = client.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+            status = response.statusCode();
+            bytes.add(response.body().length);
+            response.headers().firstValue("ETag").ifPresent(tag -> etags.put(path, tag));
+        } catch (IOException e) {
+            status = -1;
+        }
+        latencies.record(System.nanoTime() - start);
+        statuses.computeIfAbsent(status, _ -> new LongAdder()).increment();
+    }
+
+    /**
+     * Prints the results of a run
+     * @param seconds Duration of the run
+     */
+    public void report(double seconds) {
+        long count = latencies.getCount();
+        System.out.printf("%,d requests in %.1f s: %,.0f requests/s, %,.1f MB/s%n",
+                count, seconds, count / seconds, bytes.sum() / seconds / (1 << 20));
+        System.out.printf("Latency mean %.2f ms, p50 %.2f ms, p99 %.2f ms, max %.2f ms%n",
+                latencies.getMeanNanos() / 1e6, latencies.getPercentileNanos(50) / 1e6,
+                latencies.getPercentileNanos(99) / 1e6, latencies.getMaxNanos() / 1e6);
+        StringBuilder codes = new StringBuilder("Status codes:");
+        statuses.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(entry ->
+                codes.append(' ').append(entry.getKey() < 0 ? "failed" : entry.getKey())
+                        .append('=').append(entry.getValue().sum()));
+        System.out.println(codes);
+    }
+
+    /**
+     * Runs a load test against a running server
+     * @param args [base url] [concurrency] [seconds] [conditional to send If-None-Match] [paths...];
+     *             by default the tiles of every zoom level of the unfiltered crime overlay up to zoom 3
+     */
+    public static void main(String[] args) throws InterruptedException {
+        URI base = URI.create(args.length > 0 ? args[0] : "http://localhost:8080/");
+        int concurrency = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        double seconds = args.length > 2 ? Double.parseDouble(args[2]) : 10;
+        boolean conditional = args.length > 3 && args[3].equals("conditional");
+
+        List<String> paths = new ArrayList<>();
+        for (int i = 4; i < args.length; i++) {
+            paths.add(args[i]);
+        }
+        if (paths.isEmpty()) {
+            for (int z = 0; z <= 3; z++) {
+                for (int x = 0; x < 1 << z; x++) {
+                    for (int y = 0; y < 1 << z; y++) {
+                        paths.add("tiles/" + z + "/" + x + "/" + y + ".png?map=Crime");
+                    }
+                }
+            }
+        }
+
+        OverlayLoadTest test = new OverlayLoadTest(base, paths, conditional);
+        System.out.println("Requesting " + paths.size() + " paths from " + base + " with " + concurrency
+                + " clients for " + seconds + " s");
+        test.run(concurrency, seconds);
+        test.report(seconds);
+    }
+}
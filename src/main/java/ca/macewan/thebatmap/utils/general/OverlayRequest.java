@@ -0,0 +1,24 @@
+package ca.macewan.thebatmap.utils.general;
+
+/**
+ * Immutable description of one heat map overlay, as selected in the control panel
+ * @param mapType "Crime" or "Property"
+ * @param categoryOrGroup Filter group (Category, Group, Type, Ward, Neighbourhood or None)
+ * @param filter Value of the filter group to keep, or "None"
+ * @param assessment Assessment class to keep for property maps, or "None"
+ */
+public record OverlayRequest(String mapType, String categoryOrGroup, String filter, String assessment) {
+
+    /**
+     * @return A file name identifying this overlay
+     */
+    public String fileName() {
+        return mapType + "_" + categoryOrGroup + "_" + replaceSymbols(filter) + "_" + assessment + ".png";
+    }
+
+    private static String replaceSymbols(String string) {
+        return string.replace('/', '_').replace('\\', '_').replace(':', '_')
+                .replace('*', '_').replace('?', '_').replace('"', '_')
+                .replace('<', '_').replace('>', '_').replace('|', '_');
+    }
+}
@@ -0,0 +1,470 @@
+package ca.macewan.thebatmap.utils.general;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Embedded HTTP server exposing the heat maps and aggregates of a loaded data set, so browsers and dashboards
+ * can show them without the JavaFX app. Requests run on virtual threads.
+ * <ul>
+ *     <li>{@code /overlay.png?map=Crime&group=Category&filter=Theft&assessment=None}: a whole overlay; repeating
+ *     {@code filter} or {@code assessment} (e.g. {@code filter=Theft&filter=Robbery}) keeps records matching any
+ *     of the values</li>
+ *     <li>{@code /tiles/{z}/{x}/{y}.png?map=...}: a 256 pixel tile of an overlay; zoom 0 fits the overlay in one
+ *     tile and every level doubles the resolution, up to the overlay's own</li>
+ *     <li>{@code /aggregate?q=crime where group=Assault by year}: a query result as JSON, see Query.parse</li>
+ *     <li>{@code /facets?group=Category}: the values of a filter group with their record counts as JSON</li>
+ * </ul>
+ * Responses are cached in memory up to a byte budget, and carry an ETag tied to the data version,
+ * so conditional GETs are answered with 304 before anything is looked up.
+ */
+public class OverlayServer {
+    public static final int TILE_SIZE = 256;
+    private static final int DEFAULT_PORT = 8080;
+    private static final long CACHED_BYTES = 64L << 20;
+    // Full overlays kept for cutting tiles from
+    private static final int CACHED_OVERLAYS = 4;
+    private static final String PNG = "image/png";
+    private static final String JSON = "application/json; charset=utf-8";
+
+    private final DrawOverlay overlay;
+    private final QueryEngine queryEngine = new QueryEngine();
+    private final int maxZoom;
+    // Distinguishes ETags of different server runs, whose data versions start over
+    private final String instanceTag = Long.toHexString(System.currentTimeMillis());
+    private HttpServer server;
+
+    private final Map<String, Response> responses = new LinkedHashMap<>(64, 0.75f, true);
+    private long cachedBytes;
+    private final Map<OverlayKey, int[]> overlays = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<OverlayKey, int[]> eldest) {
+            return size() > CACHED_OVERLAYS;
+        }
+    };
+    private final Map<OverlayKey, CompletableFuture<int[]>> pendingOverlays = new ConcurrentHashMap<>();
+
+    private record Response(int status, String contentType, byte[] body) {}
+
+    /**
+     * Identifies a rendered overlay by the data set's id and version, so cached pixels do not keep a replaced
+     * data set reachable
+     * @param selection Chosen values per dimension if several filter or assessment values were given, else null
+     */
+    private record OverlayKey(long dataId, long version, OverlayRequest request,
+                              Map<FilterIndex.Dimension, List<String>> selection) {}
+
+    /**
+     * Thrown for requests that cannot be answered, turned into a 4xx response
+     */
+    private static class BadRequest extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        BadRequest(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    /**
+     * @param overlay Renderer over the data set to serve; its data may be replaced while serving
+     */
+    public OverlayServer(DrawOverlay overlay) {
+        this.overlay = overlay;
+        GridSpec grid = overlay.getData().getGridSpec();
+        int size = Math.max(grid.getColumns(), grid.getRows());
+        int zoom = 0;
+        while ((TILE_SIZE << zoom) < size) {
+            zoom++;
+        }
+        this.maxZoom = zoom;
+    }
+
+    /**
+     * Starts serving on all interfaces
+     * @param port Port to listen on, 0 for any free port
+     * @return The port listened on
+     * @throws IOException If the port cannot be bound
+     */
+    public synchronized int start(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops serving, letting running requests finish for up to a second
+     */
+    public synchronized void stop() {
+        if (server != null) {
+            server.stop(1);
+            if (server.getExecutor() instanceof ExecutorService executor) {
+                executor.shutdown();
+            }
+            server = null;
+        }
+    }
+
+    /**
+     * @return Highest tile zoom level, at which tiles are at the overlay's own resolution
+     */
+    public int getMaxZoom() { return maxZoom; }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!exchange.getRequestMethod().equals("GET") && !exchange.getRequestMethod().equals("HEAD")) {
+                exchange.getResponseHeaders().set("Allow", "GET, HEAD");
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            CalculatePixelValue data = overlay.getData();
+            String etag = "\"" + instanceTag + "-" + Integer.toHexString(System.identityHashCode(data))
+                    + "-" + data.getVersion() + "\"";
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("ETag", etag);
+            headers.set("Cache-Control", "no-cache");
+            if (etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+                exchange.sendResponseHeaders(304, -1);
+                return;
+            }
+
+            String key = etag + exchange.getRequestURI().getRawPath() + "?" + exchange.getRequestURI().getRawQuery();
+            Response response = cached(key);
+            if (response == null) {
+                try {
+                    response = respond(data, exchange.getRequestURI().getPath(),
+                            parseQuery(exchange.getRequestURI().getRawQuery()));
+                    cache(key, response);
+                } catch (BadRequest e) {
+                    response = new Response(e.status, "text/plain; charset=utf-8",
+                            e.getMessage().getBytes(StandardCharsets.UTF_8));
+                    cache(key, response);
+                } catch (RuntimeException e) {
+                    System.err.println("Error serving " + exchange.getRequestURI() + ": " + e.getMessage());
+                    e.printStackTrace();
+                    response = new Response(500, "text/plain; charset=utf-8", new byte[0]);
+                }
+            }
+
+            headers.set("Content-Type", response.contentType());
+            boolean head = exchange.getRequestMethod().equals("HEAD");
+            exchange.sendResponseHeaders(response.status(), head ? -1 : response.body().length);
+            if (!head) {
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(response.body());
+                }
+            }
+        }
+    }
+
+    private Response cached(String key) {
+        synchronized (responses) {
+            return responses.get(key);
+        }
+    }
+
+    private void cache(String key, Response response) {
+        synchronized (responses) {
+            Response previous = responses.put(key, response);
+            cachedBytes += response.body().length - (previous == null ? 0 : previous.body().length);
+            var eldest = responses.entrySet().iterator();
+            while (cachedBytes > CACHED_BYTES && eldest.hasNext()) {
+                cachedBytes -= eldest.next().getValue().body().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    private Response respond(CalculatePixelValue data, String path, Map<String, List<String>> parameters)
+            throws IOException {
+        if (path.equals("/overlay.png")) {
+            int[] pixels = overlayPixels(toKey(data, parameters));
+            GridSpec grid = data.getGridSpec();
+            return new Response(200, PNG, encode(pixels, grid.getColumns(), grid.getRows()));
+        }
+        if (path.startsWith("/tiles/") && path.endsWith(".png")) {
+            String[] zxy = path.substring("/tiles/".length(), path.length() - ".png".length()).split("/");
+            if (zxy.length != 3) {
+                throw new BadRequest(404, "Tiles are at /tiles/{z}/{x}/{y}.png");
+            }
+            try {
+                return tile(data, toKey(data, parameters),
+                        Integer.parseInt(zxy[0]), Integer.parseInt(zxy[1]), Integer.parseInt(zxy[2]));
+            } catch (NumberFormatException e) {
+                throw new BadRequest(400, "Tile coordinates must be integers: " + path);
+            }
+        }
+        if (path.equals("/aggregate")) {
+            String text = parameter(parameters, "q", null);
+            if (text == null) {
+                throw new BadRequest(400, "Missing query parameter q");
+            }
+            try {
+                return new Response(200, JSON, aggregateJson(queryEngine.execute(data, Query.parse(text))));
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                throw new BadRequest(400, e.getMessage());
+            }
+        }
+        if (path.equals("/facets")) {
+            String group = parameter(parameters, "group", "");
+            FilterIndex.Dimension dimension = FilterIndex.Dimension.fromLabel(group);
+            if (dimension == null) {
+                throw new BadRequest(400, "Unknown filter group: " + group);
+            }
+            FacetCatalog catalog = switch (dimension) {
+                case WARD, NEIGHBOURHOOD, ASSESSMENT_CLASS -> data.getPropertyFacets();
+                default -> data.getCrimeFacets();
+            };
+            return new Response(200, JSON, facetsJson(catalog, dimension));
+        }
+        throw new BadRequest(404, "Not found: " + path);
+    }
+
+    /**
+     * Identifies the overlay asked for; several filter or assessment values make it a multi-select overlay
+     */
+    private static OverlayKey toKey(CalculatePixelValue data, Map<String, List<String>> parameters) {
+        String mapType = parameter(parameters, "map", "Crime");
+        if (!mapType.equals("Crime") && !mapType.equals("Property")) {
+            throw new BadRequest(400, "map must be Crime or Property, not " + mapType);
+        }
+        String group = parameter(parameters, "group", "None");
+        List<String> filters = parameters.getOrDefault("filter", List.of());
+        List<String> assessments = parameters.getOrDefault("assessment", List.of());
+        OverlayRequest request = new OverlayRequest(mapType, group, parameter(parameters, "filter", "None"),
+                parameter(parameters, "assessment", "None"));
+        if (filters.size() < 2 && assessments.size() < 2) {
+            return new OverlayKey(data.getId(), data.getVersion(), request, null);
+        }
+
+        Map<FilterIndex.Dimension, List<String>> selection = new EnumMap<>(FilterIndex.Dimension.class);
+        List<String> filterValues = filters.stream().filter(value -> !value.equals("None")).toList();
+        if (!filterValues.isEmpty()) {
+            FilterIndex.Dimension dimension = FilterIndex.Dimension.fromLabel(group);
+            if (dimension == null) {
+                throw new BadRequest(400, "Unknown filter group: " + group);
+            }
+            selection.put(dimension, filterValues);
+        }
+        List<String> classes = assessments.stream().filter(value -> !value.equals("None")).toList();
+        if (mapType.equals("Property") && !classes.isEmpty()) {
+            selection.put(FilterIndex.Dimension.ASSESSMENT_CLASS, classes);
+        }
+        return new OverlayKey(data.getId(), data.getVersion(), request, Map.copyOf(selection));
+    }
+
+    /**
+     * @return ARGB pixels of an overlay, or null if no data matches it
+     */
+    private int[] overlayPixels(OverlayKey key) {
+        synchronized (overlays) {
+            if (overlays.containsKey(key)) {
+                return overlays.get(key);
+            }
+        }
+
+        // Tiles of an overlay are usually requested together, so only the first request renders it
+        CompletableFuture<int[]> rendering = new CompletableFuture<>();
+        CompletableFuture<int[]> running = pendingOverlays.putIfAbsent(key, rendering);
+        if (running != null) {
+            return running.join();
+        }
+        try {
+            Function<BufferedImage, int[]> copy = image -> image == null ? null
+                    : ((DataBufferInt) image.getRaster().getDataBuffer()).getData().clone();
+            int[] pixels = key.selection() == null ? overlay.render(key.request(), copy)
+                    : overlay.render(key.request().mapType(), key.selection(), copy);
+            synchronized (overlays) {
+                overlays.put(key, pixels);
+            }
+            rendering.complete(pixels);
+            return pixels;
+        } catch (RuntimeException e) {
+            rendering.completeExceptionally(e);
+            throw e;
+        } finally {
+            pendingOverlays.remove(key);
+        }
+    }
+
+    private Response tile(CalculatePixelValue data, OverlayKey key, int z, int x, int y) throws IOException {
+        int tiles = 1 << Math.max(0, z);
+        if (z < 0 || z > maxZoom || x < 0 || y < 0 || x >= tiles || y >= tiles) {
+            throw new BadRequest(404, "No tile " + z + "/" + x + "/" + y + " (zoom 0 to " + maxZoom + ")");
+        }
+        int[] pixels = overlayPixels(key);
+        int[] tile = new int[TILE_SIZE * TILE_SIZE];
+        if (pixels != null) {
+            GridSpec grid = data.getGridSpec();
+            downsample(pixels, grid.getColumns(), grid.getRows(), 1 << (maxZoom - z),
+                    x * TILE_SIZE, y * TILE_SIZE, tile);
+        }
+        return new Response(200, PNG, encode(tile, TILE_SIZE, TILE_SIZE));
+    }
+
+    /**
+     * Fills a tile from an overlay scaled down by a factor, keeping the most opaque pixel of each block
+     * so small data points stay visible when zoomed out
+     */
+    static void downsample(int[] pixels, int width, int height, int factor, int tileX, int tileY, int[] tile) {
+        for (int ty = 0; ty < TILE_SIZE; ty++) {
+            int sourceY = (tileY + ty) * factor;
+            for (int tx = 0; tx < TILE_SIZE; tx++) {
+                int sourceX = (tileX + tx) * factor;
+                int best = 0;
+                for (int sy = sourceY; sy < Math.min(height, sourceY + factor); sy++) {
+                    int row = sy * width;
+                    for (int sx = sourceX; sx < Math.min(width, sourceX + factor); sx++) {
+                        int argb = pixels[row + sx];
+                        if ((argb >>> 24) > (best >>> 24)) {
+                            best = argb;
+                        }
+                    }
+                }
+                tile[ty * TILE_SIZE + tx] = best;
+            }
+        }
+    }
+
+    private static byte[] encode(int[] pixels, int width, int height) throws IOException {
+        if (pixels == null) {
+            throw new BadRequest(404, "No data matches the overlay");
+        }
+        try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.ENCODE)) {
+            BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            image.setRGB(0, 0, width, height, pixels, 0, width);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", out);
+            timer.rows((long) width * height).bytes(out.size()).detail("http");
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] aggregateJson(QueryResult result) {
+        StringBuilder json = new StringBuilder(64 + result.size() * 32);
+        json.append("{\"query\":");
+        appendString(json, result.query().toString());
+        json.append(",\"plan\":");
+        appendString(json, result.plan().name());
+        json.append(",\"elapsedMs\":").append(result.elapsedNanos() / 1e6).append(",\"rows\":[");
+        for (int i = 0; i < result.size(); i++) {
+            QueryResult.Row row = result.rows().get(i);
+            json.append(i == 0 ? "{\"key\":" : ",{\"key\":");
+            appendString(json, row.key());
+            json.append(",\"value\":").append(row.value()).append('}');
+        }
+        return json.append("]}").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] facetsJson(FacetCatalog catalog, FilterIndex.Dimension dimension) {
+        StringBuilder json = new StringBuilder("[");
+        for (FacetCatalog.Facet facet : catalog.getFacets(dimension)) {
+            json.append(json.length() == 1 ? "{\"value\":" : ",{\"value\":");
+            appendString(json, facet.value());
+            json.append(",\"count\":").append(facet.count()).append('}');
+        }
+        return json.append(']').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"' -> json.append("\\\"");
+                case '\\' -> json.append("\\\\");
+                case '\n' -> json.append("\\n");
+                case '\r' -> json.append("\\r");
+                case '\t' -> json.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        json.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        json.append(c);
+                    }
+                }
+            }
+        }
+        json.append('"');
+    }
+
+    /**
+     * @return The first value of a query parameter, or the default if it was not given
+     */
+    private static String parameter(Map<String, List<String>> parameters, String name, String defaultValue) {
+        List<String> values = parameters.get(name);
+        return values == null ? defaultValue : values.getFirst();
+    }
+
+    /**
+     * @return Values of each query parameter, in the order they were given
+     */
+    private static Map<String, List<String>> parseQuery(String rawQuery) {
+        Map<String, List<String>> parameters = new HashMap<>();
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            parameters.computeIfAbsent(URLDecoder.decode(name, StandardCharsets.UTF_8), _ -> new ArrayList<>())
+                    .add(URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    /**
+     * Serves a data set until the process is stopped
+     * @param args [port] [crime file] [property file]; the bundled data is loaded unless both files are given
+     */
+    public static void main(String[] args) {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        try {
+            CalculatePixelValue data = new CalculatePixelValue();
+            if (args.length > 2) {
+                data.loadCrimeData(Paths.get(args[1]));
+                data.loadPropertyData(Paths.get(args[2]));
+            } else {
+                data.loadData();
+            }
+
+            OverlayServer server = new OverlayServer(
+                    new DrawOverlay(data, 16, Runtime.getRuntime().availableProcessors()));
+            port = server.start(port);
+            System.out.println("Serving overlays at http://localhost:" + port + "/ (tile zoom 0 to "
+                    + server.getMaxZoom() + ")");
+        } catch (IOException e) {
+            System.err.println("Error starting overlay server: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+}
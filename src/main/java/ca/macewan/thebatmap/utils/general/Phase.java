@@ -0,0 +1,31 @@
+package ca.macewan.thebatmap.utils.general;
+
+/**
+ * Stages of the pipeline from raw CSV to an overlay on screen, as recorded by MetricsRegistry
+ */
+public enum Phase {
+    /** Reading and parsing a CSV into records */
+    PARSE("parse"),
+    /** Converting record coordinates to grid cells */
+    PROJECT("project"),
+    /** Accumulating records into per-cell data */
+    AGGREGATE("aggregate"),
+    /** Selecting the cells and values of one overlay */
+    SCAN("scan"),
+    /** Computing the color scale bounds of a layer */
+    QUANTILE("quantile"),
+    /** Coloring a layer and drawing it into an image */
+    RASTERIZE("rasterize"),
+    /** Writing a rendered image to a PNG file */
+    ENCODE("encode"),
+    /** Loading an overlay image and adding it to the scene */
+    DISPLAY("display");
+
+    private final String label;
+
+    Phase(String label) {
+        this.label = label;
+    }
+
+    public String getLabel() { return label; }
+}
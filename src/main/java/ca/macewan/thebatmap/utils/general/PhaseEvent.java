@@ -0,0 +1,33 @@
+package ca.macewan.thebatmap.utils.general;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder event covering one pipeline phase.
+ * Record with e.g. -XX:StartFlightRecording=filename=batmap.jfr and look for "TheBatMap" in JDK Mission Control.
+ */
+@Name("ca.macewan.thebatmap.Phase")
+@Label("Pipeline Phase")
+@Category("TheBatMap")
+@Description("Duration and volume of one ingest, aggregate or render phase")
+@StackTrace(false)
+public class PhaseEvent extends jdk.jfr.Event {
+    @Label("Phase")
+    public String phase;
+
+    @Label("Rows")
+    @Description("Records or cells processed")
+    public long rows;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+    @Label("Detail")
+    public String detail;
+}
@@ -0,0 +1,161 @@
+package ca.macewan.thebatmap.utils.general;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Decompresses a gzip stream on a background thread, so decompression overlaps with whatever reads this stream.
+ * Decompressed chunks pass through a bounded queue, which keeps memory use fixed however large the input is.
+ */
+public class PipelinedGzipInputStream extends InputStream {
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int QUEUED_CHUNKS = 8;
+    private static final int INFLATER_BUFFER_SIZE = 64 * 1024;
+
+    private record Chunk(byte[] bytes, int length) {}
+
+    // Marks the end of the decompressed data (or a failure)
+    private static final Chunk END = new Chunk(new byte[0], 0);
+
+    private final BlockingQueue<Chunk> filled = new ArrayBlockingQueue<>(QUEUED_CHUNKS);
+    // Buffers the reader is done with, reused by the decompressor
+    private final BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(QUEUED_CHUNKS + 2);
+    private final Thread decompressor;
+    // Whatever ended decompression early, rethrown by the reader
+    private volatile Throwable failure;
+    private volatile boolean closed;
+
+    private Chunk current;
+    private int position;
+
+    /**
+     * Starts decompressing straight away
+     * @param source Compressed input, closed when decompression ends
+     * @param name Name of the input, used for the thread name
+     */
+    public PipelinedGzipInputStream(InputStream source, String name) {
+        decompressor = Thread.ofPlatform()
+                .name("gzip-" + name)
+                .daemon()
+                .start(() -> decompress(source));
+    }
+
+    private void decompress(InputStream source) {
+        try (InputStream in = new GZIPInputStream(source, INFLATER_BUFFER_SIZE)) {
+            while (!closed) {
+                byte[] buffer = free.poll();
+                if (buffer == null) {
+                    buffer = new byte[CHUNK_SIZE];
+                }
+                int length = in.readNBytes(buffer, 0, CHUNK_SIZE);
+                if (length == 0) {
+                    break;
+                }
+                filled.put(new Chunk(buffer, length));
+            }
+        } catch (InterruptedException e) {
+            // Closed by the reader
+            return;
+        } catch (Throwable e) {
+            // Anything else, e.g. a RuntimeException from the Inflater, must still reach the reader
+            failure = e;
+        }
+
+        try {
+            if (!closed) {
+                filled.put(END);
+            }
+        } catch (InterruptedException e) {
+            // Closed by the reader
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return current.bytes[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        Objects.checkFromIndexSize(off, len, b.length);
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+
+        int count = Math.min(len, current.length - position);
+        System.arraycopy(current.bytes, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return current == null || closed ? 0 : current.length - position;
+    }
+
+    /**
+     * Makes sure the current chunk has bytes left, waiting for the decompressor if needed
+     * @return false at the end of the data
+     */
+    private boolean fill() throws IOException {
+        if (closed) {
+            throw new IOException("Stream closed");
+        }
+
+        while (current == null || position == current.length) {
+            if (current == END) {
+                if (failure != null) {
+                    throw rethrow(failure);
+                }
+                return false;
+            }
+            if (current != null) {
+                free.offer(current.bytes);
+            }
+
+            try {
+                current = filled.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for decompressed data");
+            }
+            position = 0;
+        }
+        return true;
+    }
+
+    private static IOException rethrow(Throwable failure) {
+        if (failure instanceof RuntimeException e) {
+            throw e;
+        }
+        if (failure instanceof Error e) {
+            throw e;
+        }
+        return (IOException) failure;
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        // Wakes the decompressor if it is blocked on a full queue, it then closes the source
+        decompressor.interrupt();
+        filled.clear();
+        free.clear();
+        current = END;
+    }
+}
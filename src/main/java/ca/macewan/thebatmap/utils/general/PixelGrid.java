@@ -0,0 +1,255 @@
+package ca.macewan.thebatmap.utils.general;
+
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Dense per-pixel aggregate grid stored off the Java heap.
+ * Holds the crime count, property count and summed property value for every pixel of the map,
+ * either in freshly allocated native memory or mapped read-only from a snapshot file.
+ * The grid must be closed once it is no longer used, which releases its memory (or mapping).
+ * Readers on other threads can hold it open with {@link #acquire()}, so it can be closed while they finish.
+ */
+public class PixelGrid implements AutoCloseable {
+    // Snapshot file header: magic, version, width, height
+    private static final int MAGIC = 0x42544D47; // "BTMG"
+    private static final int VERSION = 1;
+    private static final long HEADER_BYTES = 16;
+    // Set in the state once the grid is closed; the lower bits count the readers holding it open
+    private static final int CLOSED = 1 << 30;
+
+    private final Arena arena;
+    private final MemorySegment segment;
+    private final int width;
+    private final int height;
+    private final boolean readOnly;
+    private final AtomicInteger state = new AtomicInteger();
+
+    // Byte offsets of each region within the segment
+    private final long crimeCountOffset;
+    private final long propertyCountOffset;
+    private final long propertyValueOffset;
+
+    private PixelGrid(Arena arena, MemorySegment segment, int width, int height, boolean readOnly) {
+        this.arena = arena;
+        this.segment = segment;
+        this.width = width;
+        this.height = height;
+        this.readOnly = readOnly;
+
+        long cells = (long) width * height;
+        this.crimeCountOffset = HEADER_BYTES;
+        this.propertyCountOffset = crimeCountOffset + cells * Integer.BYTES;
+        // Keep the double region 8-byte aligned
+        this.propertyValueOffset = alignUp(propertyCountOffset + cells * Integer.BYTES, Double.BYTES);
+    }
+
+    /**
+     * Allocates a zeroed grid in native memory
+     * @param width Grid width in pixels
+     * @param height Grid height in pixels
+     * @return A writable grid that must be closed by the caller
+     */
+    public static PixelGrid allocate(int width, int height) {
+        Arena arena = Arena.ofShared();
+        try {
+            MemorySegment segment = arena.allocate(byteSize(width, height), Double.BYTES);
+            writeHeader(segment, width, height);
+            return new PixelGrid(arena, segment, width, height, false);
+        } catch (RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Allocates a writable copy of another grid in native memory
+     * @param source Grid to copy
+     * @return A writable grid that must be closed by the caller
+     */
+    public static PixelGrid copyOf(PixelGrid source) {
+        PixelGrid copy = allocate(source.width, source.height);
+        MemorySegment.copy(source.segment, 0, copy.segment, 0, byteSize(source.width, source.height));
+        return copy;
+    }
+
+    /**
+     * Maps a snapshot file written by {@link #save(Path)} read-only.
+     * Pages are shared with any other process mapping the same file.
+     * @param path Path to the snapshot file
+     * @return A read-only grid that must be closed by the caller
+     * @throws IOException If the file cannot be read or is not a valid snapshot
+     */
+    public static PixelGrid map(Path path) throws IOException {
+        Arena arena = Arena.ofShared();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException("Not a pixel grid snapshot: " + path);
+            }
+
+            MemorySegment segment = channel.map(FileChannel.MapMode.READ_ONLY, 0, size, arena);
+            if (segment.get(ValueLayout.JAVA_INT, 0) != MAGIC || segment.get(ValueLayout.JAVA_INT, 4) != VERSION) {
+                throw new IOException("Not a pixel grid snapshot (or written on a different byte order): " + path);
+            }
+
+            int width = segment.get(ValueLayout.JAVA_INT, 8);
+            int height = segment.get(ValueLayout.JAVA_INT, 12);
+            if (width <= 0 || height <= 0 || size < byteSize(width, height)) {
+                throw new IOException("Truncated pixel grid snapshot: " + path);
+            }
+            return new PixelGrid(arena, segment, width, height, true);
+        } catch (IOException | RuntimeException e) {
+            arena.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the grid to a snapshot file that can later be opened with {@link #map(Path)}
+     * @param path Destination file
+     * @throws IOException If an I/O error occurs
+     */
+    public void save(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            var buffer = segment.asSlice(0, byteSize(width, height)).asByteBuffer();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static long byteSize(int width, int height) {
+        long cells = (long) width * height;
+        long doubles = alignUp(HEADER_BYTES + 2 * cells * Integer.BYTES, Double.BYTES);
+        return doubles + cells * Double.BYTES;
+    }
+
+    private static long alignUp(long value, long alignment) {
+        return (value + alignment - 1) / alignment * alignment;
+    }
+
+    private static void writeHeader(MemorySegment segment, int width, int height) {
+        segment.set(ValueLayout.JAVA_INT, 0, MAGIC);
+        segment.set(ValueLayout.JAVA_INT, 4, VERSION);
+        segment.set(ValueLayout.JAVA_INT, 8, width);
+        segment.set(ValueLayout.JAVA_INT, 12, height);
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    public boolean isReadOnly() { return readOnly; }
+
+    /**
+     * @return Number of bytes of native memory (or mapping) backing this grid
+     */
+    public long byteSize() { return segment.byteSize(); }
+
+    /**
+     * Converts pixel coordinates to a cell index
+     * @param x X coordinate
+     * @param y Y coordinate
+     * @return Cell index, or -1 if the coordinates are outside the grid
+     */
+    public int cellIndex(int x, int y) {
+        if (x < 0 || x >= width || y < 0 || y >= height) {
+            return -1;
+        }
+        return y * width + x;
+    }
+
+    public int getCrimeCount(int cell) {
+        return segment.getAtIndex(ValueLayout.JAVA_INT, crimeCountOffset / Integer.BYTES + cell);
+    }
+
+    public int getPropertyCount(int cell) {
+        return segment.getAtIndex(ValueLayout.JAVA_INT, propertyCountOffset / Integer.BYTES + cell);
+    }
+
+    public double getPropertyValueSum(int cell) {
+        return segment.getAtIndex(ValueLayout.JAVA_DOUBLE, propertyValueOffset / Double.BYTES + cell);
+    }
+
+    public double getAveragePropertyValue(int cell) {
+        int count = getPropertyCount(cell);
+        return count > 0 ? getPropertyValueSum(cell) / count : 0.0;
+    }
+
+    public void addCrime(int cell) {
+        long index = crimeCountOffset / Integer.BYTES + cell;
+        segment.setAtIndex(ValueLayout.JAVA_INT, index, segment.getAtIndex(ValueLayout.JAVA_INT, index) + 1);
+    }
+
+    public void addProperty(int cell, double value) {
+        long countIndex = propertyCountOffset / Integer.BYTES + cell;
+        long valueIndex = propertyValueOffset / Double.BYTES + cell;
+        segment.setAtIndex(ValueLayout.JAVA_INT, countIndex, segment.getAtIndex(ValueLayout.JAVA_INT, countIndex) + 1);
+        segment.setAtIndex(ValueLayout.JAVA_DOUBLE, valueIndex, segment.getAtIndex(ValueLayout.JAVA_DOUBLE, valueIndex) + value);
+    }
+
+    /**
+     * Zeroes all crime counts
+     */
+    public void clearCrime() {
+        segment.asSlice(crimeCountOffset, (long) width * height * Integer.BYTES).fill((byte) 0);
+    }
+
+    /**
+     * Zeroes all property counts and value sums
+     */
+    public void clearProperty() {
+        segment.asSlice(propertyCountOffset, (long) width * height * Integer.BYTES).fill((byte) 0);
+        segment.asSlice(propertyValueOffset, (long) width * height * Double.BYTES).fill((byte) 0);
+    }
+
+    /**
+     * Holds the grid open until {@link #release()}, so a close in the meantime waits for this reader
+     * @return false if the grid is already closed, in which case it must not be read
+     */
+    public boolean acquire() {
+        int current;
+        do {
+            current = state.get();
+            if ((current & CLOSED) != 0) {
+                return false;
+            }
+        } while (!state.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Lets go of a grid held open by {@link #acquire()}, freeing it if it was closed meanwhile
+     */
+    public void release() {
+        if (state.decrementAndGet() == CLOSED) {
+            arena.close();
+        }
+    }
+
+    /**
+     * Releases the native memory or file mapping, straight away or once the last reader holding the grid open
+     * releases it. Any later access throws IllegalStateException. Closing a closed grid does nothing.
+     */
+    @Override
+    public void close() {
+        int current;
+        do {
+            current = state.get();
+            if ((current & CLOSED) != 0) {
+                return;
+            }
+        } while (!state.compareAndSet(current, current | CLOSED));
+        if (current == 0) {
+            arena.close();
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package ca.macewan.thebatmap.utils.general;
+
+import ca.macewan.thebatmap.utils.models.CrimeData;
+import ca.macewan.thebatmap.utils.models.PropertyData;
+import ca.macewan.thebatmap.utils.parsers.ParseCrime;
+import ca.macewan.thebatmap.utils.parsers.ParseProperties;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * Loads the crime and then the property data of an overlay in the background, swapping in partial data sets
+ * while the files are read, so the map can show the first heat long before everything is parsed.
+ * A partial data set is published after the first batch of rows and then each time the rows read have doubled,
+ * which keeps the total work of rebuilding the aggregates within twice that of one full load.
+ * Each partial data set shares the other data type with the previous one, as in DataDirectoryWatcher.
+ */
+public class ProgressiveLoader implements AutoCloseable {
+    // Rows read before the first partial data set is published
+    public static final int DEFAULT_FIRST_PUBLISH = 10_000;
+    private static final int BATCH_SIZE = 5_000;
+
+    private final DrawOverlay overlay;
+    private final Path crimeFile;
+    private final Path propertyFile;
+    private final int firstPublish;
+    private final Consumer<Progress> onPublish;
+    private Thread thread;
+    private volatile boolean closed;
+
+    /**
+     * State of the load when a data set is published
+     * @param crimeRows Crime rows loaded so far
+     * @param propertyRows Property rows loaded so far
+     * @param complete Whether both files have been loaded completely (or loading failed)
+     */
+    public record Progress(long crimeRows, long propertyRows, boolean complete) {}
+
+    /**
+     * @param overlay Overlay whose data set is replaced as data arrives
+     * @param crimeFile Crime export to load
+     * @param propertyFile Property export to load
+     * @param firstPublish Rows to read before publishing the first partial data set of each file
+     * @param onPublish Called on the loader thread once the overlay uses a new data set, and when loading completes
+     */
+    public ProgressiveLoader(DrawOverlay overlay, Path crimeFile, Path propertyFile, int firstPublish,
+                             Consumer<Progress> onPublish) {
+        this.overlay = overlay;
+        this.crimeFile = crimeFile;
+        this.propertyFile = propertyFile;
+        this.firstPublish = firstPublish;
+        this.onPublish = onPublish;
+    }
+
+    /**
+     * Starts loading on a background thread
+     */
+    public synchronized void start() {
+        if (thread == null) {
+            thread = Thread.ofPlatform()
+                    .name("progressive-loader")
+                    .daemon()
+                    .start(this::load);
+        }
+    }
+
+    private void load() {
+        long start = System.nanoTime();
+        List<CrimeData> crimes = new ArrayList<>();
+        List<PropertyData> properties = new ArrayList<>();
+        try {
+            long[] nextPublish = {firstPublish};
+            // Rows in the last published data set, -1 before the first, so a file read in full is not rebuilt
+            long[] published = {-1};
+            ParseCrime.parseCrimeData(crimeFile, BATCH_SIZE, batch -> {
+                crimes.addAll(batch);
+                if (crimes.size() >= nextPublish[0]) {
+                    publishCrimes(crimes, new Progress(crimes.size(), 0, false));
+                    published[0] = crimes.size();
+                    nextPublish[0] = 2L * crimes.size();
+                }
+            });
+            if (published[0] < crimes.size()) {
+                publishCrimes(crimes, new Progress(crimes.size(), 0, false));
+            }
+
+            nextPublish[0] = firstPublish;
+            published[0] = -1;
+            ParseProperties.parsePropertyData(propertyFile, BATCH_SIZE, batch -> {
+                properties.addAll(batch);
+                if (properties.size() >= nextPublish[0]) {
+                    publishProperties(properties, new Progress(crimes.size(), properties.size(), false));
+                    published[0] = properties.size();
+                    nextPublish[0] = 2L * properties.size();
+                }
+            });
+            Progress complete = new Progress(crimes.size(), properties.size(), true);
+            if (published[0] < properties.size()) {
+                publishProperties(properties, complete);
+            } else if (!closed) {
+                // The overlay already shows every row; only report that loading is done
+                onPublish.accept(complete);
+            }
+            System.out.printf("Loaded %,d crimes and %,d properties in %.2f s%n", crimes.size(), properties.size(),
+                    (System.nanoTime() - start) / 1e9);
+        } catch (CancellationException e) {
+            // Closed
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to load data: " + e.getMessage());
+            onPublish.accept(new Progress(crimes.size(), properties.size(), true));
+        }
+    }
+
+    private void publishCrimes(List<CrimeData> crimes, Progress progress) {
+        List<CrimeData> loaded = List.copyOf(crimes);
+        publish(CalculatePixelValue::withoutCrimeData, data -> data.loadCrimeRecords(loaded), progress);
+    }
+
+    private void publishProperties(List<PropertyData> properties, Progress progress) {
+        List<PropertyData> loaded = List.copyOf(properties);
+        publish(CalculatePixelValue::withoutPropertyData, data -> data.loadPropertyRecords(loaded), progress);
+    }
+
+    /**
+     * Builds a data set from the current one and the records read so far, and swaps it into the overlay
+     */
+    private void publish(UnaryOperator<CalculatePixelValue> copier, Consumer<CalculatePixelValue> loader,
+                         Progress progress) {
+        if (closed) {
+            throw new CancellationException();
+        }
+        CalculatePixelValue previous = overlay.getData();
+        CalculatePixelValue next = copier.apply(previous);
+        try {
+            loader.accept(next);
+        } catch (RuntimeException e) {
+            next.close();
+            throw e;
+        }
+
+        overlay.setData(next);
+        // Renders still reading the previous grid hold it open, so it is freed once they finish
+        previous.close();
+        onPublish.accept(progress);
+    }
+
+    /**
+     * Stops loading at the next publication; the overlay keeps the data published so far
+     */
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
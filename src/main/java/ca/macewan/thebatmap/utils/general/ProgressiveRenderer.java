@@ -0,0 +1,100 @@
+package ca.macewan.thebatmap.utils.general;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Draws heat map overlays coarse to fine for interactive filter changes: a low resolution preview first,
+ * then the full resolution overlay. Each new request cancels the one before it, so a user clicking through
+ * filters only pays for the previews of the selections they skip past.
+ */
+public class ProgressiveRenderer implements AutoCloseable {
+    // Map pixels along each side of a preview pixel
+    public static final int DEFAULT_COARSE_FACTOR = 8;
+
+    private final DrawOverlay overlay;
+    private final int coarseFactor;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(
+            Thread.ofPlatform().name("progressive-render").daemon().factory());
+    private Future<?> current;
+
+    /**
+     * @param overlay Renderer to draw with
+     * @param coarseFactor Map pixels along each side of a preview pixel
+     */
+    public ProgressiveRenderer(DrawOverlay overlay, int coarseFactor) {
+        this.overlay = overlay;
+        this.coarseFactor = coarseFactor;
+    }
+
+    /**
+     * Draws an overlay in the background, cancelling the overlay requested before it.
+     * The callbacks run on the render thread and are not called once the request is cancelled.
+     * @param request The overlay to draw
+     * @param onCoarse Receives the path of the preview image, or null if no data matches
+     * @param onFine Receives the path of the full resolution image, or null if no data matches
+     */
+    public synchronized void submit(OverlayRequest request, Consumer<String> onCoarse, Consumer<String> onFine) {
+        cancel();
+        current = executor.submit(() -> {
+            try {
+                String coarse = overlay.drawCoarseImage(request, coarseFactor);
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                onCoarse.accept(coarse);
+                if (coarse == null) {
+                    // Nothing matches, so there is nothing to refine
+                    return;
+                }
+
+                String fine = overlay.drawImage(request);
+                if (!Thread.currentThread().isInterrupted()) {
+                    onFine.accept(fine);
+                }
+            } catch (CancellationException e) {
+                // Replaced by a newer request
+            }
+        });
+    }
+
+    /**
+     * Draws an overlay that is quick enough to need no preview, e.g. a hexbin overlay, in the background,
+     * cancelling the overlay requested before it. The callback runs on the render thread and is not called
+     * once the request is cancelled.
+     * @param draw Draws the overlay and returns the path of its image, or null if no data matches
+     * @param onDrawn Receives the path of the image
+     */
+    public synchronized void submit(Supplier<String> draw, Consumer<String> onDrawn) {
+        cancel();
+        current = executor.submit(() -> {
+            try {
+                String path = draw.get();
+                if (!Thread.currentThread().isInterrupted()) {
+                    onDrawn.accept(path);
+                }
+            } catch (CancellationException e) {
+                // Replaced by a newer request
+            }
+        });
+    }
+
+    /**
+     * Cancels the overlay being drawn, if any
+     */
+    public synchronized void cancel() {
+        if (current != null) {
+            current.cancel(true);
+            current = null;
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,37 @@
+package ca.macewan.thebatmap.utils.general;
+
+/**
+ * Maps geographic coordinates onto a planar coordinate system.
+ * Grid positions are interpolated linearly between the projected corners of a GridSpec,
+ * so only the shape of the projection matters, not its units.
+ */
+public interface Projection {
+
+    /**
+     * Projects a longitude onto the planar X axis
+     * @param longitude Longitude in degrees
+     * @return Planar X value
+     */
+    double projectX(double longitude);
+
+    /**
+     * Projects a latitude onto the planar Y axis (increasing northwards)
+     * @param latitude Latitude in degrees
+     * @return Planar Y value
+     */
+    double projectY(double latitude);
+
+    /**
+     * Inverse of projectX
+     * @param x Planar X value
+     * @return Longitude in degrees
+     */
+    double unprojectX(double x);
+
+    /**
+     * Inverse of projectY
+     * @param y Planar Y value
+     * @return Latitude in degrees
+     */
+    double unprojectY(double y);
+}
@@ -0,0 +1,494 @@
+package ca.macewan.thebatmap.utils.general;
+
+import ca.macewan.thebatmap.utils.models.Assessment;
+import ca.macewan.thebatmap.utils.models.PropertyData;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Property counts and assessed value sums per grid cell over the joint (assessment class, neighbourhood, ward)
+ * dimensions. A property assessed under several classes is split between them by its class percentages,
+ * so a filtered layer averages only the share of each property that is in the selected class.
+ * Each distinct combination of the dimensions is a tuple; the cube stores one (weight, value sum) per
+ * (cell, tuple) that occurs, sorted by cell, and the most recent roll-ups are cached.
+ * Immutable once built, and safe to share between threads.
+ */
+public class PropertyCube {
+    // Number of roll-ups kept
+    private static final int CACHED_ROLL_UPS = 32;
+    private static final int CODE_BITS = 20;
+    private static final int MAX_CODE = (1 << CODE_BITS) - 1;
+
+    /** Cube without any properties */
+    public static final PropertyCube EMPTY = new Builder(0).build();
+
+    // Dimension values, coded from 0 (tuples store code + 1, 0 for a missing value)
+    private final StringDictionary assessmentClasses;
+    private final StringDictionary neighbourhoods;
+    private final StringDictionary wards;
+
+    // Dimension codes of each tuple
+    private final int[] tupleClass;
+    private final int[] tupleNeighbourhood;
+    private final int[] tupleWard;
+
+    // (cell << 32 | tuple) of every occurring pair in ascending order, with the property weight and value sum
+    private final long[] facts;
+    private final double[] weights;
+    private final double[] valueSums;
+    private final int cellCount;
+
+    // Cubes with the cells merged into blocks, by grid width and block size
+    private final Map<Long, PropertyCube> coarseCubes = new ConcurrentHashMap<>();
+
+    private final Map<Slice, RollUp> rollUps = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Slice, RollUp> eldest) {
+            return size() > CACHED_ROLL_UPS;
+        }
+    };
+
+    /**
+     * Selection along the dimensions of the cube, in codes; -1 selects every value of a dimension
+     */
+    private record Slice(int assessmentClass, int neighbourhood, int ward) {}
+
+    /**
+     * Property weights and value sums per cell for one selection
+     * @param cells Cells with a matching property share, ascending
+     * @param weights Number of matching properties in each cell, counting partial class shares
+     * @param valueSums Assessed value of the matching shares in each cell
+     */
+    public record RollUp(int[] cells, double[] weights, double[] valueSums) {
+        static final RollUp EMPTY = new RollUp(new int[0], new double[0], new double[0]);
+
+        /**
+         * @return Number of cells with matching properties
+         */
+        public int size() {
+            return cells.length;
+        }
+
+        /**
+         * @param index Position in the roll-up
+         * @return Average assessed value of the matching shares in that cell
+         */
+        public double getAverageValue(int index) {
+            return valueSums[index] / weights[index];
+        }
+
+        /**
+         * @return The average values keyed by cell, in the form the overlay renderer scans
+         */
+        public Map<Integer, Double> toAverageMap() {
+            Map<Integer, Double> map = new HashMap<>(cells.length * 4 / 3 + 1);
+            for (int i = 0; i < cells.length; i++) {
+                map.put(cells[i], getAverageValue(i));
+            }
+            return map;
+        }
+    }
+
+    private PropertyCube(Builder builder, long[] facts, double[] weights, double[] valueSums) {
+        this.assessmentClasses = builder.assessmentClasses;
+        this.neighbourhoods = builder.neighbourhoods;
+        this.wards = builder.wards;
+        this.tupleClass = Arrays.copyOf(builder.tupleClass, builder.tupleCount);
+        this.tupleNeighbourhood = Arrays.copyOf(builder.tupleNeighbourhood, builder.tupleCount);
+        this.tupleWard = Arrays.copyOf(builder.tupleWard, builder.tupleCount);
+        this.facts = facts;
+        this.weights = weights;
+        this.valueSums = valueSums;
+        this.cellCount = countCells(facts);
+    }
+
+    private PropertyCube(PropertyCube source, long[] facts, double[] weights, double[] valueSums) {
+        this.assessmentClasses = source.assessmentClasses;
+        this.neighbourhoods = source.neighbourhoods;
+        this.wards = source.wards;
+        this.tupleClass = source.tupleClass;
+        this.tupleNeighbourhood = source.tupleNeighbourhood;
+        this.tupleWard = source.tupleWard;
+        this.facts = facts;
+        this.weights = weights;
+        this.valueSums = valueSums;
+        this.cellCount = countCells(facts);
+    }
+
+    private static int countCells(long[] facts) {
+        int cells = 0;
+        for (int i = 0; i < facts.length; i++) {
+            if (i == 0 || (int) (facts[i] >>> 32) != (int) (facts[i - 1] >>> 32)) {
+                cells++;
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * @return Number of distinct (assessment class, neighbourhood, ward) combinations
+     */
+    public int getTupleCount() { return tupleClass.length; }
+
+    /**
+     * @return Number of cells with at least one property
+     */
+    public int getCellCount() { return cellCount; }
+
+    /**
+     * @return Number of stored (cell, combination) sums
+     */
+    public int getFactCount() { return facts.length; }
+
+    public List<String> getAssessmentClasses() { return assessmentClasses.values(); }
+
+    public List<String> getNeighbourhoods() { return neighbourhoods.values(); }
+
+    public List<String> getWards() { return wards.values(); }
+
+    /**
+     * Merges the cells of the cube into square blocks, for low resolution previews that roll up far fewer facts.
+     * The coarse cube is built on first use and kept with this cube.
+     * @param width Width of the grid the cells index, in cells
+     * @param factor Cells along each side of a block
+     * @return A cube whose cells are block indices, as numbered by {@link CrimeCube#blockOf(int, int, int)}
+     */
+    public PropertyCube coarsen(int width, int factor) {
+        return coarseCubes.computeIfAbsent((long) width << 32 | factor, _ -> {
+            int[] order = CrimeCube.groupByBlock(facts, width, factor);
+            long[] blockFacts = new long[facts.length];
+            double[] blockWeights = new double[facts.length];
+            double[] blockValues = new double[facts.length];
+            int size = 0;
+            for (int i = 0; i < order.length; i++) {
+                long fact = facts[order[i]];
+                long key = (long) CrimeCube.blockOf((int) (fact >>> 32), width, factor) << 32 | (fact & 0xFFFFFFFFL);
+                if (size == 0 || blockFacts[size - 1] != key) {
+                    blockFacts[size++] = key;
+                }
+                blockWeights[size - 1] += weights[order[i]];
+                blockValues[size - 1] += valueSums[order[i]];
+            }
+            return new PropertyCube(this, Arrays.copyOf(blockFacts, size), Arrays.copyOf(blockWeights, size),
+                    Arrays.copyOf(blockValues, size));
+        });
+    }
+
+    /**
+     * Sums the property shares per cell matching every given dimension value
+     * @param assessmentClass Main assessment class word (e.g. "RESIDENTIAL"), or null for all
+     * @param neighbourhood Neighbourhood, or null for all
+     * @param ward Ward, or null for all
+     * @return Sums of the cells with matching properties
+     */
+    public RollUp rollUp(String assessmentClass, String neighbourhood, String ward) {
+        Slice slice = slice(assessmentClass, neighbourhood, ward);
+        if (slice == null) {
+            return RollUp.EMPTY;
+        }
+
+        synchronized (rollUps) {
+            RollUp cached = rollUps.get(slice);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        // Computed outside the lock; two threads asking for the same slice at once both compute it
+        RollUp rollUp = compute(slice);
+        synchronized (rollUps) {
+            rollUps.put(slice, rollUp);
+        }
+        return rollUp;
+    }
+
+    /**
+     * Averages the assessed value of the property shares in one cell matching every given dimension value
+     * @param cell Cell index
+     * @param assessmentClass Main assessment class word, or null for all
+     * @param neighbourhood Neighbourhood, or null for all
+     * @param ward Ward, or null for all
+     * @return Average value, or 0 if nothing in the cell matches
+     */
+    public double getAverageValue(int cell, String assessmentClass, String neighbourhood, String ward) {
+        Slice slice = slice(assessmentClass, neighbourhood, ward);
+        if (slice == null) {
+            return 0;
+        }
+
+        double weight = 0;
+        double valueSum = 0;
+        for (int i = firstFact(cell); i < facts.length && (int) (facts[i] >>> 32) == cell; i++) {
+            if (matches(slice, (int) facts[i])) {
+                weight += weights[i];
+                valueSum += valueSums[i];
+            }
+        }
+        return weight > 0 ? valueSum / weight : 0;
+    }
+
+    /**
+     * @return The slice in codes, or null if a given value does not occur
+     */
+    private Slice slice(String assessmentClass, String neighbourhood, String ward) {
+        int classCode = find(assessmentClasses, assessmentClass);
+        int neighbourhoodCode = find(neighbourhoods, neighbourhood);
+        int wardCode = find(wards, ward);
+        if (classCode == 0 || neighbourhoodCode == 0 || wardCode == 0) {
+            return null;
+        }
+        return new Slice(classCode, neighbourhoodCode, wardCode);
+    }
+
+    private RollUp compute(Slice slice) {
+        // Decide once per tuple, then sum the facts of matching tuples per cell
+        boolean[] selected = new boolean[tupleClass.length];
+        boolean any = false;
+        for (int tuple = 0; tuple < selected.length; tuple++) {
+            selected[tuple] = matches(slice, tuple);
+            any |= selected[tuple];
+        }
+        if (!any) {
+            return RollUp.EMPTY;
+        }
+
+        int[] cells = new int[16];
+        double[] cellWeights = new double[16];
+        double[] cellValues = new double[16];
+        int size = 0;
+        int lastCell = -1;
+        for (int i = 0; i < facts.length; i++) {
+            if (!selected[(int) facts[i]]) {
+                continue;
+            }
+            int cell = (int) (facts[i] >>> 32);
+            if (cell != lastCell) {
+                if (size == cells.length) {
+                    cells = Arrays.copyOf(cells, size * 2);
+                    cellWeights = Arrays.copyOf(cellWeights, size * 2);
+                    cellValues = Arrays.copyOf(cellValues, size * 2);
+                }
+                cells[size] = cell;
+                size++;
+                lastCell = cell;
+            }
+            cellWeights[size - 1] += weights[i];
+            cellValues[size - 1] += valueSums[i];
+        }
+        return new RollUp(Arrays.copyOf(cells, size), Arrays.copyOf(cellWeights, size), Arrays.copyOf(cellValues, size));
+    }
+
+    private boolean matches(Slice slice, int tuple) {
+        return (slice.assessmentClass < 0 || tupleClass[tuple] == slice.assessmentClass)
+                && (slice.neighbourhood < 0 || tupleNeighbourhood[tuple] == slice.neighbourhood)
+                && (slice.ward < 0 || tupleWard[tuple] == slice.ward);
+    }
+
+    /**
+     * @return Index of the first fact of a cell, or where it would be
+     */
+    private int firstFact(int cell) {
+        int index = Arrays.binarySearch(facts, (long) cell << 32);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    /**
+     * @return -1 for null (any value), the code of a known value, or 0 if the value does not occur
+     */
+    private static int find(StringDictionary values, String value) {
+        return value == null ? -1 : values.find(value) + 1;
+    }
+
+    /**
+     * Reduces an assessment class to the word the map filters by, e.g. "OTHER RESIDENTIAL" to "OTHER"
+     * @param assessmentClass Assessment class as exported, may be null
+     * @return The first word, or null for a missing class
+     */
+    public static String classKey(String assessmentClass) {
+        if (assessmentClass == null || assessmentClass.isEmpty()) {
+            return null;
+        }
+        int space = assessmentClass.indexOf(' ');
+        return space < 0 ? assessmentClass : assessmentClass.substring(0, space);
+    }
+
+    /**
+     * @param assessment Assessment of a property
+     * @return Keys of its three assessment classes, null where missing
+     */
+    public static String[] classKeys(Assessment assessment) {
+        return new String[]{classKey(assessment.getAssessmentClass1()), classKey(assessment.getAssessmentClass2()),
+                classKey(assessment.getAssessmentClass3())};
+    }
+
+    /**
+     * @param assessment Assessment of a property
+     * @return Percentages of its three assessment classes
+     */
+    public static int[] classPercents(Assessment assessment) {
+        return new int[]{assessment.getAssessmentClass1Percent(), assessment.getAssessmentClass2Percent(),
+                assessment.getAssessmentClass3Percent()};
+    }
+
+    /**
+     * Splits a property between its assessment classes by their percentages; a property without
+     * percentages counts fully towards its first class
+     * @param classes Up to three assessment class keys, null where missing
+     * @param percents Percentage of the value in each class
+     * @param weights Receives the share of each class, 0 for classes that get none
+     */
+    static void classWeights(String[] classes, int[] percents, double[] weights) {
+        int totalPercent = 0;
+        for (int i = 0; i < classes.length; i++) {
+            if (classes[i] != null && percents[i] > 0) {
+                totalPercent += percents[i];
+            }
+        }
+
+        for (int i = 0; i < classes.length; i++) {
+            if (totalPercent == 0) {
+                weights[i] = i == 0 ? 1.0 : 0.0;
+            } else {
+                weights[i] = classes[i] != null && percents[i] > 0 ? percents[i] / (double) totalPercent : 0.0;
+            }
+        }
+    }
+
+    /**
+     * Collects properties one at a time. Not thread-safe.
+     */
+    public static class Builder {
+        private final StringDictionary assessmentClasses = new StringDictionary();
+        private final StringDictionary neighbourhoods = new StringDictionary();
+        private final StringDictionary wards = new StringDictionary();
+        private final Map<Long, Integer> tupleIds = new HashMap<>();
+        private int[] tupleClass = new int[64];
+        private int[] tupleNeighbourhood = new int[64];
+        private int[] tupleWard = new int[64];
+        private int tupleCount;
+
+        // One entry per property share: (cell << 32 | tuple), weight and value
+        private long[] keys;
+        private double[] shareWeights;
+        private double[] shareValues;
+        private int size;
+
+        /**
+         * @param expectedProperties Number of properties that will be added, to size the buffers
+         */
+        public Builder(int expectedProperties) {
+            int capacity = Math.max(16, expectedProperties);
+            keys = new long[capacity];
+            shareWeights = new double[capacity];
+            shareValues = new double[capacity];
+        }
+
+        /**
+         * Adds a parsed property record
+         * @param cell Cell the property falls in, not negative
+         * @param property The property
+         */
+        public void add(int cell, PropertyData property) {
+            Assessment assessment = property.getAssessment();
+            add(cell, assessment.getAssessedValue(), property.getNeighbourhood().getNeighbourhood(),
+                    property.getNeighbourhood().getWard(),
+                    classKeys(assessment), classPercents(assessment));
+        }
+
+        /**
+         * Adds a property, split between its assessment classes by their percentages.
+         * A property without percentages counts fully towards its first class.
+         * @param cell Cell the property falls in, not negative
+         * @param value Assessed value
+         * @param neighbourhood Neighbourhood, may be null
+         * @param ward Ward, may be null
+         * @param classes Up to three assessment class keys (see classKey), null where missing
+         * @param percents Percentage of the value in each class
+         */
+        public void add(int cell, double value, String neighbourhood, String ward, String[] classes, int[] percents) {
+            int neighbourhoodCode = code(neighbourhoods, neighbourhood);
+            int wardCode = code(wards, ward);
+
+            double[] weights = new double[classes.length];
+            classWeights(classes, percents, weights);
+            for (int i = 0; i < classes.length; i++) {
+                if (weights[i] > 0) {
+                    addShare(cell, tuple(code(assessmentClasses, classes[i]), neighbourhoodCode, wardCode),
+                            weights[i], weights[i] * value);
+                }
+            }
+        }
+
+        private void addShare(int cell, int tuple, double weight, double value) {
+            if (size == keys.length) {
+                keys = Arrays.copyOf(keys, size * 2);
+                shareWeights = Arrays.copyOf(shareWeights, size * 2);
+                shareValues = Arrays.copyOf(shareValues, size * 2);
+            }
+            keys[size] = (long) cell << 32 | tuple;
+            shareWeights[size] = weight;
+            shareValues[size] = value;
+            size++;
+        }
+
+        private static int code(StringDictionary dictionary, String value) {
+            if (value == null || value.isEmpty()) {
+                return 0;
+            }
+            int code = dictionary.encode(value) + 1;
+            if (code > MAX_CODE) {
+                throw new IllegalStateException("Too many distinct values for a property cube dimension: " + code);
+            }
+            return code;
+        }
+
+        private int tuple(int assessmentClass, int neighbourhood, int ward) {
+            long packed = (long) assessmentClass << (2 * CODE_BITS) | (long) neighbourhood << CODE_BITS | ward;
+            Integer existing = tupleIds.get(packed);
+            if (existing != null) {
+                return existing;
+            }
+
+            if (tupleCount == tupleClass.length) {
+                int capacity = tupleCount * 2;
+                tupleClass = Arrays.copyOf(tupleClass, capacity);
+                tupleNeighbourhood = Arrays.copyOf(tupleNeighbourhood, capacity);
+                tupleWard = Arrays.copyOf(tupleWard, capacity);
+            }
+            tupleClass[tupleCount] = assessmentClass;
+            tupleNeighbourhood[tupleCount] = neighbourhood;
+            tupleWard[tupleCount] = ward;
+            tupleIds.put(packed, tupleCount);
+            return tupleCount++;
+        }
+
+        /**
+         * @return The cube of the properties added so far; the builder must not be used afterwards
+         */
+        public PropertyCube build() {
+            // Distinct keys in order, then every share is summed into the slot of its key
+            long[] facts = Arrays.copyOf(keys, size);
+            Arrays.parallelSort(facts);
+            int distinct = 0;
+            for (int i = 0; i < size; i++) {
+                if (distinct == 0 || facts[distinct - 1] != facts[i]) {
+                    facts[distinct++] = facts[i];
+                }
+            }
+
+            double[] weights = new double[distinct];
+            double[] valueSums = new double[distinct];
+            for (int i = 0; i < size; i++) {
+                int slot = Arrays.binarySearch(facts, 0, distinct, keys[i]);
+                weights[slot] += shareWeights[i];
+                valueSums[slot] += shareValues[i];
+            }
+            return new PropertyCube(this, Arrays.copyOf(facts, distinct), weights, valueSums);
+        }
+    }
+}
@@ -0,0 +1,430 @@
+package ca.macewan.thebatmap.utils.general;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Typed description of an analysis over the loaded crimes or properties: which records to keep (filter values,
+ * a report date range and a bounding box), how to group them and what to compute per group.
+ * Queries are normalized when built, so two queries asking the same thing are equal and share cached results.
+ * <p>
+ * The text form, as printed by toString and read by parse, is
+ * <pre>
+ * crime where category=Theft,Robbery and month=2023-01 from 2023-01-01 to 2023-06-30
+ *       within 53.45,-113.65,53.60,-113.40 by cell count
+ * property where neighbourhood="ALBERTA AVENUE" by ward quantile 0.9
+ * </pre>
+ * Every clause is optional; the defaults are no filter, no grouping and a count.
+ * @param source Records to query
+ * @param filters Values to keep per dimension; values within a dimension are ORed, dimensions ANDed
+ * @param from First report date to keep, or null
+ * @param to Last report date to keep, or null
+ * @param bounds Area to keep, or null
+ * @param groupBy How to group the kept records
+ * @param aggregation What to compute per group
+ * @param quantile Quantile for Aggregation.QUANTILE, between 0 and 1
+ */
+public record Query(Source source, Map<FilterIndex.Dimension, Set<String>> filters, LocalDate from, LocalDate to,
+                   BoundingBox bounds, GroupBy groupBy, Aggregation aggregation, double quantile) {
+
+    /**
+     * Records a query runs over, with the dimensions and groupings that apply to them
+     */
+    public enum Source {
+        CRIME(EnumSet.of(FilterIndex.Dimension.CATEGORY, FilterIndex.Dimension.GROUP, FilterIndex.Dimension.TYPE,
+                FilterIndex.Dimension.SIMPLIFIED, FilterIndex.Dimension.MONTH),
+                EnumSet.of(GroupBy.NONE, GroupBy.CELL, GroupBy.MONTH, GroupBy.YEAR)),
+        PROPERTY(EnumSet.of(FilterIndex.Dimension.WARD, FilterIndex.Dimension.NEIGHBOURHOOD,
+                FilterIndex.Dimension.ASSESSMENT_CLASS),
+                EnumSet.of(GroupBy.NONE, GroupBy.CELL, GroupBy.WARD, GroupBy.NEIGHBOURHOOD));
+
+        private final Set<FilterIndex.Dimension> dimensions;
+        private final Set<GroupBy> groupings;
+
+        Source(Set<FilterIndex.Dimension> dimensions, Set<GroupBy> groupings) {
+            this.dimensions = dimensions;
+            this.groupings = groupings;
+        }
+
+        public Set<FilterIndex.Dimension> getDimensions() { return Collections.unmodifiableSet(dimensions); }
+
+        public Set<GroupBy> getGroupings() { return Collections.unmodifiableSet(groupings); }
+    }
+
+    /**
+     * Groups of a result: one overall, per grid cell, per neighbourhood or ward, or per report month or year
+     */
+    public enum GroupBy { NONE, CELL, NEIGHBOURHOOD, WARD, MONTH, YEAR }
+
+    /**
+     * Value computed per group. SUM, MEAN and QUANTILE are over assessed property values.
+     */
+    public enum Aggregation { COUNT, SUM, MEAN, QUANTILE }
+
+    /**
+     * Area in degrees, bounds included
+     */
+    public record BoundingBox(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+        public BoundingBox {
+            if (minLatitude > maxLatitude || minLongitude > maxLongitude) {
+                throw new IllegalArgumentException("Empty bounding box: " + minLatitude + "," + minLongitude + " to "
+                        + maxLatitude + "," + maxLongitude);
+            }
+        }
+
+        /**
+         * @return true if the point is inside the box
+         */
+        public boolean contains(double latitude, double longitude) {
+            return latitude >= minLatitude && latitude <= maxLatitude
+                    && longitude >= minLongitude && longitude <= maxLongitude;
+        }
+    }
+
+    public Query {
+        filters = normalize(filters);
+    }
+
+    /**
+     * @return A builder for a query over the crimes
+     */
+    public static Builder crimes() {
+        return new Builder(Source.CRIME);
+    }
+
+    /**
+     * @return A builder for a query over the properties
+     */
+    public static Builder properties() {
+        return new Builder(Source.PROPERTY);
+    }
+
+    /**
+     * @return true if the query keeps only part of the report dates
+     */
+    public boolean hasDateRange() {
+        return from != null || to != null;
+    }
+
+    /**
+     * Sorts the values of each dimension and drops empty dimensions, so equal selections compare equal
+     */
+    private static Map<FilterIndex.Dimension, Set<String>> normalize(Map<FilterIndex.Dimension, Set<String>> filters) {
+        Map<FilterIndex.Dimension, Set<String>> normalized = new EnumMap<>(FilterIndex.Dimension.class);
+        for (Map.Entry<FilterIndex.Dimension, Set<String>> entry : filters.entrySet()) {
+            if (!entry.getValue().isEmpty()) {
+                normalized.put(entry.getKey(), Collections.unmodifiableSet(new TreeSet<>(entry.getValue())));
+            }
+        }
+        return Collections.unmodifiableMap(normalized);
+    }
+
+    /**
+     * @return The query in the text form read by parse
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder(source.name().toLowerCase(Locale.ROOT));
+        String separator = " where ";
+        for (Map.Entry<FilterIndex.Dimension, Set<String>> entry : filters.entrySet()) {
+            text.append(separator).append(entry.getKey().name().toLowerCase(Locale.ROOT)).append('=');
+            boolean first = true;
+            for (String value : entry.getValue()) {
+                text.append(first ? "" : ",").append(quote(value));
+                first = false;
+            }
+            separator = " and ";
+        }
+        if (from != null) { text.append(" from ").append(from); }
+        if (to != null) { text.append(" to ").append(to); }
+        if (bounds != null) {
+            text.append(" within ").append(bounds.minLatitude()).append(',').append(bounds.minLongitude())
+                    .append(',').append(bounds.maxLatitude()).append(',').append(bounds.maxLongitude());
+        }
+        if (groupBy != GroupBy.NONE) { text.append(" by ").append(groupBy.name().toLowerCase(Locale.ROOT)); }
+        text.append(' ').append(aggregation.name().toLowerCase(Locale.ROOT));
+        if (aggregation == Aggregation.QUANTILE) { text.append(' ').append(quantile); }
+        return text.toString();
+    }
+
+    private static String quote(String value) {
+        boolean plain = !value.isEmpty();
+        for (int i = 0; i < value.length() && plain; i++) {
+            char c = value.charAt(i);
+            plain = !Character.isWhitespace(c) && c != ',' && c != '=' && c != '"';
+        }
+        return plain ? value : '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Reads a query from its text form
+     * @param text Query text, e.g. "crime where group=Property by cell count"
+     * @return The query
+     * @throws IllegalArgumentException If the text is not a valid query
+     */
+    public static Query parse(String text) {
+        List<String> tokens = tokenize(text);
+        if (tokens.isEmpty()) {
+            throw new IllegalArgumentException("Empty query");
+        }
+
+        Builder builder = switch (tokens.getFirst().toLowerCase(Locale.ROOT)) {
+            case "crime", "crimes" -> crimes();
+            case "property", "properties" -> properties();
+            default -> throw new IllegalArgumentException("Query must start with crime or property: " + text);
+        };
+
+        int i = 1;
+        while (i < tokens.size()) {
+            String keyword = tokens.get(i++).toLowerCase(Locale.ROOT);
+            switch (keyword) {
+                case "where", "and" -> {
+                    FilterIndex.Dimension dimension = dimension(next(tokens, i++, text));
+                    expect(tokens, i++, "=", text);
+                    List<String> values = new ArrayList<>();
+                    values.add(next(tokens, i++, text));
+                    while (i < tokens.size() && tokens.get(i).equals(",")) {
+                        values.add(next(tokens, i + 1, text));
+                        i += 2;
+                    }
+                    builder.where(dimension, values);
+                }
+                case "from" -> builder.from(date(next(tokens, i++, text)));
+                case "to" -> builder.to(date(next(tokens, i++, text)));
+                case "within" -> {
+                    double[] corners = new double[4];
+                    for (int c = 0; c < corners.length; c++) {
+                        if (c > 0) {
+                            expect(tokens, i++, ",", text);
+                        }
+                        corners[c] = number(next(tokens, i++, text));
+                    }
+                    builder.within(corners[0], corners[1], corners[2], corners[3]);
+                }
+                case "by" -> builder.groupBy(enumValue(GroupBy.class, next(tokens, i++, text)));
+                case "count" -> builder.count();
+                case "sum" -> builder.sum();
+                case "mean" -> builder.mean();
+                case "quantile" -> builder.quantile(number(next(tokens, i++, text)));
+                default -> throw new IllegalArgumentException("Unexpected '" + keyword + "' in query: " + text);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Splits query text into words, quoted strings (with "" for a quote), '=' and ','
+     */
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '=' || c == ',') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '"') {
+                StringBuilder value = new StringBuilder();
+                i++;
+                while (true) {
+                    if (i >= text.length()) {
+                        throw new IllegalArgumentException("Unterminated quote in query: " + text);
+                    }
+                    char q = text.charAt(i++);
+                    if (q == '"') {
+                        if (i < text.length() && text.charAt(i) == '"') {
+                            value.append('"');
+                            i++;
+                        } else {
+                            break;
+                        }
+                    } else {
+                        value.append(q);
+                    }
+                }
+                tokens.add(value.toString());
+            } else {
+                int start = i;
+                while (i < text.length() && !Character.isWhitespace(text.charAt(i))
+                        && text.charAt(i) != '=' && text.charAt(i) != ',' && text.charAt(i) != '"') {
+                    i++;
+                }
+                tokens.add(text.substring(start, i));
+            }
+        }
+        return tokens;
+    }
+
+    private static String next(List<String> tokens, int index, String text) {
+        if (index >= tokens.size()) {
+            throw new IllegalArgumentException("Query ends too early: " + text);
+        }
+        return tokens.get(index);
+    }
+
+    private static void expect(List<String> tokens, int index, String expected, String text) {
+        if (!next(tokens, index, text).equals(expected)) {
+            throw new IllegalArgumentException("Expected '" + expected + "' at '" + tokens.get(index)
+                    + "' in query: " + text);
+        }
+    }
+
+    private static FilterIndex.Dimension dimension(String name) {
+        return enumValue(FilterIndex.Dimension.class, name);
+    }
+
+    private static <E extends Enum<E>> E enumValue(Class<E> type, String name) {
+        try {
+            return Enum.valueOf(type, name.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown " + type.getSimpleName() + ": " + name);
+        }
+    }
+
+    private static LocalDate date(String text) {
+        try {
+            return LocalDate.parse(text);
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid date, expected yyyy-MM-dd: " + text);
+        }
+    }
+
+    private static double number(String text) {
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid number: " + text);
+        }
+    }
+
+    /**
+     * Collects the clauses of a query; build checks that they apply to the source
+     */
+    public static class Builder {
+        private final Source source;
+        private final Map<FilterIndex.Dimension, Set<String>> filters = new EnumMap<>(FilterIndex.Dimension.class);
+        private LocalDate from;
+        private LocalDate to;
+        private BoundingBox bounds;
+        private GroupBy groupBy = GroupBy.NONE;
+        private Aggregation aggregation = Aggregation.COUNT;
+        private double quantile = 0.5;
+
+        private Builder(Source source) {
+            this.source = source;
+        }
+
+        /**
+         * Keeps records with any of the values; calling it again for a dimension adds values
+         * @param dimension Dimension to filter
+         * @param values Values to keep
+         * @return This builder
+         */
+        public Builder where(FilterIndex.Dimension dimension, Collection<String> values) {
+            filters.computeIfAbsent(dimension, _ -> new TreeSet<>()).addAll(values);
+            return this;
+        }
+
+        public Builder where(FilterIndex.Dimension dimension, String... values) {
+            return where(dimension, List.of(values));
+        }
+
+        /**
+         * @param from First report date to keep, or null
+         * @return This builder
+         */
+        public Builder from(LocalDate from) {
+            this.from = from;
+            return this;
+        }
+
+        /**
+         * @param to Last report date to keep, or null
+         * @return This builder
+         */
+        public Builder to(LocalDate to) {
+            this.to = to;
+            return this;
+        }
+
+        /**
+         * Keeps records inside an area
+         * @return This builder
+         */
+        public Builder within(double minLatitude, double minLongitude, double maxLatitude, double maxLongitude) {
+            this.bounds = new BoundingBox(minLatitude, minLongitude, maxLatitude, maxLongitude);
+            return this;
+        }
+
+        public Builder groupBy(GroupBy groupBy) {
+            this.groupBy = groupBy;
+            return this;
+        }
+
+        public Builder count() {
+            this.aggregation = Aggregation.COUNT;
+            return this;
+        }
+
+        public Builder sum() {
+            this.aggregation = Aggregation.SUM;
+            return this;
+        }
+
+        public Builder mean() {
+            this.aggregation = Aggregation.MEAN;
+            return this;
+        }
+
+        /**
+         * @param quantile Quantile to compute, e.g. 0.9 for the 90th percentile
+         * @return This builder
+         */
+        public Builder quantile(double quantile) {
+            this.aggregation = Aggregation.QUANTILE;
+            this.quantile = quantile;
+            return this;
+        }
+
+        /**
+         * @return The normalized query
+         * @throws IllegalArgumentException If a clause does not apply to the source
+         */
+        public Query build() {
+            for (FilterIndex.Dimension dimension : filters.keySet()) {
+                if (!source.dimensions.contains(dimension)) {
+                    throw new IllegalArgumentException(source + " records have no " + dimension + " to filter by");
+                }
+            }
+            if (!source.groupings.contains(groupBy)) {
+                throw new IllegalArgumentException(source + " records cannot be grouped by " + groupBy);
+            }
+            if (source == Source.CRIME && aggregation != Aggregation.COUNT) {
+                throw new IllegalArgumentException("Crimes have no value to " + aggregation);
+            }
+            if (source == Source.PROPERTY && (from != null || to != null)) {
+                throw new IllegalArgumentException("Properties have no report date");
+            }
+            if (from != null && to != null && from.isAfter(to)) {
+                throw new IllegalArgumentException("Date range ends before it starts: " + from + " to " + to);
+            }
+            if (aggregation == Aggregation.QUANTILE && !(quantile >= 0 && quantile <= 1)) {
+                throw new IllegalArgumentException("Quantile must be between 0 and 1: " + quantile);
+            }
+            return new Query(source, filters, from, to, bounds, groupBy, aggregation,
+                    aggregation == Aggregation.QUANTILE ? quantile : 0.5);
+        }
+    }
+}
@@ -0,0 +1,679 @@
+package ca.macewan.thebatmap.utils.general;
+
+import ca.macewan.thebatmap.utils.models.Assessment;
+import ca.macewan.thebatmap.utils.models.CrimeData;
+import ca.macewan.thebatmap.utils.models.CrimeLocation;
+import ca.macewan.thebatmap.utils.models.Location;
+import ca.macewan.thebatmap.utils.models.PropertyData;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.IntStream;
+
+/**
+ * Runs queries against a loaded data set. Each query is answered from the cheapest structure that can:
+ * <ol>
+ *     <li>a cube roll-up, for at most one value per cube dimension, grouped by cell or not at all;</li>
+ *     <li>the bitmap indexes, for multi-value filters and grouping by a dimension or time bucket;</li>
+ *     <li>a parallel scan over columns extracted from the loaded records, for bounding boxes, day-precision
+ *     date ranges and quantiles.</li>
+ * </ol>
+ * Date ranges are answered from the cubes and indexes when they cover whole months.
+ * Results are cached by data set id, data version and normalized query, so they never keep a data set alive.
+ * Thread-safe.
+ */
+public class QueryEngine {
+    private static final int CACHED_RESULTS = 32;
+    // Records per scan task, so small data sets are not split further than is worth it
+    private static final int MIN_SCAN_CHUNK = 16_384;
+    private static final String ALL = "all";
+
+    private final int cachedResults;
+    private final Map<ResultKey, QueryResult> results = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<ResultKey, QueryResult> eldest) {
+            return size() > cachedResults;
+        }
+    };
+
+    // Columns of the data set last scanned, dropped when another data set or version is queried
+    private volatile CrimeColumns crimeColumns;
+    private volatile PropertyColumns propertyColumns;
+    private final CrimeClassifier classifier = new CrimeClassifier();
+
+    private record ResultKey(long dataId, long version, Query query) {}
+
+    /**
+     * Groups computed by a plan: keyed rows, or cells and their values when grouped by cell
+     */
+    private record Groups(List<QueryResult.Row> rows, int[] cells, double[] values) {
+        static final Groups NONE = new Groups(List.of(), null, null);
+
+        static Groups of(List<QueryResult.Row> rows) {
+            return new Groups(rows, null, null);
+        }
+
+        static Groups ofCells(int[] cells, double[] values) {
+            return new Groups(null, cells, values);
+        }
+
+        int size() {
+            return cells == null ? rows.size() : cells.length;
+        }
+    }
+
+    /**
+     * Creates an engine keeping the most recent results
+     */
+    public QueryEngine() {
+        this(CACHED_RESULTS);
+    }
+
+    /**
+     * Creates an engine
+     * @param cachedResults Number of results to keep, 0 to compute every query
+     */
+    public QueryEngine(int cachedResults) {
+        this.cachedResults = cachedResults;
+    }
+
+    /**
+     * Runs a query, or returns the cached result of an equal query on the same data
+     * @param data Loaded data set
+     * @param query The query
+     * @return The result
+     * @throws IllegalStateException If the query needs a scan and the data set does not keep its records
+     */
+    public QueryResult execute(CalculatePixelValue data, Query query) {
+        ResultKey key = new ResultKey(data.getId(), data.getVersion(), query);
+        dropStaleColumns(data);
+        synchronized (results) {
+            QueryResult cached = results.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        // Computed outside the lock; two threads running the same query at once both compute it
+        QueryResult result;
+        try (MetricsRegistry.PhaseTimer timer = MetricsRegistry.time(Phase.SCAN)) {
+            long start = System.nanoTime();
+            QueryResult.Plan plan = plan(query);
+            Groups groups = switch (plan) {
+                case CUBE -> query.source() == Query.Source.CRIME ? crimeCube(data, query) : propertyCube(data, query);
+                case INDEX -> index(data, query);
+                case SCAN -> query.source() == Query.Source.CRIME ? scanCrimes(data, query) : scanProperties(data, query);
+            };
+            long elapsed = System.nanoTime() - start;
+            result = groups.cells() == null ? new QueryResult(query, plan, List.copyOf(groups.rows()), elapsed)
+                    : QueryResult.ofCells(query, plan, groups.cells(), groups.values(), elapsed);
+            timer.rows(groups.size()).detail(() -> plan + " " + query);
+        }
+
+        synchronized (results) {
+            results.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Drops every cached result
+     */
+    public void clear() {
+        synchronized (results) {
+            results.clear();
+        }
+        crimeColumns = null;
+        propertyColumns = null;
+    }
+
+    /**
+     * @param query A query
+     * @return Where execute will get the result from
+     */
+    public static QueryResult.Plan plan(Query query) {
+        boolean wholeMonths = (query.from() == null || query.from().getDayOfMonth() == 1)
+                && (query.to() == null || query.to().equals(query.to().withDayOfMonth(query.to().lengthOfMonth())));
+        if (query.bounds() != null || query.aggregation() == Query.Aggregation.QUANTILE || !wholeMonths) {
+            return QueryResult.Plan.SCAN;
+        }
+
+        boolean cubeFilters = true;
+        for (Map.Entry<FilterIndex.Dimension, Set<String>> filter : query.filters().entrySet()) {
+            cubeFilters &= filter.getValue().size() == 1 && switch (filter.getKey()) {
+                case CATEGORY, GROUP, TYPE, WARD, NEIGHBOURHOOD, ASSESSMENT_CLASS -> true;
+                default -> false;
+            };
+        }
+        boolean cubeGrouping = query.groupBy() == Query.GroupBy.NONE || query.groupBy() == Query.GroupBy.CELL;
+        return cubeFilters && cubeGrouping ? QueryResult.Plan.CUBE : QueryResult.Plan.INDEX;
+    }
+
+    private static Groups crimeCube(CalculatePixelValue data, Query query) {
+        CrimeCube.RollUp rollUp = data.getCrimeCube().rollUp(only(query, FilterIndex.Dimension.CATEGORY),
+                only(query, FilterIndex.Dimension.GROUP), only(query, FilterIndex.Dimension.TYPE),
+                query.from() == null ? null : YearMonth.from(query.from()),
+                query.to() == null ? null : YearMonth.from(query.to()));
+
+        if (query.groupBy() == Query.GroupBy.NONE) {
+            long total = 0;
+            for (int count : rollUp.counts()) {
+                total += count;
+            }
+            return total == 0 ? Groups.NONE : Groups.of(List.of(new QueryResult.Row(ALL, -1, total)));
+        }
+        double[] values = new double[rollUp.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = rollUp.counts()[i];
+        }
+        return Groups.ofCells(rollUp.cells(), values);
+    }
+
+    private static Groups propertyCube(CalculatePixelValue data, Query query) {
+        PropertyCube.RollUp rollUp = data.getPropertyCube().rollUp(only(query, FilterIndex.Dimension.ASSESSMENT_CLASS),
+                only(query, FilterIndex.Dimension.NEIGHBOURHOOD), only(query, FilterIndex.Dimension.WARD));
+
+        if (query.groupBy() == Query.GroupBy.NONE) {
+            double weight = 0;
+            double valueSum = 0;
+            for (int i = 0; i < rollUp.size(); i++) {
+                weight += rollUp.weights()[i];
+                valueSum += rollUp.valueSums()[i];
+            }
+            return weight == 0 ? Groups.NONE
+                    : Groups.of(List.of(new QueryResult.Row(ALL, -1, value(query, weight, valueSum))));
+        }
+        double[] values = new double[rollUp.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = value(query, rollUp.weights()[i], rollUp.valueSums()[i]);
+        }
+        return Groups.ofCells(rollUp.cells(), values);
+    }
+
+    private static Groups index(CalculatePixelValue data, Query query) {
+        FilterIndex index = query.source() == Query.Source.CRIME ? data.getCrimeIndex() : data.getPropertyIndex();
+        Map<FilterIndex.Dimension, Set<String>> selection = new HashMap<>(query.filters());
+        if (query.hasDateRange()) {
+            selection.put(FilterIndex.Dimension.MONTH, monthsInRange(index, query));
+            if (selection.get(FilterIndex.Dimension.MONTH).isEmpty()) {
+                return Groups.NONE;
+            }
+        }
+        RecordBitmap records = index.select(selection);
+        if (records.isEmpty()) {
+            return Groups.NONE;
+        }
+
+        switch (query.groupBy()) {
+            case NONE -> {
+                return Groups.of(List.of(
+                        new QueryResult.Row(ALL, -1, value(query, index.count(records), index.sum(records)))));
+            }
+            case CELL -> {
+                FilterIndex.Aggregate aggregate = index.aggregate(records);
+                double[] values = new double[aggregate.size()];
+                for (int i = 0; i < values.length; i++) {
+                    double valueSum = aggregate.valueSums() == null ? 0 : aggregate.valueSums()[i];
+                    values[i] = value(query, aggregate.weights()[i], valueSum);
+                }
+                return Groups.ofCells(aggregate.cells(), values);
+            }
+            default -> {
+                // One intersection per group value; years merge the months they contain
+                FilterIndex.Dimension dimension = switch (query.groupBy()) {
+                    case WARD -> FilterIndex.Dimension.WARD;
+                    case NEIGHBOURHOOD -> FilterIndex.Dimension.NEIGHBOURHOOD;
+                    default -> FilterIndex.Dimension.MONTH;
+                };
+                Map<String, double[]> groups = new TreeMap<>();
+                for (String value : index.getValues(dimension)) {
+                    RecordBitmap group = records.and(index.getBitmap(dimension, value));
+                    if (group.isEmpty()) {
+                        continue;
+                    }
+                    String key = query.groupBy() == Query.GroupBy.YEAR ? value.substring(0, value.indexOf('-')) : value;
+                    double[] totals = groups.computeIfAbsent(key, _ -> new double[2]);
+                    totals[0] += index.count(group);
+                    totals[1] += index.sum(group);
+                }
+                List<QueryResult.Row> rows = new ArrayList<>(groups.size());
+                for (Map.Entry<String, double[]> group : groups.entrySet()) {
+                    rows.add(new QueryResult.Row(group.getKey(), -1,
+                            value(query, group.getValue()[0], group.getValue()[1])));
+                }
+                return Groups.of(rows);
+            }
+        }
+    }
+
+    /**
+     * @return The index's month values inside the query's date range and month filter
+     */
+    private static Set<String> monthsInRange(FilterIndex index, Query query) {
+        YearMonth from = query.from() == null ? null : YearMonth.from(query.from());
+        YearMonth to = query.to() == null ? null : YearMonth.from(query.to());
+        Set<String> chosen = query.filters().get(FilterIndex.Dimension.MONTH);
+        Set<String> months = new java.util.TreeSet<>();
+        for (String value : index.getValues(FilterIndex.Dimension.MONTH)) {
+            YearMonth month = YearMonth.parse(value);
+            if ((from == null || !month.isBefore(from)) && (to == null || !month.isAfter(to))
+                    && (chosen == null || chosen.contains(value))) {
+                months.add(value);
+            }
+        }
+        return months;
+    }
+
+    private Groups scanCrimes(CalculatePixelValue data, Query query) {
+        CrimeColumns columns = crimeColumns(data);
+        boolean[][] accepted = columns.accepted(query);
+        int from = query.from() == null ? Integer.MIN_VALUE : (int) query.from().toEpochDay();
+        int to = query.to() == null ? Integer.MAX_VALUE : (int) query.to().toEpochDay();
+        Query.BoundingBox bounds = query.bounds();
+
+        return scan(columns.cells.length, query, (start, end, groups) -> {
+            for (int i = start; i < end; i++) {
+                if (columns.cells[i] < 0 || !columns.matches(accepted, i)) {
+                    continue;
+                }
+                int day = columns.days[i];
+                if (query.hasDateRange() && (day == CrimeData.NO_DATE || day < from || day > to)) {
+                    continue;
+                }
+                if (bounds != null && !bounds.contains(columns.latitudes[i], columns.longitudes[i])) {
+                    continue;
+                }
+                long group = switch (query.groupBy()) {
+                    case CELL -> columns.cells[i];
+                    case MONTH -> columns.months[i];
+                    case YEAR -> columns.months[i] < 0 ? -1 : columns.months[i] / 12;
+                    default -> 0;
+                };
+                if (group >= 0) {
+                    groups.computeIfAbsent(group, _ -> new Accumulator(false)).add(1.0, 0.0);
+                }
+            }
+        }, group -> switch (query.groupBy()) {
+            case MONTH -> YearMonth.of((int) (group / 12), (int) (group % 12) + 1).toString();
+            case YEAR -> String.valueOf(group);
+            default -> ALL;
+        });
+    }
+
+    private Groups scanProperties(CalculatePixelValue data, Query query) {
+        PropertyColumns columns = propertyColumns(data);
+        boolean[][] accepted = columns.accepted(query);
+        boolean[] classes = accepted[FilterIndex.Dimension.ASSESSMENT_CLASS.ordinal()];
+        Query.BoundingBox bounds = query.bounds();
+        boolean quantile = query.aggregation() == Query.Aggregation.QUANTILE;
+
+        return scan(columns.cells.length, query, (start, end, groups) -> {
+            double[] shares = new double[PropertyColumns.CLASSES];
+            String[] classKeys = new String[PropertyColumns.CLASSES];
+            int[] percents = new int[PropertyColumns.CLASSES];
+            for (int i = start; i < end; i++) {
+                if (columns.cells[i] < 0 || !columns.matches(accepted, i)) {
+                    continue;
+                }
+                if (bounds != null && !bounds.contains(columns.latitudes[i], columns.longitudes[i])) {
+                    continue;
+                }
+
+                // Only the share of the property in the chosen classes counts, as in the cube
+                for (int c = 0; c < PropertyColumns.CLASSES; c++) {
+                    int code = columns.classCodes[c][i];
+                    classKeys[c] = code == 0 ? null : columns.classNames.get(code - 1);
+                    percents[c] = columns.classPercents[c][i];
+                }
+                PropertyCube.classWeights(classKeys, percents, shares);
+                double weight = 0;
+                for (int c = 0; c < PropertyColumns.CLASSES; c++) {
+                    if (classes == null || (columns.classCodes[c][i] > 0 && classes[columns.classCodes[c][i] - 1])) {
+                        weight += shares[c];
+                    }
+                }
+                if (weight == 0) {
+                    continue;
+                }
+
+                long group = switch (query.groupBy()) {
+                    case CELL -> columns.cells[i];
+                    case WARD -> columns.codes[FilterIndex.Dimension.WARD.ordinal()][i] - 1;
+                    case NEIGHBOURHOOD -> columns.codes[FilterIndex.Dimension.NEIGHBOURHOOD.ordinal()][i] - 1;
+                    default -> 0;
+                };
+                if (group >= 0) {
+                    groups.computeIfAbsent(group, _ -> new Accumulator(quantile)).add(weight, columns.values[i]);
+                }
+            }
+        }, group -> switch (query.groupBy()) {
+            case WARD -> columns.names(FilterIndex.Dimension.WARD).get((int) group);
+            case NEIGHBOURHOOD -> columns.names(FilterIndex.Dimension.NEIGHBOURHOOD).get((int) group);
+            default -> ALL;
+        });
+    }
+
+    /**
+     * Scans one range of records into per-group accumulators
+     */
+    private interface ChunkScanner {
+        void scan(int start, int end, Map<Long, Accumulator> groups);
+    }
+
+    private interface GroupNamer {
+        String name(long group);
+    }
+
+    /**
+     * Splits the records into chunks scanned in parallel, then merges the per-chunk groups
+     */
+    private static Groups scan(int records, Query query, ChunkScanner scanner, GroupNamer namer) {
+        int chunks = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors() * 4, records / MIN_SCAN_CHUNK));
+        Map<Long, Accumulator> groups = IntStream.range(0, chunks).parallel()
+                .mapToObj(chunk -> {
+                    Map<Long, Accumulator> chunkGroups = new HashMap<>();
+                    scanner.scan((int) ((long) records * chunk / chunks), (int) ((long) records * (chunk + 1) / chunks),
+                            chunkGroups);
+                    return chunkGroups;
+                })
+                .reduce(new HashMap<>(), (merged, chunkGroups) -> {
+                    Map<Long, Accumulator> result = merged.size() >= chunkGroups.size() ? merged : chunkGroups;
+                    Map<Long, Accumulator> other = result == merged ? chunkGroups : merged;
+                    Map<Long, Accumulator> copy = new HashMap<>(result);
+                    other.forEach((group, accumulator) -> copy.merge(group, accumulator, Accumulator::merge));
+                    return copy;
+                });
+
+        if (query.groupBy() == Query.GroupBy.CELL) {
+            int[] cells = groups.keySet().stream().mapToInt(Long::intValue).sorted().toArray();
+            double[] values = new double[cells.length];
+            for (int i = 0; i < cells.length; i++) {
+                values[i] = groups.get((long) cells[i]).value(query);
+            }
+            return Groups.ofCells(cells, values);
+        }
+        List<QueryResult.Row> rows = new ArrayList<>(groups.size());
+        Map<String, Double> named = new TreeMap<>();
+        groups.forEach((group, accumulator) -> named.put(namer.name(group), accumulator.value(query)));
+        named.forEach((name, value) -> rows.add(new QueryResult.Row(name, -1, value)));
+        return Groups.of(rows);
+    }
+
+    /**
+     * Weighted count and value sum of one group, and its values when a quantile is wanted.
+     * Merging returns a new accumulator, so the per-chunk ones can be reused across reductions.
+     */
+    private static final class Accumulator {
+        private double weight;
+        private double valueSum;
+        private double[] values;
+        private int size;
+
+        Accumulator(boolean keepValues) {
+            values = keepValues ? new double[8] : null;
+        }
+
+        void add(double weight, double value) {
+            this.weight += weight;
+            this.valueSum += weight * value;
+            if (values != null) {
+                if (size == values.length) {
+                    values = Arrays.copyOf(values, size * 2);
+                }
+                values[size++] = value;
+            }
+        }
+
+        static Accumulator merge(Accumulator a, Accumulator b) {
+            Accumulator merged = new Accumulator(a.values != null);
+            merged.weight = a.weight + b.weight;
+            merged.valueSum = a.valueSum + b.valueSum;
+            if (a.values != null) {
+                merged.values = Arrays.copyOf(a.values, a.size + b.size);
+                System.arraycopy(b.values, 0, merged.values, a.size, b.size);
+                merged.size = a.size + b.size;
+            }
+            return merged;
+        }
+
+        double value(Query query) {
+            if (query.aggregation() != Query.Aggregation.QUANTILE) {
+                return QueryEngine.value(query, weight, valueSum);
+            }
+            // Linear interpolation between the closest ranks
+            double[] sorted = Arrays.copyOf(values, size);
+            Arrays.sort(sorted);
+            double rank = query.quantile() * (sorted.length - 1);
+            int lower = (int) Math.floor(rank);
+            int upper = Math.min(lower + 1, sorted.length - 1);
+            return sorted[lower] + (rank - lower) * (sorted[upper] - sorted[lower]);
+        }
+    }
+
+    private static double value(Query query, double weight, double valueSum) {
+        return switch (query.aggregation()) {
+            case SUM -> valueSum;
+            case MEAN -> weight == 0 ? 0 : valueSum / weight;
+            default -> weight;
+        };
+    }
+
+    /**
+     * @return The single value a query keeps for a dimension, or null if it does not filter on it
+     */
+    private static String only(Query query, FilterIndex.Dimension dimension) {
+        Set<String> values = query.filters().get(dimension);
+        return values == null ? null : values.iterator().next();
+    }
+
+    /**
+     * Lets go of the columns of a data set that has been replaced or changed, rather than waiting for the next scan
+     */
+    private void dropStaleColumns(CalculatePixelValue data) {
+        CrimeColumns crimes = crimeColumns;
+        if (crimes != null && !crimes.isOf(data)) {
+            crimeColumns = null;
+        }
+        PropertyColumns properties = propertyColumns;
+        if (properties != null && !properties.isOf(data)) {
+            propertyColumns = null;
+        }
+    }
+
+    private CrimeColumns crimeColumns(CalculatePixelValue data) {
+        CrimeColumns columns = crimeColumns;
+        if (columns == null || !columns.isOf(data)) {
+            columns = new CrimeColumns(data, classifier);
+            crimeColumns = columns;
+        }
+        return columns;
+    }
+
+    private PropertyColumns propertyColumns(CalculatePixelValue data) {
+        PropertyColumns columns = propertyColumns;
+        if (columns == null || !columns.isOf(data)) {
+            columns = new PropertyColumns(data);
+            propertyColumns = columns;
+        }
+        return columns;
+    }
+
+    private static IllegalStateException recordsNotKept(String kind) {
+        return new IllegalStateException("This query needs a scan of the " + kind + " records, which are not kept "
+                + "when loading columnar files or snapshots");
+    }
+
+    /**
+     * Dictionary-coded dimension columns shared by crime and property scans
+     */
+    private abstract static class Columns {
+        final long dataId;
+        final long version;
+        final int[] cells;
+        final double[] latitudes;
+        final double[] longitudes;
+        // Value code + 1 per record for each dimension, and the values by code
+        final int[][] codes = new int[FilterIndex.Dimension.values().length][];
+        final Map<FilterIndex.Dimension, List<String>> names = new EnumMap<>(FilterIndex.Dimension.class);
+
+        Columns(CalculatePixelValue data, int[] cells) {
+            this.dataId = data.getId();
+            this.version = data.getVersion();
+            this.cells = cells;
+            this.latitudes = new double[cells.length];
+            this.longitudes = new double[cells.length];
+        }
+
+        boolean isOf(CalculatePixelValue data) {
+            return dataId == data.getId() && version == data.getVersion();
+        }
+
+        void encode(FilterIndex.Dimension dimension, String[] values) {
+            StringDictionary dictionary = new StringDictionary();
+            int[] dimensionCodes = new int[values.length];
+            for (int i = 0; i < values.length; i++) {
+                dimensionCodes[i] = values[i] == null || values[i].isEmpty() ? 0 : dictionary.encode(values[i]) + 1;
+            }
+            codes[dimension.ordinal()] = dimensionCodes;
+            names.put(dimension, dictionary.values());
+        }
+
+        /**
+         * @return Per filtered dimension, which value codes (minus 1) the query keeps; null for other dimensions
+         */
+        boolean[][] accepted(Query query) {
+            boolean[][] accepted = new boolean[codes.length][];
+            for (Map.Entry<FilterIndex.Dimension, Set<String>> filter : query.filters().entrySet()) {
+                List<String> dimensionNames = names(filter.getKey());
+                boolean[] keep = new boolean[dimensionNames.size()];
+                for (int code = 0; code < keep.length; code++) {
+                    keep[code] = filter.getValue().contains(dimensionNames.get(code));
+                }
+                accepted[filter.getKey().ordinal()] = keep;
+            }
+            return accepted;
+        }
+
+        List<String> names(FilterIndex.Dimension dimension) {
+            return names.get(dimension);
+        }
+
+        boolean matches(boolean[][] accepted, int record) {
+            for (int d = 0; d < accepted.length; d++) {
+                if (accepted[d] != null && codes[d] != null) {
+                    int code = codes[d][record];
+                    if (code == 0 || !accepted[d][code - 1]) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class CrimeColumns extends Columns {
+        final int[] days;
+        // Months since year 0 (year * 12 + month - 1), -1 without a date
+        final int[] months;
+
+        CrimeColumns(CalculatePixelValue data, CrimeClassifier classifier) {
+            super(data, data.getCrimeCells());
+            List<CrimeData> crimes = data.getCrimes();
+            if (crimes.isEmpty() && data.getCrimeIndex().getRecordCount() > 0) {
+                throw recordsNotKept("crime");
+            }
+
+            int size = crimes.size();
+            days = new int[size];
+            months = new int[size];
+            String[] categories = new String[size];
+            String[] groups = new String[size];
+            String[] types = new String[size];
+            String[] simplified = new String[size];
+            String[] monthNames = new String[size];
+            for (int i = 0; i < size; i++) {
+                CrimeData crime = crimes.get(i);
+                CrimeLocation location = crime.getLocation();
+                if (location != null) {
+                    latitudes[i] = location.getLatitude();
+                    longitudes[i] = location.getLongitude();
+                }
+                categories[i] = crime.getOccurrenceCategory();
+                groups[i] = crime.getOccurrenceGroup();
+                types[i] = crime.getOccurrenceTypeGroup();
+                simplified[i] = classifier.classify(categories[i], groups[i], types[i]).getLabel();
+                days[i] = crime.getEpochDayReported();
+                if (days[i] == CrimeData.NO_DATE) {
+                    months[i] = -1;
+                } else {
+                    LocalDate date = LocalDate.ofEpochDay(days[i]);
+                    months[i] = date.getYear() * 12 + date.getMonthValue() - 1;
+                    monthNames[i] = FilterIndex.monthOf(days[i]);
+                }
+            }
+            encode(FilterIndex.Dimension.CATEGORY, categories);
+            encode(FilterIndex.Dimension.GROUP, groups);
+            encode(FilterIndex.Dimension.TYPE, types);
+            encode(FilterIndex.Dimension.SIMPLIFIED, simplified);
+            encode(FilterIndex.Dimension.MONTH, monthNames);
+        }
+    }
+
+    private static final class PropertyColumns extends Columns {
+        static final int CLASSES = 3;
+        final double[] values;
+        final int[][] classCodes = new int[CLASSES][];
+        final int[][] classPercents = new int[CLASSES][];
+        final List<String> classNames;
+
+        PropertyColumns(CalculatePixelValue data) {
+            super(data, data.getPropertyCells());
+            List<PropertyData> properties = data.getProperties();
+            if (properties.isEmpty() && data.getPropertyIndex().getRecordCount() > 0) {
+                throw recordsNotKept("property");
+            }
+
+            int size = properties.size();
+            values = new double[size];
+            String[] wards = new String[size];
+            String[] neighbourhoods = new String[size];
+            StringDictionary classes = new StringDictionary();
+            for (int c = 0; c < CLASSES; c++) {
+                classCodes[c] = new int[size];
+                classPercents[c] = new int[size];
+            }
+            for (int i = 0; i < size; i++) {
+                PropertyData property = properties.get(i);
+                Location location = property.getLocation();
+                if (location != null) {
+                    latitudes[i] = location.getLatitude();
+                    longitudes[i] = location.getLongitude();
+                }
+                Assessment assessment = property.getAssessment();
+                values[i] = assessment.getAssessedValue();
+                wards[i] = property.getNeighbourhood().getWard();
+                neighbourhoods[i] = property.getNeighbourhood().getNeighbourhood();
+                String[] keys = PropertyCube.classKeys(assessment);
+                int[] percents = PropertyCube.classPercents(assessment);
+                for (int c = 0; c < CLASSES; c++) {
+                    classCodes[c][i] = keys[c] == null ? 0 : classes.encode(keys[c]) + 1;
+                    classPercents[c][i] = percents[c];
+                }
+            }
+            encode(FilterIndex.Dimension.WARD, wards);
+            encode(FilterIndex.Dimension.NEIGHBOURHOOD, neighbourhoods);
+            classNames = classes.values();
+            // Class filters are applied through the class shares, not as a single-valued column
+            names.put(FilterIndex.Dimension.ASSESSMENT_CLASS, classNames);
+        }
+    }
+}
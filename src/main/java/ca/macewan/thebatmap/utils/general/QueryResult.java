@@ -0,0 +1,105 @@
+package ca.macewan.thebatmap.utils.general;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Groups and values computed for a query
+ * @param query The query
+ * @param plan How the engine answered it
+ * @param rows One row per non-empty group, by cell for cell groups and by key otherwise
+ * @param cells Cells of the groups in ascending order when grouped by cell, empty otherwise
+ * @param values Value of each of the cells; like cells, shared and not to be modified
+ * @param elapsedNanos Time taken to compute the result (not including cache lookups)
+ */
+public record QueryResult(Query query, Plan plan, List<Row> rows, int[] cells, double[] values, long elapsedNanos) {
+
+    /**
+     * Creates the result of a query grouped by something other than cells
+     */
+    public QueryResult(Query query, Plan plan, List<Row> rows, long elapsedNanos) {
+        this(query, plan, rows, new int[0], new double[0], elapsedNanos);
+    }
+
+    /**
+     * Creates the result of a query grouped by cell from primitive arrays; its rows are only created when read
+     */
+    public static QueryResult ofCells(Query query, Plan plan, int[] cells, double[] values, long elapsedNanos) {
+        return new QueryResult(query, plan, new CellRows(cells, values), cells, values, elapsedNanos);
+    }
+
+    /**
+     * Where the engine got a result from, cheapest first
+     */
+    public enum Plan {
+        /** Roll-up of a crime or property cube */
+        CUBE,
+        /** Bitmap index selection */
+        INDEX,
+        /** Parallel scan of the loaded records */
+        SCAN
+    }
+
+    /**
+     * One group of a result
+     * @param key Group key: the cell index, neighbourhood, ward, month ("2023-05"), year, or "all"
+     * @param cell Cell index when grouped by cell, -1 otherwise
+     * @param value Computed value
+     */
+    public record Row(String key, int cell, double value) {}
+
+    /**
+     * Rows of a cell grouping, read from the cell and value arrays
+     */
+    private static final class CellRows extends AbstractList<Row> implements RandomAccess {
+        private final int[] cells;
+        private final double[] values;
+
+        CellRows(int[] cells, double[] values) {
+            this.cells = cells;
+            this.values = values;
+        }
+
+        @Override
+        public Row get(int index) {
+            return new Row(String.valueOf(cells[index]), cells[index], values[index]);
+        }
+
+        @Override
+        public int size() {
+            return cells.length;
+        }
+    }
+
+    /**
+     * @return Number of groups
+     */
+    public int size() {
+        return rows.size();
+    }
+
+    /**
+     * @return Values keyed by cell; empty unless grouped by cell
+     */
+    public Map<Integer, Double> toCellMap() {
+        Map<Integer, Double> map = new HashMap<>(cells.length * 4 / 3 + 1);
+        for (int i = 0; i < cells.length; i++) {
+            map.put(cells[i], values[i]);
+        }
+        return map;
+    }
+
+    /**
+     * @return Values keyed by group key
+     */
+    public Map<String, Double> toMap() {
+        Map<String, Double> map = new HashMap<>(rows.size() * 4 / 3 + 1);
+        for (Row row : rows) {
+            map.put(row.key(), row.value());
+        }
+        return map;
+    }
+}
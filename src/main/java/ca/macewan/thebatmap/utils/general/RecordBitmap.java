@@ -0,0 +1,470 @@
+package ca.macewan.thebatmap.utils.general;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of record IDs, laid out like a Roaring bitmap.
+ * IDs are split by their upper 16 bits into chunks of 65,536; a chunk with few IDs is stored as a sorted
+ * char array, a denser one as a 1,024-word bit set. Unions and intersections work chunk by chunk, with
+ * word-level bit operations wherever both sides are bit sets.
+ * Immutable, and safe to share between threads.
+ */
+public final class RecordBitmap {
+    // Chunks with more IDs than this are stored as bit sets, the point where both forms take 8 KB
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_MASK = (1 << CHUNK_BITS) - 1;
+    private static final int WORDS = (1 << CHUNK_BITS) / Long.SIZE;
+
+    /** Bitmap without any IDs */
+    public static final RecordBitmap EMPTY = new RecordBitmap(new char[0], new Object[0], new int[0]);
+
+    // Upper 16 bits of the IDs in each chunk, ascending
+    private final char[] keys;
+    // Per chunk, either a sorted char[] of the lower 16 bits or a long[WORDS] bit set
+    private final Object[] chunks;
+    private final int[] cardinalities;
+    private final int cardinality;
+
+    private RecordBitmap(char[] keys, Object[] chunks, int[] cardinalities) {
+        this.keys = keys;
+        this.chunks = chunks;
+        this.cardinalities = cardinalities;
+        int total = 0;
+        for (int count : cardinalities) {
+            total += count;
+        }
+        this.cardinality = total;
+    }
+
+    /**
+     * @param size Number of IDs
+     * @return Bitmap holding every ID from 0 to size - 1
+     */
+    public static RecordBitmap range(int size) {
+        Builder builder = new Builder();
+        for (int id = 0; id < size; id++) {
+            builder.add(id);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return Number of IDs in the bitmap
+     */
+    public int getCardinality() {
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    /**
+     * @param id Record ID, not negative
+     * @return true if the ID is in the bitmap
+     */
+    public boolean contains(int id) {
+        int index = Arrays.binarySearch(keys, (char) (id >>> CHUNK_BITS));
+        if (index < 0) {
+            return false;
+        }
+        char low = (char) (id & CHUNK_MASK);
+        return chunks[index] instanceof long[] words
+                ? (words[low >>> 6] & (1L << low)) != 0
+                : Arrays.binarySearch((char[]) chunks[index], 0, cardinalities[index], low) >= 0;
+    }
+
+    /**
+     * Passes every ID to a consumer, in ascending order
+     * @param consumer Receives the IDs
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            int high = keys[i] << CHUNK_BITS;
+            if (chunks[i] instanceof long[] words) {
+                for (int w = 0; w < WORDS; w++) {
+                    long word = words[w];
+                    while (word != 0) {
+                        consumer.accept(high | w << 6 | Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                char[] values = (char[]) chunks[i];
+                for (int j = 0; j < cardinalities[i]; j++) {
+                    consumer.accept(high | values[j]);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The IDs in ascending order
+     */
+    public int[] toArray() {
+        int[] ids = new int[cardinality];
+        int[] next = {0};
+        forEach(id -> ids[next[0]++] = id);
+        return ids;
+    }
+
+    /**
+     * @param other Bitmap to combine with
+     * @return IDs in this bitmap, the other, or both
+     */
+    public RecordBitmap or(RecordBitmap other) {
+        if (other.isEmpty()) {
+            return this;
+        }
+        if (isEmpty()) {
+            return other;
+        }
+
+        int capacity = keys.length + other.keys.length;
+        char[] resultKeys = new char[capacity];
+        Object[] resultChunks = new Object[capacity];
+        int[] resultCardinalities = new int[capacity];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < keys.length || j < other.keys.length) {
+            if (j == other.keys.length || (i < keys.length && keys[i] < other.keys[j])) {
+                resultKeys[size] = keys[i];
+                resultChunks[size] = chunks[i];
+                resultCardinalities[size] = cardinalities[i];
+                i++;
+            } else if (i == keys.length || other.keys[j] < keys[i]) {
+                resultKeys[size] = other.keys[j];
+                resultChunks[size] = other.chunks[j];
+                resultCardinalities[size] = other.cardinalities[j];
+                j++;
+            } else {
+                long[] words = toWords(chunks[i], cardinalities[i]);
+                int count = orInto(words, other.chunks[j], other.cardinalities[j]);
+                resultKeys[size] = keys[i];
+                resultChunks[size] = count > ARRAY_LIMIT ? words : toValues(words, count);
+                resultCardinalities[size] = count;
+                i++;
+                j++;
+            }
+            size++;
+        }
+        return new RecordBitmap(Arrays.copyOf(resultKeys, size), Arrays.copyOf(resultChunks, size),
+                Arrays.copyOf(resultCardinalities, size));
+    }
+
+    /**
+     * @param other Bitmap to combine with
+     * @return IDs in both this bitmap and the other
+     */
+    public RecordBitmap and(RecordBitmap other) {
+        int capacity = Math.min(keys.length, other.keys.length);
+        char[] resultKeys = new char[capacity];
+        Object[] resultChunks = new Object[capacity];
+        int[] resultCardinalities = new int[capacity];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (other.keys[j] < keys[i]) {
+                j++;
+            } else {
+                Object chunk = andChunks(chunks[i], cardinalities[i], other.chunks[j], other.cardinalities[j]);
+                int count = chunkCardinality(chunk);
+                if (count > 0) {
+                    resultKeys[size] = keys[i];
+                    resultChunks[size] = chunk;
+                    resultCardinalities[size] = count;
+                    size++;
+                }
+                i++;
+                j++;
+            }
+        }
+        return new RecordBitmap(Arrays.copyOf(resultKeys, size), Arrays.copyOf(resultChunks, size),
+                Arrays.copyOf(resultCardinalities, size));
+    }
+
+    /**
+     * @param other Bitmap to compare with
+     * @return Number of IDs in both bitmaps, without building the intersection
+     */
+    public int andCardinality(RecordBitmap other) {
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i < keys.length && j < other.keys.length) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (other.keys[j] < keys[i]) {
+                j++;
+            } else {
+                Object a = chunks[i];
+                Object b = other.chunks[j];
+                if (a instanceof long[] wordsA && b instanceof long[] wordsB) {
+                    for (int w = 0; w < WORDS; w++) {
+                        count += Long.bitCount(wordsA[w] & wordsB[w]);
+                    }
+                } else {
+                    count += chunkCardinality(andChunks(a, cardinalities[i], b, other.cardinalities[j]));
+                }
+                i++;
+                j++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Unions several bitmaps chunk by chunk, so each chunk is combined once rather than once per bitmap
+     * @param bitmaps Bitmaps to combine
+     * @return IDs in any of the bitmaps
+     */
+    public static RecordBitmap or(List<RecordBitmap> bitmaps) {
+        if (bitmaps.isEmpty()) {
+            return EMPTY;
+        }
+        if (bitmaps.size() == 1) {
+            return bitmaps.getFirst();
+        }
+
+        // Every chunk key of the inputs, ascending
+        char[] allKeys = new char[0];
+        for (RecordBitmap bitmap : bitmaps) {
+            allKeys = mergeKeys(allKeys, bitmap.keys);
+        }
+
+        Object[] resultChunks = new Object[allKeys.length];
+        int[] resultCardinalities = new int[allKeys.length];
+        int[] positions = new int[bitmaps.size()];
+        for (int k = 0; k < allKeys.length; k++) {
+            long[] words = new long[WORDS];
+            for (int b = 0; b < bitmaps.size(); b++) {
+                RecordBitmap bitmap = bitmaps.get(b);
+                int position = positions[b];
+                if (position < bitmap.keys.length && bitmap.keys[position] == allKeys[k]) {
+                    orInto(words, bitmap.chunks[position], bitmap.cardinalities[position]);
+                    positions[b]++;
+                }
+            }
+            int count = 0;
+            for (long word : words) {
+                count += Long.bitCount(word);
+            }
+            resultChunks[k] = count > ARRAY_LIMIT ? words : toValues(words, count);
+            resultCardinalities[k] = count;
+        }
+        return new RecordBitmap(allKeys, resultChunks, resultCardinalities);
+    }
+
+    /**
+     * @return Approximate heap bytes held by the chunks
+     */
+    public long byteSize() {
+        long bytes = keys.length * (Character.BYTES + Integer.BYTES + 8L);
+        for (Object chunk : chunks) {
+            bytes += chunk instanceof long[] words ? (long) words.length * Long.BYTES
+                    : (long) ((char[]) chunk).length * Character.BYTES;
+        }
+        return bytes;
+    }
+
+    private static Object andChunks(Object a, int countA, Object b, int countB) {
+        if (a instanceof long[] wordsA && b instanceof long[] wordsB) {
+            long[] words = new long[WORDS];
+            int count = 0;
+            for (int w = 0; w < WORDS; w++) {
+                words[w] = wordsA[w] & wordsB[w];
+                count += Long.bitCount(words[w]);
+            }
+            return count > ARRAY_LIMIT ? words : toValues(words, count);
+        }
+        if (a instanceof long[] words) {
+            return filter((char[]) b, countB, words);
+        }
+        if (b instanceof long[] words) {
+            return filter((char[]) a, countA, words);
+        }
+
+        // Both sorted arrays: merge
+        char[] valuesA = (char[]) a;
+        char[] valuesB = (char[]) b;
+        char[] result = new char[Math.min(countA, countB)];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < countA && j < countB) {
+            if (valuesA[i] < valuesB[j]) {
+                i++;
+            } else if (valuesB[j] < valuesA[i]) {
+                j++;
+            } else {
+                result[size++] = valuesA[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * @return The values that are set in the bit set
+     */
+    private static char[] filter(char[] values, int count, long[] words) {
+        char[] result = new char[count];
+        int size = 0;
+        for (int i = 0; i < count; i++) {
+            char value = values[i];
+            if ((words[value >>> 6] & (1L << value)) != 0) {
+                result[size++] = value;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    private static int chunkCardinality(Object chunk) {
+        if (chunk instanceof long[] words) {
+            int count = 0;
+            for (long word : words) {
+                count += Long.bitCount(word);
+            }
+            return count;
+        }
+        return ((char[]) chunk).length;
+    }
+
+    /**
+     * ORs a chunk into a bit set
+     * @return Number of bits set afterwards
+     */
+    private static int orInto(long[] words, Object chunk, int count) {
+        if (chunk instanceof long[] other) {
+            for (int w = 0; w < WORDS; w++) {
+                words[w] |= other[w];
+            }
+        } else {
+            char[] values = (char[]) chunk;
+            for (int i = 0; i < count; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+        }
+        int total = 0;
+        for (long word : words) {
+            total += Long.bitCount(word);
+        }
+        return total;
+    }
+
+    private static long[] toWords(Object chunk, int count) {
+        if (chunk instanceof long[] words) {
+            return words.clone();
+        }
+        long[] words = new long[WORDS];
+        orInto(words, chunk, count);
+        return words;
+    }
+
+    private static char[] toValues(long[] words, int count) {
+        char[] values = new char[count];
+        int size = 0;
+        for (int w = 0; w < WORDS; w++) {
+            long word = words[w];
+            while (word != 0) {
+                values[size++] = (char) (w << 6 | Long.numberOfTrailingZeros(word));
+                word &= word - 1;
+            }
+        }
+        return values;
+    }
+
+    private static char[] mergeKeys(char[] a, char[] b) {
+        char[] result = new char[a.length + b.length];
+        int size = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            char next;
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                next = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                next = b[j++];
+            } else {
+                next = a[i++];
+                j++;
+            }
+            result[size++] = next;
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Collects IDs in ascending order. Not thread-safe.
+     */
+    public static final class Builder {
+        private char[] keys = new char[4];
+        private Object[] chunks = new Object[4];
+        private int[] cardinalities = new int[4];
+        private int size;
+        private int last = -1;
+
+        /**
+         * @param id Record ID, greater than any ID added before
+         */
+        public void add(int id) {
+            if (id <= last) {
+                throw new IllegalArgumentException("IDs must be added in ascending order: " + id + " after " + last);
+            }
+            last = id;
+
+            char key = (char) (id >>> CHUNK_BITS);
+            if (size == 0 || keys[size - 1] != key) {
+                if (size == keys.length) {
+                    keys = Arrays.copyOf(keys, size * 2);
+                    chunks = Arrays.copyOf(chunks, size * 2);
+                    cardinalities = Arrays.copyOf(cardinalities, size * 2);
+                }
+                keys[size] = key;
+                chunks[size] = new char[16];
+                size++;
+            }
+
+            int chunk = size - 1;
+            char low = (char) (id & CHUNK_MASK);
+            int count = cardinalities[chunk];
+            if (chunks[chunk] instanceof long[] words) {
+                words[low >>> 6] |= 1L << low;
+            } else {
+                char[] values = (char[]) chunks[chunk];
+                if (count == ARRAY_LIMIT) {
+                    long[] words = toWords(values, count);
+                    words[low >>> 6] |= 1L << low;
+                    chunks[chunk] = words;
+                } else {
+                    if (count == values.length) {
+                        values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, count * 2));
+                        chunks[chunk] = values;
+                    }
+                    values[count] = low;
+                }
+            }
+            cardinalities[chunk] = count + 1;
+        }
+
+        /**
+         * @return Bitmap of the IDs added so far
+         */
+        public RecordBitmap build() {
+            Object[] built = new Object[size];
+            for (int i = 0; i < size; i++) {
+                built[i] = chunks[i] instanceof char[] values
+                        ? Arrays.copyOf(values, cardinalities[i]) : ((long[]) chunks[i]).clone();
+            }
+            return new RecordBitmap(Arrays.copyOf(keys, size), built, Arrays.copyOf(cardinalities, size));
+        }
+    }
+}
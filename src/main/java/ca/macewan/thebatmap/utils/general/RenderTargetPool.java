@@ -0,0 +1,72 @@
+package ca.macewan.thebatmap.utils.general;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small pool of equally sized ARGB images used as render targets.
+ * Images are created on demand up to the pool capacity; once all of them are leased,
+ * further requests wait for one to be released instead of allocating another.
+ */
+public class RenderTargetPool {
+    private final int width;
+    private final int height;
+    private final int capacity;
+    private final BlockingQueue<BufferedImage> idle;
+    private final AtomicInteger created = new AtomicInteger();
+
+    /**
+     * @param width Image width in pixels
+     * @param height Image height in pixels
+     * @param capacity Maximum number of images that may exist at once
+     */
+    public RenderTargetPool(int width, int height, int capacity) {
+        this.width = width;
+        this.height = height;
+        this.capacity = capacity;
+        this.idle = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Leases an image from the pool. The image contents are undefined and must be cleared by the caller.
+     * @return An image that must be handed back with {@link #release(BufferedImage)}
+     * @throws InterruptedException If interrupted while waiting for a free image
+     */
+    public BufferedImage acquire() throws InterruptedException {
+        BufferedImage image = idle.poll();
+        if (image != null) {
+            return image;
+        }
+
+        // Create a new image if the pool has not reached capacity yet
+        int count = created.get();
+        while (count < capacity) {
+            if (created.compareAndSet(count, count + 1)) {
+                return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            }
+            count = created.get();
+        }
+        return idle.take();
+    }
+
+    /**
+     * Returns a leased image to the pool
+     * @param image Image obtained from {@link #acquire()}
+     */
+    public void release(BufferedImage image) {
+        if (image.getWidth() != width || image.getHeight() != height || !idle.offer(image)) {
+            throw new IllegalArgumentException("Image does not belong to this pool");
+        }
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    /**
+     * @return Number of images allocated so far
+     */
+    public int getCreatedCount() { return created.get(); }
+}
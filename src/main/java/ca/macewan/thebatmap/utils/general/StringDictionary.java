@@ -0,0 +1,68 @@
+package ca.macewan.thebatmap.utils.general;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Assigns dense integer codes to distinct strings, in order of first appearance.
+ * Thread-safe; codes never change once assigned.
+ */
+public class StringDictionary {
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    /**
+     * Returns the code of a string, assigning the next free code if it is new
+     * @param value The string to encode, not null
+     * @return Its code, from 0
+     */
+    public int encode(String value) {
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        synchronized (values) {
+            return codes.computeIfAbsent(value, v -> {
+                values.add(v);
+                return values.size() - 1;
+            });
+        }
+    }
+
+    /**
+     * @param value The string to look up
+     * @return Its code, or -1 if it has not been encoded
+     */
+    public int find(String value) {
+        Integer code = value == null ? null : codes.get(value);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @param code A code returned by {@link #encode(String)}
+     * @return The string it stands for
+     */
+    public String decode(int code) {
+        synchronized (values) {
+            return values.get(code);
+        }
+    }
+
+    /**
+     * @return Number of distinct strings encoded
+     */
+    public int size() {
+        return codes.size();
+    }
+
+    /**
+     * @return The encoded strings, indexed by code
+     */
+    public List<String> values() {
+        synchronized (values) {
+            return List.copyOf(values);
+        }
+    }
+}
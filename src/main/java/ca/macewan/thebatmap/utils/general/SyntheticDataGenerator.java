@@ -0,0 +1,321 @@
+package ca.macewan.thebatmap.utils.general;
+
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generates synthetic crime and property CSVs in the formats ParseCrime and ParseProperties read,
+ * for stress testing the pipeline at volumes well beyond the bundled sample data.
+ * Records cluster around neighbourhood centres inside the map bounds, categories follow a Zipf distribution,
+ * and the output is fully determined by the seed.
+ */
+public class SyntheticDataGenerator {
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final double ZIPF_EXPONENT = 1.1;
+
+    // Share of records scattered uniformly instead of around a neighbourhood
+    private static final double BACKGROUND_SHARE = 0.05;
+
+    // Dates are spread over this range, weighted towards recent years
+    private static final LocalDate FIRST_DATE = LocalDate.of(2019, 1, 1);
+    private static final int DATE_SPAN_DAYS = 6 * 365;
+
+    // Crime taxonomy: {category, group, type}, most common first
+    private static final String[][] CRIME_TYPES = {
+            {"Property", "Property", "Theft From Vehicle"},
+            {"Disorder", "General Disorder", "Disturbance"},
+            {"Property", "Property", "Theft Under $5000"},
+            {"Property", "Property", "Break and Enter"},
+            {"Violent", "Personal Violence", "Assault"},
+            {"Property", "Property", "Property Damage"},
+            {"Disorder", "General Disorder", "Suspicious Person"},
+            {"Property", "Property", "Theft Of Motor Vehicle"},
+            {"Disorder", "General Disorder", "Trespassing"},
+            {"Disorder", "General Disorder", "Intoxicated Person"},
+            {"Violent", "Personal Violence", "Robbery"},
+            {"Disorder", "Drugs", "Drugs"},
+            {"Disorder", "Other Disorder", "Fraud"},
+            {"Weapons", "Weapons", "Weapons Complaint"},
+            {"Property", "Property", "Arson"},
+            {"Violent", "Personal Violence", "Sexual Assault"},
+            {"Traffic", "Traffic", "Impaired Driving"},
+            {"Violent", "Personal Violence", "Homicide"},
+    };
+
+    private static final String[] WARDS = {
+            "Anirniq", "Dene", "Ipiihkoohkanipiaohtsi", "Karhiio", "Métis", "Nakota Isga",
+            "O-day'min", "papastew", "pihêsiwin", "Sipiwiyiniwak", "Sspomitapi", "tastawiyiniwak"};
+
+    private static final String[] NEIGHBOURHOOD_NAMES = {
+            "DOWNTOWN", "OLIVER", "GARNEAU", "STRATHCONA", "GLENORA", "BONNIE DOON", "RITCHIE", "BELGRAVIA",
+            "MILL WOODS TOWN CENTRE", "CALLINGWOOD NORTH", "CASTLE DOWNS", "CLAREVIEW TOWN CENTRE", "ALLENDALE",
+            "BOYLE STREET", "MCCAULEY", "QUEEN MARY PARK", "WESTMOUNT", "INGLEWOOD", "ALBERTA AVENUE", "BEVERLY HEIGHTS",
+            "CAPILANO", "FOREST HEIGHTS", "RIVERDALE", "CLOVERDALE", "LAUDERDALE", "KENSINGTON", "TERWILLEGAR TOWNE",
+            "SUMMERSIDE", "WINDERMERE", "GRIESBACH", "LAUREL", "RUTHERFORD", "MEADOWLARK PARK", "JASPER PARK",
+            "LYNNWOOD", "PARKVIEW", "CRESTWOOD", "HIGHLANDS", "HAZELDEAN", "KING EDWARD PARK"};
+
+    // Assessment classes, most common first, and the share of properties split across two classes
+    private static final String[] ASSESSMENT_CLASSES = {"RESIDENTIAL", "OTHER RESIDENTIAL", "COMMERCIAL", "FARMLAND"};
+    private static final double MIXED_CLASS_SHARE = 0.08;
+
+    private static final String[] STREET_TYPES = {"AVENUE NW", "STREET NW", "AVENUE SW", "STREET SW"};
+    private static final int INTERSECTIONS = 4096;
+
+    private final GridSpec grid;
+    private final long seed;
+
+    // Neighbourhood centres, spreads and typical assessed values
+    private final double[] centreLat;
+    private final double[] centreLon;
+    private final double[] spreadLat;
+    private final double[] spreadLon;
+    private final double[] medianValue;
+    private final String[] neighbourhoodWard;
+
+    private final double[] neighbourhoodCdf;
+    private final double[] crimeTypeCdf;
+    private final double[] assessmentClassCdf;
+
+    // Prebuilt text fields, so rows are written without building strings
+    private final String[] streets;
+    private final String[] intersections;
+    private final String[] dates;
+
+    /**
+     * Creates a generator for the bundled map area
+     * @param seed Random seed; the same seed always produces the same files
+     */
+    public SyntheticDataGenerator(long seed) {
+        this(seed, CoordinateToPixel.getMapGrid());
+    }
+
+    /**
+     * Creates a generator for the area covered by a grid
+     * @param seed Random seed; the same seed always produces the same files
+     * @param grid Grid whose extent the records are placed in
+     */
+    public SyntheticDataGenerator(long seed, GridSpec grid) {
+        this.grid = grid;
+        this.seed = seed;
+
+        SplittableRandom random = new SplittableRandom(seed);
+        int neighbourhoods = NEIGHBOURHOOD_NAMES.length;
+        double latRange = grid.getTopLeftLat() - grid.getBottomRightLat();
+        double lonRange = grid.getBottomRightLon() - grid.getTopLeftLon();
+
+        centreLat = new double[neighbourhoods];
+        centreLon = new double[neighbourhoods];
+        spreadLat = new double[neighbourhoods];
+        spreadLon = new double[neighbourhoods];
+        medianValue = new double[neighbourhoods];
+        neighbourhoodWard = new String[neighbourhoods];
+        for (int i = 0; i < neighbourhoods; i++) {
+            // Keep centres away from the edges so most of each cluster lands on the map
+            centreLat[i] = grid.getBottomRightLat() + latRange * (0.1 + 0.8 * random.nextDouble());
+            centreLon[i] = grid.getTopLeftLon() + lonRange * (0.1 + 0.8 * random.nextDouble());
+            spreadLat[i] = latRange * (0.01 + 0.03 * random.nextDouble());
+            spreadLon[i] = lonRange * (0.01 + 0.03 * random.nextDouble());
+            medianValue[i] = 250_000 + 600_000 * random.nextDouble();
+            neighbourhoodWard[i] = WARDS[random.nextInt(WARDS.length)];
+        }
+
+        neighbourhoodCdf = zipfCdf(neighbourhoods);
+        crimeTypeCdf = zipfCdf(CRIME_TYPES.length);
+        assessmentClassCdf = zipfCdf(ASSESSMENT_CLASSES.length);
+
+        streets = new String[200 * STREET_TYPES.length];
+        for (int i = 0; i < streets.length; i++) {
+            streets[i] = (50 + i / STREET_TYPES.length) + " " + STREET_TYPES[i % STREET_TYPES.length];
+        }
+        intersections = new String[INTERSECTIONS];
+        for (int i = 0; i < INTERSECTIONS; i++) {
+            intersections[i] = (50 + random.nextInt(150)) + " AVENUE NW & " + (50 + random.nextInt(200)) + " STREET NW";
+        }
+        dates = new String[DATE_SPAN_DAYS];
+        for (int i = 0; i < DATE_SPAN_DAYS; i++) {
+            LocalDate date = FIRST_DATE.plusDays(i);
+            dates[i] = String.format("%04d/%02d/%02d", date.getYear(), date.getMonthValue(), date.getDayOfMonth());
+        }
+    }
+
+    /**
+     * Writes a crime statistics CSV
+     * @param file Destination file
+     * @param rows Number of crimes to write
+     * @throws IOException If an I/O error occurs
+     */
+    public void writeCrimes(Path file, long rows) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed ^ 0x5DEECE66DL);
+        double[] location = new double[2];
+        Projection mercator = WebMercatorProjection.INSTANCE;
+
+        try (CsvWriter writer = open(file)) {
+            writer.field("Occurrence_Category").field("Occurrence_Group").field("Occurrence_Type_Group")
+                    .field("Intersection").field("OBJECTID").field("Date Reported").field("x").field("y").endRow();
+
+            for (long id = 1; id <= rows; id++) {
+                String[] crime = CRIME_TYPES[sample(crimeTypeCdf, random)];
+                randomLocation(random, location);
+
+                writer.field(crime[0]).field(crime[1]).field(crime[2])
+                        .field(intersections[random.nextInt(INTERSECTIONS)])
+                        .field(id)
+                        .field(dates[randomDay(random)]);
+                // Crime coordinates are published in Web Mercator meters
+                writer.field(mercator.projectX(location[1]), 2)
+                        .field(mercator.projectY(location[0]), 2)
+                        .endRow();
+            }
+        }
+    }
+
+    /**
+     * Writes a property assessment CSV
+     * @param file Destination file
+     * @param rows Number of properties to write
+     * @throws IOException If an I/O error occurs
+     */
+    public void writeProperties(Path file, long rows) throws IOException {
+        SplittableRandom random = new SplittableRandom(seed ^ 0x2545F4914F6CDD1DL);
+        double[] location = new double[2];
+
+        try (CsvWriter writer = open(file)) {
+            writer.field("Account Number").field("House Number").field("Street Name").field("Neighbourhood")
+                    .field("Ward").field("Latitude").field("Longitude").field("Assessed Value")
+                    .field("Assessment Class % 1").field("Assessment Class % 2").field("Assessment Class % 3")
+                    .field("Assessment Class 1").field("Assessment Class 2").field("Assessment Class 3").endRow();
+
+            for (long id = 1; id <= rows; id++) {
+                int neighbourhood = randomLocation(random, location);
+                // Properties always belong to a neighbourhood, even when scattered
+                if (neighbourhood < 0) {
+                    neighbourhood = random.nextInt(NEIGHBOURHOOD_NAMES.length);
+                }
+                double value = medianValue[neighbourhood] * Math.exp(0.45 * random.nextGaussian());
+
+                writer.field(10_000_000 + id)
+                        .field(1 + random.nextInt(20_000))
+                        .field(streets[random.nextInt(streets.length)])
+                        .field(NEIGHBOURHOOD_NAMES[neighbourhood])
+                        .field(neighbourhoodWard[neighbourhood])
+                        .field(location[0], 6)
+                        .field(location[1], 6)
+                        .field(Math.round(value / 500.0) * 500);
+
+                int firstClass = sample(assessmentClassCdf, random);
+                if (random.nextDouble() < MIXED_CLASS_SHARE) {
+                    int secondClass = (firstClass + 1 + random.nextInt(ASSESSMENT_CLASSES.length - 1)) % ASSESSMENT_CLASSES.length;
+                    int firstPercent = 10 * (5 + random.nextInt(5));
+                    writer.field(firstPercent).field(100 - firstPercent).emptyField()
+                            .field(ASSESSMENT_CLASSES[firstClass]).field(ASSESSMENT_CLASSES[secondClass]).emptyField();
+                } else {
+                    writer.field(100).emptyField().emptyField()
+                            .field(ASSESSMENT_CLASSES[firstClass]).emptyField().emptyField();
+                }
+                writer.endRow();
+            }
+        }
+    }
+
+    /**
+     * Opens a CSV writer, gzip-compressing the output if the file name ends with FileUtils.GZIP_SUFFIX
+     */
+    private static CsvWriter open(Path file) throws IOException {
+        if (file.getFileName().toString().endsWith(FileUtils.GZIP_SUFFIX)) {
+            return new CsvWriter(Channels.newChannel(new GZIPOutputStream(Files.newOutputStream(file), BUFFER_SIZE)),
+                    BUFFER_SIZE);
+        }
+        return new CsvWriter(FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING), BUFFER_SIZE);
+    }
+
+    /**
+     * Picks a location inside the grid, clustered around a Zipf-weighted neighbourhood
+     * @param location Receives {latitude, longitude}
+     * @return The neighbourhood the location was drawn around, or -1 for background noise
+     */
+    private int randomLocation(SplittableRandom random, double[] location) {
+        if (random.nextDouble() < BACKGROUND_SHARE) {
+            location[0] = grid.getBottomRightLat() + random.nextDouble() * (grid.getTopLeftLat() - grid.getBottomRightLat());
+            location[1] = grid.getTopLeftLon() + random.nextDouble() * (grid.getBottomRightLon() - grid.getTopLeftLon());
+            return -1;
+        }
+
+        int neighbourhood = sample(neighbourhoodCdf, random);
+        do {
+            location[0] = centreLat[neighbourhood] + spreadLat[neighbourhood] * random.nextGaussian();
+            location[1] = centreLon[neighbourhood] + spreadLon[neighbourhood] * random.nextGaussian();
+        } while (grid.outOfBounds(location[0], location[1]));
+        return neighbourhood;
+    }
+
+    private static int randomDay(SplittableRandom random) {
+        // Square root skews the spread towards the end of the range
+        return (int) (DATE_SPAN_DAYS * Math.sqrt(random.nextDouble()));
+    }
+
+    /**
+     * Builds the cumulative distribution of a Zipf distribution over ranks 1..n
+     */
+    private static double[] zipfCdf(int n) {
+        double[] cdf = new double[n];
+        double total = 0;
+        for (int rank = 1; rank <= n; rank++) {
+            total += 1.0 / Math.pow(rank, ZIPF_EXPONENT);
+            cdf[rank - 1] = total;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= total;
+        }
+        return cdf;
+    }
+
+    private static int sample(double[] cdf, SplittableRandom random) {
+        int index = Arrays.binarySearch(cdf, random.nextDouble());
+        return Math.min(cdf.length - 1, index >= 0 ? index + 1 : -index - 1);
+    }
+
+    /**
+     * Generates a crime and a property file
+     * @param args [crime rows] [property rows] [seed] [output directory] [gz to compress the files]
+     */
+    public static void main(String[] args) {
+        long crimeRows = args.length > 0 ? Long.parseLong(args[0]) : 1_000_000;
+        long propertyRows = args.length > 1 ? Long.parseLong(args[1]) : 1_000_000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 305;
+        Path outputDir = Paths.get(args.length > 3 ? args[3] : "synthetic-data");
+        String suffix = args.length > 4 && args[4].equals("gz") ? FileUtils.GZIP_SUFFIX : "";
+
+        try {
+            Files.createDirectories(outputDir);
+            SyntheticDataGenerator generator = new SyntheticDataGenerator(seed);
+
+            long start = System.nanoTime();
+            generator.writeCrimes(outputDir.resolve("crime_stats.csv" + suffix), crimeRows);
+            report("crimes", crimeRows, start);
+
+            start = System.nanoTime();
+            generator.writeProperties(outputDir.resolve("property_data.csv" + suffix), propertyRows);
+            report("properties", propertyRows, start);
+
+            System.out.println("Synthetic data written to: " + outputDir.toAbsolutePath());
+        } catch (IOException e) {
+            System.err.println("Error generating synthetic data: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static void report(String name, long rows, long startNanos) {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        System.out.printf("Generated %,d %s in %.2f s (%,.0f rows/s)%n", rows, name, seconds, rows / seconds);
+    }
+}
@@ -0,0 +1,75 @@
+package ca.macewan.thebatmap.utils.general;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vector API implementation of the ColorMapper ramps.
+ * Only loaded when the jdk.incubator.vector module is present; each method processes whole vectors
+ * and returns the index where the scalar loop in ColorMapper should pick up the tail.
+ */
+final class VectorColorMapper {
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    // Int species with the same lane count as DOUBLES
+    private static final VectorSpecies<Integer> INTS =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+
+    private VectorColorMapper() {}
+
+    static int mapHeat(double[] values, int length, double upperBound, int[] argb) {
+        int bound = DOUBLES.loopBound(length);
+        double scale = 2.0 / upperBound;
+        IntVector alpha = IntVector.broadcast(INTS, ColorMapper.HEAT_ALPHA << 24);
+
+        for (int i = 0; i < bound; i += DOUBLES.length()) {
+            DoubleVector t = DoubleVector.fromArray(DOUBLES, values, i).mul(scale).max(0.0).min(2.0);
+            DoubleVector r = t.min(1.0).mul(255.0);
+            DoubleVector g = t.min(t.neg().add(2.0)).mul(255.0);
+            DoubleVector b = t.neg().add(1.0).max(0.0).mul(255.0);
+            pack(alpha, r, g, b).intoArray(argb, i);
+        }
+        return bound;
+    }
+
+    static int mapCorrelation(double[] values, int length, int[] argb) {
+        int bound = DOUBLES.loopBound(length);
+        IntVector alpha = IntVector.broadcast(INTS, ColorMapper.CORRELATION_ALPHA << 24);
+
+        for (int i = 0; i < bound; i += DOUBLES.length()) {
+            DoubleVector p = DoubleVector.fromArray(DOUBLES, values, i).max(-1.0).min(1.0);
+            VectorMask<Double> positive = p.compare(VectorOperators.GT, 0.0);
+            DoubleVector r = p.neg().max(0.0).mul(255.0);
+            DoubleVector g = p.add(1.0).blend(p, positive).mul(255.0);
+            DoubleVector b = DoubleVector.zero(DOUBLES).blend(p.neg().add(1.0).mul(255.0), positive);
+            pack(alpha, r, g, b).intoArray(argb, i);
+        }
+        return bound;
+    }
+
+    static int normalize(double[] values, int length, double min, double max) {
+        int bound = DOUBLES.loopBound(length);
+        double scale = 1.0 / (max - min);
+
+        for (int i = 0; i < bound; i += DOUBLES.length()) {
+            DoubleVector.fromArray(DOUBLES, values, i).sub(min).mul(scale).max(0.0).min(1.0)
+                    .intoArray(values, i);
+        }
+        return bound;
+    }
+
+    /**
+     * Truncates the channels to ints and packs them into ARGB lanes
+     */
+    private static IntVector pack(IntVector alpha, DoubleVector r, DoubleVector g, DoubleVector b) {
+        IntVector ri = (IntVector) r.convertShape(VectorOperators.D2I, INTS, 0);
+        IntVector gi = (IntVector) g.convertShape(VectorOperators.D2I, INTS, 0);
+        IntVector bi = (IntVector) b.convertShape(VectorOperators.D2I, INTS, 0);
+        return alpha.or(ri.lanewise(VectorOperators.LSHL, 16))
+                .or(gi.lanewise(VectorOperators.LSHL, 8))
+                .or(bi);
+    }
+}
@@ -0,0 +1,31 @@
+package ca.macewan.thebatmap.utils.general;
+
+/**
+ * Spherical (Web) Mercator projection, as used by most web base maps (EPSG:3857).
+ * Planar coordinates are in meters.
+ */
+public class WebMercatorProjection implements Projection {
+    public static final WebMercatorProjection INSTANCE = new WebMercatorProjection();
+
+    private static final double RADIUS = 6378137.0;
+
+    @Override
+    public double projectX(double longitude) {
+        return RADIUS * Math.toRadians(longitude);
+    }
+
+    @Override
+    public double projectY(double latitude) {
+        return RADIUS * Math.log(Math.tan(Math.PI / 4.0 + Math.toRadians(latitude) / 2.0));
+    }
+
+    @Override
+    public double unprojectX(double x) {
+        return Math.toDegrees(x / RADIUS);
+    }
+
+    @Override
+    public double unprojectY(double y) {
+        return Math.toDegrees(2.0 * Math.atan(Math.exp(y / RADIUS)) - Math.PI / 2.0);
+    }
+}
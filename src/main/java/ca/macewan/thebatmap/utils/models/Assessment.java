@@ -28,6 +28,18 @@ public class Assessment {
 
     public String getAssessment3() { return this.assessmentClass3 + " " + this.assessmentClass3Percent + "%"; }
 
+    public String getAssessmentClass1() { return this.assessmentClass1; }
+
+    public String getAssessmentClass2() { return this.assessmentClass2; }
+
+    public String getAssessmentClass3() { return this.assessmentClass3; }
+
+    public int getAssessmentClass1Percent() { return this.assessmentClass1Percent; }
+
+    public int getAssessmentClass2Percent() { return this.assessmentClass2Percent; }
+
+    public int getAssessmentClass3Percent() { return this.assessmentClass3Percent; }
+
     @Override
     public String toString() {
         StringBuilder assessmentCombined = new StringBuilder();
@@ -6,12 +6,16 @@ import java.time.LocalDate;
  * Model class representing crime statistics data
  */
 public class CrimeData {
+    // Epoch day of a crime without a (valid) report date
+    public static final int NO_DATE = Integer.MIN_VALUE;
+
     private String occurrenceCategory;
     private String occurrenceGroup;
     private String occurrenceTypeGroup;
     private String intersection;
     private int objectId;
-    private LocalDate dateReported;
+    // Days since 1970-01-01, or NO_DATE
+    private int epochDayReported = NO_DATE;
     private CrimeLocation location;
 
     // Getters and setters
@@ -55,12 +59,26 @@ public class CrimeData {
         this.objectId = objectId;
     }
 
+    /**
+     * @return Report date, or null if the crime has none
+     */
     public LocalDate getDateReported() {
-        return dateReported;
+        return epochDayReported == NO_DATE ? null : LocalDate.ofEpochDay(epochDayReported);
     }
 
     public void setDateReported(LocalDate dateReported) {
-        this.dateReported = dateReported;
+        this.epochDayReported = dateReported == null ? NO_DATE : (int) dateReported.toEpochDay();
+    }
+
+    /**
+     * @return Report date as days since 1970-01-01, or NO_DATE if the crime has none
+     */
+    public int getEpochDayReported() {
+        return epochDayReported;
+    }
+
+    public void setEpochDayReported(int epochDayReported) {
+        this.epochDayReported = epochDayReported;
     }
 
     public void setLocation(double x, double y) { this.location = new CrimeLocation(x, y); }
@@ -74,7 +92,7 @@ public class CrimeData {
                 ", occurrenceGroup='" + occurrenceGroup + '\'' +
                 ", occurrenceTypeGroup='" + occurrenceTypeGroup + '\'' +
                 ", intersection='" + intersection + '\'' +
-                ", dateReported=" + dateReported +
+                ", dateReported=" + getDateReported() +
                 '}';
     }
 }
\ No newline at end of file
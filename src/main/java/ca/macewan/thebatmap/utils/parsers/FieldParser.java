@@ -0,0 +1,288 @@
+package ca.macewan.thebatmap.utils.parsers;
+
+import ca.macewan.thebatmap.utils.general.MetricsRegistry;
+import ca.macewan.thebatmap.utils.models.CrimeData;
+
+import java.nio.file.Path;
+
+/**
+ * Parses numeric and date fields straight from characters into primitives, without creating strings
+ * or throwing on bad input. Missing (empty) fields return the given default; malformed fields also return it
+ * and are counted, so callers can report how much of a file could not be read.
+ * Not thread-safe; use one parser per file.
+ */
+public class FieldParser {
+    // Returned by parseEpochDay for missing or malformed dates
+    public static final int NO_DATE = CrimeData.NO_DATE;
+
+    // Digits a long holds without overflow, and the largest mantissa a double represents exactly
+    private static final int MAX_DIGITS = 18;
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+    private static final int[] DAYS_BEFORE_MONTH = {0, 31, 59, 90, 120, 151, 181, 212, 243, 273, 304, 334};
+    private static final int DAYS_0000_TO_1970 = 719_528;
+
+    private long badValues;
+    // Only used when a number has to go through Double.parseDouble
+    private final StringBuilder fallback = new StringBuilder();
+
+    /**
+     * @return Number of malformed values seen by this parser
+     */
+    public long getBadValueCount() {
+        return badValues;
+    }
+
+    /**
+     * Adds the malformed values this parser skipped to a counter, and mentions them on the console
+     * @param counter Name of the MetricsRegistry counter
+     * @param filePath File the values were read from
+     */
+    public void reportBadValues(String counter, Path filePath) {
+        if (badValues > 0) {
+            MetricsRegistry.count(counter, badValues);
+            System.out.println("Skipped " + badValues + " malformed values in " + filePath.getFileName());
+        }
+    }
+
+    /**
+     * Parses a decimal number, ignoring a leading '$', thousands separators and surrounding quotes,
+     * e.g. "$1,234,500.50" or "-113.4938"
+     * @param text Field value, may be null
+     * @param missing Value returned for a missing or malformed field
+     * @return The parsed value
+     */
+    public double parseDecimal(CharSequence text, double missing) {
+        return text == null ? missing : parseDecimal(text, 0, text.length(), missing);
+    }
+
+    /**
+     * Parses a decimal number from part of a character sequence
+     * @param text Characters to read
+     * @param start Index of the first character
+     * @param end Index after the last character
+     * @param missing Value returned for a missing or malformed field
+     * @return The parsed value
+     */
+    public double parseDecimal(CharSequence text, int start, int end, double missing) {
+        // Surrounding quotes and blanks
+        while (start < end && (text.charAt(start) == '"' || text.charAt(start) == ' ')) {
+            start++;
+        }
+        while (end > start && (text.charAt(end - 1) == '"' || text.charAt(end - 1) == ' ')) {
+            end--;
+        }
+        if (start == end) {
+            return missing;
+        }
+
+        int i = start;
+        boolean negative = false;
+        if (text.charAt(i) == '-' || text.charAt(i) == '+') {
+            negative = text.charAt(i) == '-';
+            i++;
+        }
+        if (i < end && text.charAt(i) == '$') {
+            i++;
+        }
+
+        long mantissa = 0;
+        // Significant digits in the mantissa, leading zeros don't count
+        int digits = 0;
+        int decimals = 0;
+        boolean anyDigit = false;
+        boolean seenPoint = false;
+        boolean exact = true;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c >= '0' && c <= '9') {
+                anyDigit = true;
+                if (digits < MAX_DIGITS) {
+                    mantissa = mantissa * 10 + (c - '0');
+                    if (mantissa > 0) {
+                        digits++;
+                    }
+                    if (seenPoint) {
+                        decimals++;
+                    }
+                } else {
+                    exact = false;
+                }
+            } else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            } else if (c == ',' && !seenPoint) {
+                // Thousands separator
+            } else if (c == 'e' || c == 'E') {
+                exact = false;
+                break;
+            } else {
+                badValues++;
+                return missing;
+            }
+        }
+
+        if (!exact || mantissa >= MAX_EXACT_MANTISSA || decimals >= POWERS_OF_TEN.length) {
+            return parseSlow(text, start, end, missing);
+        }
+        if (!anyDigit) {
+            badValues++;
+            return missing;
+        }
+
+        // Both operands are exact, so one division gives the correctly rounded result
+        double value = mantissa / POWERS_OF_TEN[decimals];
+        return negative ? -value : value;
+    }
+
+    /**
+     * Handles exponents and more digits than fit a double's mantissa
+     */
+    private double parseSlow(CharSequence text, int start, int end, double missing) {
+        fallback.setLength(0);
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            if (c != '$' && c != ',') {
+                fallback.append(c);
+            }
+        }
+        try {
+            return Double.parseDouble(fallback.toString());
+        } catch (NumberFormatException e) {
+            badValues++;
+            return missing;
+        }
+    }
+
+    /**
+     * Parses a whole number, e.g. "42" or "-7"
+     * @param text Field value, may be null
+     * @param missing Value returned for a missing or malformed field
+     * @return The parsed value
+     */
+    public int parseInt(CharSequence text, int missing) {
+        return text == null ? missing : parseInt(text, 0, text.length(), missing);
+    }
+
+    /**
+     * Parses a whole number from part of a character sequence
+     * @param text Characters to read
+     * @param start Index of the first character
+     * @param end Index after the last character
+     * @param missing Value returned for a missing or malformed field
+     * @return The parsed value
+     */
+    public int parseInt(CharSequence text, int start, int end, int missing) {
+        if (start == end) {
+            return missing;
+        }
+
+        int i = start;
+        boolean negative = text.charAt(i) == '-';
+        if (negative || text.charAt(i) == '+') {
+            i++;
+        }
+        if (i == end) {
+            badValues++;
+            return missing;
+        }
+
+        long value = 0;
+        for (; i < end; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                badValues++;
+                return missing;
+            }
+            value = value * 10 + (c - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                badValues++;
+                return missing;
+            }
+        }
+
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            badValues++;
+            return missing;
+        }
+        return (int) value;
+    }
+
+    /**
+     * Parses a yyyy/MM/dd date into days since 1970-01-01
+     * @param text Field value, may be null
+     * @return The epoch day, or NO_DATE for a missing or malformed date
+     */
+    public int parseEpochDay(CharSequence text) {
+        return text == null ? NO_DATE : parseEpochDay(text, 0, text.length());
+    }
+
+    /**
+     * Parses a yyyy/MM/dd date from part of a character sequence
+     * @param text Characters to read
+     * @param start Index of the first character
+     * @param end Index after the last character
+     * @return The epoch day, or NO_DATE for a missing or malformed date
+     */
+    public int parseEpochDay(CharSequence text, int start, int end) {
+        if (start == end) {
+            return NO_DATE;
+        }
+        if (end - start != 10 || text.charAt(start + 4) != '/' || text.charAt(start + 7) != '/') {
+            badValues++;
+            return NO_DATE;
+        }
+
+        int year = digits(text, start, 4);
+        int month = digits(text, start + 5, 2);
+        int day = digits(text, start + 8, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)) {
+            badValues++;
+            return NO_DATE;
+        }
+        return epochDay(year, month, day);
+    }
+
+    /**
+     * @return The number formed by count digits, or -1 if any of them is not a digit
+     */
+    private static int digits(CharSequence text, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        return switch (month) {
+            case 2 -> isLeapYear(year) ? 29 : 28;
+            case 4, 6, 9, 11 -> 30;
+            default -> 31;
+        };
+    }
+
+    /**
+     * Same result as LocalDate.of(year, month, day).toEpochDay() for years 0 to 9999
+     */
+    private static int epochDay(int year, int month, int day) {
+        // Leap days in the years before this one, counting year 0
+        int previous = year - 1;
+        int leapDays = year == 0 ? 0 : previous / 4 - previous / 100 + previous / 400 + 1;
+        int days = 365 * year + leapDays + DAYS_BEFORE_MONTH[month - 1] + day - 1;
+        if (month > 2 && isLeapYear(year)) {
+            days++;
+        }
+        return days - DAYS_0000_TO_1970;
+    }
+}
@@ -1,13 +1,17 @@
 package ca.macewan.thebatmap.utils.parsers;
 
+import ca.macewan.thebatmap.utils.general.FileUtils;
+
 import java.io.BufferedReader;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Utility class for parsing CSV files with support for various formats
@@ -18,71 +22,189 @@ public class ParseCSV {
     /**
      * Reads CSV data into a list of maps where keys are column names
      *
-     * @param filePath Path to the CSV file
+     * @param filePath Path to the CSV file, which may be gzip-compressed
      * @return List of maps, each representing a row with column name as key
      * @throws IOException If an I/O error occurs
      */
     public static List<Map<String, String>> readAsMaps(Path filePath) throws IOException {
         List<Map<String, String>> result = new ArrayList<>();
+        forEachRow(filePath, result::add);
+        return result;
+    }
+
+    /**
+     * Reads CSV data one row at a time, without holding the whole file in memory
+     *
+     * @param filePath Path to the CSV file, which may be gzip-compressed
+     * @param action Receives each row as a map with column name as key, in file order
+     * @throws IOException If an I/O error occurs
+     */
+    public static void forEachRow(Path filePath, Consumer<Map<String, String>> action) throws IOException {
+        forEachLine(filePath, row -> action.accept(row.toMap()));
+    }
 
-        try (BufferedReader reader = Files.newBufferedReader(filePath)) {
+    /**
+     * Reads CSV data one line at a time, splitting each line into fields in place
+     *
+     * @param filePath Path to the CSV file, which may be gzip-compressed
+     * @param action Receives each line in file order; the row is reused for the next line, so it must not be kept
+     * @throws IOException If an I/O error occurs
+     */
+    public static void forEachLine(Path filePath, Consumer<Row> action) throws IOException {
+        try (BufferedReader reader = FileUtils.newBufferedReader(filePath)) {
             // Read header line
             String headerLine = reader.readLine();
             if (headerLine == null) {
-                return result; // Empty file
+                return; // Empty file
             }
 
-            String[] headers = parseCSVLine(headerLine);
+            // Drop the byte order mark some exports start with
+            if (headerLine.startsWith("\uFEFF")) {
+                headerLine = headerLine.substring(1);
+            }
+            Row header = new Row(new String[0]);
+            header.split(headerLine);
+            String[] headers = new String[header.size];
+            for (int i = 0; i < headers.length; i++) {
+                headers[i] = header.field(i);
+            }
 
             // Process each data line
+            Row row = new Row(headers);
             String line;
             while ((line = reader.readLine()) != null) {
-                String[] values = parseCSVLine(line);
-                Map<String, String> row = new HashMap<>();
-
-                // Map each column to its header
-                for (int i = 0; i < Math.min(headers.length, values.length); i++) {
-                    row.put(headers[i], values[i]);
-                }
-
-                result.add(row);
+                row.split(line);
+                action.accept(row);
             }
         }
-
-        return result;
     }
 
     /**
-     * Parses a single CSV line, handling commas within quotes and parentheses
-     *
-     * @param line CSV line to parse
-     * @return Array of field values
+     * One line of a CSV file, split into fields without copying them. Each field is a range of the line,
+     * so numeric fields are parsed straight from the line and only text fields become strings.
+     * Fields are trimmed, and quotes are kept, as in the maps of {@link #forEachRow}.
      */
-    private static String[] parseCSVLine(String line) {
-        List<String> fields = new ArrayList<>();
-        StringBuilder currentField = new StringBuilder();
-        boolean insideQuotes = false;
-        boolean insideParens = false;
-
-        for (char c : line.toCharArray()) {
-            if (c == '"' && !insideParens) {
-                insideQuotes = !insideQuotes;
-                currentField.append(c);
-            } else if (c == '(' && !insideQuotes) {
-                insideParens = true;
-                currentField.append(c);
-            } else if (c == ')' && insideParens) {
-                insideParens = false;
-                currentField.append(c);
-            } else if (c == ',' && !insideQuotes && !insideParens) {
-                fields.add(currentField.toString().trim());
-                currentField = new StringBuilder();
-            } else {
-                currentField.append(c);
+    public static final class Row {
+        private final String[] headers;
+        private final Map<String, Integer> columns;
+        private String line;
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private int size;
+
+        private Row(String[] headers) {
+            this.headers = headers;
+            this.columns = new HashMap<>(headers.length * 4 / 3 + 1);
+            // A repeated header maps to its last column, as in the row maps
+            for (int i = 0; i < headers.length; i++) {
+                columns.put(headers[i], i);
+            }
+        }
+
+        /**
+         * Splits a line on commas outside quotes and parentheses
+         */
+        private void split(String line) {
+            this.line = line;
+            size = 0;
+            boolean insideQuotes = false;
+            boolean insideParens = false;
+            int start = 0;
+
+            for (int i = 0; i < line.length(); i++) {
+                char c = line.charAt(i);
+                if (c == '"' && !insideParens) {
+                    insideQuotes = !insideQuotes;
+                } else if (c == '(' && !insideQuotes) {
+                    insideParens = true;
+                } else if (c == ')' && insideParens) {
+                    insideParens = false;
+                } else if (c == ',' && !insideQuotes && !insideParens) {
+                    add(start, i);
+                    start = i + 1;
+                }
+            }
+            add(start, line.length());
+        }
+
+        private void add(int start, int end) {
+            // Same whitespace as String.trim
+            while (start < end && line.charAt(start) <= ' ') {
+                start++;
             }
+            while (end > start && line.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                ends = Arrays.copyOf(ends, size * 2);
+            }
+            starts[size] = start;
+            ends[size++] = end;
+        }
+
+        private String field(int i) {
+            return line.substring(starts[i], ends[i]);
+        }
+
+        /**
+         * @return Index of a column that this line has a value for, or -1
+         */
+        private int index(String header) {
+            Integer column = columns.get(header);
+            return column != null && column < size ? column : -1;
         }
 
-        fields.add(currentField.toString().trim());
-        return fields.toArray(new String[0]);
+        /**
+         * @param column Column index
+         * @return The field's text, or null if the line or the header has no such column
+         */
+        public String get(int column) {
+            return column >= 0 && column < Math.min(size, headers.length) ? field(column) : null;
+        }
+
+        /**
+         * @param header Column name
+         * @return The field's text, or null if the line has no such column
+         */
+        public String get(String header) {
+            int column = index(header);
+            return column < 0 ? null : field(column);
+        }
+
+        /**
+         * Parses a decimal field in place, see {@link FieldParser#parseDecimal(CharSequence, double)}
+         */
+        public double parseDecimal(String header, FieldParser parser, double missing) {
+            int column = index(header);
+            return column < 0 ? missing : parser.parseDecimal(line, starts[column], ends[column], missing);
+        }
+
+        /**
+         * Parses a whole number field in place, see {@link FieldParser#parseInt(CharSequence, int)}
+         */
+        public int parseInt(String header, FieldParser parser, int missing) {
+            int column = index(header);
+            return column < 0 ? missing : parser.parseInt(line, starts[column], ends[column], missing);
+        }
+
+        /**
+         * Parses a date field in place, see {@link FieldParser#parseEpochDay(CharSequence)}
+         */
+        public int parseEpochDay(String header, FieldParser parser) {
+            int column = index(header);
+            return column < 0 ? FieldParser.NO_DATE : parser.parseEpochDay(line, starts[column], ends[column]);
+        }
+
+        /**
+         * @return The fields keyed by column name, in the column order of the file
+         */
+        public Map<String, String> toMap() {
+            Map<String, String> row = new LinkedHashMap<>();
+            for (int i = 0; i < Math.min(headers.length, size); i++) {
+                row.put(headers[i], field(i));
+            }
+            return row;
+        }
     }
-}
\ No newline at end of file
+}
@@ -5,20 +5,17 @@ import ca.macewan.thebatmap.utils.models.CrimeData;
 
 import java.io.IOException;
 import java.nio.file.Path;
-import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Parser for crime statistics data
  */
 public class ParseCrime {
 
-    // Date formatter for the format used in the CSV file (yyyy/MM/dd)
-    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy/MM/dd");
+    // Counter of the malformed numbers and dates skipped, see MetricsRegistry
+    public static final String BAD_VALUES_COUNTER = "bad values/crime";
 
     /**
      * Parses crime statistics data from the default file location
@@ -38,68 +35,58 @@ public class ParseCrime {
      * @throws IOException If an I/O error occurs
      */
     public static List<CrimeData> parseCrimeData(Path filePath) throws IOException {
-        List<Map<String, String>> csvData = ParseCSV.readAsMaps(filePath);
         List<CrimeData> crimeDataList = new ArrayList<>();
+        FieldParser parser = new FieldParser();
+        ParseCSV.forEachLine(filePath, row -> crimeDataList.add(toCrime(row, parser)));
 
-        for (Map<String, String> row : csvData) {
-            CrimeData crime = new CrimeData();
-
-            List<Map.Entry<String,String>> rowList = row.entrySet().stream().toList();
-
-            // Map CSV fields to CrimeData object
-            crime.setOccurrenceCategory(rowList.getFirst().getValue());
-            crime.setOccurrenceGroup(row.get("Occurrence_Group"));
-            crime.setOccurrenceTypeGroup(row.get("Occurrence_Type_Group"));
-            crime.setIntersection(row.get("Intersection"));
-            crime.setObjectId(parseInt(row.get("OBJECTID")));
-            crime.setDateReported(parseDate(row.get("Date Reported")));
-            crime.setLocation(parseDouble(row.get("x")), parseDouble(row.get("y")));
-
-            crimeDataList.add(crime);
-        }
-
+        parser.reportBadValues(BAD_VALUES_COUNTER, filePath);
         return crimeDataList;
     }
 
     /**
-     * Safely parses a date string to LocalDate
+     * Parses crime statistics data in batches as the file is read, so callers can use the first rows
+     * before the whole file has been parsed
+     *
+     * @param filePath Path to the CSV file containing crime data
+     * @param batchSize Number of records per batch
+     * @param batches Receives each batch in file order; the last one may be smaller
+     * @throws IOException If an I/O error occurs
      */
-    private static LocalDate parseDate(String dateStr) {
-        if (dateStr == null || dateStr.isEmpty()) {
-            return null;
-        }
-        try {
-            return LocalDate.parse(dateStr, DATE_FORMATTER);
-        } catch (DateTimeParseException e) {
-            return null;
+    public static void parseCrimeData(Path filePath, int batchSize, Consumer<List<CrimeData>> batches)
+            throws IOException {
+        List<CrimeData> batch = new ArrayList<>(batchSize);
+        FieldParser parser = new FieldParser();
+        ParseCSV.forEachLine(filePath, row -> {
+            batch.add(toCrime(row, parser));
+            if (batch.size() == batchSize) {
+                batches.accept(List.copyOf(batch));
+                batch.clear();
+            }
+        });
+        if (!batch.isEmpty()) {
+            batches.accept(List.copyOf(batch));
         }
-    }
 
-    /**
-     * Safely parses a String to double
-     */
-    private static double parseDouble(String value) {
-        if (value == null || value.isEmpty()) {
-            return 0.0;
-        }
-        try {
-            return Double.parseDouble(value);
-        } catch (NumberFormatException e) {
-            return 0.0;
-        }
+        parser.reportBadValues(BAD_VALUES_COUNTER, filePath);
     }
 
-    /**
-     * Safely parses a String to int
-     */
-    private static int parseInt(String value) {
-        if (value == null || value.isEmpty()) {
-            return 0;
-        }
-        try {
-            return Integer.parseInt(value);
-        } catch (NumberFormatException e) {
-            return 0;
+    private static CrimeData toCrime(ParseCSV.Row row, FieldParser parser) {
+        CrimeData crime = new CrimeData();
+
+        // Map CSV fields to CrimeData object
+        // (the category is the first column, whose header name varies between exports)
+        String category = row.get("Occurrence_Category");
+        if (category == null) {
+            category = row.get(0);
         }
+        crime.setOccurrenceCategory(category);
+        crime.setOccurrenceGroup(row.get("Occurrence_Group"));
+        crime.setOccurrenceTypeGroup(row.get("Occurrence_Type_Group"));
+        crime.setIntersection(row.get("Intersection"));
+        // Numbers and dates are parsed from the line, without a String per field
+        crime.setObjectId(row.parseInt("OBJECTID", parser, 0));
+        crime.setEpochDayReported(row.parseEpochDay("Date Reported", parser));
+        crime.setLocation(row.parseDecimal("x", parser, 0.0), row.parseDecimal("y", parser, 0.0));
+        return crime;
     }
-}
\ No newline at end of file
+}
@@ -7,13 +7,16 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * Parser for property assessment data
  */
 public class ParseProperties {
 
+    // Counter of the malformed numbers skipped, see MetricsRegistry
+    public static final String BAD_VALUES_COUNTER = "bad values/property";
+
     /**
      * Parses property assessment data from the default file location
      *
@@ -32,58 +35,60 @@ public class ParseProperties {
      * @throws IOException If an I/O error occurs
      */
     public static List<PropertyData> parsePropertyData(Path filePath) throws IOException {
-        List<Map<String, String>> csvData = ParseCSV.readAsMaps(filePath);
         List<PropertyData> propertyDataList = new ArrayList<>();
+        FieldParser parser = new FieldParser();
+        ParseCSV.forEachLine(filePath, row -> propertyDataList.add(toProperty(row, parser)));
 
-        for (Map<String, String> row : csvData) {
-            PropertyData property = new PropertyData();
-
-            // Map CSV fields to PropertyData object based on the actual CSV structure
-            property.setAccountNumber(row.get("Account Number"));
-            property.setAddress(row.get("House Number"), row.get("Street Name"));
-            property.setNeighbourhood(row.get("Neighbourhood"), row.get("Ward"));
-            property.setLocation(parseDouble(row.get("Latitude")), parseDouble(row.get("Longitude")));
-            property.setAssessment(
-                    parseDouble(row.get("Assessed Value")),
-                    parseInt(row.get("Assessment Class % 1")),
-                    parseInt(row.get("Assessment Class % 2")),
-                    parseInt(row.get("Assessment Class % 3")),
-                    row.get("Assessment Class 1"),
-                    row.get("Assessment Class 2"),
-                    row.get("Assessment Class 3")
-            );
-
-            propertyDataList.add(property);
-        }
-
+        parser.reportBadValues(BAD_VALUES_COUNTER, filePath);
         return propertyDataList;
     }
 
     /**
-     * Safely parses a String to double
+     * Parses property assessment data in batches as the file is read, so callers can use the first rows
+     * before the whole file has been parsed
+     *
+     * @param filePath Path to the CSV file containing property data
+     * @param batchSize Number of records per batch
+     * @param batches Receives each batch in file order; the last one may be smaller
+     * @throws IOException If an I/O error occurs
      */
-    private static double parseDouble(String value) {
-        if (value == null || value.isEmpty()) {
-            return 0.0;
-        }
-        try {
-            return Double.parseDouble(value.replace("$", "").replace(",", ""));
-        } catch (NumberFormatException e) {
-            return 0.0;
+    public static void parsePropertyData(Path filePath, int batchSize, Consumer<List<PropertyData>> batches)
+            throws IOException {
+        List<PropertyData> batch = new ArrayList<>(batchSize);
+        FieldParser parser = new FieldParser();
+        ParseCSV.forEachLine(filePath, row -> {
+            batch.add(toProperty(row, parser));
+            if (batch.size() == batchSize) {
+                batches.accept(List.copyOf(batch));
+                batch.clear();
+            }
+        });
+        if (!batch.isEmpty()) {
+            batches.accept(List.copyOf(batch));
         }
+
+        parser.reportBadValues(BAD_VALUES_COUNTER, filePath);
     }
 
-    /**
-     * Safely parses a String to int
-     */
-    private static int parseInt(String value) {
-        if (value == null || value.isEmpty()) {
-            return 0;
-        }
-        try {
-            return Integer.parseInt(value);
-        } catch (NumberFormatException e) {
-            return 0;
-        }
+    private static PropertyData toProperty(ParseCSV.Row row, FieldParser parser) {
+        PropertyData property = new PropertyData();
+
+        // Map CSV fields to PropertyData object based on the actual CSV structure
+        // (numbers are parsed from the line, without a String per field)
+        property.setAccountNumber(row.get("Account Number"));
+        property.setAddress(row.get("House Number"), row.get("Street Name"));
+        property.setNeighbourhood(row.get("Neighbourhood"), row.get("Ward"));
+        property.setLocation(row.parseDecimal("Latitude", parser, 0.0),
+                row.parseDecimal("Longitude", parser, 0.0));
+        property.setAssessment(
+                row.parseDecimal("Assessed Value", parser, 0.0),
+                row.parseInt("Assessment Class % 1", parser, 0),
+                row.parseInt("Assessment Class % 2", parser, 0),
+                row.parseInt("Assessment Class % 3", parser, 0),
+                row.get("Assessment Class 1"),
+                row.get("Assessment Class 2"),
+                row.get("Assessment Class 3")
+        );
+        return property;
     }
-}
\ No newline at end of file
+}
@@ -5,6 +5,11 @@ module ca.macewan.thebatmap {
     requires org.controlsfx.controls;
     requires com.dlsc.formsfx;
     requires java.desktop;
+    requires jdk.jfr;
+    requires java.management;
+    requires java.net.http;
+    requires jdk.httpserver;
+    requires static jdk.incubator.vector;
 
     opens ca.macewan.thebatmap to javafx.fxml;
     exports ca.macewan.thebatmap.app;
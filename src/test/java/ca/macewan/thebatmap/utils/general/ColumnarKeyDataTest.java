@@ -0,0 +1,100 @@
+package ca.macewan.thebatmap.utils.general;
+
+import ca.macewan.thebatmap.utils.models.CrimeData;
+import ca.macewan.thebatmap.utils.models.PropertyData;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ColumnarKeyDataTest {
+    private static final GridSpec GRID = GridSpec.EDMONTON;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void crimesRoundTrip() throws IOException {
+        List<CrimeData> crimes = List.of(
+                crime("Violent", "Assault", "101 Street & Jasper Avenue", LocalDate.of(2023, 5, 14), -12_668_000, 7_105_000),
+                crime("Property", "Theft", null, null, -12_660_000, 7_110_000),
+                crime("Violent", "Robbery", "Whyte Avenue", LocalDate.of(2019, 1, 1), -12_650_000, 7_100_000));
+        // The middle crime has no cell and is left out
+        int[] cells = {42, -1, 7};
+        Path path = directory.resolve("crime.btcl");
+        ColumnarKeyData.writeCrimes(crimes, cells, GRID, path);
+
+        try (ColumnarKeyData data = ColumnarKeyData.open(path)) {
+            assertEquals(ColumnarKeyData.Kind.CRIME, data.getKind());
+            assertEquals(2, data.getRowCount());
+            assertTrue(data.matchesGrid(GRID));
+            assertFalse(data.matchesGrid(new GridSpec(53.6, -113.7, 53.4, -113.3, 100, 100,
+                    WebMercatorProjection.INSTANCE)));
+
+            assertArrayEquals(new String[] {"Violent", "Violent"}, data.getStrings(ColumnarKeyData.CATEGORY));
+            assertArrayEquals(new String[] {"Assault", "Robbery"}, data.getStrings(ColumnarKeyData.GROUP));
+            assertArrayEquals(new String[] {"101 Street & Jasper Avenue", "Whyte Avenue"},
+                    data.getStrings(ColumnarKeyData.INTERSECTION));
+            assertArrayEquals(new int[] {crimes.get(0).getEpochDayReported(), crimes.get(2).getEpochDayReported()},
+                    data.getInts(ColumnarKeyData.DATE));
+            assertArrayEquals(new int[] {42, 7}, data.getInts(ColumnarKeyData.CELL));
+            assertArrayEquals(new double[] {crimes.get(0).getLocation().getLatitude(),
+                    crimes.get(2).getLocation().getLatitude()}, data.getCoordinates(ColumnarKeyData.LATITUDE), 1e-6);
+            assertArrayEquals(new double[] {crimes.get(0).getLocation().getLongitude(),
+                    crimes.get(2).getLocation().getLongitude()}, data.getCoordinates(ColumnarKeyData.LONGITUDE), 1e-6);
+        }
+    }
+
+    @Test
+    void propertiesRoundTrip() throws IOException {
+        List<PropertyData> properties = List.of(
+                property(412_500.5, "OLIVER", "O-day'min Ward", "12", "Jasper Avenue NW", 53.541, -113.52),
+                property(98_000, "DOWNTOWN", null, null, null, 53.545, -113.49));
+        Path path = directory.resolve("property.btcl");
+        ColumnarKeyData.writeProperties(properties, new int[] {3, 900}, GRID, path);
+
+        try (ColumnarKeyData data = ColumnarKeyData.open(path)) {
+            assertEquals(ColumnarKeyData.Kind.PROPERTY, data.getKind());
+            assertEquals(2, data.getRowCount());
+            assertArrayEquals(new double[] {412_500.5, 98_000}, data.getDoubles(ColumnarKeyData.VALUE));
+            assertArrayEquals(new String[] {"OLIVER", "DOWNTOWN"}, data.getStrings(ColumnarKeyData.NEIGHBOURHOOD));
+            assertArrayEquals(new String[] {"O-day'min Ward", null}, data.getStrings(ColumnarKeyData.WARD));
+            assertArrayEquals(new String[] {"RESIDENTIAL", "RESIDENTIAL"},
+                    data.getStrings(ColumnarKeyData.ASSESSMENT_CLASS));
+            assertArrayEquals(new String[] {"COMMERCIAL", null}, data.getStrings(ColumnarKeyData.ASSESSMENT_CLASS_2));
+            assertArrayEquals(new int[] {80, 100}, data.getInts(ColumnarKeyData.ASSESSMENT_PERCENT));
+            assertArrayEquals(new String[] {"12 Jasper Avenue NW", ""}, data.getStrings(ColumnarKeyData.ADDRESS));
+            assertArrayEquals(new double[] {53.541, 53.545}, data.getCoordinates(ColumnarKeyData.LATITUDE), 1e-6);
+            assertArrayEquals(new int[] {3, 900}, data.getInts(ColumnarKeyData.CELL));
+        }
+    }
+
+    private static CrimeData crime(String category, String group, String intersection, LocalDate date,
+                                   double x, double y) {
+        CrimeData crime = new CrimeData();
+        crime.setOccurrenceCategory(category);
+        crime.setOccurrenceGroup(group);
+        crime.setOccurrenceTypeGroup(group);
+        crime.setIntersection(intersection);
+        crime.setDateReported(date);
+        crime.setLocation(x, y);
+        return crime;
+    }
+
+    private static PropertyData property(double value, String neighbourhood, String ward, String houseNumber,
+                                         String street, double latitude, double longitude) {
+        PropertyData property = new PropertyData();
+        property.setNeighbourhood(neighbourhood, ward);
+        property.setAddress(houseNumber, street);
+        property.setLocation(latitude, longitude);
+        boolean mixed = ward != null;
+        property.setAssessment(value, mixed ? 80 : 100, mixed ? 20 : 0, 0,
+                "RESIDENTIAL", mixed ? "COMMERCIAL" : null, null);
+        return property;
+    }
+}
@@ -0,0 +1,61 @@
+package ca.macewan.thebatmap.utils.general;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CsvWriterTest {
+
+    @Test
+    void roundsHalfUp() throws IOException {
+        assertEquals("3", decimal(2.5, 0));
+        assertEquals("0.13", decimal(0.125, 2));
+        assertEquals("1234.57", decimal(1234.5678, 2));
+        assertEquals("-1.3", decimal(-1.25, 1));
+        assertEquals("10.000", decimal(9.9995, 3));
+    }
+
+    @Test
+    void padsDecimals() throws IOException {
+        assertEquals("7.000001", decimal(7.000001, 6));
+        assertEquals("0.05", decimal(0.05, 2));
+        assertEquals("-0.50", decimal(-0.5, 2));
+        assertEquals("12", decimal(12, 0));
+    }
+
+    @Test
+    void dropsTheSignOfValuesRoundedToZero() throws IOException {
+        assertEquals("0.00", decimal(-0.004, 2));
+        assertEquals("0", decimal(-0.0, 0));
+    }
+
+    @Test
+    void formatsLargeAndNonFiniteValues() throws IOException {
+        assertEquals("100000000000000000000.00", decimal(1e20, 2));
+        assertEquals("NaN", decimal(Double.NaN, 2));
+        assertEquals("-Infinity", decimal(Double.NEGATIVE_INFINITY, 2));
+    }
+
+    @Test
+    void writesRows() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (CsvWriter writer = new CsvWriter(Channels.newChannel(out), 16)) {
+            writer.field("a").field(-42).emptyField().escapedField("say \"hi\", then").endRow();
+            writer.field((String) null).field(1.5, 1).endRow();
+        }
+        assertEquals("a,-42,,\"say \"\"hi\"\", then\"\n,1.5\n", out.toString(StandardCharsets.UTF_8));
+    }
+
+    private static String decimal(double value, int decimals) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (CsvWriter writer = new CsvWriter(Channels.newChannel(out), 64)) {
+            writer.field(value, decimals);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+}
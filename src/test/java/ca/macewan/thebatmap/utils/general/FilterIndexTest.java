@@ -0,0 +1,64 @@
+package ca.macewan.thebatmap.utils.general;
+
+import ca.macewan.thebatmap.utils.models.CrimeData;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FilterIndexTest {
+    private static final int MAY = (int) LocalDate.of(2023, 5, 14).toEpochDay();
+    private static final int JUNE = (int) LocalDate.of(2023, 6, 2).toEpochDay();
+
+    private final FilterIndex index = crimes();
+
+    private static FilterIndex crimes() {
+        FilterIndex.Builder builder = new FilterIndex.Builder(6);
+        builder.addCrime(5, "Violent", "Assault", "Assault", "Violent", MAY);
+        builder.addCrime(3, "Property", "Theft", "Theft", "Property", MAY);
+        builder.addCrime(5, "Property", "Break and Enter", "Break", "Property", JUNE);
+        builder.addCrime(9, "Violent", "Robbery", "Robbery", "Violent", JUNE);
+        builder.addCrime(3, "Disorder", "Mischief", "Mischief", "Disorder", CrimeData.NO_DATE);
+        builder.addCrime(5, "Violent", "Assault", "Assault", "Violent", JUNE);
+        return builder.build();
+    }
+
+    @Test
+    void selectsAnyValueOfOneDimension() {
+        RecordBitmap records = index.select(Map.of(FilterIndex.Dimension.CATEGORY, List.of("Violent", "Disorder")));
+        assertEquals(4, records.getCardinality());
+        assertEquals(Map.of(3, 1.0, 5, 2.0, 9, 1.0), index.aggregate(records).toCountMap());
+    }
+
+    @Test
+    void intersectsDimensions() {
+        RecordBitmap records = index.select(Map.of(
+                FilterIndex.Dimension.CATEGORY, List.of("Violent", "Property"),
+                FilterIndex.Dimension.MONTH, List.of("2023-06")));
+        assertEquals(Map.of(5, 2.0, 9, 1.0), index.aggregate(records).toCountMap());
+    }
+
+    @Test
+    void emptyOrMissingDimensionsSelectEverything() {
+        assertEquals(6, index.select(Map.of()).getCardinality());
+        assertEquals(6, index.select(Map.of(FilterIndex.Dimension.GROUP, List.of())).getCardinality());
+    }
+
+    @Test
+    void unknownValuesSelectNothing() {
+        assertTrue(index.select(Map.of(FilterIndex.Dimension.CATEGORY, List.of("Unknown"))).isEmpty());
+        assertTrue(index.select(Map.of(
+                FilterIndex.Dimension.CATEGORY, List.of("Violent"),
+                FilterIndex.Dimension.GROUP, List.of("Theft"))).isEmpty());
+    }
+
+    @Test
+    void aggregatesCellsInAscendingOrder() {
+        FilterIndex.Aggregate aggregate = index.aggregate(index.getAll());
+        assertArrayEquals(new int[] {3, 5, 9}, aggregate.cells());
+        assertArrayEquals(new double[] {2, 3, 1}, aggregate.weights());
+    }
+}
@@ -0,0 +1,59 @@
+package ca.macewan.thebatmap.utils.general;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HexGridTest {
+    private static final int WIDTH = 181;
+    private static final int HEIGHT = 97;
+
+    /**
+     * Filling every hexagon must cover each pixel exactly once, with the hexagon hexOf puts the pixel in
+     */
+    @Test
+    void fillAgreesWithHexOf() {
+        for (int size : new int[] {1, 2, 5, 8, 13}) {
+            HexGrid grid = new HexGrid(WIDTH, HEIGHT, size);
+            int[] raster = new int[WIDTH * HEIGHT];
+            int[] coverage = new int[WIDTH * HEIGHT];
+            for (int hex = 0; hex < grid.getHexCount(); hex++) {
+                grid.fill(raster, hex, hex + 1);
+                // Each hexagon writes its own id, so the pixels it covered are the ones now holding that id
+                int minX = Math.max(0, (int) (grid.centerX(hex) - size - 1));
+                int maxX = Math.min(WIDTH - 1, (int) (grid.centerX(hex) + size + 1));
+                int minY = Math.max(0, (int) (grid.centerY(hex) - size - 1));
+                int maxY = Math.min(HEIGHT - 1, (int) (grid.centerY(hex) + size + 1));
+                for (int y = minY; y <= maxY; y++) {
+                    for (int x = minX; x <= maxX; x++) {
+                        if (raster[y * WIDTH + x] == hex + 1) {
+                            coverage[y * WIDTH + x]++;
+                        }
+                    }
+                }
+            }
+
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    String pixel = "size " + size + ", pixel " + x + "," + y;
+                    assertEquals(1, coverage[y * WIDTH + x], pixel);
+                    assertEquals(grid.hexOf(x, y) + 1, raster[y * WIDTH + x], pixel);
+                }
+            }
+        }
+    }
+
+    @Test
+    void aggregateSumsOrAveragesCellsPerHexagon() {
+        HexGrid grid = new HexGrid(WIDTH, HEIGHT, 8);
+        int first = 10 * WIDTH + 10;
+        int neighbour = 10 * WIDTH + 11;
+        int far = 80 * WIDTH + 150;
+        LayerCache.Layer layer = new LayerCache.Layer(new int[] {first, neighbour, far}, new double[] {2, 4, 7}, 0);
+
+        LayerCache.Layer sums = grid.aggregate(layer, false);
+        assertArrayEquals(new int[] {grid.hexOf(10, 10), grid.hexOf(150, 80)}, sums.cells());
+        assertArrayEquals(new double[] {6, 7}, sums.values());
+        assertArrayEquals(new double[] {3, 7}, grid.aggregate(layer, true).values());
+    }
+}
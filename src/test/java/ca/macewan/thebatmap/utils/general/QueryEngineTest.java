@@ -0,0 +1,118 @@
+package ca.macewan.thebatmap.utils.general;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the same queries through each plan; the cube, the bitmap index and a scan must agree
+ */
+class QueryEngineTest {
+    // Covers every record, so adding it to a query only forces a scan
+    private static final double[] EVERYWHERE = {-90, -180, 90, 180};
+
+    @TempDir
+    static Path directory;
+
+    private static CalculatePixelValue data;
+    private static String category;
+    private static String neighbourhood;
+    private final QueryEngine engine = new QueryEngine();
+
+    @BeforeAll
+    static void loadData() throws IOException {
+        SyntheticDataGenerator generator = new SyntheticDataGenerator(11);
+        generator.writeCrimes(directory.resolve("crime_stats.csv"), 20_000);
+        generator.writeProperties(directory.resolve("property_data.csv"), 10_000);
+        data = new CalculatePixelValue();
+        data.loadCrimeData(directory.resolve("crime_stats.csv"));
+        data.loadPropertyData(directory.resolve("property_data.csv"));
+        category = data.getCrimeCategories().iterator().next();
+        neighbourhood = data.getPropertyIndex().getValues(FilterIndex.Dimension.NEIGHBOURHOOD).getFirst();
+    }
+
+    @AfterAll
+    static void closeData() {
+        data.close();
+    }
+
+    @Test
+    void crimeCountsAgreeAcrossPlans() {
+        Query.Builder cube = Query.crimes().where(FilterIndex.Dimension.CATEGORY, category)
+                .groupBy(Query.GroupBy.CELL);
+        // A second, unknown value can't come from the cube but selects the same records
+        Query.Builder index = Query.crimes().where(FilterIndex.Dimension.CATEGORY, category, "No such category")
+                .groupBy(Query.GroupBy.CELL);
+        Query.Builder scan = Query.crimes().where(FilterIndex.Dimension.CATEGORY, category)
+                .within(EVERYWHERE[0], EVERYWHERE[1], EVERYWHERE[2], EVERYWHERE[3]).groupBy(Query.GroupBy.CELL);
+
+        QueryResult expected = execute(cube, QueryResult.Plan.CUBE);
+        assertTrue(expected.size() > 0);
+        assertSameCells(expected, execute(index, QueryResult.Plan.INDEX), 0);
+        assertSameCells(expected, execute(scan, QueryResult.Plan.SCAN), 0);
+    }
+
+    @Test
+    void crimeTotalsAgreeAcrossPlans() {
+        LocalDate from = LocalDate.of(2023, 1, 1);
+        LocalDate to = LocalDate.of(2023, 12, 31);
+        double cube = single(execute(Query.crimes().from(from).to(to), QueryResult.Plan.CUBE));
+        double index = single(execute(Query.crimes().from(from).to(to)
+                .where(FilterIndex.Dimension.MONTH, "2023-01", "2023-02", "2023-03", "2023-04", "2023-05", "2023-06",
+                        "2023-07", "2023-08", "2023-09", "2023-10", "2023-11", "2023-12"), QueryResult.Plan.INDEX));
+        double scan = single(execute(Query.crimes().from(from).to(to)
+                .within(EVERYWHERE[0], EVERYWHERE[1], EVERYWHERE[2], EVERYWHERE[3]), QueryResult.Plan.SCAN));
+        assertEquals(cube, index);
+        assertEquals(cube, scan);
+    }
+
+    @Test
+    void propertyMeansAgreeAcrossPlans() {
+        QueryResult cube = execute(Query.properties().where(FilterIndex.Dimension.NEIGHBOURHOOD, neighbourhood)
+                .groupBy(Query.GroupBy.CELL).mean(), QueryResult.Plan.CUBE);
+        QueryResult index = execute(Query.properties()
+                .where(FilterIndex.Dimension.NEIGHBOURHOOD, neighbourhood, "No such neighbourhood")
+                .groupBy(Query.GroupBy.CELL).mean(), QueryResult.Plan.INDEX);
+        QueryResult scan = execute(Query.properties().where(FilterIndex.Dimension.NEIGHBOURHOOD, neighbourhood)
+                .within(EVERYWHERE[0], EVERYWHERE[1], EVERYWHERE[2], EVERYWHERE[3])
+                .groupBy(Query.GroupBy.CELL).mean(), QueryResult.Plan.SCAN);
+
+        assertTrue(cube.size() > 0);
+        // The plans add class shares in different orders
+        assertSameCells(cube, index, 1e-6);
+        assertSameCells(cube, scan, 1e-6);
+    }
+
+    @Test
+    void cellResultsReadAsRows() {
+        QueryResult result = execute(Query.crimes().groupBy(Query.GroupBy.CELL), QueryResult.Plan.CUBE);
+        QueryResult.Row row = result.rows().get(result.size() - 1);
+        assertEquals(result.cells()[result.size() - 1], row.cell());
+        assertEquals(String.valueOf(row.cell()), row.key());
+        assertEquals(result.values()[result.size() - 1], row.value());
+        assertEquals(result.size(), result.toCellMap().size());
+    }
+
+    private QueryResult execute(Query.Builder query, QueryResult.Plan plan) {
+        QueryResult result = engine.execute(data, query.build());
+        assertEquals(plan, result.plan(), result.query().toString());
+        return result;
+    }
+
+    private static double single(QueryResult result) {
+        assertEquals(1, result.size());
+        return result.rows().getFirst().value();
+    }
+
+    private static void assertSameCells(QueryResult expected, QueryResult actual, double delta) {
+        assertArrayEquals(expected.cells(), actual.cells(), actual.plan().toString());
+        assertArrayEquals(expected.values(), actual.values(), delta, actual.plan().toString());
+    }
+}
@@ -0,0 +1,45 @@
+package ca.macewan.thebatmap.utils.general;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryTest {
+
+    @Test
+    void parsesItsOwnText() {
+        List<Query> queries = List.of(
+                Query.crimes().build(),
+                Query.crimes().where(FilterIndex.Dimension.GROUP, "Assault", "Break and Enter")
+                        .where(FilterIndex.Dimension.CATEGORY, "Violent")
+                        .from(LocalDate.of(2023, 1, 1)).to(LocalDate.of(2023, 6, 30))
+                        .groupBy(Query.GroupBy.MONTH).build(),
+                Query.crimes().within(53.5, -113.6, 53.6, -113.4).groupBy(Query.GroupBy.CELL).build(),
+                Query.properties().where(FilterIndex.Dimension.NEIGHBOURHOOD, "Say \"when\", then = stop")
+                        .groupBy(Query.GroupBy.WARD).mean().build(),
+                Query.properties().where(FilterIndex.Dimension.ASSESSMENT_CLASS, "RESIDENTIAL")
+                        .groupBy(Query.GroupBy.CELL).quantile(0.9).build());
+
+        for (Query query : queries) {
+            assertEquals(query, Query.parse(query.toString()), query.toString());
+        }
+    }
+
+    @Test
+    void parsesHandWrittenText() {
+        Query expected = Query.crimes().where(FilterIndex.Dimension.GROUP, "Property", "Theft From Vehicle")
+                .groupBy(Query.GroupBy.CELL).count().build();
+        assertEquals(expected, Query.parse("crime where group=Property,\"Theft From Vehicle\" by cell count"));
+    }
+
+    @Test
+    void rejectsInvalidText() {
+        assertThrows(IllegalArgumentException.class, () -> Query.parse(""));
+        assertThrows(IllegalArgumentException.class, () -> Query.parse("parking by cell count"));
+        assertThrows(IllegalArgumentException.class, () -> Query.parse("crime where ward=1 count"));
+        assertThrows(IllegalArgumentException.class, () -> Query.parse("crime by cell mean"));
+    }
+}
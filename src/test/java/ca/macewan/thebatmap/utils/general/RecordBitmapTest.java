@@ -0,0 +1,80 @@
+package ca.macewan.thebatmap.utils.general;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RecordBitmapTest {
+    // Spans three chunks: a sparse one, a dense one (stored as a bit set) and another sparse one
+    private static final int MAX_ID = 3 * 65_536;
+
+    @Test
+    void andAndOrMatchBitSets() {
+        SplittableRandom random = new SplittableRandom(7);
+        BitSet sparse = randomIds(random, 0.01);
+        BitSet dense = randomIds(random, 0.6);
+        BitSet mixed = randomIds(random, 0.05);
+        mixed.set(65_536, 2 * 65_536);
+
+        for (BitSet left : List.of(sparse, dense, mixed)) {
+            for (BitSet right : List.of(sparse, dense, mixed)) {
+                BitSet and = (BitSet) left.clone();
+                and.and(right);
+                BitSet or = (BitSet) left.clone();
+                or.or(right);
+
+                assertEquals(and, toBitSet(of(left).and(of(right))));
+                assertEquals(or, toBitSet(of(left).or(of(right))));
+                assertEquals(and.cardinality(), of(left).andCardinality(of(right)));
+            }
+        }
+        BitSet all = (BitSet) sparse.clone();
+        all.or(dense);
+        all.or(mixed);
+        assertEquals(all, toBitSet(RecordBitmap.or(List.of(of(sparse), of(dense), of(mixed)))));
+    }
+
+    @Test
+    void emptyBitmapIsNeutral() {
+        RecordBitmap range = RecordBitmap.range(70_000);
+        assertEquals(70_000, range.getCardinality());
+        assertTrue(range.and(RecordBitmap.EMPTY).isEmpty());
+        assertEquals(toBitSet(range), toBitSet(range.or(RecordBitmap.EMPTY)));
+        assertTrue(range.contains(69_999));
+        assertFalse(range.contains(70_000));
+    }
+
+    @Test
+    void builderRejectsUnsortedIds() {
+        RecordBitmap.Builder builder = new RecordBitmap.Builder();
+        builder.add(5);
+        assertThrows(IllegalArgumentException.class, () -> builder.add(5));
+    }
+
+    private static BitSet randomIds(SplittableRandom random, double density) {
+        BitSet ids = new BitSet(MAX_ID);
+        for (int id = 0; id < MAX_ID; id++) {
+            if (random.nextDouble() < density) {
+                ids.set(id);
+            }
+        }
+        return ids;
+    }
+
+    private static RecordBitmap of(BitSet ids) {
+        RecordBitmap.Builder builder = new RecordBitmap.Builder();
+        ids.stream().forEach(builder::add);
+        return builder.build();
+    }
+
+    private static BitSet toBitSet(RecordBitmap bitmap) {
+        BitSet ids = new BitSet();
+        bitmap.forEach(ids::set);
+        assertEquals(bitmap.getCardinality(), ids.cardinality());
+        return ids;
+    }
+}
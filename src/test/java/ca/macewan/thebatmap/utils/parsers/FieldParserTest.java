@@ -0,0 +1,53 @@
+package ca.macewan.thebatmap.utils.parsers;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FieldParserTest {
+    private final FieldParser parser = new FieldParser();
+
+    @Test
+    void parsesDecimals() {
+        assertEquals(1234500.5, parser.parseDecimal("$1,234,500.50", -1));
+        assertEquals(-113.4938, parser.parseDecimal("-113.4938", -1));
+        assertEquals(42, parser.parseDecimal("\" 42 \"", -1));
+        assertEquals(1.5e-7, parser.parseDecimal("1.5e-7", -1));
+        assertEquals(0.1234567890123456789, parser.parseDecimal("0.1234567890123456789", -1));
+        assertEquals(0, parser.getBadValueCount());
+    }
+
+    @Test
+    void parsesIntsAndDates() {
+        assertEquals(-7, parser.parseInt("-7", 0));
+        assertEquals(Integer.MIN_VALUE, parser.parseInt("-2147483648", 0));
+        assertEquals(LocalDate.of(2024, 2, 29).toEpochDay(), parser.parseEpochDay("2024/02/29"));
+        assertEquals(0, parser.getBadValueCount());
+    }
+
+    @Test
+    void missingValuesAreNotCounted() {
+        assertEquals(-1, parser.parseDecimal(null, -1));
+        assertEquals(-1, parser.parseDecimal("\"\"", -1));
+        assertEquals(-1, parser.parseInt("", -1));
+        assertEquals(FieldParser.NO_DATE, parser.parseEpochDay(""));
+        assertEquals(0, parser.getBadValueCount());
+    }
+
+    @Test
+    void countsMalformedValues() {
+        assertEquals(-1, parser.parseDecimal("12a", -1));
+        assertEquals(-1, parser.parseDecimal("$", -1));
+        assertEquals(-1, parser.parseDecimal("1.2.3", -1));
+        assertEquals(-1, parser.parseDecimal("1e", -1));
+        assertEquals(0, parser.parseInt("4.5", 0));
+        assertEquals(0, parser.parseInt("-", 0));
+        assertEquals(0, parser.parseInt("2147483648", 0));
+        assertEquals(FieldParser.NO_DATE, parser.parseEpochDay("2023-05-01"));
+        assertEquals(FieldParser.NO_DATE, parser.parseEpochDay("2023/02/29"));
+        assertEquals(FieldParser.NO_DATE, parser.parseEpochDay("2023/13/01"));
+        assertEquals(10, parser.getBadValueCount());
+    }
+}